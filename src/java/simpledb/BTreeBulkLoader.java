@@ -0,0 +1,620 @@
+package simpledb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * BTreeBulkLoader builds a BTreeFile from the tuples of a HeapFile with an
+ * external merge sort, so the source may be much larger than memory.
+ * <p>
+ * The build runs in three steps:
+ * <ol>
+ * <li>The source is scanned once and cut into runs of
+ * {@link #DEFAULT_RUN_TUPLES} tuples, which are sorted on the key field and
+ * written to temporary files on several threads.</li>
+ * <li>The runs are merged, at most {@link #MERGE_FAN_IN} at a time.</li>
+ * <li>The tree is built bottom-up from the merged stream. Since the number
+ * of tuples is known by then, the size of every page is fixed up front, and
+ * every page is written once, with its parent and sibling pointers, in
+ * large sequential writes. The leaves are laid out in key order at the start
+ * of the file, followed by each level of internal pages.</li>
+ * </ol>
+ * Pages are filled to the fill factor, except that the last two pages of a
+ * level share their tuples or entries so that neither is less than half
+ * full. Memory use is bounded by the run size and the number of threads.
+ *
+ * @see BTreeFileEncoder
+ */
+public class BTreeBulkLoader {
+
+    /**
+     * Default number of tuples sorted in memory as one run.
+     */
+    public static final int DEFAULT_RUN_TUPLES = 50000;
+
+    /**
+     * Largest number of runs merged at once.
+     */
+    public static final int MERGE_FAN_IN = 64;
+
+    /**
+     * Number of pages written with a single write.
+     */
+    public static final int WRITE_PAGES = 64;
+
+    /**
+     * Offset of the high key on an internal page, after the parent pointer,
+     * right link and child page category.
+     */
+    private static final int HIGH_KEY_OFFSET = 2 * BTreePage.INDEX_SIZE + 1;
+
+    private final int keyField;
+    private final int keyLength;
+    private double fillFactor = 1.0;
+    private int runTuples = DEFAULT_RUN_TUPLES;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Creates a loader for B+ trees keyed on the given field.
+     *
+     * @param keyField the index of the key field
+     */
+    public BTreeBulkLoader(int keyField) {
+        this(keyField, 1);
+    }
+
+    /**
+     * Creates a loader for B+ trees keyed on several consecutive fields.
+     *
+     * @param keyField  the index of the first key field
+     * @param keyLength the number of key fields
+     * @see BTreeFile#BTreeFile(File, int, int, TupleDesc)
+     */
+    public BTreeBulkLoader(int keyField, int keyLength) {
+        this.keyField = keyField;
+        this.keyLength = keyLength;
+    }
+
+    /**
+     * Sets the fraction of each page's slots that the build fills, leaving
+     * the rest for later inserts. Pages are always at least half full.
+     *
+     * @param fillFactor a fraction in (0, 1]
+     */
+    public void setFillFactor(double fillFactor) {
+        if (fillFactor <= 0 || fillFactor > 1)
+            throw new IllegalArgumentException("fill factor must be in (0, 1]");
+        this.fillFactor = fillFactor;
+    }
+
+    /**
+     * Sets the number of tuples sorted in memory as one run.
+     */
+    public void setRunTuples(int runTuples) {
+        if (runTuples < 1)
+            throw new IllegalArgumentException("runs must hold at least one tuple");
+        this.runTuples = runTuples;
+    }
+
+    /**
+     * Sets the number of threads that sort and merge runs.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("need at least one thread");
+        this.threads = threads;
+    }
+
+    /**
+     * Builds a B+ tree holding the tuples of source in the given file,
+     * replacing its previous contents. The source is read through the
+     * BufferPool; the tree is written directly to bFile. The returned
+     * BTreeFile is not added to the Catalog.
+     *
+     * @param source the HeapFile to index; it must be in the Catalog
+     * @param bFile  the file to write the B+ tree to
+     * @return the BTreeFile backed by bFile
+     */
+    public BTreeFile build(HeapFile source, File bFile)
+            throws IOException, DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        try {
+            return build(source.iterator(tid), source.getTupleDesc(), bFile);
+        } finally {
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /**
+     * Builds a B+ tree holding the tuples of an iterator in the given file,
+     * replacing its previous contents. The iterator is opened, read once and
+     * closed; the caller completes the transaction it reads under. The
+     * returned BTreeFile is not added to the Catalog.
+     *
+     * @param source the tuples to index, not opened yet
+     * @param td     the schema of the tuples
+     * @param bFile  the file to write the B+ tree to
+     * @return the BTreeFile backed by bFile
+     */
+    public BTreeFile build(DbFileIterator source, TupleDesc td, File bFile)
+            throws IOException, DbException, TransactionAbortedException {
+        BTreeFile bf = new BTreeFile(bFile, keyField, keyLength, td);
+        ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "simpledb-btree-loader-" + count++);
+                t.setDaemon(true);
+                return t;
+            }
+        }) : null;
+        List<File> runs = new ArrayList<>();
+        try {
+            long count = writeRuns(source, td, pool, runs);
+            while (runs.size() > MERGE_FAN_IN)
+                runs = mergePass(runs, td, pool);
+            try (RunMerger merged = new RunMerger(runs, td, keyField, keyLength)) {
+                new TreeWriter(bf, fillFactor, count).write(merged);
+            }
+        } finally {
+            if (pool != null)
+                pool.shutdownNow();
+            for (File run : runs)
+                run.delete();
+        }
+        return bf;
+    }
+
+    /**
+     * Run a task on the pool, or right away if there is no pool.
+     */
+    private static <T> FutureTask<T> submit(ExecutorService pool, Callable<T> c) {
+        FutureTask<T> task = new FutureTask<>(c);
+        if (pool == null)
+            task.run();
+        else
+            pool.execute(task);
+        return task;
+    }
+
+    private static <T> T await(FutureTask<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while building B+ tree");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Scan the source and write it out as sorted runs, with at most one run
+     * per thread being sorted while the next one is read.
+     *
+     * @return the number of tuples in the source
+     */
+    private long writeRuns(DbFileIterator it, TupleDesc td, ExecutorService pool, List<File> runs)
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayDeque<FutureTask<File>> inFlight = new ArrayDeque<>();
+        int maxInFlight = pool == null ? 1 : threads;
+        long count = 0;
+        try {
+            it.open();
+            ArrayList<Tuple> chunk = new ArrayList<>();
+            while (true) {
+                boolean more = it.hasNext();
+                if (more) {
+                    chunk.add(it.next());
+                    count++;
+                }
+                if (chunk.size() == runTuples || !more && !chunk.isEmpty()) {
+                    while (inFlight.size() >= maxInFlight)
+                        runs.add(await(inFlight.poll()));
+                    ArrayList<Tuple> tuples = chunk;
+                    inFlight.add(submit(pool, () -> writeRun(tuples, td)));
+                    chunk = new ArrayList<>();
+                }
+                if (!more)
+                    break;
+            }
+        } finally {
+            it.close();
+            while (!inFlight.isEmpty())
+                runs.add(await(inFlight.poll()));
+        }
+        return count;
+    }
+
+    private File writeRun(ArrayList<Tuple> tuples, TupleDesc td) throws IOException {
+        Collections.sort(tuples, new BTreeFileEncoder.TupleComparator(keyField, keyLength));
+        File run = File.createTempFile("btreerun", ".tmp");
+        run.deleteOnExit();
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16))) {
+            for (Tuple t : tuples)
+                for (int i = 0; i < td.numFields(); ++i)
+                    t.getField(i).serialize(dos);
+        }
+        return run;
+    }
+
+    /**
+     * Merge groups of MERGE_FAN_IN runs into longer runs, in parallel.
+     */
+    private List<File> mergePass(List<File> runs, TupleDesc td, ExecutorService pool) throws IOException {
+        List<FutureTask<File>> merges = new ArrayList<>();
+        for (int i = 0; i < runs.size(); i += MERGE_FAN_IN) {
+            List<File> group = runs.subList(i, Math.min(runs.size(), i + MERGE_FAN_IN));
+            merges.add(submit(pool, () -> {
+                File merged = File.createTempFile("btreerun", ".tmp");
+                merged.deleteOnExit();
+                try (RunMerger in = new RunMerger(group, td, keyField, keyLength);
+                     DataOutputStream dos = new DataOutputStream(
+                             new BufferedOutputStream(new FileOutputStream(merged), 1 << 16))) {
+                    for (Tuple t = in.next(); t != null; t = in.next())
+                        for (int f = 0; f < td.numFields(); ++f)
+                            t.getField(f).serialize(dos);
+                }
+                for (File run : group)
+                    run.delete();
+                return merged;
+            }));
+        }
+        List<File> next = new ArrayList<>();
+        for (FutureTask<File> merge : merges)
+            next.add(await(merge));
+        return next;
+    }
+
+    /**
+     * Reads the tuples of one run in order.
+     */
+    private static class RunReader {
+        final DataInputStream in;
+        final TupleDesc td;
+        long remaining;
+        Tuple current;
+
+        RunReader(File run, TupleDesc td) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 1 << 16));
+            this.td = td;
+            this.remaining = run.length() / td.getSize();
+        }
+
+        /**
+         * Move to the next tuple; current is null at the end of the run.
+         */
+        void advance() throws IOException {
+            if (remaining-- == 0) {
+                current = null;
+                return;
+            }
+            try {
+                Tuple t = new Tuple(td);
+                for (int i = 0; i < td.numFields(); ++i)
+                    t.setField(i, td.getFieldType(i).parse(in));
+                current = t;
+            } catch (java.text.ParseException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /**
+     * Merges sorted runs into a single stream of tuples in key order.
+     */
+    private static class RunMerger implements AutoCloseable {
+        private final PriorityQueue<RunReader> heads;
+        private final List<RunReader> readers = new ArrayList<>();
+
+        RunMerger(List<File> runs, TupleDesc td, int keyField, int keyLength) throws IOException {
+            BTreeFileEncoder.TupleComparator cmp = new BTreeFileEncoder.TupleComparator(keyField, keyLength);
+            heads = new PriorityQueue<>(Math.max(1, runs.size()), (a, b) -> cmp.compare(a.current, b.current));
+            try {
+                for (File run : runs) {
+                    RunReader r = new RunReader(run, td);
+                    readers.add(r);
+                    r.advance();
+                    if (r.current != null)
+                        heads.add(r);
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * Returns the next tuple in key order, or null when all runs are done.
+         */
+        Tuple next() throws IOException {
+            RunReader r = heads.poll();
+            if (r == null)
+                return null;
+            Tuple t = r.current;
+            r.advance();
+            if (r.current != null)
+                heads.add(r);
+            return t;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (RunReader r : readers)
+                r.in.close();
+        }
+    }
+
+    /**
+     * Returns the number of items on each page of a level of count items,
+     * where a page holds at most capacity items and at least minimum unless
+     * it is the only page. Pages hold target items; if the remainder would
+     * make the last page too small, it is merged with the page before, and
+     * the two are split evenly if they do not fit on one page, the larger
+     * half going to the first of them if largerFirst is set.
+     */
+    static int[] pageSizes(long count, int capacity, int minimum, int target, boolean largerFirst) {
+        if (count <= capacity)
+            return new int[]{(int) count};
+        int full = (int) (count / target);
+        int rest = (int) (count % target);
+        if (rest == 0)
+            return filled(full, target);
+        if (target + rest <= capacity) {
+            int[] sizes = filled(full, target);
+            sizes[full - 1] += rest;
+            return sizes;
+        }
+        int[] sizes = filled(full + 1, target);
+        sizes[full - 1] = (target + rest + (largerFirst ? 1 : 0)) / 2;
+        sizes[full] = target + rest - sizes[full - 1];
+        return sizes;
+    }
+
+    private static int[] filled(int n, int size) {
+        int[] sizes = new int[n];
+        Arrays.fill(sizes, size);
+        return sizes;
+    }
+
+    /**
+     * Writes the pages of a B+ tree bottom-up from tuples in key order.
+     */
+    private static class TreeWriter {
+        private final int tableid;
+        private final BTreeFile bf;
+        private final int keyField;
+        /* the number of bytes a key takes */
+        private final int keySize;
+        /* whether internal pages hold packed keys */
+        private final boolean packedKeys;
+        private final Type[] types;
+        private final int pageSize = BufferPool.getPageSize();
+        private final DbFileChannel channel;
+        /* one entry per level, 0 being the leaves */
+        private final List<Level> levels = new ArrayList<>();
+        /* the largest key of the last leaf written */
+        private Field lastKey;
+
+        /**
+         * The pages of one level of the tree, with consecutive page numbers.
+         */
+        private class Level {
+            final int[] sizes;
+            final int firstPageNo;
+            int pageIdx;
+            /* leaves: the tuples of the open page; internal pages: its children */
+            final ArrayList<Tuple> tuples = new ArrayList<>();
+            final ArrayList<Field> childKeys = new ArrayList<>();
+            final ArrayList<Integer> children = new ArrayList<>();
+            final byte[] run = new byte[WRITE_PAGES * pageSize];
+            int runPages;
+            int runFirstPageNo;
+            /* the written page whose high key is the smallest key below the next page, or 0 */
+            int highKeyPageNo;
+
+            Level(int[] sizes, int firstPageNo) {
+                this.sizes = sizes;
+                this.firstPageNo = firstPageNo;
+            }
+
+            int pageNo() {
+                return firstPageNo + pageIdx;
+            }
+
+            void write(byte[] page) throws IOException {
+                if (runPages == 0)
+                    runFirstPageNo = pageNo();
+                System.arraycopy(page, 0, run, runPages * pageSize, pageSize);
+                if (++runPages == WRITE_PAGES)
+                    flush();
+            }
+
+            void flush() throws IOException {
+                if (runPages == 0)
+                    return;
+                channel.write(ByteBuffer.wrap(run, 0, runPages * pageSize), pageOffset(runFirstPageNo));
+                runPages = 0;
+            }
+
+            /**
+             * Fills in the high key of a written internal page, which is only
+             * known once the first child of the page to its right arrives.
+             */
+            void setHighKey(int pageNo, Field key) throws IOException {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(keySize);
+                key.serialize(new DataOutputStream(out));
+                byte[] bytes = out.toByteArray();
+                if (runPages > 0 && pageNo >= runFirstPageNo)
+                    System.arraycopy(bytes, 0, run, (pageNo - runFirstPageNo) * pageSize + HIGH_KEY_OFFSET, bytes.length);
+                else
+                    channel.write(ByteBuffer.wrap(bytes), pageOffset(pageNo) + HIGH_KEY_OFFSET);
+            }
+        }
+
+        TreeWriter(BTreeFile bf, double fillFactor, long count) throws IOException {
+            TupleDesc td = bf.getTupleDesc();
+            this.tableid = bf.getId();
+            this.bf = bf;
+            this.keyField = bf.keyField();
+            this.types = new Type[td.numFields()];
+            for (int i = 0; i < types.length; ++i)
+                types[i] = td.getFieldType(i);
+            this.keySize = CompositeField.getKeySize(td, keyField, bf.keyLength());
+            this.packedKeys = bf.keyLength() == 1 && BTreeInternalPage.hasPackedKeys(types[keyField]);
+
+            // the preallocated extents of the old contents are gone
+            File f = bf.getFile();
+            f.delete();
+            new File(f.getPath() + ".ext").delete();
+            this.channel = bf.getChannel();
+
+            // pointerbytes: left sibling pointer, right sibling pointer, parent pointer
+            int leafPointerBytes = 3 * BTreeLeafPage.INDEX_SIZE;
+            int maxTuples = (pageSize * 8 - leafPointerBytes * 8) / (td.getSize() * 8 + 1);
+            // pointerbytes: one extra child pointer, parent pointer, right link, child page category, high key
+            int internalPointerBytes = 3 * BTreeLeafPage.INDEX_SIZE + 1 + keySize;
+            int entryBytes = keySize + BTreeInternalPage.INDEX_SIZE;
+            int maxEntries = (pageSize * 8 - internalPointerBytes * 8 - 1) / (entryBytes * 8 + 1);
+            // the shape of the tree is planned before any key is seen, so pages with
+            // packed keys are planned for keys of the largest size sharing no prefix
+            if (packedKeys) {
+                maxTuples = BTreeLeafPage.getMaxPackedTuples(td, pageSize);
+                maxEntries = BTreeInternalPage.getMaxPackedEntries(types[keyField], pageSize);
+            }
+
+            // split the last two pages of a level the way BTreeFileEncoder
+            // always has, so trees of the same size keep their shape
+            int[] sizes = pageSizes(count, maxTuples, maxTuples / 2,
+                    Math.max(maxTuples - maxTuples / 2, (int) (maxTuples * fillFactor)), false);
+            int nextPageNo = 1;
+            levels.add(new Level(sizes, nextPageNo));
+            while (sizes.length > 1) {
+                nextPageNo += sizes.length;
+                int minChildren = maxEntries / 2 + 1;
+                sizes = pageSizes(sizes.length, maxEntries + 1, minChildren,
+                        Math.max(minChildren, (int) ((maxEntries + 1) * fillFactor)), true);
+                levels.add(new Level(sizes, nextPageNo));
+            }
+        }
+
+        private static long pageOffset(int pageNo) {
+            return BTreeRootPtrPage.getPageSize() + (long) (pageNo - 1) * BufferPool.getPageSize();
+        }
+
+        /**
+         * Returns the page number of the parent of the open page of a level.
+         */
+        private int parentOf(int level) {
+            return level + 1 < levels.size() ? levels.get(level + 1).pageNo() : 0;
+        }
+
+        void write(RunMerger tuples) throws IOException {
+            Level leaves = levels.get(0);
+            for (Tuple t = tuples.next(); t != null; t = tuples.next()) {
+                leaves.tuples.add(t);
+                if (leaves.tuples.size() == leaves.sizes[leaves.pageIdx])
+                    writeLeaf(leaves);
+            }
+            // an empty tree is a single empty leaf
+            if (leaves.pageIdx == 0)
+                writeLeaf(leaves);
+            for (Level level : levels)
+                level.flush();
+
+            Level top = levels.get(levels.size() - 1);
+            int root = top.firstPageNo;
+            int rootCategory = levels.size() > 1 ? BTreePageId.INTERNAL : BTreePageId.LEAF;
+            channel.write(BTreeFileEncoder.convertToRootPtrPage(root, rootCategory, 0), 0);
+            channel.force();
+        }
+
+        private void writeLeaf(Level leaves) throws IOException {
+            byte[] page = BTreeFileEncoder.convertToLeafPage(leaves.tuples, pageSize, types.length, types, keyField,
+                    bf.keyLength());
+            int pageNo = leaves.pageNo();
+            ByteBuffer.wrap(page)
+                    .putInt(0, parentOf(0))
+                    .putInt(4, leaves.pageIdx > 0 ? pageNo - 1 : 0)
+                    .putInt(8, leaves.pageIdx + 1 < leaves.sizes.length ? pageNo + 1 : 0);
+            leaves.write(page);
+            // the parent gets the shortest key separating this leaf from the previous one
+            Field minKey = leaves.tuples.isEmpty() ? null : bf.keyOf(leaves.tuples.get(0));
+            if (minKey != null && lastKey != null)
+                minKey = BTreeFile.separator(lastKey, minKey);
+            lastKey = leaves.tuples.isEmpty() ? null : bf.keyOf(leaves.tuples.get(leaves.tuples.size() - 1));
+            leaves.tuples.clear();
+            leaves.pageIdx++;
+            if (levels.size() > 1)
+                addChild(1, minKey, pageNo);
+        }
+
+        /**
+         * Add a child, whose subtree's smallest key is minKey, to the open
+         * page of a level of internal pages, writing the page once it is
+         * complete.
+         */
+        private void addChild(int l, Field minKey, int childPageNo) throws IOException {
+            Level level = levels.get(l);
+            if (level.highKeyPageNo != 0) {
+                level.setHighKey(level.highKeyPageNo, minKey);
+                level.highKeyPageNo = 0;
+            }
+            level.childKeys.add(minKey);
+            level.children.add(childPageNo);
+            if (level.children.size() < level.sizes[level.pageIdx])
+                return;
+
+            int childCategory = l == 1 ? BTreePageId.LEAF : BTreePageId.INTERNAL;
+            ArrayList<BTreeEntry> entries = new ArrayList<>();
+            for (int i = 1; i < level.children.size(); ++i)
+                entries.add(new BTreeEntry(level.childKeys.get(i),
+                        new BTreePageId(tableid, level.children.get(i - 1), childCategory),
+                        new BTreePageId(tableid, level.children.get(i), childCategory)));
+            byte[] page = packedKeys
+                    ? BTreeFileEncoder.convertToInternalPage(entries, pageSize, types[keyField], childCategory)
+                    : BTreeFileEncoder.convertToInternalPage(entries, pageSize, keySize, childCategory);
+            int pageNo = level.pageNo();
+            boolean last = level.pageIdx + 1 == level.sizes.length;
+            ByteBuffer.wrap(page)
+                    .putInt(0, parentOf(l))
+                    .putInt(4, last ? 0 : pageNo + 1);
+            level.write(page);
+            if (!last)
+                level.highKeyPageNo = pageNo;
+            Field subtreeMin = level.childKeys.get(0);
+            level.childKeys.clear();
+            level.children.clear();
+            level.pageIdx++;
+            if (l + 1 < levels.size())
+                addChild(l + 1, subtreeMin, pageNo);
+        }
+    }
+}
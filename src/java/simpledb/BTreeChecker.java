@@ -52,7 +52,7 @@ public class BTreeChecker {
     /**
      * checks the integrity of the tree:
      * 1) parent pointers.
-     * 2) sibling pointers.
+     * 2) sibling pointers and right links.
      * 3) range invariants.
      * 4) record to page pointers.
      * 5) occupancy invariants. (if enabled)
@@ -116,10 +116,37 @@ public class BTreeChecker {
                     ipage.getId(), checkOccupancy, depth + 1);
             acc = SubtreeSummary.checkAndMerge(acc, lastRight);
 
+            checkRightLinks(bt, tid, dirtypages, ipage);
             return acc;
         } else {
             assert (false); // no other page types allowed inside the tree.
             return null;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * checks that the right link of each internal child of a page points to the
+     * next child, and that of the last child to the first child of the page's
+     * right link.
+     */
+    static void checkRightLinks(BTreeFile bt, TransactionId tid, HashMap<PageId, Page> dirtypages,
+                                BTreeInternalPage ipage) throws
+            TransactionAbortedException, DbException {
+        if (ipage.getChildAt(0).pgcateg() != BTreePageId.INTERNAL) {
+            return;
+        }
+        int n = ipage.getNumEntries();
+        for (int i = 0; i <= n; i++) {
+            BTreeInternalPage child = (BTreeInternalPage) bt.getPage(tid, dirtypages, ipage.getChildAt(i),
+                    Permissions.READ_ONLY);
+            BTreePageId next = null;
+            if (i < n) {
+                next = ipage.getChildAt(i + 1);
+            } else if (ipage.getRightLinkId() != null) {
+                next = ((BTreeInternalPage) bt.getPage(tid, dirtypages, ipage.getRightLinkId(),
+                        Permissions.READ_ONLY)).getChildAt(0);
+            }
+            assert (next == null ? child.getRightLinkId() == null : next.equals(child.getRightLinkId()));
+        }
+    }
+}
\ No newline at end of file
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import simpledb.Predicate.Op;
 
@@ -11,6 +12,13 @@ import simpledb.Predicate.Op;
  * a set of internal pages, and a set of leaf pages, which contain a collection of tuples
  * in sorted order. BTreeFile works closely with BTreeLeafPage, BTreeInternalPage,
  * and BTreeRootPtrPage. The format of these pages is described in their constructors.
+ * <p>
+ * Transactions lock leaf pages, and the pages a structure modification changes, through
+ * the BufferPool. Descents from the root pointer to a leaf take no locks on the way: they
+ * couple short-term shared latches on the root pointer and internal pages, and validate
+ * the leaf they lock against a structure version that every split, merge and
+ * redistribution bumps. Structure modifications exclusively latch the internal pages they
+ * change, top-down, for their duration.
  *
  * @author Becca Taft
  * @see simpledb.BTreeLeafPage#BTreeLeafPage
@@ -24,6 +32,19 @@ public class BTreeFile implements DbFile {
     private final TupleDesc td;
     private final int tableid;
     private int keyField;
+    private final int keyLength;
+    private final DbFileChannel channel;
+    private final ExtentAllocator extents;
+    private final LatchManager latches;
+    private final AtomicLong structureVersion;
+    // changes that move keys to the left, which a descent cannot follow through right links
+    private final AtomicLong shrinkVersion;
+
+    /**
+     * Number of times a structure modification tries to latch the parents of a leaf
+     * before it gives up on parent pointers that do not lead to the root.
+     */
+    private static final int MAX_LATCH_ATTEMPTS = 1000;
 
     /**
      * Constructs a B+ tree file backed by the specified file.
@@ -34,10 +55,34 @@ public class BTreeFile implements DbFile {
      * @param td  - the tuple descriptor of tuples in the file
      */
     public BTreeFile(File f, int key, TupleDesc td) {
+        this(f, key, 1, td);
+    }
+
+    /**
+     * Constructs a B+ tree file keyed on keyLength consecutive fields, starting
+     * at the given one. Tuples are ordered by the first of them, then by the
+     * second, and so on, and the keys in the internal pages are CompositeFields
+     * holding all of them. Searches may still use a key of the first field
+     * alone, which finds every tuple starting with it.
+     *
+     * @param f         - the file that stores the on-disk backing store for this B+ tree
+     *                  file.
+     * @param key       - the first field which the index is keyed on
+     * @param keyLength - the number of fields which the index is keyed on
+     * @param td        - the tuple descriptor of tuples in the file
+     * @see CompositeField
+     */
+    public BTreeFile(File f, int key, int keyLength, TupleDesc td) {
         this.f = f;
         this.tableid = f.getAbsoluteFile().hashCode();
         this.keyField = key;
+        this.keyLength = keyLength;
         this.td = td;
+        this.channel = new DbFileChannel(f);
+        this.extents = new ExtentAllocator(f, channel, BTreeRootPtrPage.getPageSize(), 1);
+        this.latches = new LatchManager();
+        this.structureVersion = new AtomicLong();
+        this.shrinkVersion = new AtomicLong();
     }
 
     /**
@@ -69,6 +114,13 @@ public class BTreeFile implements DbFile {
         return td;
     }
 
+    // see DbFile.java for javadocs
+    @Override
+    public void close() {
+        channel.close();
+        extents.close();
+    }
+
     /**
      * Read a page from the file on disk. This should not be called directly
      * but should be called from the BufferPool via getPage()
@@ -79,11 +131,10 @@ public class BTreeFile implements DbFile {
     public Page readPage(PageId pid) {
         BTreePageId id = (BTreePageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
-
+        try {
             if (id.pgcateg() == BTreePageId.ROOT_PTR) {
                 byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
+                int retval = channel.read(pageBuf, 0);
                 if (retval == -1) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
@@ -96,12 +147,7 @@ public class BTreeFile implements DbFile {
                 return p;
             } else {
                 byte pageBuf[] = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
+                int retval = channel.read(pageBuf, pageOffset(id.getPageNumber()));
                 if (retval == -1) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
@@ -111,10 +157,10 @@ public class BTreeFile implements DbFile {
                 }
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
                 if (id.pgcateg() == BTreePageId.INTERNAL) {
-                    return new BTreeInternalPage(id, pageBuf, keyField);
+                    return new BTreeInternalPage(id, pageBuf, keyField, keyLength);
 
                 } else if (id.pgcateg() == BTreePageId.LEAF) {
-                    return new BTreeLeafPage(id, pageBuf, keyField);
+                    return new BTreeLeafPage(id, pageBuf, keyField, keyLength);
                 } else { // id.pgcateg() == BTreePageId.HEADER
                     return new BTreeHeaderPage(id, pageBuf);
                 }
@@ -124,6 +170,49 @@ public class BTreeFile implements DbFile {
         }
     }
 
+    /**
+     * Read the specified pages from disk, merging runs of adjacent pages into
+     * a single read. The root pointer page is read on its own, since it is
+     * smaller than the other pages.
+     *
+     * @see DbFile#readPages(List)
+     */
+    @Override
+    public List<Page> readPages(List<PageId> ids) {
+        Page[] pages = new Page[ids.size()];
+        ArrayList<Integer> batch = new ArrayList<>();
+        for (int i = 0; i < pages.length; ++i) {
+            if (((BTreePageId) ids.get(i)).pgcateg() == BTreePageId.ROOT_PTR)
+                pages[i] = readPage(ids.get(i));
+            else
+                batch.add(i);
+        }
+
+        long[] offsets = new long[batch.size()];
+        for (int i = 0; i < offsets.length; ++i)
+            offsets[i] = pageOffset(ids.get(batch.get(i)).getPageNumber());
+        try {
+            byte[][] data = channel.readBlocks(offsets, BufferPool.getPageSize());
+            for (int i = 0; i < data.length; ++i) {
+                BTreePageId id = (BTreePageId) ids.get(batch.get(i));
+                if (data[i] == null) {
+                    throw new IllegalArgumentException("Read past end of table");
+                }
+                Debug.log(1, "BTreeFile.readPages: read page %d", id.getPageNumber());
+                if (id.pgcateg() == BTreePageId.INTERNAL) {
+                    pages[batch.get(i)] = new BTreeInternalPage(id, data[i], keyField, keyLength);
+                } else if (id.pgcateg() == BTreePageId.LEAF) {
+                    pages[batch.get(i)] = new BTreeLeafPage(id, data[i], keyField, keyLength);
+                } else { // id.pgcateg() == BTreePageId.HEADER
+                    pages[batch.get(i)] = new BTreeHeaderPage(id, data[i]);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return Arrays.asList(pages);
+    }
+
     /**
      * Write a page to disk.  This should not be called directly but should
      * be called from the BufferPool when pages are flushed to disk
@@ -134,23 +223,43 @@ public class BTreeFile implements DbFile {
         BTreePageId id = (BTreePageId) page.getId();
 
         byte[] data = page.getPageData();
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
         if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-            rf.write(data);
-            rf.close();
+            channel.write(data, 0);
         } else {
-            rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-            rf.write(data);
-            rf.close();
+            channel.write(data, pageOffset(id.getPageNumber()));
+            extents.written(id.getPageNumber());
         }
     }
 
+    /**
+     * Returns the file offset of the non-root-pointer page with the given page number.
+     * Page numbers start at 1, right after the root pointer page.
+     */
+    private static long pageOffset(int pageNo) {
+        return BTreeRootPtrPage.getPageSize() + (long) (pageNo - 1) * BufferPool.getPageSize();
+    }
+
+    /**
+     * Returns the channel used for all page I/O on this BTreeFile.
+     */
+    DbFileChannel getChannel() {
+        return channel;
+    }
+
     /**
      * Returns the number of pages in this BTreeFile.
      */
     public int numPages() {
-        // we only ever write full pages
-        return (int) ((f.length() - BTreeRootPtrPage.getPageSize()) / BufferPool.getPageSize());
+        // preallocated pages that are not in use yet do not count
+        return extents.numPages();
+    }
+
+    /**
+     * Returns the allocator that grows this BTreeFile, e.g. to configure its
+     * extent size.
+     */
+    public ExtentAllocator getExtentAllocator() {
+        return extents;
     }
 
     /**
@@ -161,94 +270,314 @@ public class BTreeFile implements DbFile {
     }
 
     /**
-     * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
-     * the left-most page possibly containing the key field f. It locks all internal
-     * nodes along the path to the leaf node with READ_ONLY permission, and locks the
-     * leaf node with permission perm.
+     * Returns the number of fields that this B+ tree is keyed on
+     */
+    public int keyLength() {
+        return keyLength;
+    }
+
+    /**
+     * Returns the key of a tuple of this B+ tree: its key field, or a
+     * CompositeField if the tree is keyed on several fields.
+     */
+    public Field keyOf(Tuple t) {
+        return CompositeField.keyOf(t, keyField, keyLength);
+    }
+
+    /**
+     * Returns true if the internal pages of this B+ tree have packed keys.
+     */
+    private boolean hasPackedKeys() {
+        return keyLength == 1 && BTreeInternalPage.hasPackedKeys(td.getFieldType(keyField));
+    }
+
+    /**
+     * Finds and locks the leaf page in the B+ tree corresponding to the left-most (or
+     * right-most) page possibly containing the key field f. The root pointer and the
+     * internal pages along the path are only latched, one at a time, and the leaf page
+     * is locked with permission perm once all latches are released. If a structure
+     * modification changed the leaf's parent meanwhile, the leaf may no longer cover f
+     * and the descent starts over.
      * <p>
-     * If f is null, it finds the left-most leaf page -- used for the iterator
+     * If f is null, it finds the left-most (or right-most) leaf page -- used for the iterators
      *
      * @param tid        - the transaction id
      * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
-     * @param pid        - the current page being searched
      * @param perm       - the permissions with which to lock the leaf page
      * @param f          - the field to search for
-     * @return the left-most leaf page possibly containing the key field f
+     * @param rightMost  - whether to find the right-most leaf page possibly containing f
+     * @return the left-most (or right-most) leaf page possibly containing the key field f
      */
-    private BTreeLeafPage findLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid,
-                                       Permissions perm, Field f)
+    private BTreeLeafPage findLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+                                       Permissions perm, Field f, boolean rightMost)
             throws DbException, TransactionAbortedException {
-        // some code goes here
-        // base case
-        if (pid.pgcateg() == BTreePageId.LEAF)
-            return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
-        else {
-            BTreeInternalPage p = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
-            Iterator<BTreeEntry> it = p.iterator();
-            BTreeEntry e = null;
-            if (f == null) {
-                if (it.hasNext()) {
-                    e = it.next();
-                    return findLeafPage(tid, dirtypages, e.getLeftChild(), perm, f);
-                } else
-                    throw new NoSuchElementException("find leaf enter an empty internal page");    // shouldn't happen!
-            } else {
-                while (it.hasNext()) {
-                    e = it.next();
-                    if (e.getKey().compare(Op.GREATER_THAN_OR_EQ, f))
-                        return findLeafPage(tid, dirtypages, e.getLeftChild(), perm, f);
-                }
-                return findLeafPage(tid, dirtypages, e.getRightChild(), perm, f);
-            }
+        while (true) {
+            LeafPosition position = descend(f, rightMost);
+            BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, dirtypages, position.leafId, perm);
+            if (structureVersion.get() == position.version)
+                return leaf;
         }
+    }
+
+    /**
+     * The leaf page a descent ended at, and the structure version read while
+     * the page pointing to it was latched.
+     */
+    private static class LeafPosition {
+        final BTreePageId leafId;
+        final long version;
 
+        LeafPosition(BTreePageId leafId, long version) {
+            this.leafId = leafId;
+            this.version = version;
+        }
     }
 
-    /*
-        always find the right leafpage, used by reverseIterator
+    /**
+     * Descent from the root pointer to the leaf level that holds a single latch at a
+     * time, in the manner of a B-link tree: a page may split between the moment its id
+     * was read and the moment it is latched, and then the descent follows right links
+     * until it reaches the page covering f. Merges and steals move keys to the left
+     * instead, and make the descent start over.
+     *
+     * @return the left-most (or right-most) leaf page possibly containing f
+     * @see #findLeafPage(TransactionId, HashMap, Permissions, Field, boolean)
      */
-    BTreeLeafPage findLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, Field f,
-                               BTreePageId pid, Permissions perm)
+    private LeafPosition descend(Field f, boolean rightMost)
             throws DbException, TransactionAbortedException {
-
-        if (pid.pgcateg() == BTreePageId.LEAF)
-            return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
-        else {
-            BTreeInternalPage p = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
-            Iterator<BTreeEntry> it = p.reverseIterator();
-            BTreeEntry e = null;
-            if (f == null) {
-                if (it.hasNext()) {
-                    e = it.next();
-                    return findLeafPage(tid, dirtypages, e.getRightChild(), perm, f);
-                } else
-                    throw new NoSuchElementException("find leaf enter an empty internal page");    // shouldn't happen!
-            } else {
-                while (it.hasNext()) {
-                    e = it.next();
-                    if (e.getKey().compare(Op.LESS_THAN_OR_EQ, f))
-                        return findLeafPage(tid, dirtypages, e.getRightChild(), perm, f);
+        BufferPool bp = Database.getBufferPool();
+        restart:
+        while (true) {
+            long shrinks = shrinkVersion.get();
+            BTreePageId latched = BTreeRootPtrPage.getId(tableid);
+            latches.latchShared(latched);
+            try {
+                long version = structureVersion.get();
+                BTreePageId pid = ((BTreeRootPtrPage) bp.getPageUnlocked(latched)).getRootId();
+                while (pid != null && pid.pgcateg() == BTreePageId.INTERNAL) {
+                    latches.unlatch(latched);
+                    latched = pid;
+                    latches.latchShared(pid);
+                    if (shrinkVersion.get() != shrinks)
+                        continue restart;
+                    BTreeInternalPage p = (BTreeInternalPage) bp.getPageUnlocked(pid);
+                    if (coveredToTheRight(p, f, rightMost)) {
+                        pid = p.getRightLinkId();
+                        continue;
+                    }
+                    if (p.getNumEntries() == 0)
+                        throw new NoSuchElementException("find leaf enter an empty internal page");    // shouldn't happen!
+                    // the left child of the first key >= f, or the right child of the last key <= f
+                    int child;
+                    if (f == null)
+                        child = rightMost ? p.getNumEntries() : 0;
+                    else
+                        child = rightMost ? p.upperBound(f) : p.lowerBound(f);
+                    version = structureVersion.get();
+                    pid = p.getChildAt(child);
                 }
-                return findLeafPage(tid, dirtypages, e.getLeftChild(), perm, f);
+                return new LeafPosition(pid, version);
+            } finally {
+                latches.unlatch(latched);
             }
         }
     }
 
+    /**
+     * Returns true if the left-most (or right-most) leaf possibly containing f is
+     * below a page to the right of the given one, which happens when the page split
+     * after the descent read its id.
+     */
+    private static boolean coveredToTheRight(BTreeInternalPage p, Field f, boolean rightMost) {
+        Field highKey = p.getHighKey();
+        if (highKey == null)
+            return false;
+        if (f == null)
+            return rightMost;
+        // f is compared from the side of the key, which may hold more fields than f
+        return highKey.compare(rightMost ? Op.LESS_THAN_OR_EQ : Op.LESS_THAN, f);
+    }
+
+    /**
+     * Returns the key to copy up to the parent for two pages split between the given keys,
+     * the largest key of the left page and the smallest key of the right page. Any key
+     * greater than left and at most right separates the pages, so for strings this is the
+     * shortest prefix of right which is still greater than left, which keeps the parent's
+     * packed keys short.
+     */
+    static Field separator(Field left, Field right) {
+        if (!(right instanceof StringField) || !left.compare(Op.LESS_THAN, right))
+            return right;
+        String s = ((StringField) right).getValue();
+        for (int len = 1; len < s.length(); len++) {
+            StringField prefix = new StringField(s.substring(0, len), Type.STRING_LEN);
+            if (prefix.compare(Op.GREATER_THAN, left))
+                return prefix;
+        }
+        return right;
+    }
+
     /**
      * Convenience method to find a leaf page when there is no dirtypages HashMap.
-     * Used by the BTreeFile iterator.
+     * Used by the BTreeFile iterators.
      *
      * @param tid  - the transaction id
-     * @param pid  - the current page being searched
      * @param perm - the permissions with which to lock the leaf page
      * @param f    - the field to search for
      * @return the left-most leaf page possibly containing the key field f
-     * @see #findLeafPage(TransactionId, HashMap, BTreePageId, Permissions, Field)
+     * @see #findLeafPage(TransactionId, HashMap, Permissions, Field, boolean)
+     */
+    BTreeLeafPage findLeafPage(TransactionId tid, Permissions perm, Field f)
+            throws DbException, TransactionAbortedException {
+        return findLeafPage(tid, new HashMap<PageId, Page>(), perm, f, false);
+    }
+
+    /**
+     * Like {@link #findLeafPage(TransactionId, Permissions, Field)}, but finds the
+     * right-most leaf page possibly containing the key field f. Used by the reverse
+     * iterators.
      */
-    BTreeLeafPage findLeafPage(TransactionId tid, BTreePageId pid, Permissions perm,
-                               Field f)
+    BTreeLeafPage findRightLeafPage(TransactionId tid, Permissions perm, Field f)
             throws DbException, TransactionAbortedException {
-        return findLeafPage(tid, new HashMap<PageId, Page>(), pid, perm, f);
+        return findLeafPage(tid, new HashMap<PageId, Page>(), perm, f, true);
+    }
+
+    /**
+     * Returns the first tuple whose key is equal to key, or null if there is none.
+     * In a tree keyed on several fields whose keys are unique, such as the tree of
+     * a {@link SecondaryIndex}, this is a single descent to the tuple with the key.
+     *
+     * @param tid - the transaction id
+     * @param key - the key to look for, as returned by {@link #keyOf(Tuple)}
+     * @return the tuple, with its RecordId in this file, or null
+     */
+    public Tuple findTuple(TransactionId tid, Field key)
+            throws DbException, TransactionAbortedException {
+        BTreeLeafPage leaf = findLeafPage(tid, Permissions.READ_ONLY, key);
+        while (true) {
+            Iterator<Tuple> it = leaf.iterator(leaf.lowerBound(key));
+            if (it.hasNext()) {
+                Tuple t = it.next();
+                return keyOf(t).compare(Op.EQUALS, key) ? t : null;
+            }
+            // a key equal to the separator above two leaves is the first of the right one
+            BTreePageId next = leaf.getRightSiblingId();
+            if (next == null)
+                return null;
+            leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid, next, Permissions.READ_ONLY);
+        }
+    }
+
+    /**
+     * Makes descents that started before a change of the tree's structure start
+     * over. Called after structure modifications that may move keys to the left,
+     * and by the BufferPool when a transaction that may have changed the structure
+     * aborts.
+     */
+    void structureChanged() {
+        shrinkVersion.incrementAndGet();
+        structureVersion.incrementAndGet();
+    }
+
+    /**
+     * Prepares a structure modification above a leaf page that this transaction
+     * has locked with READ_WRITE permission. Exclusively latches the root pointer and
+     * the internal pages on the path to the leaf, top-down, so that no descent can
+     * see them change. For an insert, the latches above the lowest ancestor with an
+     * empty slot are released again, since a split cannot propagate past it.
+     *
+     * @param leaf      - the leaf page that has to split, or is below minimum occupancy
+     * @param forInsert - whether the leaf is about to split
+     * @see #endStructureModification(TransactionId, HashMap, boolean, boolean)
+     */
+    private void beginStructureModification(BTreeLeafPage leaf, boolean forInsert)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+        int attempts = 0;
+        while (true) {
+            latches.latchExclusive(rootPtrId);
+            // the ancestors by their parent pointers; a concurrent modification
+            // may change them, so the chain is checked again once latched
+            ArrayList<BTreePageId> path = new ArrayList<>();
+            BTreePageId pid = leaf.getParentId();
+            try {
+                while (pid.pgcateg() == BTreePageId.INTERNAL && path.size() <= numPages()) {
+                    path.add(pid);
+                    pid = ((BTreeInternalPage) bp.getPageUnlocked(pid)).getParentId();
+                }
+            } catch (RuntimeException e) {
+                pid = null;
+            }
+
+            boolean consistent = pid != null && pid.pgcateg() == BTreePageId.ROOT_PTR;
+            BTreePageId child = leaf.getId();
+            if (consistent) {
+                BTreePageId top = path.isEmpty() ? child : path.get(path.size() - 1);
+                consistent = top.equals(((BTreeRootPtrPage) bp.getPageUnlocked(rootPtrId)).getRootId());
+            }
+            for (int i = path.size() - 1; consistent && i >= 0; --i) {
+                latches.latchExclusive(path.get(i));
+                BTreePageId parentId = i + 1 < path.size() ? path.get(i + 1) : rootPtrId;
+                consistent = ((BTreeInternalPage) bp.getPageUnlocked(path.get(i))).getParentId().equals(parentId);
+            }
+            if (!consistent) {
+                latches.unlatchAll();
+                if (++attempts > MAX_LATCH_ATTEMPTS)
+                    throw new DbException("parent pointers above " + leaf.getId() + " do not lead to the root");
+                Thread.yield();
+                continue;
+            }
+
+            if (forInsert) {
+                for (int i = 0; i < path.size(); ++i) {
+                    if (((BTreeInternalPage) bp.getPageUnlocked(path.get(i))).getNumEmptySlots() > 0) {
+                        for (int j = i + 1; j < path.size(); ++j)
+                            latches.unlatch(path.get(j));
+                        latches.unlatch(rootPtrId);
+                        break;
+                    }
+                }
+            }
+            return;
+        }
+    }
+
+    /**
+     * Ends a structure modification: puts the changed pages in the BufferPool, where
+     * descents read them, makes concurrent descents start over and releases all latches.
+     * Splits only move keys to the right, so descents that are past the leaf's parent
+     * follow the right links instead of starting over.
+     * A modification that failed half way leaves pages that do not form a valid tree, so
+     * the pages it changed are discarded instead; the transaction has to abort anyway.
+     *
+     * @param tid        - the transaction id
+     * @param dirtypages - the pages changed by the operation
+     * @param done       - whether the modification completed
+     * @param forInsert  - whether the modification split pages
+     * @see #beginStructureModification(BTreeLeafPage, boolean)
+     */
+    private void endStructureModification(TransactionId tid, HashMap<PageId, Page> dirtypages,
+                                          boolean done, boolean forInsert)
+            throws DbException {
+        boolean published = false;
+        try {
+            if (done) {
+                // a page changed by this operation may have been evicted and read again
+                Database.getBufferPool().cacheDirtyPages(tid, new ArrayList<Page>(dirtypages.values()));
+                published = true;
+            }
+        } finally {
+            if (!published) {
+                for (PageId pid : dirtypages.keySet())
+                    Database.getBufferPool().discardPage(pid);
+            }
+            if (published && forInsert)
+                structureVersion.incrementAndGet();
+            else
+                structureChanged();
+            latches.unlatchAll();
+        }
     }
 
     /**
@@ -299,9 +628,11 @@ public class BTreeFile implements DbFile {
             }
         }
 
-        // get parent and copy up, note getParentWithEmptySlots handle the case when parent is root
+        // get parent and copy up the shortest key separating the two pages, note
+        // getParentWithEmptySlots handle the case when parent is root
+        Field key = separator(keyOf(it.next()), keyOf(leftmost));
         BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), field);
-        BTreeEntry newEntry = new BTreeEntry(leftmost.getField(keyField), page.getId(), newPage.getId());
+        BTreeEntry newEntry = new BTreeEntry(key, page.getId(), newPage.getId());
         parent.insertEntry(newEntry);
 
         // set pointers
@@ -317,7 +648,7 @@ public class BTreeFile implements DbFile {
         newPage.setLeftSiblingId(page.getId());
         updateParentPointer(tid, dirtypages, parent.getId(), newPage.getId());
 
-        if (field.compare(Op.GREATER_THAN, leftmost.getField(keyField)))
+        if (field.compare(Op.GREATER_THAN, key))
             return newPage;
         else
             return page;
@@ -359,6 +690,8 @@ public class BTreeFile implements DbFile {
 
         // get new page
         BTreeInternalPage newPage = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
+        if (hasPackedKeys())
+            return splitPackedInternalPage(tid, dirtypages, page, newPage, field);
         int d = page.getNumEntries() / 2;
         boolean isEven = page.getNumEntries() % 2 == 0;
         Iterator<BTreeEntry> it = page.reverseIterator();
@@ -399,6 +732,51 @@ public class BTreeFile implements DbFile {
             }
         }
 
+        return pushUpSplit(tid, dirtypages, page, newPage, pushUp, field);
+    }
+
+    /**
+     * Split an internal page with packed keys. Its entries vary in size, so the split moves
+     * entries to the new page until it holds about half of the bytes of the page, rather than
+     * half of the entries.
+     *
+     * @see #splitInternalPage(TransactionId, HashMap, BTreeInternalPage, Field)
+     */
+    private BTreeInternalPage splitPackedInternalPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+                                                      BTreeInternalPage page, BTreeInternalPage newPage, Field field)
+            throws DbException, IOException, TransactionAbortedException {
+        int size = 0;
+        Iterator<BTreeEntry> it = page.iterator();
+        while (it.hasNext())
+            size += BTreeInternalPage.getPackedEntrySize(it.next().getKey());
+
+        int moved = 0;
+        it = page.reverseIterator();
+        BTreeEntry e = it.next();
+        while (moved + BTreeInternalPage.getPackedEntrySize(e.getKey()) < size / 2 && it.hasNext()) {
+            moved += BTreeInternalPage.getPackedEntrySize(e.getKey());
+            page.deleteKeyAndRightChild(e);
+            newPage.insertEntry(e);
+            e = it.next();
+        }
+        return pushUpSplit(tid, dirtypages, page, newPage, e, field);
+    }
+
+    /**
+     * Finish the split of an internal page by pushing up the given entry, the one between the
+     * entries left on the page and those moved to the new page.
+     *
+     * @return the internal page into which an entry with key field "field" should be inserted
+     */
+    private BTreeInternalPage pushUpSplit(TransactionId tid, HashMap<PageId, Page> dirtypages,
+                                          BTreeInternalPage page, BTreeInternalPage newPage,
+                                          BTreeEntry pushUp, Field field)
+            throws DbException, IOException, TransactionAbortedException {
+        // the new page takes over the right link, and the page now ends at the pushed up key,
+        // so a descent that read the page's old contents can still move right to find its key
+        newPage.setRightLink(page.getRightLinkId(), page.getHighKey());
+        page.setRightLink(newPage.getId(), pushUp.getKey());
+
         // get parent, push up entry from child
         BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), field);
         page.deleteKeyAndRightChild(pushUp);
@@ -407,6 +785,7 @@ public class BTreeFile implements DbFile {
         parent.insertEntry(pushUp);
 
         // set pointers
+        updateParentPointer(tid, dirtypages, parent.getId(), newPage.getId());
         updateParentPointers(tid, dirtypages, newPage);
 
         if (field.compare(Op.GREATER_THAN, pushUp.getKey()))
@@ -536,15 +915,18 @@ public class BTreeFile implements DbFile {
      */
     Page getPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid, Permissions perm)
             throws DbException, TransactionAbortedException {
-        if (dirtypages.containsKey(pid)) {
-            return dirtypages.get(pid);
-        } else {
-            Page p = Database.getBufferPool().getPage(tid, pid, perm);
+        Page p = dirtypages.get(pid);
+        if (p == null) {
+            p = Database.getBufferPool().getPage(tid, pid, perm);
             if (perm == Permissions.READ_WRITE) {
                 dirtypages.put(pid, p);
             }
-            return p;
         }
+        // internal pages changed by a structure modification are latched
+        // so that descents do not see them half changed
+        if (perm == Permissions.READ_WRITE && pid.pgcateg() == BTreePageId.INTERNAL && latches.holdsExclusive())
+            latches.latchExclusive(pid);
+        return p;
     }
 
     /**
@@ -561,21 +943,38 @@ public class BTreeFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
 
-        // get a read lock on the root pointer page and use it to locate the root page
-        BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
-        BTreePageId rootId = rootPtr.getRootId();
-
-        if (rootId == null) { // the root has just been created, so set the root pointer to point to it
-            rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
-            rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
-            rootPtr.setRootId(rootId);
+        // look at the root pointer page to see whether the root page exists yet
+        BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+        createRootPtrPage();
+        if (((BTreeRootPtrPage) Database.getBufferPool().getPageUnlocked(rootPtrId)).getRootId() == null) {
+            // the root has just been created, so set the root pointer to point to it
+            BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId, Permissions.READ_WRITE);
+            latches.latchExclusive(rootPtrId);
+            try {
+                if (rootPtr.getRootId() == null)
+                    rootPtr.setRootId(new BTreePageId(tableid, numPages(), BTreePageId.LEAF));
+            } finally {
+                latches.unlatch(rootPtrId);
+            }
         }
 
         // find and lock the left-most leaf page corresponding to the key field,
-        // and split the leaf page if there are no more slots available
-        BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
-        if (leafPage.getNumEmptySlots() == 0) {
-            leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));
+        // and split the leaf page if there is no more room for the tuple. A leaf
+        // with packed keys may need more than one split, as the tuple can lengthen
+        // all the others by sharing a shorter prefix with them
+        BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, Permissions.READ_WRITE, keyOf(t), false);
+        while (!leafPage.hasRoomFor(t)) {
+            // lock the right sibling, whose pointer changes, before latching anything
+            if (leafPage.getRightSiblingId() != null)
+                getPage(tid, dirtypages, leafPage.getRightSiblingId(), Permissions.READ_WRITE);
+            boolean done = false;
+            try {
+                beginStructureModification(leafPage, true);
+                leafPage = splitLeafPage(tid, dirtypages, leafPage, keyOf(t));
+                done = true;
+            } finally {
+                endStructureModification(tid, dirtypages, done, true);
+            }
         }
 
         // insert the tuple into the leaf page
@@ -659,18 +1058,18 @@ public class BTreeFile implements DbFile {
         int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples() / 2; // ceiling
         if (leftSiblingId != null) {
             BTreeLeafPage leftSibling = (BTreeLeafPage) getPage(tid, dirtypages, leftSiblingId, Permissions.READ_WRITE);
-            // if the left sibling is at minimum occupancy, merge with it. Otherwise
-            // steal some tuples from it
-            if (leftSibling.getNumEmptySlots() >= maxEmptySlots) {
+            // if the left sibling is at minimum occupancy and the tuples of both fit
+            // on one page, merge with it. Otherwise steal some tuples from it
+            if (leftSibling.getNumEmptySlots() >= maxEmptySlots && leftSibling.hasRoomFor(tuplesOf(page))) {
                 mergeLeafPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
             } else {
                 stealFromLeafPage(page, leftSibling, parent, leftEntry, false);
             }
         } else if (rightSiblingId != null) {
             BTreeLeafPage rightSibling = (BTreeLeafPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
-            // if the right sibling is at minimum occupancy, merge with it. Otherwise
-            // steal some tuples from it
-            if (rightSibling.getNumEmptySlots() >= maxEmptySlots) {
+            // if the right sibling is at minimum occupancy and the tuples of both fit
+            // on one page, merge with it. Otherwise steal some tuples from it
+            if (rightSibling.getNumEmptySlots() >= maxEmptySlots && page.hasRoomFor(tuplesOf(rightSibling))) {
                 mergeLeafPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
             } else {
                 stealFromLeafPage(page, rightSibling, parent, rightEntry, true);
@@ -698,26 +1097,65 @@ public class BTreeFile implements DbFile {
         // the corresponding parent entry.
 
         int entryMove = (sibling.getNumTuples() - page.getNumTuples()) / 2;
+        if (hasPackedKeys())
+            entryMove = getPackedTuplesToMove(page, isRightSibling ? sibling.iterator() : sibling.reverseIterator(),
+                    entryMove);
 
-        // redistribute entries
+        // find the last tuple to move and the first one to stay
         Tuple t = null;
         Iterator<Tuple> it = (isRightSibling) ? sibling.iterator() : sibling.reverseIterator();
-        for (int i = 0; i < entryMove; ++i) {
-            if (it.hasNext()) {
-                t = it.next();
-                sibling.deleteTuple(t);
-                page.insertTuple(t);
-            }
-        }
+        for (int i = 0; i < entryMove && it.hasNext(); ++i)
+            t = it.next();
+        if (t == null)
+            return;
+        Tuple next = it.next();
+
+        // newKey is always the shortest key separating the left page from the right one,
+        // regardless of it's page or sibling. Should the parent have no room for it, leave
+        // the page under-full rather than overflowing the parent
+        Field newKey = (isRightSibling) ? separator(keyOf(t), keyOf(next))
+                : separator(keyOf(next), keyOf(t));
+        if (!parent.hasRoomForKey(entry, newKey))
+            return;
 
-        // newKey is always the lefmost key of the right page, regardless of it's page or sibling
-        Field newKey = (isRightSibling) ? it.next().getField(keyField) : t.getField(keyField);
+        // redistribute entries
+        it = (isRightSibling) ? sibling.iterator() : sibling.reverseIterator();
+        for (int i = 0; i < entryMove && it.hasNext(); ++i) {
+            Tuple moved = it.next();
+            sibling.deleteTuple(moved);
+            page.insertTuple(moved);
+        }
 
         // update parent entry
         entry.setKey(newKey);
         parent.updateEntry(entry);
     }
 
+    /**
+     * Returns the tuples of a leaf page in key order.
+     */
+    private static ArrayList<Tuple> tuplesOf(BTreeLeafPage page) {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            tuples.add(it.next());
+        return tuples;
+    }
+
+    /**
+     * Returns how many of at most entryMove tuples, taken from a sibling in the order of the
+     * given iterator, fit on a leaf page with packed keys. The keys of the sibling may share
+     * a shorter prefix with the keys of the page than they share among themselves.
+     */
+    private static int getPackedTuplesToMove(BTreeLeafPage page, Iterator<Tuple> it, int entryMove) {
+        ArrayList<Tuple> moved = new ArrayList<Tuple>();
+        for (int i = 0; i < entryMove && it.hasNext(); ++i)
+            moved.add(it.next());
+        while (!moved.isEmpty() && !page.hasRoomFor(moved))
+            moved.remove(moved.size() - 1);
+        return moved.size();
+    }
+
     /**
      * Handle the case when an internal page becomes less than half full due to deletions.
      * If one of its siblings has extra entries, redistribute those entries.
@@ -795,6 +1233,8 @@ public class BTreeFile implements DbFile {
         // pointers of all children in the entries that were moved.
 
         int entryMove = (leftSibling.getNumEntries() - page.getNumEntries()) / 2;
+        if (hasPackedKeys())
+            entryMove = getPackedEntriesToMove(page, leftSibling, leftSibling.reverseIterator());
 
         // move entries, including the one in the parent, sequentially
         Iterator<BTreeEntry> it = page.iterator();
@@ -820,6 +1260,7 @@ public class BTreeFile implements DbFile {
 
         // e is the entry that should be pushed up
         leftSibling.deleteKeyAndRightChild(e);
+        leftSibling.setRightLink(page.getId(), e.getKey());
         e.setLeftChild(leftSibling.getId());
         e.setRightChild(page.getId());
         parent.insertEntry(e);
@@ -854,6 +1295,8 @@ public class BTreeFile implements DbFile {
         // pointers of all children in the entries that were moved.
 
         int entryMove = (rightSibling.getNumEntries() - page.getNumEntries()) / 2;
+        if (hasPackedKeys())
+            entryMove = getPackedEntriesToMove(page, rightSibling, rightSibling.iterator());
 
         // move entries, including the one in the parent, sequentially
         Iterator<BTreeEntry> it = page.reverseIterator();
@@ -879,6 +1322,7 @@ public class BTreeFile implements DbFile {
 
         // e is the entry that should be pushed up
         rightSibling.deleteKeyAndLeftChild(e);
+        page.setRightLink(rightSibling.getId(), e.getKey());
         e.setLeftChild(page.getId());
         e.setRightChild(rightSibling.getId());
         parent.insertEntry(e);
@@ -886,6 +1330,33 @@ public class BTreeFile implements DbFile {
 
     }
 
+    /**
+     * Returns the number of entries to rotate from a sibling with packed keys, taken in the
+     * order of the given iterator, so that both pages hold about as many bytes.
+     */
+    private static int getPackedEntriesToMove(BTreeInternalPage page, BTreeInternalPage sibling,
+                                              Iterator<BTreeEntry> it) {
+        int pageSize = 0;
+        int siblingSize = 0;
+        Iterator<BTreeEntry> sizes = page.iterator();
+        while (sizes.hasNext())
+            pageSize += BTreeInternalPage.getPackedEntrySize(sizes.next().getKey());
+        sizes = sibling.iterator();
+        while (sizes.hasNext())
+            siblingSize += BTreeInternalPage.getPackedEntrySize(sizes.next().getKey());
+
+        int entryMove = 0;
+        while (it.hasNext()) {
+            int size = BTreeInternalPage.getPackedEntrySize(it.next().getKey());
+            if (pageSize + size > siblingSize - size)
+                break;
+            pageSize += size;
+            siblingSize -= size;
+            entryMove++;
+        }
+        return Math.max(1, entryMove);
+    }
+
     /**
      * Merge two leaf pages by moving all tuples from the right page to the left page.
      * Delete the corresponding key and right child pointer from the parent, and recursively
@@ -984,6 +1455,7 @@ public class BTreeFile implements DbFile {
             rightPage.deleteKeyAndLeftChild(e);
             leftPage.insertEntry(e);
         }
+        leftPage.setRightLink(rightPage.getRightLinkId(), rightPage.getHighKey());
         setEmptyPage(tid, dirtypages, rightPage.getId().getPageNumber());
         updateParentPointers(tid, dirtypages, leftPage);
     }
@@ -1014,7 +1486,7 @@ public class BTreeFile implements DbFile {
         // or merge with one of the siblings
         parent.deleteKeyAndRightChild(parentEntry);
         int maxEmptySlots = parent.getMaxEntries() - parent.getMaxEntries() / 2; // ceiling
-        if (parent.getNumEmptySlots() == parent.getMaxEntries()) {
+        if (parent.getNumEntries() == 0) {
             // This was the last entry in the parent.
             // In this case, the parent (root node) should be deleted, and the merged
             // page will become the new root
@@ -1057,7 +1529,14 @@ public class BTreeFile implements DbFile {
         // or merge with one of the siblings
         int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples() / 2; // ceiling
         if (page.getNumEmptySlots() > maxEmptySlots) {
-            handleMinOccupancyPage(tid, dirtypages, page);
+            boolean done = false;
+            try {
+                beginStructureModification(page, false);
+                handleMinOccupancyPage(tid, dirtypages, page);
+                done = true;
+            } finally {
+                endStructureModification(tid, dirtypages, done, false);
+            }
         }
 
         ArrayList<Page> dirtyPagesArr = new ArrayList<Page>();
@@ -1078,23 +1557,24 @@ public class BTreeFile implements DbFile {
      */
     BTreeRootPtrPage getRootPtrPage(TransactionId tid, HashMap<PageId, Page> dirtypages) throws
             DbException, IOException, TransactionAbortedException {
-        synchronized (this) {
-            if (f.length() == 0) {
-                // create the root pointer page and the root page
-                BufferedOutputStream bw = new BufferedOutputStream(
-                        new FileOutputStream(f, true));
-                byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
-                byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-                bw.write(emptyRootPtrData);
-                bw.write(emptyLeafData);
-                bw.close();
-            }
-        }
+        createRootPtrPage();
 
         // get a read lock on the root pointer page
         return (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
     }
 
+    /**
+     * Create the root pointer page and the root page if this BTreeFile is empty.
+     */
+    private synchronized void createRootPtrPage() throws IOException {
+        if (channel.size() == 0) {
+            byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
+            byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
+            channel.write(emptyRootPtrData, 0);
+            channel.write(emptyLeafData, emptyRootPtrData.length);
+        }
+    }
+
     /**
      * Get the page number of the first empty page in this BTreeFile.
      * Creates a new page if none of the existing pages are empty.
@@ -1139,15 +1619,8 @@ public class BTreeFile implements DbFile {
         // at this point if headerId is null, either there are no header pages
         // or there are no free slots
         if (headerId == null) {
-            synchronized (this) {
-                // create the new page
-                BufferedOutputStream bw = new BufferedOutputStream(
-                        new FileOutputStream(f, true));
-                byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-                bw.write(emptyData);
-                bw.close();
-                emptyPageNo = numPages();
-            }
+            // take the next preallocated page, growing the file by an extent if needed
+            emptyPageNo = extents.allocate();
         }
 
         return emptyPageNo;
@@ -1175,10 +1648,7 @@ public class BTreeFile implements DbFile {
         BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 
         // write empty page to disk
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
-        rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo - 1) * BufferPool.getPageSize());
-        rf.write(BTreePage.createEmptyPageData());
-        rf.close();
+        channel.write(BTreePage.createEmptyPageData(), pageOffset(emptyPageNo));
 
         // make sure the page is not in the buffer pool	or in the local cache
         Database.getBufferPool().discardPage(newPageId);
@@ -1321,10 +1791,7 @@ class BTreeFileReverseIterator extends AbstractDbFileIterator {
 
     @Override
     public void open() throws DbException, TransactionAbortedException {
-        BTreeRootPtrPage p = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
-                BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-        BTreePageId root = p.getRootId();
-        curp = f.findLeafPage(tid, new HashMap<PageId, Page>(), null, root, Permissions.READ_ONLY);
+        curp = f.findRightLeafPage(tid, Permissions.READ_ONLY, null);
         it = curp.reverseIterator();
     }
 
@@ -1369,6 +1836,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
     private Iterator<Tuple> it = null;
     private BTreeLeafPage curp = null;
+    private final ReadAhead.LeafCursor readAhead = new ReadAhead.LeafCursor();
 
     private TransactionId tid;
     private BTreeFile f;
@@ -1388,11 +1856,9 @@ class BTreeFileIterator extends AbstractDbFileIterator {
      * Open this iterator by getting an iterator on the first leaf page
      */
     public void open() throws DbException, TransactionAbortedException {
-        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-                tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-        BTreePageId root = rootPtr.getRootId();
-        curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+        curp = f.findLeafPage(tid, Permissions.READ_ONLY, null);
         it = curp.iterator();
+        readAhead.reset();
     }
 
     /**
@@ -1413,6 +1879,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
             } else {
                 curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
                         nextp, Permissions.READ_ONLY);
+                readAhead.advance(curp);
                 it = curp.iterator();
                 if (!it.hasNext())
                     it = null;
@@ -1450,6 +1917,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 
     private Iterator<Tuple> it = null;
     private BTreeLeafPage curp = null;
+    private final ReadAhead.LeafCursor readAhead;
 
     private TransactionId tid;
     private BTreeFile f;
@@ -1466,6 +1934,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
         this.f = f;
         this.tid = tid;
         this.ipred = ipred;
+        this.readAhead = new ReadAhead.LeafCursor(f.keyField(), ipred);
     }
 
     /**
@@ -1473,16 +1942,20 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
      * for the given predicate operation
      */
     public void open() throws DbException, TransactionAbortedException {
-        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-                tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-        BTreePageId root = rootPtr.getRootId();
         if (ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN
                 || ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-            curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, ipred.getField());
+            curp = f.findLeafPage(tid, Permissions.READ_ONLY, ipred.getField());
         } else {
-            curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+            curp = f.findLeafPage(tid, Permissions.READ_ONLY, null);
         }
-        it = curp.iterator();
+        // skip the keys on the first page that cannot match
+        if (ipred.getOp() == Op.GREATER_THAN)
+            it = curp.iterator(curp.upperBound(ipred.getField()));
+        else if (ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN_OR_EQ)
+            it = curp.iterator(curp.lowerBound(ipred.getField()));
+        else
+            it = curp.iterator();
+        readAhead.reset();
     }
 
     /**
@@ -1519,6 +1992,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
             } else {
                 curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
                         nextp, Permissions.READ_ONLY);
+                readAhead.advance(curp);
                 it = curp.iterator();
             }
         }
@@ -1567,16 +2041,19 @@ class BTreeReverseSearchIterator extends AbstractDbFileIterator {
 
     @Override
     public void open() throws DbException, TransactionAbortedException {
-        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-                tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-        BTreePageId root = rootPtr.getRootId();
         if (ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.LESS_THAN
                 || ipred.getOp() == Op.LESS_THAN_OR_EQ) {
-            curp = f.findLeafPage(tid, new HashMap<PageId, Page>(), ipred.getField(), root, Permissions.READ_ONLY);
+            curp = f.findRightLeafPage(tid, Permissions.READ_ONLY, ipred.getField());
         } else {
-            curp = f.findLeafPage(tid, new HashMap<PageId, Page>(), null, root, Permissions.READ_ONLY);
+            curp = f.findRightLeafPage(tid, Permissions.READ_ONLY, null);
         }
-        it = curp.reverseIterator();
+        // skip the keys on the first page that cannot match
+        if (ipred.getOp() == Op.LESS_THAN)
+            it = curp.reverseIterator(curp.lowerBound(ipred.getField()) - 1);
+        else if (ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.LESS_THAN_OR_EQ)
+            it = curp.reverseIterator(curp.upperBound(ipred.getField()) - 1);
+        else
+            it = curp.reverseIterator();
     }
 
     @Override
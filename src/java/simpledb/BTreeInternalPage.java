@@ -17,9 +17,16 @@ public class BTreeInternalPage extends BTreePage {
     private final Field keys[];
     private final int children[];
     private final int numSlots;
+    private final boolean packedKeys;
 
     private int childCategory; // either leaf or internal
 
+    private int rightLink; // internal node at the same level or 0
+    private Field highKey; // separator between this page and rightLink, null if rightLink is 0
+
+    // the used slots in key order, slot 0 included; null when the header changed since it was computed
+    private volatile int[] usedSlots;
+
     public void checkRep(Field lowerBound, Field upperBound, boolean checkOccupancy, int depth) {
         Field prev = lowerBound;
         assert (this.getId().pgcateg() == BTreePageId.INTERNAL);
@@ -35,8 +42,16 @@ public class BTreeInternalPage extends BTreePage {
             assert (prev.compare(Op.LESS_THAN_OR_EQ, upperBound));
         }
 
+        assert (null == highKey ? null == upperBound : highKey.equals(upperBound));
+        assert ((null == highKey) == (0 == rightLink));
+
         if (checkOccupancy && depth > 0) {
-            assert (getNumEntries() >= getMaxEntries() / 2);
+            // a split of a page with packed keys balances bytes, which may leave
+            // a half one entry short of minimum occupancy. A bulk loaded page with
+            // packed keys holds as many entries as keys of the largest size would fill,
+            // and is only compacted once deletes reach it
+            int maxEmptySlots = getMaxEntries() - getMaxEntries() / 2 + (packedKeys ? 1 : 0);
+            assert (getNumEmptySlots() <= maxEmptySlots || packedKeys && getNumEntries() >= getMaxEntries() / 2);
         }
     }
 
@@ -44,9 +59,18 @@ public class BTreeInternalPage extends BTreePage {
      * Create a BTreeInternalPage from a set of bytes of data read from disk.
      * The format of a BTreeInternalPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of entry slots, and extra
-     * bytes for the parent pointer, one extra child pointer (a node with m entries
-     * has m+1 pointers to children), and the category of all child pages (either
-     * leaf or internal).
+     * bytes for the parent pointer, the right link and high key, one extra child
+     * pointer (a node with m entries has m+1 pointers to children), and the category
+     * of all child pages (either leaf or internal).
+     * <p>
+     * Keys of a type whose values vary in length are packed instead, see
+     * {@link #hasPackedKeys(Type)}.
+     * <p>
+     * The right link points to the next internal page at the same level of the tree
+     * and the high key is the key separating the two, an upper bound of the keys below
+     * this page. A descent that reaches this page after a concurrent split moved the
+     * key it looks for to the right follows the right link, as in Lehman and Yao's
+     * B-link trees.
      * Specifically, the number of entries is equal to: <p>
      * floor((BufferPool.getPageSize()*8 - extra bytes*8) / (entry size * 8 + 1))
      * <p> where entry size is the size of entries in this index node
@@ -65,8 +89,22 @@ public class BTreeInternalPage extends BTreePage {
      * @see BufferPool#getPageSize()
      */
     public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
-        super(id, key);
-        this.numSlots = getMaxEntries() + 1;
+        this(id, data, key, 1);
+    }
+
+    /**
+     * Create a BTreeInternalPage of a B+ tree keyed on keyLength consecutive
+     * fields, starting at the given one. Its keys are CompositeFields, which
+     * are never packed.
+     *
+     * @see #BTreeInternalPage(BTreePageId, byte[], int)
+     * @see CompositeField
+     */
+    public BTreeInternalPage(BTreePageId id, byte[] data, int key, int keyLength) throws IOException {
+        super(id, key, keyLength);
+        this.packedKeys = keyLength == 1 && hasPackedKeys(td.getFieldType(keyField));
+        this.numSlots = packedKeys ? getNumPackedSlots(td.getFieldType(keyField), BufferPool.getPageSize())
+                : getMaxEntries() + 1;
         DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
         // Read the parent pointer
@@ -77,15 +115,34 @@ public class BTreeInternalPage extends BTreePage {
             e.printStackTrace();
         }
 
+        // read the right link
+        this.rightLink = dis.readInt();
+
         // read the child page category
         childCategory = (int) dis.readByte();
 
+        // read the high key, which is only present with a right link
+        try {
+            Field f = CompositeField.parse(dis, td, keyField, keyLength);
+            this.highKey = rightLink == 0 ? null : f;
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+        }
+
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
         for (int i = 0; i < header.length; i++)
             header[i] = dis.readByte();
 
         keys = new Field[numSlots];
+        children = new int[numSlots];
+        if (packedKeys) {
+            readPackedEntries(dis);
+            dis.close();
+            setBeforeImage();
+            return;
+        }
+
         try {
             // allocate and read the keys of this page
             // start from 1 because the first key slot is not used
@@ -97,7 +154,6 @@ public class BTreeInternalPage extends BTreePage {
             e.printStackTrace();
         }
 
-        children = new int[numSlots];
         try {
             // allocate and read the child pointers of this page
             for (int i = 0; i < children.length; i++)
@@ -112,30 +168,154 @@ public class BTreeInternalPage extends BTreePage {
 
     /**
      * Retrieve the maximum number of entries this page can hold. (The number of keys)
+     * <p>
+     * A page with packed keys holds more entries the shorter its keys are; its
+     * capacity, and the occupancy reported by {@link #getNumEmptySlots()}, is
+     * counted in entries with keys of the full width of the key type.
      */
     public int getMaxEntries() {
-        int keySize = td.getFieldType(keyField).getLen();
+        if (packedKeys)
+            return getMaxPackedEntries(td.getFieldType(keyField), BufferPool.getPageSize());
+        int keySize = getKeySize();
         int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
-        // extraBits are: one parent pointer, 1 byte for child page category,
+        // extraBits are: one parent pointer, one right link, 1 byte for child page category, the high key,
         // one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header
-        int extraBits = 2 * INDEX_SIZE * 8 + 8 + 1;
+        int extraBits = 3 * INDEX_SIZE * 8 + 8 + keySize * 8 + 1;
         int entriesPerPage = (BufferPool.getPageSize() * 8 - extraBits) / bitsPerEntryIncludingHeader; //round down
         return entriesPerPage;
     }
 
+    /**
+     * Returns the number of bytes a key takes on a page without packed keys.
+     */
+    private int getKeySize() {
+        return CompositeField.getKeySize(td, keyField, keyLength);
+    }
+
     /**
      * Computes the number of bytes in the header of a B+ internal page with each entry occupying entrySize bytes
      *
      * @return the number of bytes in the header
      */
     private int getHeaderSize() {
-        int slotsPerPage = getMaxEntries() + 1;
+        int slotsPerPage = numSlots;
         int hb = (slotsPerPage / 8);
         if (hb * 8 < slotsPerPage) hb++;
 
         return hb;
     }
 
+    /**
+     * Returns true if the internal pages of an index on keys of the given type
+     * store each key with its actual length, rather than with the full width of
+     * the type. Only strings vary in length, and separators chosen by
+     * {@link BTreeFile#separator(Field, Field)} are mostly much shorter than the
+     * longest string.
+     * <p>
+     * Such a page packs its used entries one after the other behind the header:
+     * the extra child pointer, then for each entry the right child pointer, one
+     * length byte and the characters of the key.
+     */
+    public static boolean hasPackedKeys(Type keyType) {
+        return keyType == Type.STRING_TYPE;
+    }
+
+    /**
+     * Bytes in front of the header of a page with packed keys: the parent pointer,
+     * the right link, the child page category, the high key and the extra child pointer.
+     */
+    private static int getPackedFixedSize(Type keyType) {
+        return 3 * INDEX_SIZE + 1 + keyType.getLen();
+    }
+
+    /**
+     * Returns the number of bytes a packed entry with the given key takes.
+     */
+    static int getPackedEntrySize(Field key) {
+        return INDEX_SIZE + 1 + ((StringField) key).getValue().length();
+    }
+
+    /**
+     * Returns the number of bytes the largest packed entry takes.
+     */
+    private static int getMaxPackedEntrySize() {
+        return INDEX_SIZE + 1 + Type.STRING_LEN;
+    }
+
+    /**
+     * Returns the number of slots, slot 0 included, of a page with packed keys:
+     * enough for a page full of entries with empty keys.
+     */
+    static int getNumPackedSlots(Type keyType, int pageSize) {
+        int minEntryBits = (INDEX_SIZE + 1) * 8 + 1;
+        return (pageSize * 8 - getPackedFixedSize(keyType) * 8 - 1) / minEntryBits + 1;
+    }
+
+    /**
+     * Returns the number of bytes available to the entries of a page with packed keys.
+     */
+    static int getPackedCapacity(Type keyType, int pageSize) {
+        int slots = getNumPackedSlots(keyType, pageSize);
+        return pageSize - getPackedFixedSize(keyType) - (slots + 7) / 8;
+    }
+
+    /**
+     * Returns the capacity of a page with packed keys, counted in entries of the
+     * largest size. The room for one more is held back, so that a separator can
+     * always be replaced by a longer one.
+     */
+    static int getMaxPackedEntries(Type keyType, int pageSize) {
+        return getPackedCapacity(keyType, pageSize) / getMaxPackedEntrySize() - 1;
+    }
+
+    /**
+     * Returns the number of bytes taken by the entries of a page with packed keys,
+     * the extra child pointer excluded.
+     */
+    private int getPackedSize() {
+        int size = 0;
+        for (int slot : usedSlots())
+            if (slot > 0)
+                size += getPackedEntrySize(keys[slot]);
+        return size;
+    }
+
+    /**
+     * Read the entries of a page with packed keys.
+     */
+    private void readPackedEntries(DataInputStream dis) throws IOException {
+        Arrays.fill(children, -1);
+        children[0] = dis.readInt();
+        if (!isSlotUsed(0))
+            children[0] = -1;
+        for (int i = 1; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                continue;
+            children[i] = dis.readInt();
+            byte[] bs = new byte[dis.readUnsignedByte()];
+            dis.readFully(bs);
+            keys[i] = new StringField(new String(bs), Type.STRING_LEN);
+        }
+    }
+
+    /**
+     * Write the entries of a page with packed keys, and return the number of bytes written.
+     */
+    private int writePackedEntries(DataOutputStream dos) throws IOException {
+        dos.writeInt(isSlotUsed(0) ? children[0] : 0);
+        int size = INDEX_SIZE;
+        for (int i = 1; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                continue;
+            String s = ((StringField) keys[i]).getValue();
+            dos.writeInt(children[i]);
+            dos.writeByte(s.length());
+            dos.writeBytes(s);
+            size += getPackedEntrySize(keys[i]);
+        }
+        return size;
+    }
+
     /**
      * Return a view of this page before it was modified
      * -- used by recovery
@@ -146,7 +326,7 @@ public class BTreeInternalPage extends BTreePage {
             synchronized (oldDataLock) {
                 oldDataRef = oldData;
             }
-            return new BTreeInternalPage(pid, oldDataRef, keyField);
+            return new BTreeInternalPage(pid, oldDataRef, keyField, keyLength);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -168,7 +348,7 @@ public class BTreeInternalPage extends BTreePage {
         // if associated bit is not set, read forward to the next key, and
         // return null.
         if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getFieldType(keyField).getLen(); i++) {
+            for (int i = 0; i < getKeySize(); i++) {
                 try {
                     dis.readByte();
                 } catch (IOException e) {
@@ -181,7 +361,7 @@ public class BTreeInternalPage extends BTreePage {
         // read the key field
         Field f = null;
         try {
-            f = td.getFieldType(keyField).parse(dis);
+            f = CompositeField.parse(dis, td, keyField, keyLength);
         } catch (java.text.ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
@@ -244,6 +424,14 @@ public class BTreeInternalPage extends BTreePage {
             e.printStackTrace();
         }
 
+        // write out the right link
+        try {
+            dos.writeInt(rightLink);
+
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
         // write out the child page category
         try {
             dos.writeByte((byte) childCategory);
@@ -252,6 +440,16 @@ public class BTreeInternalPage extends BTreePage {
             e.printStackTrace();
         }
 
+        // write out the high key
+        try {
+            if (highKey != null)
+                highKey.serialize(dos);
+            else
+                dos.write(new byte[getKeySize()]);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
         // create the header of the page
         for (int i = 0; i < header.length; i++) {
             try {
@@ -262,6 +460,18 @@ public class BTreeInternalPage extends BTreePage {
             }
         }
 
+        // a page with packed keys holds its entries back to back
+        if (packedKeys) {
+            try {
+                int size = writePackedEntries(dos);
+                dos.write(new byte[len - getPackedFixedSize(td.getFieldType(keyField)) + INDEX_SIZE - header.length - size]);
+                dos.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return baos.toByteArray();
+        }
+
         // create the keys
         // start from 1 because the first key slot is not used
         // since a node with m keys has m+1 pointers
@@ -269,7 +479,7 @@ public class BTreeInternalPage extends BTreePage {
 
             // empty slot
             if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getFieldType(keyField).getLen(); j++) {
+                for (int j = 0; j < getKeySize(); j++) {
                     try {
                         dos.writeByte(0);
                     } catch (IOException e) {
@@ -315,8 +525,8 @@ public class BTreeInternalPage extends BTreePage {
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length +
-                td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length);
+        int zerolen = BufferPool.getPageSize() - (2 * INDEX_SIZE + 1 + getKeySize() + header.length +
+                getKeySize() * (keys.length - 1) + INDEX_SIZE * children.length);
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -432,10 +642,23 @@ public class BTreeInternalPage extends BTreePage {
                 break;
             }
         }
+        if (!hasRoomForKey(e, e.getKey()))
+            throw new DbException("no room on page for updated key " + e.getKey());
         children[rid.getTupleNumber()] = e.getRightChild().getPageNumber();
         keys[rid.getTupleNumber()] = e.getKey();
     }
 
+    /**
+     * Returns true if the key of the given entry on this page can be replaced by the given key
+     * without running out of room. Only pages with packed keys can run out of room this way.
+     */
+    boolean hasRoomForKey(BTreeEntry e, Field key) {
+        if (!packedKeys)
+            return true;
+        int size = getPackedSize() - getPackedEntrySize(keys[e.getRecordId().getTupleNumber()]) + getPackedEntrySize(key);
+        return size <= getPackedCapacity(td.getFieldType(keyField), BufferPool.getPageSize());
+    }
+
     /**
      * Adds the specified entry to the page; the entry's recordId should be updated to
      * reflect that it is now stored on this page.
@@ -459,8 +682,12 @@ public class BTreeInternalPage extends BTreePage {
         } else if (e.getLeftChild().pgcateg() != childCategory || e.getRightChild().pgcateg() != childCategory)
             throw new DbException("child page category mismatch in insertEntry");
 
+        if (packedKeys && getPackedSize() + getPackedEntrySize(e.getKey())
+                > getPackedCapacity(td.getFieldType(keyField), BufferPool.getPageSize()))
+            throw new DbException("called insertEntry on page with no room for key " + e.getKey());
+
         // if this is the first entry, add it and return
-        if (getNumEmptySlots() == getMaxEntries()) {
+        if (getNumEntries() == 0) {
             children[0] = e.getLeftChild().getPageNumber();
             children[1] = e.getRightChild().getPageNumber();
             keys[1] = e.getKey();
@@ -563,20 +790,153 @@ public class BTreeInternalPage extends BTreePage {
      * Returns the number of entries (keys) currently stored on this page slot 0 excluded
      */
     public int getNumEntries() {
-        return numSlots - getNumEmptySlots() - 1;
+        int[] slots = usedSlots();
+        // the first key slot is not used since a node with m keys has m+1 pointers
+        return slots.length > 0 && slots[0] == 0 ? slots.length - 1 : slots.length;
     }
 
     /**
      * Returns the number of empty slots on this page. slot 0 excluded
      */
     public int getNumEmptySlots() {
-        int cnt = 0;
-        // start from 1 because the first key slot is not used
-        // since a node with m keys has m+1 pointers
-        for (int i = 1; i < numSlots; i++)
-            if (!isSlotUsed(i))
-                cnt++;
-        return cnt;
+        int usedKeys = getNumEntries();
+        if (packedKeys) {
+            // count the free bytes in entries of the largest size, keeping one in reserve
+            int free = (getMaxEntries() * getMaxPackedEntrySize() - getPackedSize()) / getMaxPackedEntrySize();
+            return Math.max(0, Math.min(numSlots - 1 - usedKeys, free));
+        }
+        return numSlots - 1 - usedKeys;
+    }
+
+    /**
+     * Returns the number of slots on this page, slot 0 included.
+     */
+    int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Returns the used slots of this page in key order, slot 0 included.
+     */
+    private int[] usedSlots() {
+        int[] slots = usedSlots;
+        if (slots == null) {
+            int n = 0;
+            slots = new int[numSlots];
+            for (int i = 0; i < numSlots; i++)
+                if (isSlotUsed(i))
+                    slots[n++] = i;
+            slots = Arrays.copyOf(slots, n);
+            usedSlots = slots;
+        }
+        return slots;
+    }
+
+    /**
+     * Returns the nth key on this page, counting from 0.
+     *
+     * @throws NoSuchElementException if the page has no nth key
+     */
+    public Field getKeyAt(int n) throws NoSuchElementException {
+        if (n < 0 || n >= getNumEntries())
+            throw new NoSuchElementException();
+        return keys[usedSlots()[n + 1]];
+    }
+
+    /**
+     * Returns the nth child pointer on this page, counting from 0. Child n
+     * holds the keys between key n-1 and key n.
+     *
+     * @throws NoSuchElementException if the page has no nth child
+     */
+    public BTreePageId getChildAt(int n) throws NoSuchElementException {
+        if (n < 0 || n > getNumEntries())
+            throw new NoSuchElementException();
+        return new BTreePageId(pid.getTableId(), children[usedSlots()[n]], childCategory);
+    }
+
+    /**
+     * Returns the number of keys on this page that are less than f, which is
+     * the position of the leftmost child that may hold f.
+     */
+    public int lowerBound(Field f) {
+        return countKeys(Op.LESS_THAN, f);
+    }
+
+    /**
+     * Returns the number of keys on this page that are at most f, which is
+     * the position of the rightmost child that may hold f.
+     */
+    public int upperBound(Field f) {
+        return countKeys(Op.LESS_THAN_OR_EQ, f);
+    }
+
+    /**
+     * Binary search for the number of leading keys that satisfy (key op f),
+     * for an op that holds for a prefix of the sorted keys.
+     */
+    private int countKeys(Op op, Field f) {
+        int[] slots = usedSlots();
+        int lo = 1;
+        int hi = slots.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[slots[mid]].compare(op, f))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return Math.max(lo - 1, 0);
+    }
+
+    /**
+     * Get the id of the internal page to the right of this page at the same level
+     *
+     * @return the id of the right link, or null if this is the right-most page of its level
+     */
+    public BTreePageId getRightLinkId() {
+        if (rightLink == 0) {
+            return null;
+        }
+        return new BTreePageId(pid.getTableId(), rightLink, BTreePageId.INTERNAL);
+    }
+
+    /**
+     * Get the high key of this page, which separates its keys from those of the
+     * page its right link points to
+     *
+     * @return the high key, or null if this page has no right link
+     */
+    public Field getHighKey() {
+        return highKey;
+    }
+
+    /**
+     * Set the right link of this page and the high key separating the two pages
+     *
+     * @param id      - the id of the next internal page at the same level, or null if there is none
+     * @param highKey - the separator of the two pages, null exactly when id is null
+     * @throws DbException if the id or key is not valid
+     */
+    public void setRightLink(BTreePageId id, Field highKey) throws DbException {
+        if (id == null) {
+            if (highKey != null) {
+                throw new DbException("high key without right link");
+            }
+            rightLink = 0;
+        } else {
+            if (id.getTableId() != pid.getTableId()) {
+                throw new DbException("table id mismatch in setRightLink");
+            }
+            if (id.pgcateg() != BTreePageId.INTERNAL) {
+                throw new DbException("right link must be an internal node");
+            }
+            if (highKey == null || !highKey.getType().equals(td.getFieldType(keyField))) {
+                throw new DbException("right link needs a high key of the key type");
+            }
+            rightLink = id.getPageNumber();
+        }
+        this.highKey = highKey;
     }
 
     /**
@@ -596,6 +956,7 @@ public class BTreeInternalPage extends BTreePage {
         int headerbyte = (i - headerbit) / 8;
 
         Debug.log(1, "BTreeInternalPage.setSlot: setting slot %d to %b", i, value);
+        usedSlots = null;
         if (value)
             header[headerbyte] |= 1 << headerbit;
         else
@@ -744,7 +1105,7 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
 
     public BTreeInternalPageReverseIterator(BTreeInternalPage p) {
         this.p = p;
-        this.curEntry = p.getMaxEntries();
+        this.curEntry = p.getNumSlots() - 1;
         while (!p.isSlotUsed(curEntry) && curEntry > 0) {
             --curEntry;
         }
@@ -764,11 +1125,19 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
             while (true) {
                 int entry = curEntry--;
                 Field key = p.getKey(entry);
-                BTreePageId childId = p.getChildId(entry - 1);
-                if (key != null && childId != null) {
+                if (key == null)
+                    continue;
+                // the left child is in the closest used slot below, which is not
+                // entry - 1 once deletions have left holes in the page
+                int left = entry - 1;
+                while (left > 0 && !p.isSlotUsed(left))
+                    --left;
+                BTreePageId childId = p.getChildId(left);
+                if (childId != null) {
                     nextToReturn = new BTreeEntry(key, childId, nextChildId);
                     nextToReturn.setRecordId(new RecordId(p.pid, entry));
                     nextChildId = childId;
+                    curEntry = left;
                     return true;
                 }
             }
@@ -796,4 +1165,4 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
     public void remove() {
         throw new UnsupportedOperationException();
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
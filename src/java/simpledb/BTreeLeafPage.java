@@ -11,13 +11,21 @@ import java.io.*;
  * @see BufferPool
  */
 public class BTreeLeafPage extends BTreePage {
+    // bytes of a page with packed keys around its header: the parent and sibling
+    // pointers, and the length of the common prefix
+    private static final int PACKED_FIXED_SIZE = 3 * INDEX_SIZE + 1;
+
     private final byte header[];
     private final Tuple tuples[];
     private final int numSlots;
+    private final boolean packedKeys;
 
     private int leftSibling; // leaf node or 0
     private int rightSibling; // leaf node or 0
 
+    // the used slots in key order; null when the header changed since it was computed
+    private volatile int[] usedSlots;
+
     public void checkRep(int fieldid, Field lowerBound, Field upperBound, boolean checkoccupancy, int depth) {
         Field prev = lowerBound;
         assert (this.getId().pgcateg() == BTreePageId.LEAF);
@@ -25,8 +33,9 @@ public class BTreeLeafPage extends BTreePage {
         Iterator<Tuple> it = this.iterator();
         while (it.hasNext()) {
             Tuple t = it.next();
-            assert (null == prev || prev.compare(Predicate.Op.LESS_THAN_OR_EQ, t.getField(fieldid)));
-            prev = t.getField(fieldid);
+            Field key = fieldid == keyField ? keyOf(t) : t.getField(fieldid);
+            assert (null == prev || prev.compare(Predicate.Op.LESS_THAN_OR_EQ, key));
+            prev = key;
             assert (t.getRecordId().getPageId().equals(this.getId()));
         }
 
@@ -35,7 +44,9 @@ public class BTreeLeafPage extends BTreePage {
         }
 
         if (checkoccupancy && depth > 0) {
-            assert (getNumTuples() >= getMaxTuples() / 2);
+            // a page with packed keys is left under-full when the tuples of its
+            // siblings would not fit on it, their keys sharing a shorter prefix
+            assert (packedKeys || getNumTuples() >= getMaxTuples() / 2);
         }
     }
 
@@ -52,6 +63,8 @@ public class BTreeLeafPage extends BTreePage {
      * <p>
      * ceiling(no. tuple slots / 8)
      * <p>
+     * The tuples of an index keyed on a type whose values vary in length are
+     * packed instead, see {@link #getNumPackedSlots(TupleDesc, int)}.
      *
      * @param id   - the id of this page
      * @param data - the raw data of this page
@@ -61,8 +74,20 @@ public class BTreeLeafPage extends BTreePage {
      * @see BufferPool#getPageSize()
      */
     public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
-        super(id, key);
-        this.numSlots = getMaxTuples();
+        this(id, data, key, 1);
+    }
+
+    /**
+     * Create a BTreeLeafPage of a B+ tree keyed on keyLength consecutive
+     * fields, starting at the given one.
+     *
+     * @see #BTreeLeafPage(BTreePageId, byte[], int)
+     * @see CompositeField
+     */
+    public BTreeLeafPage(BTreePageId id, byte[] data, int key, int keyLength) throws IOException {
+        super(id, key, keyLength);
+        this.packedKeys = keyLength == 1 && BTreeInternalPage.hasPackedKeys(td.getFieldType(keyField));
+        this.numSlots = packedKeys ? getNumPackedSlots(td, BufferPool.getPageSize()) : getMaxTuples();
         DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
         // Read the parent and sibling pointers
@@ -95,8 +120,11 @@ public class BTreeLeafPage extends BTreePage {
         tuples = new Tuple[numSlots];
         try {
             // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
+            if (packedKeys)
+                readPackedTuples(dis);
+            else
+                for (int i = 0; i < tuples.length; i++)
+                    tuples[i] = readNextTuple(dis, i);
         } catch (NoSuchElementException e) {
             e.printStackTrace();
         }
@@ -107,8 +135,14 @@ public class BTreeLeafPage extends BTreePage {
 
     /**
      * Retrieve the maximum number of tuples this page can hold.
+     * <p>
+     * A page with packed keys holds more tuples the longer the prefix their keys
+     * share is; its capacity, and the occupancy reported by {@link #getNumEmptySlots()},
+     * is counted in tuples whose keys share no prefix and are of the full width.
      */
     public int getMaxTuples() {
+        if (packedKeys)
+            return getMaxPackedTuples(td, BufferPool.getPageSize());
         int bitsPerTupleIncludingHeader = td.getSize() * 8 + 1;
         // extraBits are: left sibling pointer, right sibling pointer, parent pointer
         int extraBits = 3 * INDEX_SIZE * 8;
@@ -120,13 +154,180 @@ public class BTreeLeafPage extends BTreePage {
      * Computes the number of bytes in the header of a page in a BTreeFile with each tuple occupying tupleSize bytes
      */
     private int getHeaderSize() {
-        int tuplesPerPage = getMaxTuples();
+        int tuplesPerPage = numSlots;
         int hb = (tuplesPerPage / 8);
         if (hb * 8 < tuplesPerPage) hb++;
 
         return hb;
     }
 
+    /**
+     * Returns the number of slots of a leaf page with packed keys, whose tuples have
+     * the given description: enough for a page full of tuples whose keys are all
+     * the common prefix.
+     * <p>
+     * Such a page stores the prefix the keys of its tuples share once, as a length
+     * byte and the characters, behind the header. The used tuples follow one after
+     * the other in slot order, each key as a length byte and the characters that
+     * follow the prefix. Only the leaves of an index on a single string field are
+     * packed, see {@link BTreeInternalPage#hasPackedKeys(Type)}.
+     */
+    static int getNumPackedSlots(TupleDesc td, int pageSize) {
+        return (pageSize * 8 - PACKED_FIXED_SIZE * 8) / (getPackedTupleSize(td, 0) * 8 + 1);
+    }
+
+    /**
+     * Returns the number of bytes a packed tuple takes whose key has the given
+     * number of characters following the common prefix.
+     */
+    private static int getPackedTupleSize(TupleDesc td, int suffixLength) {
+        return td.getSize() - Type.STRING_TYPE.getLen() + 1 + suffixLength;
+    }
+
+    /**
+     * Returns the number of bytes available to the common prefix and the tuples
+     * of a page with packed keys.
+     */
+    static int getPackedCapacity(TupleDesc td, int pageSize) {
+        return pageSize - PACKED_FIXED_SIZE - (getNumPackedSlots(td, pageSize) + 7) / 8;
+    }
+
+    /**
+     * Returns the capacity of a page with packed keys, counted in tuples whose keys
+     * share no prefix and are of the full width.
+     */
+    static int getMaxPackedTuples(TupleDesc td, int pageSize) {
+        return getPackedCapacity(td, pageSize) / getPackedTupleSize(td, Type.STRING_LEN);
+    }
+
+    /**
+     * Returns the packed key of a tuple, cut down to the width of the key type.
+     */
+    private static String packedKey(Tuple t, int keyField) {
+        String s = ((StringField) t.getField(keyField)).getValue();
+        return s.length() > Type.STRING_LEN ? s.substring(0, Type.STRING_LEN) : s;
+    }
+
+    /**
+     * Returns the length of the longest prefix the given strings share.
+     */
+    private static int commonPrefixLength(String a, String b) {
+        int n = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < n && a.charAt(i) == b.charAt(i))
+            i++;
+        return i;
+    }
+
+    /**
+     * Returns the number of bytes that the tuples of this page with packed keys
+     * and the given ones take together, with the prefix their keys share.
+     */
+    private int getPackedSize(Collection<Tuple> more) {
+        String first = null;
+        String last = null;
+        int chars = 0;
+        int n = 0;
+        ArrayList<Tuple> all = new ArrayList<Tuple>(more);
+        for (int slot : usedSlots())
+            all.add(tuples[slot]);
+        for (Tuple t : all) {
+            String s = packedKey(t, keyField);
+            if (first == null || s.compareTo(first) < 0)
+                first = s;
+            if (last == null || s.compareTo(last) > 0)
+                last = s;
+            chars += s.length();
+            n++;
+        }
+        if (n == 0)
+            return 0;
+        // the common prefix of the smallest and largest key is the one all keys share
+        int prefix = commonPrefixLength(first, last);
+        return prefix + n * (getPackedTupleSize(td, 0) - prefix) + chars;
+    }
+
+    /**
+     * Returns how many of the given tuples, sorted on the key field, fit on a page
+     * with packed keys, taken from the first.
+     */
+    static int getNumPackedTuples(TupleDesc td, int keyField, List<Tuple> ts, int pageSize) {
+        int slots = getNumPackedSlots(td, pageSize);
+        int capacity = getPackedCapacity(td, pageSize);
+        String first = null;
+        int chars = 0;
+        int n = 0;
+        while (n < ts.size() && n < slots) {
+            String s = packedKey(ts.get(n), keyField);
+            if (first == null)
+                first = s;
+            int prefix = commonPrefixLength(first, s);
+            if (prefix + (n + 1) * (getPackedTupleSize(td, 0) - prefix) + chars + s.length() > capacity)
+                break;
+            chars += s.length();
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Read the tuples of a page with packed keys.
+     */
+    private void readPackedTuples(DataInputStream dis) throws NoSuchElementException {
+        try {
+            byte[] bs = new byte[dis.readUnsignedByte()];
+            dis.readFully(bs);
+            String prefix = new String(bs);
+            for (int i = 0; i < numSlots; i++) {
+                if (!isSlotUsed(i))
+                    continue;
+                Tuple t = new Tuple(td);
+                t.setRecordId(new RecordId(pid, i));
+                for (int j = 0; j < td.numFields(); j++) {
+                    if (j == keyField) {
+                        bs = new byte[dis.readUnsignedByte()];
+                        dis.readFully(bs);
+                        t.setField(j, new StringField(prefix + new String(bs), Type.STRING_LEN));
+                    } else {
+                        t.setField(j, td.getFieldType(j).parse(dis));
+                    }
+                }
+                tuples[i] = t;
+            }
+        } catch (IOException e) {
+            throw new NoSuchElementException("error reading packed tuple");
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    /**
+     * Write the given tuples, sorted on the key field, in the format of a page with
+     * packed keys: the prefix their keys share, then the tuples with their keys cut
+     * down to what follows the prefix.
+     */
+    static void writePackedTuples(DataOutputStream dos, List<Tuple> ts, int keyField) throws IOException {
+        String prefix = "";
+        if (!ts.isEmpty()) {
+            String first = packedKey(ts.get(0), keyField);
+            prefix = first.substring(0, commonPrefixLength(first, packedKey(ts.get(ts.size() - 1), keyField)));
+        }
+        dos.writeByte(prefix.length());
+        dos.writeBytes(prefix);
+        for (Tuple t : ts) {
+            for (int j = 0; j < t.getTupleDesc().numFields(); j++) {
+                if (j == keyField) {
+                    String suffix = packedKey(t, keyField).substring(prefix.length());
+                    dos.writeByte(suffix.length());
+                    dos.writeBytes(suffix);
+                } else {
+                    t.getField(j).serialize(dos);
+                }
+            }
+        }
+    }
+
     /**
      * Return a view of this page before it was modified
      * -- used by recovery
@@ -137,7 +338,7 @@ public class BTreeLeafPage extends BTreePage {
             synchronized (oldDataLock) {
                 oldDataRef = oldData;
             }
-            return new BTreeLeafPage(pid, oldDataRef, keyField);
+            return new BTreeLeafPage(pid, oldDataRef, keyField, keyLength);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -232,6 +433,21 @@ public class BTreeLeafPage extends BTreePage {
             }
         }
 
+        // a page with packed keys holds its tuples back to back
+        if (packedKeys) {
+            try {
+                ArrayList<Tuple> used = new ArrayList<Tuple>();
+                for (int slot : usedSlots())
+                    used.add(tuples[slot]);
+                writePackedTuples(dos, used, keyField);
+                dos.write(new byte[len - dos.size()]);
+                dos.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return baos.toByteArray();
+        }
+
         // create the tuples
         for (int i = 0; i < tuples.length; i++) {
 
@@ -324,18 +540,12 @@ public class BTreeLeafPage extends BTreePage {
 
         if (emptySlot == -1)
             throw new DbException("called addTuple on page with no empty slots.");
+        if (packedKeys && !hasRoomFor(t))
+            throw new DbException("called addTuple on page with no room for key " + keyOf(t));
 
         // find the last key less than or equal to the key being inserted
-        int lessOrEqKey = -1;
-        Field key = t.getField(keyField);
-        for (int i = 0; i < numSlots; i++) {
-            if (isSlotUsed(i)) {
-                if (tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
-                    lessOrEqKey = i;
-                else
-                    break;
-            }
-        }
+        int lessOrEq = upperBound(keyOf(t));
+        int lessOrEqKey = lessOrEq == 0 ? -1 : usedSlots()[lessOrEq - 1];
 
         // shift records back or forward to fill empty slot and make room for new record
         // while keeping records in sorted order
@@ -446,18 +656,109 @@ public class BTreeLeafPage extends BTreePage {
      * Returns the number of tuples currently stored on this page
      */
     public int getNumTuples() {
-        return numSlots - getNumEmptySlots();
+        return usedSlots().length;
     }
 
     /**
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-        int cnt = 0;
-        for (int i = 0; i < numSlots; i++)
-            if (!isSlotUsed(i))
-                cnt++;
-        return cnt;
+        if (packedKeys) {
+            // count the free bytes in tuples of the largest size
+            int free = (getPackedCapacity(td, BufferPool.getPageSize()) - getPackedSize(Collections.<Tuple>emptyList()))
+                    / getPackedTupleSize(td, Type.STRING_LEN);
+            return Math.max(0, Math.min(numSlots - getNumTuples(), free));
+        }
+        return numSlots - getNumTuples();
+    }
+
+    /**
+     * Returns true if the given tuple can be added to this page.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return hasRoomFor(Collections.singletonList(t));
+    }
+
+    /**
+     * Returns true if all of the given tuples can be added to this page. A page with
+     * packed keys may run out of room before its empty slots do, as a tuple whose
+     * key shares a shorter prefix with the others lengthens all of them.
+     */
+    public boolean hasRoomFor(Collection<Tuple> ts) {
+        if (!packedKeys)
+            return getNumEmptySlots() >= ts.size();
+        return getNumTuples() + ts.size() <= numSlots
+                && getPackedSize(ts) <= getPackedCapacity(td, BufferPool.getPageSize());
+    }
+
+    /**
+     * Returns the number of tuple slots of this page.
+     */
+    int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Returns the used slots of this page, in key order.
+     */
+    private int[] usedSlots() {
+        int[] slots = usedSlots;
+        if (slots == null) {
+            int n = 0;
+            slots = new int[numSlots];
+            for (int i = 0; i < numSlots; i++)
+                if (isSlotUsed(i))
+                    slots[n++] = i;
+            slots = Arrays.copyOf(slots, n);
+            usedSlots = slots;
+        }
+        return slots;
+    }
+
+    /**
+     * Returns the nth tuple on this page in key order, counting from 0.
+     *
+     * @throws NoSuchElementException if the page has no nth tuple
+     */
+    public Tuple getTupleAt(int n) throws NoSuchElementException {
+        int[] slots = usedSlots();
+        if (n < 0 || n >= slots.length)
+            throw new NoSuchElementException();
+        return tuples[slots[n]];
+    }
+
+    /**
+     * Returns the number of tuples on this page whose key is less than f,
+     * i.e. the position of the first tuple whose key is at least f.
+     */
+    public int lowerBound(Field f) {
+        return countKeys(Predicate.Op.LESS_THAN, f);
+    }
+
+    /**
+     * Returns the number of tuples on this page whose key is at most f,
+     * i.e. the position of the first tuple whose key is greater than f.
+     */
+    public int upperBound(Field f) {
+        return countKeys(Predicate.Op.LESS_THAN_OR_EQ, f);
+    }
+
+    /**
+     * Binary search for the number of leading tuples whose key satisfies
+     * (key op f), for an op that holds for a prefix of the sorted tuples.
+     */
+    private int countKeys(Predicate.Op op, Field f) {
+        int[] slots = usedSlots();
+        int lo = 0;
+        int hi = slots.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keyOf(tuples[slots[mid]]).compare(op, f))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
     }
 
     /**
@@ -477,6 +778,7 @@ public class BTreeLeafPage extends BTreePage {
         int headerbyte = (i - headerbit) / 8;
 
         Debug.log(1, "BTreeLeafPage.setSlot: setting slot %d to %b", i, value);
+        usedSlots = null;
         if (value)
             header[headerbyte] |= 1 << headerbit;
         else
@@ -499,6 +801,27 @@ public class BTreeLeafPage extends BTreePage {
         return new BTreeLeafPageReverseIterator(this);
     }
 
+    /**
+     * @param from - the position of the first tuple to return, counting from 0 in key order
+     * @return an iterator over the tuples on this page from the given position on
+     * @see #lowerBound(Field)
+     */
+    public Iterator<Tuple> iterator(int from) {
+        int[] slots = usedSlots();
+        return new BTreeLeafPageIterator(this, from < slots.length ? slots[Math.max(0, from)] : numSlots);
+    }
+
+    /**
+     * @param from - the position of the first tuple to return, counting from 0 in key order
+     * @return a reverse iterator over the tuples on this page from the given position down
+     * @see #upperBound(Field)
+     */
+    public Iterator<Tuple> reverseIterator(int from) {
+        int[] slots = usedSlots();
+        return new BTreeLeafPageReverseIterator(this, from >= 0 && slots.length > 0
+                ? slots[Math.min(from, slots.length - 1)] : -1);
+    }
+
     /**
      * protected method used by the iterator to get the ith tuple out of this page
      *
@@ -535,7 +858,12 @@ class BTreeLeafPageIterator implements Iterator<Tuple> {
     BTreeLeafPage p;
 
     public BTreeLeafPageIterator(BTreeLeafPage p) {
+        this(p, 0);
+    }
+
+    public BTreeLeafPageIterator(BTreeLeafPage p, int firstSlot) {
         this.p = p;
+        this.curTuple = firstSlot;
     }
 
     public boolean hasNext() {
@@ -583,8 +911,12 @@ class BTreeLeafPageReverseIterator implements Iterator<Tuple> {
     BTreeLeafPage p;
 
     public BTreeLeafPageReverseIterator(BTreeLeafPage p) {
+        this(p, p.getNumSlots() - 1);
+    }
+
+    public BTreeLeafPageReverseIterator(BTreeLeafPage p, int firstSlot) {
         this.p = p;
-        this.curTuple = p.getMaxTuples() - 1;
+        this.curTuple = firstSlot;
     }
 
     public boolean hasNext() {
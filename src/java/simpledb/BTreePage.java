@@ -18,6 +18,7 @@ public abstract class BTreePage implements Page {
     protected final BTreePageId pid;
     protected final TupleDesc td;
     protected final int keyField;
+    protected final int keyLength;
 
     protected int parent; // parent is always internal node or 0 for root node
     protected byte[] oldData;
@@ -47,11 +48,32 @@ public abstract class BTreePage implements Page {
      * @see BufferPool#getPageSize()
      */
     public BTreePage(BTreePageId id, int key) throws IOException {
+        this(id, key, 1);
+    }
+
+    /**
+     * Create a page of a B+ tree keyed on keyLength consecutive fields,
+     * starting at the given one.
+     *
+     * @param id        - the id of this page
+     * @param key       - the first field which the index is keyed on
+     * @param keyLength - the number of fields which the index is keyed on
+     * @see CompositeField
+     */
+    public BTreePage(BTreePageId id, int key, int keyLength) throws IOException {
         this.pid = id;
         this.keyField = key;
+        this.keyLength = keyLength;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
     }
 
+    /**
+     * Returns the key of the given tuple of this page's tree.
+     */
+    protected Field keyOf(Tuple t) {
+        return CompositeField.keyOf(t, keyField, keyLength);
+    }
+
     /**
      * @return the PageId associated with this page.
      */
@@ -6,7 +6,7 @@ import java.util.*;
  * BTreeScan is an operator which reads tuples in sorted order
  * according to a predicate
  */
-public class BTreeScan implements OpIterator {
+public class BTreeScan implements IndexOpIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -15,6 +15,7 @@ public class BTreeScan implements OpIterator {
     private TupleDesc myTd;
     private IndexPredicate ipred = null;
     private transient DbFileIterator it;
+    private int tableid;
     private String tablename;
     private String alias;
 
@@ -54,6 +55,13 @@ public class BTreeScan implements OpIterator {
         return this.alias;
     }
 
+    /**
+     * @return the predicate this scan matches, or null if it returns all tuples
+     */
+    public IndexPredicate getIndexPredicate() {
+        return this.ipred;
+    }
+
     /**
      * Reset the tableid, and tableAlias of this operator.
      *
@@ -67,6 +75,7 @@ public class BTreeScan implements OpIterator {
      */
     public void reset(int tableid, String tableAlias) {
         this.isOpen = false;
+        this.tableid = tableid;
         this.alias = tableAlias;
         this.tablename = Database.getCatalog().getTableName(tableid);
         if (ipred == null) {
@@ -135,4 +144,19 @@ public class BTreeScan implements OpIterator {
         close();
         open();
     }
+
+    public void open(IndexPredicate ipred)
+            throws NoSuchElementException, DbException, TransactionAbortedException {
+        if (isOpen)
+            throw new DbException("double open on one OpIterator.");
+
+        this.ipred = ipred;
+        reset(tableid, alias);
+        open();
+    }
+
+    public void rewind(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+        close();
+        open(ipred);
+    }
 }
@@ -338,8 +338,8 @@ public class BTreeUtility {
      */
     public static int getNumEntriesPerPage() {
         int nentrybytes = Type.INT_TYPE.getLen() + BTreeInternalPage.INDEX_SIZE;
-        // pointerbytes: one extra child pointer, parent pointer, child page category
-        int internalpointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1;
+        // pointerbytes: one extra child pointer, parent pointer, right link, child page category, high key
+        int internalpointerbytes = 3 * BTreeLeafPage.INDEX_SIZE + 1 + Type.INT_TYPE.getLen();
         int entriesPerPage = (BufferPool.getPageSize() * 8 - internalpointerbytes * 8 - 1) / (nentrybytes * 8 + 1);  //floor comes for free
         return entriesPerPage;
     }
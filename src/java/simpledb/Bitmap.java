@@ -0,0 +1,263 @@
+package simpledb;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Bitmap is a set of non-negative ints compressed with run-length encoding:
+ * it stores the runs of consecutive members as (start, end) pairs, sorted,
+ * with no two runs overlapping or touching. The set {1, 2, 3, 7} is stored as
+ * the runs [1, 4) and [7, 8).
+ * <p>
+ * Sets of positions that come in runs, such as the tuples of a table that
+ * share a value of a column the table is sorted or grouped by, take a few
+ * bytes however large they are, and intersections and unions take time in
+ * proportion to the number of runs rather than of members.
+ *
+ * @see BitmapIndex
+ */
+public class Bitmap {
+
+    private int[] starts;
+    private int[] ends;
+    private int numRuns;
+
+    /**
+     * Creates an empty bitmap.
+     */
+    public Bitmap() {
+        this(new int[4], new int[4], 0);
+    }
+
+    private Bitmap(int[] starts, int[] ends, int numRuns) {
+        this.starts = starts;
+        this.ends = ends;
+        this.numRuns = numRuns;
+    }
+
+    /**
+     * Returns a copy of this bitmap.
+     */
+    public Bitmap copy() {
+        return new Bitmap(Arrays.copyOf(starts, Math.max(4, numRuns)), Arrays.copyOf(ends, Math.max(4, numRuns)),
+                numRuns);
+    }
+
+    /**
+     * Returns the number of runs the bitmap is stored as.
+     */
+    public int numRuns() {
+        return numRuns;
+    }
+
+    /**
+     * Returns true if the bitmap has no members.
+     */
+    public boolean isEmpty() {
+        return numRuns == 0;
+    }
+
+    /**
+     * Returns the number of members of the bitmap.
+     */
+    public int cardinality() {
+        int n = 0;
+        for (int i = 0; i < numRuns; i++)
+            n += ends[i] - starts[i];
+        return n;
+    }
+
+    /**
+     * Returns the index of the last run starting at or before pos, or -1.
+     */
+    private int runAtOrBefore(int pos) {
+        // inserts usually go at the end
+        if (numRuns > 0 && starts[numRuns - 1] <= pos)
+            return numRuns - 1;
+        int lo = 0, hi = numRuns - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] <= pos)
+                lo = mid + 1;
+            else
+                hi = mid - 1;
+        }
+        return hi;
+    }
+
+    /**
+     * Returns true if pos is a member of the bitmap.
+     */
+    public boolean get(int pos) {
+        int i = runAtOrBefore(pos);
+        return i >= 0 && pos < ends[i];
+    }
+
+    /**
+     * Adds pos to the bitmap.
+     */
+    public void set(int pos) {
+        int i = runAtOrBefore(pos);
+        if (i >= 0 && pos < ends[i])
+            return;
+        if (i >= 0 && pos == ends[i]) {
+            ends[i]++;
+            if (i + 1 < numRuns && starts[i + 1] == ends[i]) {
+                ends[i] = ends[i + 1];
+                removeRun(i + 1);
+            }
+        } else if (i + 1 < numRuns && starts[i + 1] == pos + 1) {
+            starts[i + 1] = pos;
+        } else {
+            insertRun(i + 1, pos, pos + 1);
+        }
+    }
+
+    /**
+     * Removes the members in [from, to) from the bitmap.
+     */
+    public void clear(int from, int to) {
+        if (from >= to || numRuns == 0)
+            return;
+        Bitmap result = new Bitmap(new int[numRuns + 1], new int[numRuns + 1], 0);
+        for (int i = 0; i < numRuns; i++) {
+            if (starts[i] < from)
+                result.appendRun(starts[i], Math.min(ends[i], from));
+            if (ends[i] > to)
+                result.appendRun(Math.max(starts[i], to), ends[i]);
+        }
+        starts = result.starts;
+        ends = result.ends;
+        numRuns = result.numRuns;
+    }
+
+    /**
+     * Returns the smallest member of the bitmap that is at least from, or -1
+     * if there is none.
+     */
+    public int nextSetBit(int from) {
+        int i = runAtOrBefore(from);
+        if (i >= 0 && from < ends[i])
+            return from;
+        return i + 1 < numRuns ? starts[i + 1] : -1;
+    }
+
+    /**
+     * Returns a new bitmap holding the members of both this bitmap and other.
+     */
+    public Bitmap and(Bitmap other) {
+        Bitmap result = new Bitmap(new int[Math.max(4, numRuns + other.numRuns)],
+                new int[Math.max(4, numRuns + other.numRuns)], 0);
+        int i = 0, j = 0;
+        while (i < numRuns && j < other.numRuns) {
+            int start = Math.max(starts[i], other.starts[j]);
+            int end = Math.min(ends[i], other.ends[j]);
+            if (start < end)
+                result.appendRun(start, end);
+            if (ends[i] < other.ends[j])
+                i++;
+            else
+                j++;
+        }
+        return result;
+    }
+
+    /**
+     * Returns a new bitmap holding the members of either this bitmap or other.
+     */
+    public Bitmap or(Bitmap other) {
+        Bitmap result = new Bitmap(new int[Math.max(4, numRuns + other.numRuns)],
+                new int[Math.max(4, numRuns + other.numRuns)], 0);
+        int i = 0, j = 0;
+        while (i < numRuns || j < other.numRuns) {
+            if (j == other.numRuns || (i < numRuns && starts[i] <= other.starts[j])) {
+                result.appendRun(starts[i], ends[i]);
+                i++;
+            } else {
+                result.appendRun(other.starts[j], other.ends[j]);
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds the run [start, end) to a bitmap none of whose runs starts after start.
+     */
+    private void appendRun(int start, int end) {
+        if (numRuns > 0 && start <= ends[numRuns - 1]) {
+            ends[numRuns - 1] = Math.max(ends[numRuns - 1], end);
+            return;
+        }
+        insertRun(numRuns, start, end);
+    }
+
+    private void insertRun(int i, int start, int end) {
+        if (numRuns == starts.length) {
+            starts = Arrays.copyOf(starts, Math.max(4, numRuns * 2));
+            ends = Arrays.copyOf(ends, starts.length);
+        }
+        System.arraycopy(starts, i, starts, i + 1, numRuns - i);
+        System.arraycopy(ends, i, ends, i + 1, numRuns - i);
+        starts[i] = start;
+        ends[i] = end;
+        numRuns++;
+    }
+
+    private void removeRun(int i) {
+        System.arraycopy(starts, i + 1, starts, i, numRuns - i - 1);
+        System.arraycopy(ends, i + 1, ends, i, numRuns - i - 1);
+        numRuns--;
+    }
+
+    /**
+     * Writes the bitmap: its number of runs, then the start and end of each.
+     */
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeInt(numRuns);
+        for (int i = 0; i < numRuns; i++) {
+            dos.writeInt(starts[i]);
+            dos.writeInt(ends[i]);
+        }
+    }
+
+    /**
+     * Reads a bitmap written by {@link #serialize(DataOutputStream)}.
+     */
+    public static Bitmap deserialize(DataInputStream dis) throws IOException {
+        int n = dis.readInt();
+        Bitmap b = new Bitmap(new int[Math.max(4, n)], new int[Math.max(4, n)], n);
+        for (int i = 0; i < n; i++) {
+            b.starts[i] = dis.readInt();
+            b.ends[i] = dis.readInt();
+        }
+        return b;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof Bitmap))
+            return false;
+        Bitmap b = (Bitmap) o;
+        return numRuns == b.numRuns && Arrays.equals(starts, 0, numRuns, b.starts, 0, numRuns)
+                && Arrays.equals(ends, 0, numRuns, b.ends, 0, numRuns);
+    }
+
+    public int hashCode() {
+        int h = numRuns;
+        for (int i = 0; i < numRuns; i++)
+            h = 31 * (31 * h + starts[i]) + ends[i];
+        return h;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < numRuns; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append('[').append(starts[i]).append(", ").append(ends[i]).append(')');
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,240 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BitmapIndex keeps, for every distinct value of one field of a HeapFile, a
+ * {@link Bitmap} of the positions of the tuples holding it. The position of
+ * the tuple in slot s of page p is p * (slots per page) + s. It suits fields
+ * with few distinct values: a predicate on the field is answered by the
+ * union of the bitmaps of the values satisfying it, and predicates on
+ * several indexed fields are combined by intersecting and uniting bitmaps,
+ * all before a single page of the table is read.
+ * <p>
+ * The bitmaps are held in memory and stored in their own file. Like the
+ * {@link ZoneMap}, they may claim more than the table holds, but never less:
+ * an insert sets the bit of its tuple at once, and the bits of a page are
+ * brought in line with its contents when it is written to disk. Until then a
+ * deleted tuple, or an aborted insert, leaves a stray bit behind, so readers
+ * must check the tuples they fetch against their predicates. The file is
+ * rewritten before a page whose tuples it lacks is written.
+ * <p>
+ * Indexes are registered in the Catalog, and the BufferPool sets the bits of
+ * inserted tuples.
+ *
+ * @Threadsafe
+ * @see Catalog#addBitmapIndex(BitmapIndex)
+ * @see BitmapScan
+ */
+public class BitmapIndex {
+
+    private final String name;
+    private final int tableid;
+    private final int keyField;
+    private final Type keyType;
+    private final int slotsPerPage;
+    private final DbFileChannel channel;
+
+    private final HashMap<Field, Bitmap> bitmaps = new HashMap<>();
+    /* whether a bit has been set since the file was last written */
+    private boolean unsaved = false;
+
+    /**
+     * Opens the bitmap index stored in the given file. The index is empty if
+     * the file does not exist; use {@link #build()} to fill it from the table.
+     *
+     * @param name     the name of the index
+     * @param f        the file backing the index
+     * @param tableid  the id of the indexed table, which must be a HeapFile in the Catalog
+     * @param keyField the index of the indexed field in the table
+     * @throws IllegalArgumentException if the table is not a HeapFile
+     */
+    public BitmapIndex(String name, File f, int tableid, int keyField) throws IOException {
+        DbFile table = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(table instanceof HeapFile))
+            throw new IllegalArgumentException("bitmap indexes are only supported on heap files");
+        this.name = name;
+        this.tableid = tableid;
+        this.keyField = keyField;
+        this.keyType = table.getTupleDesc().getFieldType(keyField);
+        this.slotsPerPage = BufferPool.getPageSize() * 8 / (table.getTupleDesc().getSize() * 8 + 1);
+        this.channel = new DbFileChannel(f);
+        if (f.length() > 0)
+            load(f);
+    }
+
+    /**
+     * Returns the name of this index.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the id of the indexed table.
+     */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /**
+     * Returns the index of the indexed field in the table.
+     */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /**
+     * Returns the number of distinct values of the indexed field.
+     */
+    public synchronized int getNumValues() {
+        return bitmaps.size();
+    }
+
+    /**
+     * Returns the position of the tuple with the given RecordId.
+     */
+    public int toPosition(RecordId rid) {
+        return rid.getPageId().getPageNumber() * slotsPerPage + rid.getTupleNumber();
+    }
+
+    /**
+     * Returns the RecordId of the tuple at the given position.
+     */
+    public RecordId toRecordId(int pos) {
+        return new RecordId(new HeapPageId(tableid, pos / slotsPerPage), pos % slotsPerPage);
+    }
+
+    /**
+     * Reads the file written by {@link #save()}: the number of slots per page
+     * it was built for, the number of values, then each value followed by its
+     * bitmap.
+     */
+    private void load(File f) throws IOException {
+        byte[] data = new byte[(int) f.length()];
+        channel.read(data, 0);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        if (dis.readInt() != slotsPerPage)
+            throw new IOException("bitmap index " + name + " was built for another page size");
+        int n = dis.readInt();
+        try {
+            for (int i = 0; i < n; i++) {
+                Field value = keyType.parse(dis);
+                bitmaps.put(value, Bitmap.deserialize(dis));
+            }
+        } catch (java.text.ParseException e) {
+            throw new IOException("bitmap index " + name + " is corrupt", e);
+        }
+    }
+
+    private void save() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(slotsPerPage);
+        dos.writeInt(bitmaps.size());
+        for (Map.Entry<Field, Bitmap> e : bitmaps.entrySet()) {
+            e.getKey().serialize(dos);
+            e.getValue().serialize(dos);
+        }
+        dos.flush();
+        channel.write(baos.toByteArray(), 0);
+        unsaved = false;
+    }
+
+    /**
+     * Sets the bits of every tuple of the table, replacing the previous
+     * contents of the index, and writes the index to its file. The table is
+     * read outside of any transaction's locks, so this is meant for an index
+     * which is not in use yet: build an index before adding it to the Catalog.
+     */
+    public void build() throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        synchronized (this) {
+            bitmaps.clear();
+            try {
+                it.open();
+                while (it.hasNext())
+                    setBit(it.next());
+                it.close();
+            } finally {
+                Database.getBufferPool().transactionComplete(tid);
+            }
+            save();
+        }
+    }
+
+    private void setBit(Tuple t) {
+        Bitmap b = bitmaps.computeIfAbsent(t.getField(keyField), k -> new Bitmap());
+        int pos = toPosition(t.getRecordId());
+        if (!b.get(pos)) {
+            b.set(pos);
+            unsaved = true;
+        }
+    }
+
+    /**
+     * Closes the file of this index. The Catalog closes an index it drops.
+     */
+    public void close() {
+        channel.close();
+    }
+
+    /**
+     * Sets the bit of a tuple that was just inserted into the table.
+     *
+     * @param t the tuple, with the RecordId it was given by the table
+     */
+    public synchronized void insertTuple(Tuple t) {
+        setBit(t);
+    }
+
+    /**
+     * Brings the bits of a page that is about to be written to disk in line
+     * with its tuples, and writes the index first if it lacks any of them.
+     *
+     * @param page the page being written
+     */
+    public synchronized void persist(HeapPage page) throws IOException {
+        int first = page.getId().getPageNumber() * slotsPerPage;
+        Iterator<Tuple> tuples = page.iterator();
+        while (tuples.hasNext() && !unsaved) {
+            Tuple t = tuples.next();
+            Bitmap b = bitmaps.get(t.getField(keyField));
+            unsaved = b == null || !b.get(toPosition(t.getRecordId()));
+        }
+        for (Iterator<Bitmap> it = bitmaps.values().iterator(); it.hasNext(); ) {
+            Bitmap b = it.next();
+            b.clear(first, first + slotsPerPage);
+            if (b.isEmpty())
+                it.remove();
+        }
+        tuples = page.iterator();
+        while (tuples.hasNext()) {
+            Tuple t = tuples.next();
+            Bitmap b = bitmaps.computeIfAbsent(t.getField(keyField), k -> new Bitmap());
+            b.set(toPosition(t.getRecordId()));
+        }
+        if (unsaved)
+            save();
+    }
+
+    /**
+     * Returns the positions of the tuples whose indexed field may satisfy
+     * <tt>field op operand</tt>: the union of the bitmaps of the values that do.
+     *
+     * @param op      the operator to apply
+     * @param operand the value to compare the indexed field to
+     * @return a new bitmap, which the caller may modify
+     */
+    public synchronized Bitmap lookup(Predicate.Op op, Field operand) {
+        Bitmap result = new Bitmap();
+        for (Map.Entry<Field, Bitmap> e : bitmaps.entrySet()) {
+            if (e.getKey().compare(op, operand))
+                result = result.or(e.getValue());
+        }
+        return result;
+    }
+}
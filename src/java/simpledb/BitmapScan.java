@@ -0,0 +1,206 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BitmapScan is an operator which reads the tuples of a HeapFile satisfying
+ * a boolean combination of predicates on fields with a {@link BitmapIndex}.
+ * The predicates are given in conjunctive normal form: a list of clauses
+ * which must all hold, each a list of predicates of which one must hold.
+ * <p>
+ * When the scan is opened, the bitmaps of the predicates of each clause are
+ * united, and those of the clauses intersected, giving the positions of the
+ * candidate tuples before any page of the table is read. The candidates are
+ * then fetched in the order of the table's pages, each page once, and checked
+ * against the predicates, as the bitmaps may hold stray bits.
+ *
+ * @see BitmapIndex#lookup(Predicate.Op, Field)
+ */
+public class BitmapScan implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private boolean isOpen = false;
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tablename;
+    private final String alias;
+    private final TupleDesc myTd;
+    private final List<List<Predicate>> clauses;
+    private transient DbFileIterator it;
+
+    /**
+     * Creates a scan of the tuples of the specified table that satisfy the
+     * given clauses, as a part of the specified transaction.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to read, which must be a HeapFile.
+     * @param tableAlias the alias of this table; the returned tupleDesc has
+     *                   fields with name tableAlias.fieldName, as in {@link SeqScan}.
+     * @param clauses    the clauses the tuples must all satisfy, each a
+     *                   disjunction of predicates over the fields of the table
+     * @throws IllegalArgumentException if there are no clauses, a clause is
+     *                                  empty, or a predicate is on a field without a bitmap index
+     */
+    public BitmapScan(TransactionId tid, int tableid, String tableAlias, List<List<Predicate>> clauses) {
+        if (clauses.isEmpty())
+            throw new IllegalArgumentException("a bitmap scan needs at least one clause");
+        for (List<Predicate> clause : clauses) {
+            if (clause.isEmpty())
+                throw new IllegalArgumentException("a clause of a bitmap scan needs at least one predicate");
+            for (Predicate p : clause) {
+                if (Database.getCatalog().getBitmapIndex(tableid, p.getField()) == null)
+                    throw new IllegalArgumentException("no bitmap index on field " + p.getField());
+            }
+        }
+        this.tid = tid;
+        this.tableid = tableid;
+        this.alias = tableAlias;
+        this.tablename = Database.getCatalog().getTableName(tableid);
+        this.clauses = new ArrayList<>();
+        for (List<Predicate> clause : clauses)
+            this.clauses.add(new ArrayList<>(clause));
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        String[] newNames = new String[td.numFields()];
+        Type[] newTypes = new Type[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            newNames[i] = tableAlias + "." + td.getFieldName(i);
+            newTypes[i] = td.getFieldType(i);
+        }
+        myTd = new TupleDesc(newTypes, newNames);
+        it = new BitmapScanIterator();
+    }
+
+    /**
+     * @return the clauses the returned tuples satisfy
+     */
+    public List<List<Predicate>> getClauses() {
+        return Collections.unmodifiableList(clauses);
+    }
+
+    /**
+     * @return the name of the table in the catalog
+     */
+    public String getTableName() {
+        return tablename;
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * Returns the positions of the tuples that may satisfy the clauses.
+     */
+    private Bitmap candidates() {
+        Bitmap result = null;
+        for (List<Predicate> clause : clauses) {
+            Bitmap any = new Bitmap();
+            for (Predicate p : clause)
+                any = any.or(Database.getCatalog().getBitmapIndex(tableid, p.getField())
+                        .lookup(p.getOp(), p.getOperand()));
+            result = result == null ? any : result.and(any);
+        }
+        return result;
+    }
+
+    private boolean matches(Tuple t) {
+        for (List<Predicate> clause : clauses) {
+            boolean any = false;
+            for (Predicate p : clause)
+                any |= p.filter(t);
+            if (!any)
+                return false;
+        }
+        return true;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (isOpen)
+            throw new DbException("double open on one OpIterator.");
+
+        it.open();
+        isOpen = true;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return myTd;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return it.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+
+        return it.next();
+    }
+
+    public void close() {
+        it.close();
+        isOpen = false;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        close();
+        open();
+    }
+
+    /**
+     * Fetches the candidate tuples, page by page, and returns those that
+     * satisfy the clauses.
+     */
+    private class BitmapScanIterator extends AbstractDbFileIterator {
+
+        private BitmapIndex index;
+        private int numPages;
+        private Bitmap positions;
+        private int pos;
+        private HeapPage page;
+
+        public void open() throws DbException, TransactionAbortedException {
+            index = Database.getCatalog().getBitmapIndex(tableid, clauses.get(0).get(0).getField());
+            numPages = ((HeapFile) Database.getCatalog().getDatabaseFile(tableid)).numPages();
+            positions = candidates();
+            pos = positions.nextSetBit(0);
+            page = null;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (positions == null)
+                return null;
+            while (pos >= 0) {
+                RecordId rid = index.toRecordId(pos);
+                if (rid.getPageId().getPageNumber() >= numPages)
+                    break;
+                pos = positions.nextSetBit(pos + 1);
+                if (page == null || !page.getId().equals(rid.getPageId()))
+                    page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(),
+                            Permissions.READ_ONLY);
+                Tuple t = page.getTupleAt(rid.getTupleNumber());
+                if (t != null && matches(t))
+                    return t;
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            positions = null;
+            page = null;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package simpledb;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A Bloom filter over fields: a set that answers membership queries with no
+ * false negatives and a small rate of false positives, in a few bits per
+ * member. Each field sets k bits of a bit array, chosen by double hashing;
+ * a field whose bits are not all set was never added.
+ * <p>
+ * With 10 bits per member and 7 hash functions, about 1% of the fields that
+ * were not added are reported as members.
+ *
+ * @see LsmRun
+ */
+public class BloomFilter {
+
+    /**
+     * The number of bits per member that {@link #forMembers(long)} allocates
+     */
+    public static final int BITS_PER_MEMBER = 10;
+
+    /**
+     * The number of hash functions that {@link #forMembers(long)} uses
+     */
+    public static final int NUM_HASHES = 7;
+
+    private final long[] bits;
+    private final int numHashes;
+
+    /**
+     * Creates an empty filter.
+     *
+     * @param numBits   the size of the bit array, rounded up to a multiple of 64
+     * @param numHashes the number of bits each member sets
+     */
+    public BloomFilter(long numBits, int numHashes) {
+        this(new long[(int) Math.max(1, (numBits + 63) / 64)], numHashes);
+    }
+
+    private BloomFilter(long[] bits, int numHashes) {
+        this.bits = bits;
+        this.numHashes = numHashes;
+    }
+
+    /**
+     * Creates an empty filter sized for the given number of members.
+     */
+    public static BloomFilter forMembers(long members) {
+        return new BloomFilter(Math.max(64, members * BITS_PER_MEMBER), NUM_HASHES);
+    }
+
+    /**
+     * Returns the size of the bit array.
+     */
+    public long getNumBits() {
+        return (long) bits.length * 64;
+    }
+
+    /**
+     * Returns the number of bits each member sets.
+     */
+    public int getNumHashes() {
+        return numHashes;
+    }
+
+    /**
+     * Returns the second hash of a field, from which the bits after the
+     * first are stepped; it is odd so that the steps cycle through every bit.
+     */
+    private static long step(int h) {
+        long s = (h * 0x9e3779b97f4a7c15L) >>> 33;
+        return s | 1;
+    }
+
+    /**
+     * Adds f to the filter.
+     */
+    public void add(Field f) {
+        int h = HashFile.hash(f);
+        long numBits = getNumBits();
+        long bit = h % numBits;
+        long step = step(h);
+        for (int i = 0; i < numHashes; ++i) {
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+            bit = (bit + step) % numBits;
+        }
+    }
+
+    /**
+     * Returns false if f was certainly never added to the filter, and true if
+     * it probably was.
+     */
+    public boolean mightContain(Field f) {
+        int h = HashFile.hash(f);
+        long numBits = getNumBits();
+        long bit = h % numBits;
+        long step = step(h);
+        for (int i = 0; i < numHashes; ++i) {
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+                return false;
+            bit = (bit + step) % numBits;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of bytes {@link #serialize(DataOutputStream)} writes.
+     */
+    public int getSerializedSize() {
+        return 8 + bits.length * 8;
+    }
+
+    /**
+     * Writes the filter to dos: the number of hash functions, the number of
+     * words of the bit array, and the words.
+     */
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeInt(numHashes);
+        dos.writeInt(bits.length);
+        for (long word : bits)
+            dos.writeLong(word);
+    }
+
+    /**
+     * Reads a filter written by {@link #serialize(DataOutputStream)}.
+     */
+    public static BloomFilter deserialize(DataInputStream dis) throws IOException {
+        int numHashes = dis.readInt();
+        long[] bits = new long[dis.readInt()];
+        for (int i = 0; i < bits.length; ++i)
+            bits[i] = dis.readLong();
+        return new BloomFilter(bits, numHashes);
+    }
+}
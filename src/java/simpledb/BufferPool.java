@@ -2,10 +2,18 @@ package simpledb;
 
 import java.io.*;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.NoSuchElementException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -34,6 +42,12 @@ public class BufferPool {
 
     private final LockManager lm;
 
+    private final ConcurrentHashMap<PageId, PendingRead> pendingReads;
+
+    private final ConcurrentHashMap<TransactionId, Set<LsmFile>> lsmWriters;
+
+    private volatile int readAheadPages;
+
     /**
      * Default number of pages passed to the constructor. This is used by
      * other classes. BufferPool should use the numPages argument to the
@@ -41,6 +55,21 @@ public class BufferPool {
      */
     public static final int DEFAULT_PAGES = 50;
 
+    /**
+     * Default number of pages a sequential scan reads ahead of its position.
+     */
+    public static final int DEFAULT_READ_AHEAD_PAGES = 8;
+
+    /**
+     * A read of a page that is queued or in progress. A page that is flushed
+     * or discarded while it is being read is marked stale, so the possibly
+     * outdated copy read from disk is dropped.
+     */
+    private static class PendingRead {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile boolean stale = false;
+    }
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
@@ -52,6 +81,9 @@ public class BufferPool {
         pageOrd = new ConcurrentLinkedDeque<>();
         this.numPages = numPages;
         lm = new LockManager();
+        pendingReads = new ConcurrentHashMap<>();
+        lsmWriters = new ConcurrentHashMap<>();
+        readAheadPages = DEFAULT_READ_AHEAD_PAGES;
     }
 
     public static int getPageSize() {
@@ -68,6 +100,25 @@ public class BufferPool {
         BufferPool.pageSize = DEFAULT_PAGE_SIZE;
     }
 
+    /**
+     * Returns the number of pages a sequential scan may read ahead of its
+     * position. The window is capped at a quarter of the pool, so that
+     * read-ahead cannot evict the pages a scan is still using.
+     */
+    public int getReadAheadPages() {
+        return Math.min(readAheadPages, numPages / 4);
+    }
+
+    /**
+     * Sets the number of pages a sequential scan may read ahead of its
+     * position; 0 disables read-ahead.
+     *
+     * @param readAheadPages the read-ahead window in pages
+     */
+    public void setReadAheadPages(int readAheadPages) {
+        this.readAheadPages = Math.max(0, readAheadPages);
+    }
+
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
@@ -87,16 +138,271 @@ public class BufferPool {
             throws TransactionAbortedException, DbException {
         // some code goes here
         lm.grantLock(tid, pid, perm);
-        if (!pages.containsKey(pid)) {
-            if (pages.size() >= numPages)
-                evictPage(tid);
-            pages.put(pid, Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid));
+        Page p = pages.get(pid);
+        if (p == null) {
+            p = loadPage(tid, pid);
+        } else {
+            pageOrd.remove(pid);
             pageOrd.add(pid);
+        }
+        return p;
+    }
+
+    /**
+     * Retrieve the specified page without acquiring a lock, for access
+     * methods that protect a page with short-term latches instead, such as
+     * the internal pages of a B+ tree. The caller must not change the page.
+     *
+     * @param pid the ID of the requested page
+     * @see LatchManager
+     */
+    Page getPageUnlocked(PageId pid) throws DbException {
+        Page p = pages.get(pid);
+        if (p == null) {
+            p = loadPage(null, pid);
         } else {
             pageOrd.remove(pid);
             pageOrd.add(pid);
         }
-        return pages.get(pid);
+        return p;
+    }
+
+    /**
+     * Reads a page that missed the cache and caches it. Only one thread reads
+     * a given page at a time; others, including read-ahead, wait for it and
+     * then use the cached copy. A read that went stale, because a reader
+     * without a lock raced a flush of the page, is dropped and done again.
+     */
+    private Page loadPage(TransactionId tid, PageId pid) throws DbException {
+        while (true) {
+            Page p = pages.get(pid);
+            if (p != null)
+                return p;
+            PendingRead pending = new PendingRead();
+            PendingRead other = pendingReads.putIfAbsent(pid, pending);
+            if (other != null) {
+                awaitPendingRead(other);
+                continue;
+            }
+            try {
+                p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+                synchronized (this) {
+                    Page cached = pages.get(pid);
+                    if (cached != null)
+                        return cached;
+                    if (pending.stale)
+                        continue;
+                    if (pages.size() >= numPages)
+                        evictPage(tid);
+                    pages.put(pid, p);
+                    pageOrd.add(pid);
+                }
+                return p;
+            } finally {
+                finishPendingRead(pid, pending);
+            }
+        }
+    }
+
+    /**
+     * Retrieve the specified pages with the associated permissions, locking
+     * them all before any is read. Pages missing from the cache are read with
+     * {@link DbFile#readPages}, one batch per table, so adjacent pages cost a
+     * single I/O.
+     *
+     * @param tid  the ID of the transaction requesting the pages
+     * @param pids the IDs of the requested pages
+     * @param perm the requested permissions on the pages
+     * @return the pages, in the order of pids
+     * @see #getPage(TransactionId, PageId, Permissions)
+     */
+    public List<Page> getPages(TransactionId tid, List<PageId> pids, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        for (PageId pid : pids)
+            lm.grantLock(tid, pid, perm);
+
+        LinkedHashMap<PageId, PendingRead> claimed = claimMissing(pids);
+        try {
+            for (Map.Entry<Integer, List<PageId>> e : groupByTable(claimed.keySet()).entrySet()) {
+                List<Page> read = Database.getCatalog().getDatabaseFile(e.getKey()).readPages(e.getValue());
+                synchronized (this) {
+                    for (Page p : read) {
+                        if (pages.containsKey(p.getId()))
+                            continue;
+                        if (pages.size() >= numPages)
+                            evictPage(tid);
+                        pages.put(p.getId(), p);
+                        pageOrd.add(p.getId());
+                    }
+                }
+            }
+        } finally {
+            for (Map.Entry<PageId, PendingRead> e : claimed.entrySet())
+                finishPendingRead(e.getKey(), e.getValue());
+        }
+
+        // pages read by other threads, or evicted by a batch larger than the pool
+        List<Page> result = new ArrayList<>(pids.size());
+        for (PageId pid : pids) {
+            Page p = pages.get(pid);
+            if (p == null) {
+                p = loadPage(tid, pid);
+            } else {
+                pageOrd.remove(pid);
+                pageOrd.add(pid);
+            }
+            result.add(p);
+        }
+        return result;
+    }
+
+    /**
+     * Registers a pending read for each of the given pages that is neither
+     * cached nor already being read.
+     *
+     * @return the registered reads, which the caller must complete
+     */
+    private LinkedHashMap<PageId, PendingRead> claimMissing(List<PageId> pids) {
+        LinkedHashMap<PageId, PendingRead> claimed = new LinkedHashMap<>();
+        for (PageId pid : pids) {
+            if (pages.containsKey(pid) || claimed.containsKey(pid))
+                continue;
+            PendingRead pending = new PendingRead();
+            if (pendingReads.putIfAbsent(pid, pending) == null)
+                claimed.put(pid, pending);
+        }
+        return claimed;
+    }
+
+    private static LinkedHashMap<Integer, List<PageId>> groupByTable(Collection<PageId> pids) {
+        LinkedHashMap<Integer, List<PageId>> byTable = new LinkedHashMap<>();
+        for (PageId pid : pids)
+            byTable.computeIfAbsent(pid.getTableId(), k -> new ArrayList<>()).add(pid);
+        return byTable;
+    }
+
+    /**
+     * Asynchronously reads the specified page into the buffer pool, unless it
+     * is already cached or being read. No lock is acquired: a transaction
+     * still locks the page through {@link #getPage} before it uses it.
+     * <p>
+     * If the pool is full, a clean page is evicted to make room; if there is
+     * no clean page, the prefetched page is dropped.
+     *
+     * @param pid the ID of the page to read
+     * @see ReadAhead
+     */
+    public void prefetchPage(PageId pid) {
+        prefetchPages(Collections.singletonList(pid));
+    }
+
+    /**
+     * Asynchronously reads the specified pages into the buffer pool with
+     * {@link DbFile#readPages}, skipping pages that are already cached or
+     * being read.
+     *
+     * @param pids the IDs of the pages to read
+     * @see #prefetchPage(PageId)
+     */
+    public void prefetchPages(List<PageId> pids) {
+        if (getReadAheadPages() <= 0)
+            return;
+        LinkedHashMap<PageId, PendingRead> claimed = claimMissing(pids);
+        if (claimed.isEmpty())
+            return;
+        ReadAhead.getExecutor().execute(() -> {
+            try {
+                for (Map.Entry<Integer, List<PageId>> e : groupByTable(claimed.keySet()).entrySet()) {
+                    List<Page> read;
+                    try {
+                        read = Database.getCatalog().getDatabaseFile(e.getKey()).readPages(e.getValue());
+                    } catch (RuntimeException ex) {
+                        // the pages or table went away; a real read will report it
+                        continue;
+                    }
+                    for (Page p : read)
+                        cacheReadAhead(p, claimed.get(p.getId()));
+                }
+            } finally {
+                for (Map.Entry<PageId, PendingRead> e : claimed.entrySet())
+                    finishPendingRead(e.getKey(), e.getValue());
+            }
+        });
+    }
+
+    /**
+     * Reads the specified page into the buffer pool on the calling thread,
+     * for read-ahead that has to look at a page to find the next one.
+     *
+     * @param pid the ID of the page to read
+     * @return the cached page, or null if it is being read by another thread
+     *         or could not be cached
+     * @see #prefetchPage(PageId)
+     */
+    Page readAheadNow(PageId pid) {
+        Page p = pages.get(pid);
+        if (p != null)
+            return p;
+        PendingRead pending = new PendingRead();
+        if (pendingReads.putIfAbsent(pid, pending) != null)
+            return null;
+        try {
+            p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        } catch (RuntimeException e) {
+            // the page or table went away; a real read will report it
+            finishPendingRead(pid, pending);
+            return null;
+        }
+        try {
+            return cacheReadAhead(p, pending);
+        } finally {
+            finishPendingRead(pid, pending);
+        }
+    }
+
+    /**
+     * Caches a page read ahead unless the read went stale.
+     *
+     * @return the cached page, or null if it could not be cached
+     */
+    private synchronized Page cacheReadAhead(Page p, PendingRead pending) {
+        if (pending.stale)
+            return null;
+        PageId pid = p.getId();
+        Page cached = pages.get(pid);
+        if (cached != null)
+            return cached;
+        try {
+            if (pages.size() >= numPages)
+                evictPage(null);
+        } catch (DbException e) {
+            return null;
+        }
+        pages.put(pid, p);
+        pageOrd.add(pid);
+        return p;
+    }
+
+    private void finishPendingRead(PageId pid, PendingRead pending) {
+        pendingReads.remove(pid, pending);
+        pending.done.countDown();
+    }
+
+    private void awaitPendingRead(PendingRead pending) {
+        try {
+            pending.done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Marks an in-progress read of the specified page as stale.
+     */
+    private void cancelPendingRead(PageId pid) {
+        PendingRead pending = pendingReads.get(pid);
+        if (pending != null)
+            pending.stale = true;
     }
 
     /**
@@ -149,9 +455,30 @@ public class BufferPool {
         if (commit) {
             flushPages(tid);
         } else {
+            HashSet<Integer> tables = new HashSet<>();
             for (LockManager.PageLock l: s) {
                 discardPage(l.pid);
+                tables.add(l.pid.getTableId());
+                if (l.perm == Permissions.READ_WRITE)
+                    resetFreeSpace(l.pid);
             }
+            // B+ tree descents that went through the discarded pages must
+            // restart before they see the locks released
+            for (int tableId : tables) {
+                try {
+                    DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+                    if (f instanceof BTreeFile)
+                        ((BTreeFile) f).structureChanged();
+                } catch (NoSuchElementException e) {
+                    // the table is gone, nobody can be descending it
+                }
+            }
+        }
+        // LSM files keep the writes of a transaction aside until it completes
+        Set<LsmFile> written = lsmWriters.remove(tid);
+        if (written != null) {
+            for (LsmFile f : written)
+                f.transactionComplete(tid, commit);
         }
 
         for (LockManager.PageLock l: s) {
@@ -169,10 +496,16 @@ public class BufferPool {
      * their markDirty bit, and adds versions of any pages that have
      * been dirtied to the cache (replacing any existing versions of those pages) so
      * that future requests see up-to-date pages.
+     * <p>
+     * Adds an entry for the tuple to every secondary index of the table, and
+     * sets its bit in every bitmap index. The bit is set at once and is not
+     * undone if the transaction aborts: like a deleted tuple's bit, it stays
+     * until the page is next written to disk (see {@link BitmapIndex}).
      *
      * @param tid     the transaction adding the tuple
      * @param tableId the table to add the tuple to
      * @param t       the tuple to add
+     * @see Catalog#getIndexes(int)
      */
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
@@ -180,23 +513,11 @@ public class BufferPool {
         // not necessary for lab1
         DbFile db = Database.getCatalog().getDatabaseFile(tableId);
         ArrayList<Page> modifiedPages = db.insertTuple(tid, t);
-
-        for (Page p : modifiedPages) {
-            p.markDirty(true, tid);
-            PageId pid = p.getId();
-            // null when not existent
-            if (pages.replace(pid, p) == null) {
-                if (pages.size() >= numPages)
-                    evictPage(tid);
-                else
-                    pageOrd.add(pid);
-                pages.put(pid, p);
-            } else {
-                pageOrd.remove(pid);
-                pageOrd.add(pid);
-            }
-        }
-
+        cacheDirtyPages(tid, modifiedPages);
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId))
+            cacheDirtyPages(tid, index.insertTuple(tid, t));
+        for (BitmapIndex index : Database.getCatalog().getBitmapIndexes(tableId))
+            index.insertTuple(t);
     }
 
     /**
@@ -208,17 +529,90 @@ public class BufferPool {
      * their markDirty bit, and adds versions of any pages that have
      * been dirtied to the cache (replacing any existing versions of those pages) so
      * that future requests see up-to-date pages.
+     * <p>
+     * Removes the entry for the tuple from every secondary index of the table.
+     * Bitmap indexes are left alone: the tuple's bit stays set until its page
+     * is written to disk, so a bitmap scan may fetch the tuple's slot and
+     * must check what it finds there (see {@link BitmapIndex}).
      *
      * @param tid the transaction deleting the tuple.
      * @param t   the tuple to delete
+     * @throws DbException if the tuple has no RecordId to name its table; use
+     *                     {@link #deleteTuple(TransactionId, int, Tuple)} then
+     * @see Catalog#getIndexes(int)
      */
     public void deleteTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-        ArrayList<Page> modifiedPages = Database.getCatalog().getDatabaseFile(
-                t.getRecordId().getPageId().getTableId()).deleteTuple(tid, t);
+        if (t.getRecordId() == null)
+            throw new DbException("tuple has no RecordId, so its table is unknown");
+        deleteTuple(tid, t.getRecordId().getPageId().getTableId(), t);
+    }
+
+    /**
+     * Remove the specified tuple from the given table, as
+     * {@link #deleteTuple(TransactionId, Tuple)} does. The tuple may have no
+     * RecordId, in which case the table looks for a tuple with the same
+     * field values (see {@link HeapFile#deleteTuple}) and gives t its
+     * RecordId, so that its index entries can be removed too.
+     *
+     * @param tid     the transaction deleting the tuple.
+     * @param tableId the table to remove the tuple from
+     * @param t       the tuple to delete
+     */
+    public void deleteTuple(TransactionId tid, int tableId, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> modifiedPages = Database.getCatalog().getDatabaseFile(tableId).deleteTuple(tid, t);
+        cacheDirtyPages(tid, modifiedPages);
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId))
+            cacheDirtyPages(tid, index.deleteTuple(tid, t));
+    }
+
+    /**
+     * Remove a batch of tuples from the buffer pool. Tuples are grouped by
+     * table and handed to {@link DbFile#deleteTuples}, so each affected page
+     * is locked, fetched and marked dirty only once.
+     *
+     * @param tid    the transaction deleting the tuples.
+     * @param tuples the tuples to delete
+     * @throws DbException if one of the tuples has no RecordId
+     * @see #deleteTuple(TransactionId, Tuple)
+     */
+    public void deleteTuples(TransactionId tid, List<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        LinkedHashMap<Integer, List<Tuple>> byTable = new LinkedHashMap<>();
+        for (Tuple t : tuples) {
+            if (t.getRecordId() == null)
+                throw new DbException("tuple has no RecordId, so its table is unknown");
+            byTable.computeIfAbsent(t.getRecordId().getPageId().getTableId(),
+                    k -> new ArrayList<>()).add(t);
+        }
+        for (Map.Entry<Integer, List<Tuple>> e : byTable.entrySet()) {
+            ArrayList<Page> modifiedPages = Database.getCatalog().getDatabaseFile(e.getKey())
+                    .deleteTuples(tid, e.getValue());
+            cacheDirtyPages(tid, modifiedPages);
+            for (SecondaryIndex index : Database.getCatalog().getIndexes(e.getKey()))
+                for (Tuple t : e.getValue())
+                    cacheDirtyPages(tid, index.deleteTuple(tid, t));
+        }
+    }
+
+    /**
+     * Records that a transaction has inserted into or deleted from an
+     * LsmFile, which must hear when the transaction completes.
+     *
+     * @see LsmFile#transactionComplete(TransactionId, boolean)
+     */
+    void addLsmWriter(TransactionId tid, LsmFile f) {
+        lsmWriters.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(f);
+    }
 
+    /**
+     * Marks pages modified by an insert or delete as dirty and puts them in
+     * the cache, replacing any existing versions of those pages.
+     */
+    void cacheDirtyPages(TransactionId tid, ArrayList<Page> modifiedPages) throws DbException {
         for (Page p : modifiedPages) {
             p.markDirty(true, tid);
             PageId pid = p.getId();
@@ -262,11 +656,33 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         if (pid != null) {
+            cancelPendingRead(pid);
             pages.remove(pid);
             pageOrd.remove(pid);
         }
     }
 
+    /**
+     * Mark a page an aborted transaction wrote to as having room in the free
+     * space map of its heap file. Inserts the transaction made may have
+     * marked it full; if it really is full the next insert that probes it
+     * corrects the map again.
+     */
+    private void resetFreeSpace(PageId pid) {
+        if (!(pid instanceof HeapPageId))
+            return;
+        DbFile f;
+        try {
+            f = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        } catch (NoSuchElementException e) {
+            return;
+        }
+        if (f instanceof HeapFile)
+            ((HeapFile) f).getFreeSpaceMap().setFree(pid.getPageNumber(), true);
+        else if (f instanceof SlottedHeapFile)
+            ((SlottedHeapFile) f).getFreeSpaceMap().setFree(pid.getPageNumber(), true);
+    }
+
     /**
      * Flushes a certain page to disk
      *
@@ -276,6 +692,7 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         if (pid != null) {
+            cancelPendingRead(pid);
             Page p = pages.get(pid);
             Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(p);
             p.markDirty(false, null);
@@ -319,7 +736,13 @@ public class BufferPool {
             or locked by current transaction, assume visit is in order
             so the least recent used page will not be used anymore
             */
-            if (pages.get(id).isDirty() == null) {
+            Page p = pages.get(id);
+            if (p == null) {
+                // left behind by a concurrent hit on a page that was just evicted
+                pageOrd.remove(id);
+                continue;
+            }
+            if (p.isDirty() == null) {
                 pid = id;
                 found = true;
                 break;
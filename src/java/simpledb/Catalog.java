@@ -6,6 +6,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -21,6 +22,9 @@ public class Catalog {
     ConcurrentHashMap<Integer, DbFile> dbFiles;
     ConcurrentHashMap<String, Integer> dbNames;
     ConcurrentHashMap<Integer, String> dbPKs;
+    ConcurrentHashMap<Integer, List<SecondaryIndex>> dbIndexes;
+    ConcurrentHashMap<Integer, List<BitmapIndex>> dbBitmapIndexes;
+    ConcurrentHashMap<File, ZoneMap> zoneMaps;
 
     /**
      * Constructor.
@@ -31,6 +35,9 @@ public class Catalog {
         dbFiles = new ConcurrentHashMap<>();
         dbNames = new ConcurrentHashMap<>();
         dbPKs = new ConcurrentHashMap<>();
+        dbIndexes = new ConcurrentHashMap<>();
+        dbBitmapIndexes = new ConcurrentHashMap<>();
+        zoneMaps = new ConcurrentHashMap<>();
     }
 
     /**
@@ -41,6 +48,8 @@ public class Catalog {
      *                  this file/tupledesc param for the calls getTupleDesc and getFile
      * @param name      the name of the table -- may be an empty string.  May not be null.  If a name
      *                  conflict exists, use the last table to be added as the table for a given name.
+     *                  A table that is replaced, by name or by id, loses its secondary and bitmap indexes,
+     *                  and its DbFile is closed.
      * @param pkeyField the name of the primary key field
      */
     public void addTable(DbFile file, String name, String pkeyField) {
@@ -57,8 +66,11 @@ public class Catalog {
                     dbPKs.put(file.getId(), pkeyField);
                 } else {
                     // duplicate name
-                    dbFiles.remove(oldId);
+                    DbFile replaced = dbFiles.remove(oldId);
+                    if (replaced != null)
+                        replaced.close();
                     dbPKs.remove(oldId);
+                    dropIndexes(oldId);
                     dbFiles.put(file.getId(), file);
                     dbNames.put(name, file.getId());
                     dbPKs.put(oldId, pkeyField);
@@ -66,6 +78,10 @@ public class Catalog {
             } else {
                 if (oldId == null) {
                     // duplicate file
+                    if (oldFile != file) {
+                        dropIndexes(file.getId());
+                        oldFile.close();
+                    }
                     dbFiles.put(file.getId(), file);
                     dbNames.remove(getTableName(file.getId()));
                     dbNames.put(name, file.getId());
@@ -78,6 +94,19 @@ public class Catalog {
         }
     }
 
+    /**
+     * Forget the secondary and bitmap indexes of a table that is replaced;
+     * they describe the old table's tuples.
+     */
+    private void dropIndexes(int tableid) {
+        dbIndexes.remove(tableid);
+        List<BitmapIndex> bitmapIndexes = dbBitmapIndexes.remove(tableid);
+        if (bitmapIndexes != null) {
+            for (BitmapIndex index : bitmapIndexes)
+                index.close();
+        }
+    }
+
     public void addTable(DbFile file, String name) {
         addTable(file, name, "");
     }
@@ -94,6 +123,110 @@ public class Catalog {
         addTable(file, (UUID.randomUUID()).toString());
     }
 
+    /**
+     * Add a secondary index to the catalog. The index's B+ tree is added as a
+     * table named after the index, and replaces any index of the same name on
+     * the indexed table. The BufferPool maintains the index from then on, so
+     * it must already hold an entry for every tuple of the table.
+     *
+     * @param index the index to add; its table must be in the catalog
+     * @see SecondaryIndex#build()
+     */
+    public void addIndex(SecondaryIndex index) {
+        addTable(index.getTree(), index.getName());
+        List<SecondaryIndex> indexes = dbIndexes.computeIfAbsent(index.getTableId(),
+                k -> new CopyOnWriteArrayList<>());
+        indexes.removeIf(i -> i.getName().equals(index.getName()));
+        indexes.add(index);
+    }
+
+    /**
+     * Returns the secondary indexes of the specified table, which may be none.
+     *
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *                function passed to addTable
+     */
+    public List<SecondaryIndex> getIndexes(int tableid) {
+        List<SecondaryIndex> indexes = dbIndexes.get(tableid);
+        return indexes == null ? Collections.emptyList() : Collections.unmodifiableList(indexes);
+    }
+
+    /**
+     * Returns the zone map of a heap data file. Every HeapFile on the same
+     * file shares one ZoneMap, whether or not it is in the catalog, so that
+     * a range widened through one of them is seen by the others. The maps
+     * outlive {@link #clear()}, since pages of the files may still be in the
+     * BufferPool.
+     *
+     * @param dataFile the file backing the HeapFile
+     * @param td       the tuple descriptor of the HeapFile
+     */
+    public ZoneMap getZoneMap(File dataFile, TupleDesc td) {
+        File key = dataFile.getAbsoluteFile();
+        ZoneMap zoneMap = zoneMaps.get(key);
+        if (zoneMap != null && zoneMap.getTupleDesc().equals(td))
+            return zoneMap;
+        return zoneMaps.compute(key, (k, old) ->
+                old != null && old.getTupleDesc().equals(td) ? old : new ZoneMap(dataFile, td));
+    }
+
+    /**
+     * Forgets the zone map of a heap data file, e.g. because the file has
+     * been rewritten. The next HeapFile to use the file reads the map afresh.
+     *
+     * @see ZoneMap#discard(File)
+     */
+    public void dropZoneMap(File dataFile) {
+        ZoneMap zoneMap = zoneMaps.remove(dataFile.getAbsoluteFile());
+        if (zoneMap != null)
+            zoneMap.close();
+    }
+
+    /**
+     * Add a bitmap index to the catalog, replacing any bitmap index of the
+     * same name or on the same field of the indexed table. The BufferPool
+     * maintains the index from then on, so it must already hold the bit of
+     * every tuple of the table.
+     *
+     * @param index the index to add; its table must be in the catalog
+     * @see BitmapIndex#build()
+     */
+    public void addBitmapIndex(BitmapIndex index) {
+        List<BitmapIndex> indexes = dbBitmapIndexes.computeIfAbsent(index.getTableId(),
+                k -> new CopyOnWriteArrayList<>());
+        for (BitmapIndex i : indexes) {
+            if (i.getName().equals(index.getName()) || i.getKeyField() == index.getKeyField()) {
+                indexes.remove(i);
+                if (i != index)
+                    i.close();
+            }
+        }
+        indexes.add(index);
+    }
+
+    /**
+     * Returns the bitmap indexes of the specified table, which may be none.
+     *
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *                function passed to addTable
+     */
+    public List<BitmapIndex> getBitmapIndexes(int tableid) {
+        List<BitmapIndex> indexes = dbBitmapIndexes.get(tableid);
+        return indexes == null ? Collections.emptyList() : Collections.unmodifiableList(indexes);
+    }
+
+    /**
+     * Returns the bitmap index on the given field of the specified table, or
+     * null if there is none.
+     */
+    public BitmapIndex getBitmapIndex(int tableid, int field) {
+        for (BitmapIndex index : getBitmapIndexes(tableid)) {
+            if (index.getKeyField() == field)
+                return index;
+        }
+        return null;
+    }
+
     /**
      * Return the id of the table with a specified name,
      *
@@ -170,10 +303,31 @@ public class Catalog {
         dbFiles.clear();
         dbNames.clear();
         dbPKs.clear();
+        dbIndexes.clear();
+        for (List<BitmapIndex> indexes : dbBitmapIndexes.values()) {
+            for (BitmapIndex index : indexes)
+                index.close();
+        }
+        dbBitmapIndexes.clear();
     }
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line has the format <code>name (field type [pk], ...) [mmap] [varlen] [columnar] [compressed] [lsm] [extent=N]</code>;
+     * the optional <code>mmap</code> annotation reads the table through a memory mapping,
+     * <code>varlen</code> stores it in a {@link SlottedHeapFile}, and <code>columnar</code>
+     * stores it column by column in a {@link ColumnarFile}, <code>compressed</code> stores
+     * its pages compressed (see {@link PageCompression}), <code>lsm</code> stores it in an
+     * {@link LsmFile} sorted on its primary key, or on its first field if it has none, and
+     * <code>extent=N</code>, for N &gt; 0, grows a heap table N pages at a time (see
+     * {@link ExtentAllocator}); it is rejected on columnar and lsm tables.
+     * <p>
+     * A line <code>index name on table (field)</code> adds a {@link SecondaryIndex}
+     * on a field of a heap table declared above it, and may be followed by
+     * <code>include (field, field, ...)</code> to make it a covering index. The
+     * index is stored in <code>name.idx</code>, and built from the table if that
+     * file is missing or empty. A line <code>bitmap index name on table (field)</code>
+     * adds a {@link BitmapIndex} instead, stored in <code>name.bm</code>.
      *
      * @param catalogFile
      */
@@ -184,6 +338,14 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
 
             while ((line = br.readLine()) != null) {
+                if (line.trim().toLowerCase().startsWith("index ")) {
+                    loadIndex(line, baseFolder);
+                    continue;
+                }
+                if (line.trim().toLowerCase().startsWith("bitmap ")) {
+                    loadBitmapIndex(line, baseFolder);
+                    continue;
+                }
                 //assume line is of the format name (field type, field type, ...)
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
@@ -212,10 +374,83 @@ public class Catalog {
                         }
                     }
                 }
+                // table annotations follow the field list
+                boolean memoryMapped = false;
+                boolean varlen = false;
+                boolean columnar = false;
+                boolean compressed = false;
+                boolean lsm = false;
+                int extentPages = ExtentAllocator.DEFAULT_EXTENT_PAGES;
+                boolean extent = false;
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                for (String option : options.split("\\s+")) {
+                    if (option.isEmpty())
+                        continue;
+                    if (option.toLowerCase().equals("mmap"))
+                        memoryMapped = true;
+                    else if (option.toLowerCase().equals("varlen"))
+                        varlen = true;
+                    else if (option.toLowerCase().equals("columnar"))
+                        columnar = true;
+                    else if (option.toLowerCase().equals("compressed"))
+                        compressed = true;
+                    else if (option.toLowerCase().equals("lsm"))
+                        lsm = true;
+                    else if (option.toLowerCase().startsWith("extent=")) {
+                        String pages = option.substring("extent=".length());
+                        try {
+                            extentPages = Integer.parseInt(pages);
+                        } catch (NumberFormatException e) {
+                            extentPages = 0;
+                        }
+                        if (extentPages < 1) {
+                            System.out.println("Table " + name + ": extent must be a positive number of pages, not " + pages);
+                            System.exit(0);
+                        }
+                        extent = true;
+                    } else {
+                        System.out.println("Unknown table annotation " + option);
+                        System.exit(0);
+                    }
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
+                File dataFile = new File(baseFolder + "/" + name + ".dat");
+                DbFile tabHf;
+                if (compressed && (memoryMapped || varlen || columnar)) {
+                    System.out.println("Table " + name + ": compressed cannot be combined with mmap, varlen or columnar");
+                    System.exit(0);
+                }
+                if (extent && (columnar || lsm)) {
+                    System.out.println("Table " + name + ": extent applies only to heap tables, not columnar or lsm");
+                    System.exit(0);
+                }
+                if (lsm) {
+                    if (memoryMapped || varlen || columnar || compressed) {
+                        System.out.println("Table " + name + ": lsm cannot be combined with mmap, varlen, columnar or compressed");
+                        System.exit(0);
+                    }
+                    tabHf = new LsmFile(dataFile, Math.max(0, names.indexOf(primaryKey)), t);
+                } else if (columnar) {
+                    if (memoryMapped || varlen) {
+                        System.out.println("Table " + name + ": columnar cannot be combined with mmap or varlen");
+                        System.exit(0);
+                    }
+                    tabHf = new ColumnarFile(dataFile, t);
+                } else if (varlen) {
+                    if (memoryMapped) {
+                        System.out.println("Table " + name + ": mmap is not supported for varlen tables");
+                        System.exit(0);
+                    }
+                    SlottedHeapFile slotted = new SlottedHeapFile(dataFile, t);
+                    slotted.getExtentAllocator().setExtentPages(extentPages);
+                    tabHf = slotted;
+                } else {
+                    HeapFile heap = new HeapFile(dataFile, t, memoryMapped, compressed);
+                    heap.getExtentAllocator().setExtentPages(extentPages);
+                    tabHf = heap;
+                }
                 addTable(tabHf, name, primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -227,5 +462,90 @@ public class Catalog {
             System.exit(0);
         }
     }
+
+    /**
+     * Adds the secondary index declared by a schema line of the format
+     * <code>index name on table (field) [include (field, ...)]</code>.
+     *
+     * @see #loadSchema(String)
+     */
+    private void loadIndex(String line, String baseFolder) throws IOException {
+        String[] words = line.substring(0, line.indexOf("(")).trim().split("\\s+");
+        String field = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+        if (words.length != 4 || !words[2].toLowerCase().equals("on")) {
+            System.out.println("Invalid index entry : " + line);
+            System.exit(0);
+        }
+        String name = words[1];
+        String[] included = new String[0];
+        String options = line.substring(line.indexOf(")") + 1).trim();
+        if (!options.isEmpty()) {
+            if (!options.toLowerCase().startsWith("include") || !options.contains("(") || !options.endsWith(")")) {
+                System.out.println("Invalid index entry : " + line);
+                System.exit(0);
+            }
+            included = options.substring(options.indexOf("(") + 1, options.length() - 1).split(",");
+        }
+        int tableid = 0;
+        int keyField = 0;
+        int[] includedFields = new int[included.length];
+        try {
+            tableid = getTableId(words[3]);
+            keyField = getTupleDesc(tableid).fieldNameToIndex(field);
+            for (int i = 0; i < included.length; i++)
+                includedFields[i] = getTupleDesc(tableid).fieldNameToIndex(included[i].trim());
+        } catch (NoSuchElementException e) {
+            System.out.println("Unknown table or field in index entry : " + line);
+            System.exit(0);
+        }
+        File indexFile = new File(baseFolder + "/" + name + ".idx");
+        SecondaryIndex index = new SecondaryIndex(name, indexFile, tableid, keyField, includedFields);
+        if (indexFile.length() == 0) {
+            try {
+                index.build();
+            } catch (DbException | TransactionAbortedException e) {
+                throw new IOException("could not build index " + name, e);
+            }
+        }
+        addIndex(index);
+        System.out.println("Added index : " + name + " on " + words[3] + " (" + field + ")");
+    }
+
+    /**
+     * Adds the bitmap index declared by a schema line of the format
+     * <code>bitmap index name on table (field)</code>.
+     *
+     * @see #loadSchema(String)
+     */
+    private void loadBitmapIndex(String line, String baseFolder) throws IOException {
+        String[] words = line.substring(0, line.indexOf("(")).trim().split("\\s+");
+        String field = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+        if (words.length != 5 || !words[1].toLowerCase().equals("index") || !words[3].toLowerCase().equals("on")
+                || !line.substring(line.indexOf(")") + 1).trim().isEmpty()) {
+            System.out.println("Invalid bitmap index entry : " + line);
+            System.exit(0);
+        }
+        String name = words[2];
+        int tableid = 0;
+        int keyField = 0;
+        try {
+            tableid = getTableId(words[4]);
+            keyField = getTupleDesc(tableid).fieldNameToIndex(field);
+        } catch (NoSuchElementException e) {
+            System.out.println("Unknown table or field in bitmap index entry : " + line);
+            System.exit(0);
+        }
+        File indexFile = new File(baseFolder + "/" + name + ".bm");
+        BitmapIndex index = new BitmapIndex(name, indexFile, tableid, keyField);
+        if (indexFile.length() == 0) {
+            try {
+                index.build();
+            } catch (DbException | TransactionAbortedException e) {
+                throw new IOException("could not build bitmap index " + name, e);
+            }
+        }
+        addBitmapIndex(index);
+        System.out.println("Added bitmap index : " + name + " on " + words[4] + " (" + field + ")");
+    }
 }
 
@@ -0,0 +1,285 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Each instance of ColumnPage stores the values of one column for a run of
+ * consecutive rows of a ColumnarFile.
+ * <p>
+ * A page starts with a 4-byte count of the values on it. The layout of the
+ * values depends on the column:
+ * <ul>
+ * <li>INT_TYPE columns are packed arrays of 4-byte integers, so value i is at
+ * offset 4 + 4 * i and can be read without decoding the others.</li>
+ * <li>STRING_TYPE columns store each string as a length byte followed by its
+ * characters, one after the other.</li>
+ * <li>The {@link ColumnPageId#DELETED} chain is a bitmap with one bit per
+ * row, set for deleted rows; the count is the number of rows covered.</li>
+ * </ul>
+ * Values are only ever appended, so every page of a chain but the last is full.
+ *
+ * @see ColumnarFile
+ */
+public class ColumnPage implements Page {
+
+    /**
+     * Size of the page header holding the number of values.
+     */
+    public static final int HEADER_SIZE = 4;
+
+    final ColumnPageId pid;
+    final Type type;
+    private final int pageSize;
+
+    /* serialized page; shared with oldData until the first modification */
+    private byte[] data;
+    private int count;
+    /* offsets of the values of a string page, computed on first access */
+    private int[] offsets;
+    private int end;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+    private TransactionId dirtyId;
+    private boolean isDirty = false;
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk. The page
+     * keeps a reference to data, so the caller must not change it afterwards.
+     *
+     * @see ColumnPage
+     */
+    public ColumnPage(ColumnPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.type = id.getColumn() == ColumnPageId.DELETED ? null
+                : Database.getCatalog().getTupleDesc(id.getTableId()).getFieldType(id.getColumn());
+        this.pageSize = BufferPool.getPageSize();
+        this.data = data;
+        this.count = readInt(0);
+        if (count < 0 || count > getCapacity())
+            throw new IOException("corrupt column page " + id);
+
+        synchronized (oldDataLock) {
+            oldData = data;
+        }
+    }
+
+    /**
+     * Returns the most values a page of the given column type holds, or for
+     * string columns the most strings of length 0.
+     *
+     * @param type the column type, or null for the deleted-row bitmap
+     */
+    public static int getCapacity(Type type) {
+        int space = BufferPool.getPageSize() - HEADER_SIZE;
+        if (type == null)
+            return space * 8;
+        if (type == Type.INT_TYPE)
+            return space / 4;
+        return space;
+    }
+
+    private int getCapacity() {
+        return getCapacity(type);
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public ColumnPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new ColumnPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    private int readInt(int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+    private void writeInt(int offset, int v) {
+        data[offset] = (byte) (v >> 24);
+        data[offset + 1] = (byte) (v >> 16);
+        data[offset + 2] = (byte) (v >> 8);
+        data[offset + 3] = (byte) v;
+    }
+
+    /**
+     * Make sure data is not shared with the before-image, so it may be modified.
+     */
+    private void ensureOwnData() {
+        synchronized (oldDataLock) {
+            if (data == oldData)
+                data = data.clone();
+        }
+    }
+
+    /**
+     * Find the start of every string on a string page.
+     */
+    private void indexStrings() {
+        if (offsets != null)
+            return;
+        offsets = new int[count];
+        int offset = HEADER_SIZE;
+        for (int i = 0; i < count; ++i) {
+            offsets[i] = offset;
+            offset += 1 + (data[offset] & 0xff);
+        }
+        end = offset;
+    }
+
+    /**
+     * Returns the number of values stored on this page.
+     */
+    public int getNumValues() {
+        return count;
+    }
+
+    /**
+     * Returns value i of an INT_TYPE page, read straight from the packed array.
+     */
+    public int getInt(int i) {
+        if (i < 0 || i >= count)
+            throw new IndexOutOfBoundsException("no value " + i + " on " + pid);
+        return readInt(HEADER_SIZE + 4 * i);
+    }
+
+    /**
+     * Returns value i of this page as a Field.
+     */
+    public Field getField(int i) {
+        if (type == Type.INT_TYPE)
+            return new IntField(getInt(i));
+        if (i < 0 || i >= count)
+            throw new IndexOutOfBoundsException("no value " + i + " on " + pid);
+        indexStrings();
+        return new StringField(new String(data, offsets[i] + 1, data[offsets[i]] & 0xff), Type.STRING_LEN);
+    }
+
+    /**
+     * Returns true if row i is marked deleted on a deleted-row bitmap page.
+     */
+    public boolean isDeleted(int i) {
+        return ((data[HEADER_SIZE + i / 8] >> (i % 8)) & 1) == 1;
+    }
+
+    /**
+     * Marks row i as deleted or not on a deleted-row bitmap page.
+     */
+    public void setDeleted(int i, boolean deleted) {
+        ensureOwnData();
+        if (deleted)
+            data[HEADER_SIZE + i / 8] |= 1 << (i % 8);
+        else
+            data[HEADER_SIZE + i / 8] &= ~(1 << (i % 8));
+    }
+
+    private static byte[] stringBytes(Field f) {
+        // same truncation and character encoding as StringField.serialize
+        String s = ((StringField) f).getValue();
+        byte[] b = new byte[Math.min(s.length(), Type.STRING_LEN)];
+        for (int i = 0; i < b.length; i++)
+            b[i] = (byte) s.charAt(i);
+        return b;
+    }
+
+    /**
+     * Returns true if the given value can be appended to this page. On a
+     * deleted-row bitmap page, f is ignored.
+     */
+    public boolean hasRoomFor(Field f) {
+        if (type != Type.STRING_TYPE)
+            return count < getCapacity();
+        indexStrings();
+        return end + 1 + stringBytes(f).length <= pageSize;
+    }
+
+    /**
+     * Appends a value to this page. On a deleted-row bitmap page, f is
+     * ignored and a row that is not deleted is added.
+     *
+     * @return the index of the new value on this page
+     * @throws DbException if the page is full
+     */
+    public int append(Field f) throws DbException {
+        if (!hasRoomFor(f))
+            throw new DbException("column page is full");
+        ensureOwnData();
+        if (type == Type.INT_TYPE) {
+            writeInt(HEADER_SIZE + 4 * count, ((IntField) f).getValue());
+        } else if (type == Type.STRING_TYPE) {
+            byte[] b = stringBytes(f);
+            data[end] = (byte) b.length;
+            System.arraycopy(b, 0, data, end + 1, b.length);
+            offsets = Arrays.copyOf(offsets, count + 1);
+            offsets[count] = end;
+            end += 1 + b.length;
+        }
+        writeInt(0, count + 1);
+        return count++;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     *
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * ColumnPage of any column.
+     *
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()]; //all 0
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        isDirty = dirty;
+        dirtyId = (dirty) ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        if (isDirty)
+            return dirtyId;
+        else
+            return null;
+    }
+}
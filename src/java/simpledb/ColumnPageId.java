@@ -0,0 +1,87 @@
+package simpledb;
+
+import java.util.Objects;
+
+/**
+ * Unique identifier for ColumnPage objects: a page number within the page
+ * chain of one column of a ColumnarFile.
+ */
+public class ColumnPageId implements PageId {
+
+    /**
+     * Column number of the chain of bitmap pages that records deleted rows.
+     */
+    public static final int DELETED = -1;
+
+    private final int tableId;
+    private final int column;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific column of a table.
+     *
+     * @param tableId The table that is being referenced
+     * @param column  The column of the table, or {@link #DELETED}
+     * @param pgNo    The page number in the page chain of that column.
+     */
+    public ColumnPageId(int tableId, int column, int pgNo) {
+        this.tableId = tableId;
+        this.column = column;
+        this.pgNo = pgNo;
+    }
+
+    /**
+     * @return the table associated with this PageId
+     */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the column whose page chain this page belongs to
+     */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * @return the page number in the page chain of the column
+     */
+    public int getPageNumber() {
+        return pgNo;
+    }
+
+    public int hashCode() {
+        return Objects.hash(tableId, column, pgNo);
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., page numbers, table
+     * ids and columns are the same)
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof ColumnPageId))
+            return false;
+        ColumnPageId p = (ColumnPageId) o;
+        return tableId == p.tableId && column == p.column && pgNo == p.pgNo;
+    }
+
+    public String toString() {
+        return "(tableId: " + tableId + ", column: " + column + ", pgNo: " + pgNo + ")";
+    }
+
+    /**
+     * Return a representation of this object as an array of
+     * integers, for writing to disk.  Size of returned array must contain
+     * number of integers that corresponds to number of args to one of the
+     * constructors.
+     */
+    public int[] serialize() {
+        return new int[]{tableId, column, pgNo};
+    }
+
+}
@@ -0,0 +1,348 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ColumnarFile is a DbFile that stores each column of a table in its own
+ * chain of ColumnPages, in a file of its own next to the table's data file
+ * (with a ".c&lt;column&gt;" suffix). A scan that needs only some columns
+ * reads only their pages, which for analytic queries over wide tables is a
+ * small fraction of the table.
+ * <p>
+ * Rows are appended to the end of every chain, so the i-th value of each
+ * column belongs to row i. Deleted rows are recorded in one more chain of
+ * bitmap pages (with a ".del" suffix), which also holds the number of rows.
+ * The RecordId of a tuple names its bit: the bitmap page and the bit on it.
+ *
+ * @see ColumnPage
+ * @see SeqScan#setProjection
+ */
+public class ColumnarFile implements DbFile {
+
+    private final File f;
+    private final TupleDesc td;
+    private final DbFileChannel[] columns;
+    private final File[] columnFiles;
+    private final DbFileChannel deleted;
+    private final File deletedFile;
+
+    /**
+     * Constructs a columnar file for the table whose data file is f. The
+     * column files are created as rows are inserted.
+     *
+     * @param f  the data file of the table; its path is the prefix of the column files
+     * @param td the tuple descriptor of the table
+     */
+    public ColumnarFile(File f, TupleDesc td) {
+        this.f = f;
+        this.td = td;
+        this.columns = new DbFileChannel[td.numFields()];
+        this.columnFiles = new File[td.numFields()];
+        for (int i = 0; i < columns.length; ++i) {
+            columnFiles[i] = new File(f.getPath() + ".c" + i);
+            columns[i] = new DbFileChannel(columnFiles[i]);
+        }
+        this.deletedFile = new File(f.getPath() + ".del");
+        this.deleted = new DbFileChannel(deletedFile);
+    }
+
+    /**
+     * Returns the data file of the table.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this ColumnarFile.
+     *
+     * @see HeapFile#getId()
+     */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public void close() {
+        for (DbFileChannel column : columns)
+            column.close();
+        deleted.close();
+    }
+
+    private DbFileChannel channel(int column) {
+        return column == ColumnPageId.DELETED ? deleted : columns[column];
+    }
+
+    /**
+     * Returns the number of pages in the chain of the given column.
+     *
+     * @param column a column of the table, or {@link ColumnPageId#DELETED}
+     */
+    public int numPages(int column) {
+        File file = column == ColumnPageId.DELETED ? deletedFile : columnFiles[column];
+        return (int) (file.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public Page readPage(PageId pid) {
+        ColumnPageId id = (ColumnPageId) pid;
+        int pageSize = BufferPool.getPageSize();
+        try {
+            byte[] pageData = new byte[pageSize];
+            int byteRead = channel(id.getColumn()).read(pageData, (long) pageSize * id.getPageNumber());
+            if (byteRead == -1) {
+                throw new IllegalArgumentException("Read past end of column");
+            }
+            if (byteRead < pageSize) {
+                throw new IllegalArgumentException("Unable to read "
+                        + pageSize + " bytes from ColumnarFile");
+            }
+            return new ColumnPage(id, pageData);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Read the specified pages from disk, merging runs of adjacent pages of
+     * the same column into a single read.
+     *
+     * @see DbFile#readPages(List)
+     */
+    @Override
+    public List<Page> readPages(List<PageId> ids) {
+        int pageSize = BufferPool.getPageSize();
+        Page[] pages = new Page[ids.size()];
+        LinkedHashMap<Integer, List<Integer>> byColumn = new LinkedHashMap<>();
+        for (int i = 0; i < pages.length; ++i)
+            byColumn.computeIfAbsent(((ColumnPageId) ids.get(i)).getColumn(), k -> new ArrayList<>()).add(i);
+
+        try {
+            for (Map.Entry<Integer, List<Integer>> e : byColumn.entrySet()) {
+                List<Integer> idx = e.getValue();
+                long[] offsets = new long[idx.size()];
+                for (int i = 0; i < offsets.length; ++i)
+                    offsets[i] = (long) pageSize * ids.get(idx.get(i)).getPageNumber();
+                byte[][] data = channel(e.getKey()).readBlocks(offsets, pageSize);
+                for (int i = 0; i < data.length; ++i) {
+                    if (data[i] == null) {
+                        throw new IllegalArgumentException("Read past end of column");
+                    }
+                    pages[idx.get(i)] = new ColumnPage((ColumnPageId) ids.get(idx.get(i)), data[i]);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return Arrays.asList(pages);
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public void writePage(Page page) throws IOException {
+        ColumnPageId id = (ColumnPageId) page.getId();
+        channel(id.getColumn()).write(page.getPageData(), (long) BufferPool.getPageSize() * id.getPageNumber());
+    }
+
+    /**
+     * Appends v to the end of the chain of the given column, on the last page
+     * of the chain, which is locked and modified through the BufferPool. When
+     * the last page is full, an empty page is added to the chain on disk and
+     * the value goes to it through the BufferPool in the same way, so an
+     * abort leaves an empty page behind rather than the value.
+     *
+     * @return the page the value was appended to
+     */
+    private ColumnPage append(TransactionId tid, int column, Field v, ArrayList<Page> modified)
+            throws DbException, IOException, TransactionAbortedException {
+        while (true) {
+            int numPages = numPages(column);
+            if (numPages > 0) {
+                ColumnPage last = (ColumnPage) Database.getBufferPool().getPage(tid,
+                        new ColumnPageId(getId(), column, numPages - 1), Permissions.READ_WRITE);
+                // the chain may have grown while we waited for the lock
+                if (numPages(column) != numPages)
+                    continue;
+                if (last.hasRoomFor(v)) {
+                    last.append(v);
+                    modified.add(last);
+                    return last;
+                }
+            }
+            addPage(column, numPages);
+        }
+    }
+
+    /**
+     * Writes an empty page at the end of the chain of the given column,
+     * unless another transaction already extended the chain past numPages.
+     */
+    private synchronized void addPage(int column, int numPages) throws IOException {
+        if (numPages(column) == numPages)
+            writePage(new ColumnPage(new ColumnPageId(getId(), column, numPages), ColumnPage.createEmptyPageData()));
+    }
+
+    /**
+     * Appends the fields of t to the chains of the columns, and a bit to the
+     * chain of deleted rows, locking the last page of each chain. No monitor
+     * is held while waiting for those locks, so the LockManager sees every
+     * wait and can break deadlocks between inserting transactions.
+     *
+     * @see DbFile#insertTuple(TransactionId, Tuple)
+     */
+    @Override
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("tupledesc doesn't match");
+        ArrayList<Page> modified = new ArrayList<>();
+        for (int i = 0; i < td.numFields(); ++i)
+            append(tid, i, t.getField(i), modified);
+        ColumnPage bitmap = append(tid, ColumnPageId.DELETED, null, modified);
+        t.setRecordId(new RecordId(bitmap.getId(), bitmap.getNumValues() - 1));
+        return modified;
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof ColumnPageId) || rid.getPageId().getTableId() != getId())
+            throw new DbException("tuple is not a member of the file");
+
+        ColumnPage bitmap = (ColumnPage) Database.getBufferPool().getPage(tid,
+                rid.getPageId(), Permissions.READ_WRITE);
+        int row = rid.getTupleNumber();
+        if (row >= bitmap.getNumValues() || bitmap.isDeleted(row))
+            throw new DbException("tuple slot is already empty");
+        bitmap.setDeleted(row, true);
+        ArrayList<Page> pages = new ArrayList<>();
+        pages.add(bitmap);
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public DbFileIterator iterator(TransactionId tid) {
+        int[] all = new int[td.numFields()];
+        for (int i = 0; i < all.length; ++i)
+            all[i] = i;
+        return iterator(tid, all);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that reads only the
+     * pages of the given columns. The other fields of the returned tuples are
+     * null.
+     *
+     * @param tid     the transaction the scan runs as a part of
+     * @param columns the columns to read
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return new ColumnarFileIterator(tid, this, columns);
+    }
+
+}
+
+class ColumnarFileIterator extends AbstractDbFileIterator {
+
+    private final ColumnarFile f;
+    private final TransactionId tid;
+    private final int[] columns;
+    private ColumnCursor[] cursors;
+    private ColumnCursor rows;
+
+    /**
+     * Walks the page chain of one column, one value at a time.
+     */
+    private class ColumnCursor {
+        final int column;
+        final ReadAhead.SequentialCursor readAhead = new ReadAhead.SequentialCursor();
+        ColumnPage page;
+        int pgNo = -1;
+        int idx = 0;
+
+        ColumnCursor(int column) {
+            this.column = column;
+        }
+
+        /**
+         * Move to the next value; returns false at the end of the chain.
+         */
+        boolean advance() throws DbException, TransactionAbortedException {
+            idx++;
+            while (page == null || idx >= page.getNumValues()) {
+                int numPages = f.numPages(column);
+                if (pgNo + 1 >= numPages)
+                    return false;
+                pgNo++;
+                readAhead.advance(i -> new ColumnPageId(f.getId(), column, i), pgNo, numPages);
+                page = (ColumnPage) Database.getBufferPool().getPage(tid,
+                        new ColumnPageId(f.getId(), column, pgNo), Permissions.READ_ONLY);
+                idx = 0;
+            }
+            return true;
+        }
+    }
+
+    public ColumnarFileIterator(TransactionId tid, ColumnarFile f, int[] columns) {
+        this.tid = tid;
+        this.f = f;
+        this.columns = columns;
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        rows = new ColumnCursor(ColumnPageId.DELETED);
+        cursors = new ColumnCursor[columns.length];
+        for (int i = 0; i < columns.length; ++i)
+            cursors[i] = new ColumnCursor(columns[i]);
+    }
+
+    @Override
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        if (rows == null)
+            return null;
+        while (rows.advance()) {
+            for (ColumnCursor c : cursors) {
+                if (!c.advance())
+                    throw new DbException("column " + c.column + " is shorter than the table");
+            }
+            if (rows.page.isDeleted(rows.idx))
+                continue;
+            Tuple t = new Tuple(f.getTupleDesc());
+            for (ColumnCursor c : cursors)
+                t.setField(c.column, c.page.getField(c.idx));
+            t.setRecordId(new RecordId(rows.page.getId(), rows.idx));
+            return t;
+        }
+        return null;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        open();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        rows = null;
+        cursors = null;
+    }
+}
@@ -0,0 +1,152 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Instance of Field that stores the key of a B+ tree keyed on several
+ * consecutive fields, such as the key and the RecordId of an entry of a
+ * {@link SecondaryIndex}. Keys are ordered by their first field, then by
+ * the second, and so on.
+ * <p>
+ * A CompositeField compared to a key with fewer fields, or to a plain Field,
+ * compares only the fields both have, so a plain Field is equal to every key
+ * that starts with it. Searches for a plain Field therefore find all the keys
+ * starting with it, as they find all duplicates of a key in a tree keyed on a
+ * single field.
+ *
+ * @see BTreeFile#BTreeFile(java.io.File, int, int, TupleDesc)
+ */
+public class CompositeField implements Field {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Field[] fields;
+
+    /**
+     * Constructor.
+     *
+     * @param fields the fields of the key, most significant first; there must be at least one
+     */
+    public CompositeField(Field... fields) {
+        if (fields.length == 0)
+            throw new IllegalArgumentException("a key needs at least one field");
+        this.fields = fields.clone();
+    }
+
+    /**
+     * Returns the key of a tuple in a B+ tree keyed on the given fields: the
+     * key field itself if the key is a single field, else a CompositeField.
+     *
+     * @param t         the tuple
+     * @param keyField  the index of the first field of the key
+     * @param keyLength the number of fields of the key
+     */
+    public static Field keyOf(Tuple t, int keyField, int keyLength) {
+        if (keyLength == 1)
+            return t.getField(keyField);
+        Field[] fields = new Field[keyLength];
+        for (int i = 0; i < keyLength; i++)
+            fields[i] = t.getField(keyField + i);
+        return new CompositeField(fields);
+    }
+
+    /**
+     * Returns the number of bytes a key on the given fields of td takes.
+     */
+    public static int getKeySize(TupleDesc td, int keyField, int keyLength) {
+        int size = 0;
+        for (int i = 0; i < keyLength; i++)
+            size += td.getFieldType(keyField + i).getLen();
+        return size;
+    }
+
+    /**
+     * Reads a key on the given fields of td.
+     */
+    public static Field parse(DataInputStream dis, TupleDesc td, int keyField, int keyLength)
+            throws java.text.ParseException {
+        Field[] fields = new Field[keyLength];
+        for (int i = 0; i < keyLength; i++)
+            fields[i] = td.getFieldType(keyField + i).parse(dis);
+        return keyLength == 1 ? fields[0] : new CompositeField(fields);
+    }
+
+    /**
+     * Returns the i-th field of this key.
+     */
+    public Field getField(int i) {
+        return fields[i];
+    }
+
+    /**
+     * Returns the number of fields of this key.
+     */
+    public int numFields() {
+        return fields.length;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(fields[i]);
+        }
+        return sb.append(")").toString();
+    }
+
+    public int hashCode() {
+        return Arrays.hashCode(fields);
+    }
+
+    public boolean equals(Object field) {
+        return field instanceof CompositeField && Arrays.equals(fields, ((CompositeField) field).fields);
+    }
+
+    public void serialize(DataOutputStream dos) throws IOException {
+        for (Field f : fields)
+            f.serialize(dos);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field, field by field.
+     * Only the fields both keys have are compared.
+     *
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+        Field[] other = val instanceof CompositeField ? ((CompositeField) val).fields : new Field[]{val};
+        int cmp = 0;
+        for (int i = 0; i < Math.min(fields.length, other.length) && cmp == 0; i++) {
+            if (fields[i].compare(Predicate.Op.LESS_THAN, other[i]))
+                cmp = -1;
+            else if (fields[i].compare(Predicate.Op.GREATER_THAN, other[i]))
+                cmp = 1;
+        }
+
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return cmp == 0;
+            case NOT_EQUALS:
+                return cmp != 0;
+            case GREATER_THAN:
+                return cmp > 0;
+            case GREATER_THAN_OR_EQ:
+                return cmp >= 0;
+            case LESS_THAN:
+                return cmp < 0;
+            case LESS_THAN_OR_EQ:
+                return cmp <= 0;
+        }
+        return false;
+    }
+
+    /**
+     * Return the Type of the first field of this key.
+     */
+    public Type getType() {
+        return fields[0].getType();
+    }
+}
@@ -0,0 +1,284 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * CompressedPageStore keeps the pages of a compressed HeapFile as blocks of
+ * varying size in the data file, and records where each page's block is in
+ * a page directory stored next to the data file (with a ".pdir" suffix).
+ * <p>
+ * Each directory record holds the offset of a block, the length of the
+ * compressed page in it, and the capacity of the block. A block is given
+ * some slack when it is allocated, so a page that grows a little when it is
+ * rewritten stays in place; a page that outgrows its block moves to the
+ * smallest free block it fits in, or to a new block at the end of the file.
+ * <p>
+ * The block a page moves out of is free once the page's directory record
+ * points elsewhere. Free blocks are kept in memory only: they are the parts
+ * of the data file no directory record points into, so they are found again
+ * when the directory is read. Adjacent free blocks are merged, and free
+ * space at the end of the file is truncated away.
+ * <p>
+ * A data file without a directory is read as a plain HeapFile whose pages
+ * are uncompressed blocks of BufferPool.getPageSize() bytes, so an existing
+ * table can be switched to compression; its pages are compressed as they
+ * are rewritten.
+ *
+ * @Threadsafe
+ * @see PageCompression
+ */
+public class CompressedPageStore {
+
+    private static final int RECORD_SIZE = 16;
+    private static final int ALIGN = 64;
+
+    private final File f;
+    private final DbFileChannel channel;
+    private final File dirFile;
+    private final DbFileChannel dirChannel;
+
+    private int numPages = -1;
+    private long[] offset;
+    private int[] length;
+    private int[] capacity;
+    private long end;
+    private long stored;
+    /* offset to capacity of each free block */
+    private final TreeMap<Long, Integer> free = new TreeMap<>();
+
+    /**
+     * Creates the store for the specified data file. The directory is not
+     * read until the store is first used.
+     *
+     * @param f       the data file
+     * @param channel the channel for page I/O on f
+     */
+    public CompressedPageStore(File f, DbFileChannel channel) {
+        this.f = f;
+        this.channel = channel;
+        this.dirFile = new File(f.getPath() + ".pdir");
+        this.dirChannel = new DbFileChannel(dirFile);
+    }
+
+    private void load() throws IOException {
+        if (numPages >= 0)
+            return;
+        int pageSize = BufferPool.getPageSize();
+        if (dirFile.exists() && dirFile.length() >= RECORD_SIZE) {
+            numPages = (int) (dirFile.length() / RECORD_SIZE);
+            byte[] bytes = new byte[numPages * RECORD_SIZE];
+            dirChannel.read(bytes, 0);
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            grow(numPages);
+            for (int i = 0; i < numPages; ++i) {
+                offset[i] = buf.getLong();
+                length[i] = buf.getInt();
+                capacity[i] = buf.getInt();
+            }
+        } else {
+            // a plain heap file: every page is an uncompressed block
+            numPages = (int) (f.length() / pageSize);
+            grow(numPages);
+            for (int i = 0; i < numPages; ++i) {
+                offset[i] = (long) i * pageSize;
+                length[i] = pageSize;
+                capacity[i] = pageSize;
+            }
+        }
+        end = f.length();
+        for (int i = 0; i < numPages; ++i) {
+            end = Math.max(end, offset[i] + capacity[i]);
+            stored += length[i];
+        }
+
+        // the free blocks are the gaps between the blocks of the pages
+        Integer[] byOffset = new Integer[numPages];
+        for (int i = 0; i < numPages; ++i)
+            byOffset[i] = i;
+        Arrays.sort(byOffset, (a, b) -> Long.compare(offset[a], offset[b]));
+        long pos = 0;
+        for (int i : byOffset) {
+            if (capacity[i] == 0)
+                continue;
+            if (offset[i] > pos)
+                free.put(pos, (int) (offset[i] - pos));
+            pos = Math.max(pos, offset[i] + capacity[i]);
+        }
+        if (end > pos)
+            free.put(pos, (int) (end - pos));
+    }
+
+    /**
+     * Takes a block of cap bytes from the smallest free block that holds it,
+     * or from the end of the file.
+     */
+    private long allocate(int cap) {
+        long off = -1;
+        int size = 0;
+        for (Map.Entry<Long, Integer> e : free.entrySet()) {
+            if (e.getValue() >= cap && (off < 0 || e.getValue() < size)) {
+                off = e.getKey();
+                size = e.getValue();
+            }
+        }
+        if (off < 0) {
+            off = end;
+            end += cap;
+            return off;
+        }
+        free.remove(off);
+        if (size > cap)
+            free.put(off + cap, size - cap);
+        return off;
+    }
+
+    /**
+     * Returns a block to the free blocks, merging it with its free neighbours,
+     * and truncates the file if the block ends up at its end.
+     */
+    private void release(long off, int cap) throws IOException {
+        if (cap == 0)
+            return;
+        Map.Entry<Long, Integer> prev = free.floorEntry(off);
+        if (prev != null && prev.getKey() + prev.getValue() == off) {
+            off = prev.getKey();
+            cap += prev.getValue();
+            free.remove(off);
+        }
+        Integer next = free.remove(off + cap);
+        if (next != null)
+            cap += next;
+        if (off + cap >= end) {
+            end = off;
+            channel.truncate(end);
+        } else {
+            free.put(off, cap);
+        }
+    }
+
+    private void grow(int n) {
+        if (offset != null && n <= offset.length)
+            return;
+        int size = Math.max(n, offset == null ? 16 : offset.length * 2);
+        offset = offset == null ? new long[size] : Arrays.copyOf(offset, size);
+        length = length == null ? new int[size] : Arrays.copyOf(length, size);
+        capacity = capacity == null ? new int[size] : Arrays.copyOf(capacity, size);
+    }
+
+    /**
+     * Returns the number of pages in the store.
+     */
+    public synchronized int numPages() {
+        try {
+            load();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return numPages;
+    }
+
+    /**
+     * Reads the block of a page.
+     *
+     * @return the compressed page, an uncompressed page image of
+     * BufferPool.getPageSize() bytes, or null if nothing was written to it
+     */
+    public byte[] read(int pgNo) throws IOException {
+        long off;
+        int len;
+        synchronized (this) {
+            load();
+            if (pgNo >= numPages)
+                throw new IllegalArgumentException("Read past end of table");
+            off = offset[pgNo];
+            len = length[pgNo];
+        }
+        if (len == 0)
+            return null;
+        byte[] block = new byte[len];
+        if (channel.read(block, off) < len)
+            throw new IllegalArgumentException("Unable to read " + len + " bytes from HeapFile");
+        return block;
+    }
+
+    /**
+     * Writes the compressed form of a page, in place if it fits in the page's
+     * block and in a free block or a new block at the end of the file
+     * otherwise. The page's old block is freed once the directory points at
+     * the new one.
+     */
+    public synchronized void write(int pgNo, byte[] block) throws IOException {
+        load();
+        if (pgNo >= numPages) {
+            grow(pgNo + 1);
+            numPages = pgNo + 1;
+        }
+        long oldOffset = offset[pgNo];
+        int oldCapacity = 0;
+        if (block.length > capacity[pgNo]) {
+            int cap = Math.min(BufferPool.getPageSize() + 1, block.length + block.length / 4);
+            cap = (cap + ALIGN - 1) / ALIGN * ALIGN;
+            oldCapacity = capacity[pgNo];
+            offset[pgNo] = allocate(cap);
+            capacity[pgNo] = cap;
+        }
+        stored += block.length - length[pgNo];
+        length[pgNo] = block.length;
+        channel.write(block, offset[pgNo]);
+
+        ByteBuffer rec = ByteBuffer.allocate(RECORD_SIZE);
+        rec.putLong(offset[pgNo]).putInt(length[pgNo]).putInt(capacity[pgNo]);
+        dirChannel.write(rec.array(), (long) pgNo * RECORD_SIZE);
+        // a directory created for a plain heap file must describe every page
+        if (dirFile.length() < (long) numPages * RECORD_SIZE)
+            writeDirectory();
+        release(oldOffset, oldCapacity);
+    }
+
+    private void writeDirectory() throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(numPages * RECORD_SIZE);
+        for (int i = 0; i < numPages; ++i)
+            buf.putLong(offset[i]).putInt(length[i]).putInt(capacity[i]);
+        dirChannel.write(buf.array(), 0);
+    }
+
+    /**
+     * Returns the number of bytes of compressed page data. The total is kept
+     * up to date as pages are written, so this does not walk the directory.
+     * It leaves out the slack and the free blocks of the data file, which
+     * {@link #fileBytes()} includes.
+     */
+    public synchronized long storedBytes() {
+        try {
+            load();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return stored;
+    }
+
+    /**
+     * Returns the number of bytes the data file takes up on disk, including
+     * the slack of each block and the free blocks.
+     */
+    public long fileBytes() {
+        try {
+            return channel.size();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Closes the directory file. The data file belongs to the caller, which
+     * closes it itself.
+     */
+    public void close() {
+        dirChannel.close();
+    }
+}
@@ -19,6 +19,23 @@ public interface DbFile {
      */
     public Page readPage(PageId id);
 
+    /**
+     * Read the specified pages from disk. Implementations may override this to
+     * read adjacent pages with a single I/O; by default the pages are read one
+     * at a time.
+     *
+     * @param ids the pages to read
+     * @return the pages, in the order of ids
+     * @throws IllegalArgumentException if one of the pages does not exist in this file.
+     * @see #readPage(PageId)
+     */
+    public default List<Page> readPages(List<PageId> ids) {
+        List<Page> pages = new ArrayList<>(ids.size());
+        for (PageId id : ids)
+            pages.add(readPage(id));
+        return pages;
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -58,6 +75,30 @@ public interface DbFile {
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Removes the specified tuples from the file on behalf of the specified
+     * transaction. Implementations may override this to touch each affected
+     * page only once; by default the tuples are deleted one at a time.
+     *
+     * @param tid    The transaction performing the update
+     * @param tuples The tuples to delete
+     * @return An ArrayList contain the pages that were modified
+     * @throws DbException if one of the tuples cannot be deleted or is not a
+     *                     member of the file
+     * @see #deleteTuple(TransactionId, Tuple)
+     */
+    public default ArrayList<Page> deleteTuples(TransactionId tid, List<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> pages = new ArrayList<>();
+        for (Tuple t : tuples) {
+            for (Page p : deleteTuple(tid, t)) {
+                if (!pages.contains(p))
+                    pages.add(p);
+            }
+        }
+        return pages;
+    }
+
     /**
      * Returns an iterator over all the tuples stored in this DbFile. The
      * iterator must use {@link BufferPool#getPage}, rather than
@@ -88,4 +129,11 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the files backing this DbFile. The Catalog closes a table when
+     * it replaces it; a later read or write reopens the files.
+     */
+    public default void close() {
+    }
 }
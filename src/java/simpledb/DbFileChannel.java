@@ -0,0 +1,343 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * DbFileChannel keeps a single FileChannel open for the backing file of a
+ * DbFile and performs all page I/O with positional reads and writes, so the
+ * file is neither reopened nor seeked for every page.
+ * <p>
+ * Positional reads and writes do not touch the channel position, so any
+ * number of threads may read through the same channel concurrently.
+ * The channel is opened lazily, read-only until the first write, so reading
+ * a file that does not exist sees an empty file instead of creating it.
+ * <p>
+ * An interrupt of a thread blocked in I/O closes the channel for every
+ * thread using it. Only the interrupted thread fails; the others reopen the
+ * channel and retry, as does any use after {@link #close()}.
+ * <p>
+ * Read-mostly files may also be read through {@link #map}, which maps the
+ * file into memory in fixed-size segments and lets the OS page cache serve
+ * the data without copying it onto the Java heap.
+ *
+ * @Threadsafe
+ * @see HeapFile
+ * @see BTreeFile
+ */
+public class DbFileChannel {
+
+    /**
+     * Largest number of bytes {@link #readBlocks} reads with a single call.
+     */
+    public static final int MAX_READ_BYTES = 1 << 20;
+
+    private final File f;
+    private volatile FileChannel channel;
+    private volatile boolean writable;
+    private final ConcurrentHashMap<Long, MappedSegment> segments;
+
+    /**
+     * A read-only mapping of part of the file, starting at file offset start.
+     */
+    private static class MappedSegment {
+        final long start;
+        final MappedByteBuffer buf;
+
+        MappedSegment(long start, MappedByteBuffer buf) {
+            this.start = start;
+            this.buf = buf;
+        }
+    }
+
+    /**
+     * Creates a channel wrapper for the specified file. The file is not
+     * opened until the first read or write.
+     *
+     * @param f the file backing a DbFile
+     */
+    public DbFileChannel(File f) {
+        this.f = f;
+        this.segments = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * An I/O operation on the channel, retried on a reopened channel if the
+     * channel is closed under it.
+     */
+    private interface ChannelOp<T> {
+        /**
+         * @param fc the channel, or null if the file does not exist and the
+         *           operation does not write
+         */
+        T apply(FileChannel fc) throws IOException;
+    }
+
+    /**
+     * Returns the underlying channel, opening it if necessary. A read-only
+     * channel is replaced by a writable one when write is true.
+     *
+     * @return the channel, or null if write is false and the file does not exist
+     */
+    private FileChannel getChannel(boolean write) throws IOException {
+        FileChannel fc = channel;
+        if (fc != null && fc.isOpen() && (writable || !write))
+            return fc;
+        synchronized (this) {
+            fc = channel;
+            if (fc != null && fc.isOpen() && (writable || !write))
+                return fc;
+            if (!write && !f.exists())
+                return null;
+            FileChannel old = fc;
+            if (write) {
+                fc = FileChannel.open(f.toPath(), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            } else {
+                fc = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+            }
+            channel = fc;
+            writable = write;
+            // readers still using the read-only channel retry on the new one
+            if (old != null)
+                old.close();
+            return fc;
+        }
+    }
+
+    /**
+     * Runs op on the channel, reopening the channel and running op again if
+     * another thread closed it. A ClosedByInterruptException means this
+     * thread was interrupted, so it is not retried.
+     */
+    private <T> T withChannel(boolean write, ChannelOp<T> op) throws IOException {
+        while (true) {
+            FileChannel fc = getChannel(write);
+            try {
+                return op.apply(fc);
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // closed by an interrupt of another thread or by close()
+            }
+        }
+    }
+
+    /**
+     * Reads bytes starting at the given file offset until the buffer is full
+     * or the end of the file is reached.
+     *
+     * @param buf      the buffer to fill
+     * @param position the file offset to start reading at
+     * @return the number of bytes read, or -1 if position is at or past the end of the file
+     */
+    public int read(ByteBuffer buf, long position) throws IOException {
+        int start = buf.position();
+        return withChannel(false, fc -> {
+            if (fc == null)
+                return -1;
+            // start over if a previous attempt was cut short
+            buf.position(start);
+            int total = 0;
+            while (buf.hasRemaining()) {
+                int n = fc.read(buf, position + total);
+                if (n < 0)
+                    return total == 0 ? -1 : total;
+                total += n;
+            }
+            return total;
+        });
+    }
+
+    /**
+     * Reads bytes into the array starting at the given file offset.
+     *
+     * @see #read(ByteBuffer, long)
+     */
+    public int read(byte[] data, long position) throws IOException {
+        return read(ByteBuffer.wrap(data), position);
+    }
+
+    /**
+     * Reads a batch of equally sized blocks. The blocks are read in file
+     * order, and runs of adjacent blocks are merged into a single read of up
+     * to {@link #MAX_READ_BYTES} bytes, so reading n consecutive pages costs
+     * one system call instead of n.
+     *
+     * @param positions the file offset of each block, in any order
+     * @param blockSize the size of every block
+     * @return the content of each block, in the order of positions; an entry
+     *         is null if its block extends past the end of the file
+     */
+    public byte[][] readBlocks(long[] positions, int blockSize) throws IOException {
+        byte[][] blocks = new byte[positions.length][];
+        Integer[] order = new Integer[positions.length];
+        for (int i = 0; i < order.length; ++i)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(positions[a], positions[b]));
+
+        int maxRun = Math.max(1, MAX_READ_BYTES / blockSize);
+        int start = 0;
+        while (start < order.length) {
+            // extend the run while the next block directly follows the last
+            int end = start + 1;
+            int runBlocks = 1;
+            long first = positions[order[start]];
+            while (end < order.length && runBlocks < maxRun) {
+                long next = positions[order[end]];
+                long last = first + (long) (runBlocks - 1) * blockSize;
+                if (next == last) {
+                    end++;
+                } else if (next == last + blockSize) {
+                    end++;
+                    runBlocks++;
+                } else {
+                    break;
+                }
+            }
+
+            byte[] run = new byte[runBlocks * blockSize];
+            int n = read(run, first);
+            for (int i = start; i < end; ++i) {
+                int off = (int) (positions[order[i]] - first);
+                if (n >= off + blockSize)
+                    blocks[order[i]] = Arrays.copyOfRange(run, off, off + blockSize);
+            }
+            start = end;
+        }
+        return blocks;
+    }
+
+    /**
+     * Writes the whole buffer at the given file offset, extending the file if needed.
+     *
+     * @param buf      the bytes to write
+     * @param position the file offset to start writing at
+     */
+    public void write(ByteBuffer buf, long position) throws IOException {
+        int start = buf.position();
+        withChannel(true, fc -> {
+            buf.position(start);
+            long pos = position;
+            while (buf.hasRemaining()) {
+                pos += fc.write(buf, pos);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Writes the whole array at the given file offset.
+     *
+     * @see #write(ByteBuffer, long)
+     */
+    public void write(byte[] data, long position) throws IOException {
+        write(ByteBuffer.wrap(data), position);
+    }
+
+    /**
+     * Atomically appends data to the end of the file.
+     *
+     * @return the file offset at which the data was written
+     */
+    public synchronized long append(byte[] data) throws IOException {
+        long position = size();
+        write(data, position);
+        return position;
+    }
+
+    /**
+     * Returns a read-only view of length bytes at the given file offset, backed
+     * by a memory mapping of the file. The file is mapped in segments of
+     * segmentSize bytes, and a segment is remapped when the file has grown past
+     * the end of its current mapping.
+     * <p>
+     * The returned buffer shares its content with the file, so it sees later
+     * writes to the same region.
+     *
+     * @param position    the file offset of the region
+     * @param length      the length of the region; the region must not cross a segment boundary
+     * @param segmentSize the size of each mapped segment
+     * @return a view of the region, or null if the region extends past the end of the file
+     */
+    public ByteBuffer map(long position, int length, long segmentSize) throws IOException {
+        long segNo = position / segmentSize;
+        long start = segNo * segmentSize;
+        if (position + length > start + segmentSize)
+            throw new IllegalArgumentException("mapped region crosses a segment boundary");
+
+        MappedSegment seg = segments.get(segNo);
+        if (seg == null || seg.start != start || seg.buf.capacity() < position + length - start) {
+            synchronized (this) {
+                seg = segments.get(segNo);
+                if (seg == null || seg.start != start || seg.buf.capacity() < position + length - start) {
+                    long size = size();
+                    if (position + length > size)
+                        return null;
+                    // map as much of the segment as the file currently holds
+                    long len = Math.min(segmentSize, size - start);
+                    MappedByteBuffer buf = withChannel(false,
+                            fc -> fc.map(FileChannel.MapMode.READ_ONLY, start, len));
+                    seg = new MappedSegment(start, buf);
+                    segments.put(segNo, seg);
+                }
+            }
+        }
+
+        ByteBuffer view = seg.buf.duplicate();
+        view.position((int) (position - start));
+        view.limit((int) (position - start) + length);
+        return view.slice();
+    }
+
+    /**
+     * Returns the current size of the file in bytes.
+     */
+    public long size() throws IOException {
+        return withChannel(false, fc -> fc == null ? 0L : fc.size());
+    }
+
+    /**
+     * Truncates the file to the given size if it is longer. Mapped regions
+     * are dropped and mapped again when next asked for.
+     */
+    public synchronized void truncate(long size) throws IOException {
+        segments.clear();
+        withChannel(true, fc -> fc.truncate(size));
+    }
+
+    /**
+     * Forces any buffered writes to the storage device.
+     */
+    public void force() throws IOException {
+        withChannel(false, fc -> {
+            if (fc != null)
+                fc.force(false);
+            return null;
+        });
+    }
+
+    /**
+     * Closes the underlying channel. A later read or write reopens it.
+     */
+    public synchronized void close() {
+        segments.clear();
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            channel = null;
+        }
+        writable = false;
+    }
+}
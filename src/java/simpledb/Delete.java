@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.IOException;
+import java.util.ArrayList;
 
 /**
  * The delete operator. Delete reads tuples from its child operator and removes
@@ -9,6 +10,12 @@ import java.io.IOException;
 public class Delete extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /**
+     * Maximum number of tuples handed to the buffer pool in one batch.
+     */
+    public static final int BATCH_SIZE = 1024;
+
     private final TransactionId tid;
     private OpIterator child;
     private Tuple result = null;
@@ -52,25 +59,27 @@ public class Delete extends Operator {
     }
 
     /**
-     * Deletes tuples as they are read from the child operator. Deletes are
-     * processed via the buffer pool (which can be accessed via the
+     * Deletes tuples as they are read from the child operator, in batches of
+     * up to BATCH_SIZE tuples. Deletes are processed via the buffer pool (which can be accessed via the
      * Database.getBufferPool() method.
      *
      * @return A 1-field tuple containing the number of deleted records.
      * @see Database#getBufferPool
-     * @see BufferPool#deleteTuple
+     * @see BufferPool#deleteTuples
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
         int deleteNum = 0;
         if (result == null) {
-            while (child.hasNext())
-                try {
-                    Database.getBufferPool().deleteTuple(tid, child.next());
-                    ++deleteNum;
-                } catch (IOException e) {
-                    e.printStackTrace();
+            // delete in batches so each page is fetched and dirtied once per batch
+            ArrayList<Tuple> batch = new ArrayList<>(BATCH_SIZE);
+            while (child.hasNext()) {
+                batch.add(child.next());
+                if (batch.size() == BATCH_SIZE) {
+                    deleteNum += deleteBatch(batch);
                 }
+            }
+            deleteNum += deleteBatch(batch);
             result = new Tuple(td);
             result.setField(0, new IntField(deleteNum));
             return result;
@@ -78,6 +87,28 @@ public class Delete extends Operator {
             return null;
     }
 
+    /**
+     * Delete the buffered tuples and clear the batch.
+     *
+     * @return the number of tuples deleted
+     * @throws DbException if the tuples cannot be deleted, including when the
+     *                     BufferPool fails to read or write a page
+     */
+    private int deleteBatch(ArrayList<Tuple> batch) throws TransactionAbortedException, DbException {
+        int n = batch.size();
+        if (n == 0)
+            return 0;
+        try {
+            Database.getBufferPool().deleteTuples(tid, batch);
+        } catch (IOException e) {
+            DbException dbe = new DbException("could not delete tuples: " + e.getMessage());
+            dbe.initCause(e);
+            throw dbe;
+        }
+        batch.clear();
+        return n;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
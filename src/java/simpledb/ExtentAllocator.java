@@ -0,0 +1,179 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * ExtentAllocator hands out new pages at the end of a DbFile and grows the
+ * file an extent of several pages at a time, so that a growing table takes
+ * one large write per extent instead of one per page and its pages stay
+ * contiguous on disk.
+ * <p>
+ * The pages of the last extent that have not been handed out yet are free:
+ * they are zero-filled on disk and not counted by {@link #numPages()}, so
+ * scans never see them. Once a file has grown by more than one page at a
+ * time, the number of pages in use is stored next to the data file (with an
+ * ".ext" suffix) whenever it changes. Pages past that count that are not
+ * all zeros, e.g. because the file was rewritten, are counted as in use.
+ *
+ * @Threadsafe
+ * @see HeapFile#insertTuple
+ * @see BTreeFile#getEmptyPageNo
+ */
+public class ExtentAllocator {
+
+    /**
+     * Default number of pages by which a file grows.
+     */
+    public static final int DEFAULT_EXTENT_PAGES = 8;
+
+    private final File f;
+    private final DbFileChannel channel;
+    private final File extFile;
+    private final DbFileChannel extChannel;
+    private final long headerSize;
+    private final int firstPageNo;
+    private volatile int extentPages = DEFAULT_EXTENT_PAGES;
+
+    /* free pages at the end of the file, or -1 until the .ext file is read */
+    private int freePages = -1;
+    /* whether the number of pages in use must be kept in the .ext file */
+    private boolean tracked;
+
+    /**
+     * Creates the allocator for a data file whose pages follow a fixed-size
+     * header.
+     *
+     * @param f           the data file
+     * @param channel     the channel the DbFile uses for page I/O on f
+     * @param headerSize  the number of bytes before the first page
+     * @param firstPageNo the page number of the first page after the header
+     */
+    public ExtentAllocator(File f, DbFileChannel channel, long headerSize, int firstPageNo) {
+        this.f = f;
+        this.channel = channel;
+        this.extFile = new File(f.getPath() + ".ext");
+        this.extChannel = new DbFileChannel(extFile);
+        this.headerSize = headerSize;
+        this.firstPageNo = firstPageNo;
+    }
+
+    /**
+     * Returns the number of pages by which the file grows.
+     */
+    public int getExtentPages() {
+        return extentPages;
+    }
+
+    /**
+     * Sets the number of pages by which the file grows; 1 grows it a page at
+     * a time.
+     */
+    public void setExtentPages(int extentPages) {
+        if (extentPages < 1)
+            throw new IllegalArgumentException("extent must be at least one page");
+        this.extentPages = extentPages;
+    }
+
+    private int physicalPages() {
+        return (int) (Math.max(0, f.length() - headerSize) / BufferPool.getPageSize());
+    }
+
+    private long offset(int index) {
+        return headerSize + (long) index * BufferPool.getPageSize();
+    }
+
+    /**
+     * Find the free pages at the end of the file from the stored number of
+     * pages in use.
+     */
+    private int getFreePages() {
+        if (freePages >= 0)
+            return freePages;
+        freePages = 0;
+        tracked = extFile.exists() && extFile.length() >= 4;
+        if (!tracked)
+            return freePages;
+        try {
+            byte[] b = new byte[4];
+            extChannel.read(b, 0);
+            int used = ByteBuffer.wrap(b).getInt();
+            int physical = physicalPages();
+            if (used < 0 || used >= physical)
+                return freePages;
+            int pageSize = BufferPool.getPageSize();
+            byte[] tail = new byte[(physical - used) * pageSize];
+            channel.read(tail, offset(used));
+            for (int i = physical - used - 1; i >= 0 && isZero(tail, i * pageSize, pageSize); --i)
+                freePages++;
+        } catch (IOException e) {
+            // without the count, every page counts as used
+            e.printStackTrace();
+        }
+        return freePages;
+    }
+
+    private void storeCount(int used) throws IOException {
+        extChannel.write(ByteBuffer.allocate(4).putInt(used).array(), 0);
+    }
+
+    private static boolean isZero(byte[] b, int from, int len) {
+        for (int i = from; i < from + len; ++i)
+            if (b[i] != 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * Returns the number of pages in use, not counting free preallocated ones.
+     */
+    public synchronized int numPages() {
+        return Math.max(0, physicalPages() - getFreePages());
+    }
+
+    /**
+     * Hands out the page after the last page in use, growing the file by an
+     * extent of zero-filled pages if there is no free page left.
+     *
+     * @return the page number of the new page
+     */
+    public synchronized int allocate() throws IOException {
+        int physical = physicalPages();
+        if (getFreePages() == 0) {
+            int n = extentPages;
+            tracked |= n > 1;
+            channel.write(new byte[n * BufferPool.getPageSize()], offset(physical));
+            freePages = n;
+            physical += n;
+        }
+        int index = physical - freePages--;
+        if (tracked)
+            storeCount(index + 1);
+        return firstPageNo + index;
+    }
+
+    /**
+     * Records that a page was written, so that a page written beyond the last
+     * one in use, e.g. by recovery, is no longer counted as free.
+     *
+     * @param pageNo the page number of the written page
+     */
+    public synchronized void written(int pageNo) throws IOException {
+        int index = pageNo - firstPageNo;
+        int physical = physicalPages();
+        if (index >= physical - getFreePages()) {
+            freePages = Math.max(0, physical - index - 1);
+            if (tracked)
+                storeCount(physical - freePages);
+        }
+    }
+
+    /**
+     * Closes the extent file. The data file belongs to the caller, which
+     * closes it itself.
+     */
+    public void close() {
+        extChannel.close();
+    }
+}
@@ -0,0 +1,115 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap tracks which pages of a HeapFile have empty slots, so that
+ * inserts can go straight to a page with room instead of probing every page.
+ * <p>
+ * The map is a bitmap with one bit per page, where a set bit means the page
+ * is full. It is stored next to the data file (with an ".fsm" suffix) and
+ * each bit is written through as soon as it flips. Pages beyond the end of
+ * the stored bitmap count as having free space, so a missing map file simply
+ * rebuilds itself as inserts find full pages.
+ * <p>
+ * The bits are maintained by the heap file as it inserts and deletes, not by
+ * the pages themselves, and the BufferPool marks the pages an aborted
+ * transaction wrote to as free again. The map is therefore only a hint that
+ * may claim a full page has room, so callers must still check the page
+ * itself and correct the map if needed.
+ *
+ * @Threadsafe
+ * @see HeapFile#insertTuple
+ */
+public class FreeSpaceMap {
+
+    private final File f;
+    private final DbFileChannel channel;
+    private BitSet full;
+
+    /**
+     * Creates the free space map for the specified heap file. The map file is
+     * not read until the map is first used.
+     *
+     * @param dataFile the file backing the HeapFile
+     */
+    public FreeSpaceMap(File dataFile) {
+        this.f = new File(dataFile.getPath() + ".fsm");
+        this.channel = new DbFileChannel(f);
+    }
+
+    /**
+     * Returns the file the map is stored in.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    private BitSet getBits() throws IOException {
+        if (full == null) {
+            if (f.exists() && f.length() > 0) {
+                byte[] bytes = new byte[(int) f.length()];
+                channel.read(bytes, 0);
+                full = BitSet.valueOf(bytes);
+            } else {
+                full = new BitSet();
+            }
+        }
+        return full;
+    }
+
+    /**
+     * Returns the lowest page number at or after from that may have an empty slot.
+     *
+     * @param from     the first page number to consider
+     * @param numPages the number of pages in the heap file
+     * @return a page number, or -1 if every page in [from, numPages) is full
+     */
+    public synchronized int nextFreePage(int from, int numPages) {
+        int pgNo;
+        try {
+            pgNo = getBits().nextClearBit(from);
+        } catch (IOException e) {
+            // without the map, every page is a candidate
+            e.printStackTrace();
+            pgNo = from;
+        }
+        return pgNo < numPages ? pgNo : -1;
+    }
+
+    /**
+     * Records whether the given page has at least one empty slot.
+     *
+     * @param pgNo    the page number
+     * @param hasFree whether the page has an empty slot
+     */
+    public synchronized void setFree(int pgNo, boolean hasFree) {
+        try {
+            BitSet bits = getBits();
+            if (bits.get(pgNo) != hasFree)
+                return;
+            bits.set(pgNo, !hasFree);
+
+            // write through the byte holding this bit
+            int byteIdx = pgNo / 8;
+            byte b = 0;
+            for (int i = 0; i < 8; i++) {
+                if (bits.get(byteIdx * 8 + i))
+                    b |= 1 << i;
+            }
+            channel.write(new byte[]{b}, byteIdx);
+        } catch (IOException e) {
+            // the map is only a hint; inserts will correct it
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Closes the file of this map. A later use reopens it.
+     */
+    public void close() {
+        channel.close();
+    }
+}
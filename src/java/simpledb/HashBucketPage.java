@@ -0,0 +1,265 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Each instance of HashBucketPage stores the tuples of one page of a bucket
+ * of a {@link HashFile}. A bucket is a chain of pages: its primary page,
+ * whose place in the file is fixed by the {@link HashMetaPage}, and overflow
+ * pages linked from it once it is full.
+ *
+ * @see HashFile
+ * @see BufferPool
+ */
+public class HashBucketPage implements Page {
+
+    private volatile boolean dirty = false;
+    private volatile TransactionId dirtier = null;
+
+    private final HashPageId pid;
+    private final TupleDesc td;
+    private final int numSlots;
+    private final byte[] header;
+    private final Tuple[] tuples;
+    private int nextPage;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a HashBucketPage from a set of bytes of data read from disk.
+     * The format of a HashBucketPage is the page number of the next page of
+     * the bucket, or 0 if this is the last, then a set of header bytes
+     * indicating the slots of the page that are in use, then the tuple slots,
+     * as in a {@link HeapPage}. The number of tuple slots is
+     * <p>
+     * floor(((BufferPool.getPageSize() - 4) * 8) / (tuple size * 8 + 1))
+     * <p>
+     * A page of zeroes is an empty last page.
+     *
+     * @param id   the id of this page
+     * @param data the raw data of this page
+     * @see Catalog#getTupleDesc
+     */
+    public HashBucketPage(HashPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = getMaxTuples(td);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+
+        nextPage = dis.readInt();
+        header = new byte[getHeaderSize()];
+        dis.readFully(header);
+        tuples = new Tuple[numSlots];
+        for (int i = 0; i < numSlots; i++)
+            tuples[i] = readNextTuple(dis, i);
+        dis.close();
+
+        setBeforeImage();
+    }
+
+    /**
+     * Returns the number of tuples a HashBucketPage of the given TupleDesc holds.
+     */
+    public static int getMaxTuples(TupleDesc td) {
+        int bitsPerTuple = td.getSize() * 8 + 1;
+        return (BufferPool.getPageSize() - Type.INT_TYPE.getLen()) * 8 / bitsPerTuple;
+    }
+
+    private int getHeaderSize() {
+        return (numSlots + 7) / 8;
+    }
+
+    /**
+     * Suck up tuples from the source file.
+     */
+    private Tuple readNextTuple(DataInputStream dis, int slotId) throws IOException {
+        if (!isSlotUsed(slotId)) {
+            dis.skipBytes(td.getSize());
+            return null;
+        }
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        try {
+            for (int j = 0; j < td.numFields(); j++)
+                t.setField(j, td.getFieldType(j).parse(dis));
+        } catch (java.text.ParseException e) {
+            throw new IOException("parsing error!", e);
+        }
+        return t;
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Returns the page number of the next page of the bucket, or 0 if this is
+     * the last.
+     */
+    public int getNextPage() {
+        return nextPage;
+    }
+
+    /**
+     * Sets the page number of the next page of the bucket, or 0 if this is
+     * the last.
+     */
+    public void setNextPage(int pgNo) {
+        nextPage = pgNo;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     * <p>
+     * The invariant here is that it should be possible to pass the byte
+     * array generated by getPageData to the HashBucketPage constructor and
+     * have it produce an identical HashBucketPage object.
+     *
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        int len = BufferPool.getPageSize();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(nextPage);
+            dos.write(header);
+            for (Tuple t : tuples) {
+                if (t == null) {
+                    dos.write(new byte[td.getSize()]);
+                    continue;
+                }
+                for (int j = 0; j < td.numFields(); j++)
+                    t.getField(j).serialize(dos);
+            }
+            dos.write(new byte[len - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * HashBucketPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()]; //all 0
+    }
+
+    /**
+     * Adds the specified tuple to the page and sets its RecordId to the slot
+     * it is stored in.
+     *
+     * @throws DbException if the page is full or the TupleDesc does not match
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("type mismatch, in addTuple");
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                markSlotUsed(i, true);
+                tuples[i] = t;
+                t.setRecordId(new RecordId(pid, i));
+                return;
+            }
+        }
+        throw new DbException("called addTuple on page with no empty slots.");
+    }
+
+    /**
+     * Deletes the specified tuple from the page and clears its RecordId.
+     *
+     * @throws DbException if this tuple is not on this page, or its slot is
+     *                     already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !rid.getPageId().equals(pid))
+            throw new DbException("tried to delete tuple on invalid page or table");
+        int slot = rid.getTupleNumber();
+        if (slot < 0 || slot >= numSlots || !isSlotUsed(slot))
+            throw new DbException("tried to delete null tuple.");
+        markSlotUsed(slot, false);
+        tuples[slot] = null;
+        t.setRecordId(null);
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public int getNumEmptySlots() {
+        int empty = 0;
+        for (int i = 0; i < numSlots; i++)
+            if (!isSlotUsed(i))
+                empty++;
+        return empty;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return ((header[i / 8] >> (i % 8)) & 1) == 1;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        if (value)
+            header[i / 8] |= 1 << (i % 8);
+        else
+            header[i / 8] &= ~(1 << (i % 8));
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this
+     * iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        List<Tuple> used = new ArrayList<>();
+        for (Tuple t : tuples)
+            if (t != null)
+                used.add(t);
+        return Collections.unmodifiableList(used).iterator();
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public HashBucketPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new HashBucketPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty) this.dirtier = tid;
+    }
+
+    public TransactionId isDirty() {
+        if (this.dirty)
+            return this.dirtier;
+        else
+            return null;
+    }
+}
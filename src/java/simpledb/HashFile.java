@@ -0,0 +1,409 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashFile is an implementation of a DbFile that stores a collection of tuples
+ * hashed on one of their fields, the key, so that the tuples with a given key
+ * are found by reading a single bucket, usually one page, whatever the size
+ * of the file.
+ * <p>
+ * The file uses linear hashing. It starts with a single bucket, and whenever
+ * an insert finds the pages of its bucket full, the bucket at the split
+ * pointer is split in two: the tuples whose hash now selects the new bucket
+ * move there. The split pointer cycles through the buckets of each level, so
+ * the file grows by one bucket at a time and never needs to be rehashed as a
+ * whole. An insert that still finds its bucket full after the split adds an
+ * overflow page to the bucket. The {@link HashMetaPage} on page 0 keeps
+ * track of the buckets, and the {@link HashBucketPage}s hold the tuples.
+ * <p>
+ * All pages are read through the BufferPool and locked like those of the
+ * other files. Lookups and inserts share a lock on the meta page; a split
+ * takes it exclusively.
+ *
+ * @see HashMetaPage
+ * @see HashBucketPage
+ */
+public class HashFile implements DbFile {
+
+    private final File f;
+    private final TupleDesc td;
+    private final int tableid;
+    private final int keyField;
+    private final DbFileChannel channel;
+
+    /**
+     * Constructs a hash file backed by the specified file.
+     *
+     * @param f   the file that stores the on-disk backing store for this hash
+     *            file.
+     * @param key the field which tuples in this file are hashed on
+     * @param td  the tuple descriptor of tuples in the file
+     */
+    public HashFile(File f, int key, TupleDesc td) {
+        this.f = f;
+        this.tableid = f.getAbsoluteFile().hashCode();
+        this.keyField = key;
+        this.td = td;
+        this.channel = new DbFileChannel(f);
+    }
+
+    /**
+     * Returns the File backing this HashFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this HashFile: the hash code of the
+     * absolute path of its file.
+     *
+     * @return an ID uniquely identifying this HashFile.
+     */
+    public int getId() {
+        return tableid;
+    }
+
+    /**
+     * Returns the TupleDesc of the table stored in this DbFile.
+     *
+     * @return TupleDesc of this DbFile.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public void close() {
+        channel.close();
+    }
+
+    /**
+     * Returns the index of the field that this HashFile is hashed on
+     */
+    public int keyField() {
+        return keyField;
+    }
+
+    /**
+     * Returns the hash value of a key, from which the bucket holding it is
+     * derived. The hash code of the field is mixed first, as the low bits
+     * of e.g. the hash code of an IntField follow the value itself.
+     */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h & 0x7fffffff;
+    }
+
+    /**
+     * Read a page from the file on disk. Pages past the end of the file, which
+     * have been reserved for buckets or allocated for overflow but not written
+     * yet, read as empty pages.
+     *
+     * @param pid - the id of the page to read from disk
+     * @return the page constructed from the contents on disk
+     */
+    public Page readPage(PageId pid) {
+        HashPageId id = (HashPageId) pid;
+        byte[] data = new byte[BufferPool.getPageSize()];
+        try {
+            channel.read(data, (long) BufferPool.getPageSize() * id.getPageNumber());
+            if (id.getPageNumber() == HashPageId.META)
+                return new HashMetaPage(id, data);
+            return new HashBucketPage(id, data);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Write a page to disk.
+     *
+     * @param page - the page to write to disk
+     */
+    public void writePage(Page page) throws IOException {
+        channel.write(page.getPageData(), (long) BufferPool.getPageSize() * page.getId().getPageNumber());
+    }
+
+    /**
+     * Returns the number of pages in this HashFile.
+     */
+    public int numPages(TransactionId tid) throws DbException, TransactionAbortedException {
+        return getMetaPage(tid, Permissions.READ_ONLY).getNumPages();
+    }
+
+    /**
+     * Returns the number of buckets in this HashFile.
+     */
+    public int numBuckets(TransactionId tid) throws DbException, TransactionAbortedException {
+        return getMetaPage(tid, Permissions.READ_ONLY).getNumBuckets();
+    }
+
+    HashMetaPage getMetaPage(TransactionId tid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (HashMetaPage) Database.getBufferPool().getPage(tid,
+                new HashPageId(tableid, HashPageId.META), perm);
+    }
+
+    private HashBucketPage getBucketPage(TransactionId tid, int pgNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (HashBucketPage) Database.getBufferPool().getPage(tid, new HashPageId(tableid, pgNo), perm);
+    }
+
+    /**
+     * Inserts a tuple into the bucket of its key. If every page of the bucket
+     * is full, the bucket at the split pointer is split first, which may be
+     * the bucket itself; if that does not make room, an overflow page is
+     * added to the bucket.
+     *
+     * @param tid - the transaction id
+     * @param t   - the tuple to insert
+     * @return a list of all pages that were dirtied by this operation
+     * @see #split(TransactionId, HashMetaPage, Map)
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("tuple does not match the TupleDesc of the file");
+        int hash = hash(t.getField(keyField));
+        HashMetaPage meta = getMetaPage(tid, Permissions.READ_ONLY);
+        HashBucketPage page = findRoom(tid, meta.getBucketPage(meta.getBucket(hash)));
+        if (page != null) {
+            page = getBucketPage(tid, page.getId().getPageNumber(), Permissions.READ_WRITE);
+            page.insertTuple(t);
+            return new ArrayList<>(Collections.singletonList(page));
+        }
+
+        LinkedHashMap<PageId, Page> dirtypages = new LinkedHashMap<>();
+        meta = getMetaPage(tid, Permissions.READ_WRITE);
+        dirtypages.put(meta.getId(), meta);
+        split(tid, meta, dirtypages);
+        insertIntoBucket(tid, meta, meta.getBucket(hash), t, dirtypages);
+        return new ArrayList<>(dirtypages.values());
+    }
+
+    /**
+     * Returns the first page with an empty slot in the chain starting at the
+     * given page, or null if all of them are full. The pages are only read.
+     */
+    private HashBucketPage findRoom(TransactionId tid, int pgNo)
+            throws DbException, TransactionAbortedException {
+        while (true) {
+            HashBucketPage page = getBucketPage(tid, pgNo, Permissions.READ_ONLY);
+            if (page.getNumEmptySlots() > 0)
+                return page;
+            if (page.getNextPage() == 0)
+                return null;
+            pgNo = page.getNextPage();
+        }
+    }
+
+    /**
+     * Inserts a tuple into the first page of the bucket with an empty slot,
+     * adding an overflow page to the bucket if there is none.
+     */
+    private void insertIntoBucket(TransactionId tid, HashMetaPage meta, int bucket, Tuple t,
+                                  Map<PageId, Page> dirtypages)
+            throws DbException, TransactionAbortedException {
+        HashBucketPage page = getBucketPage(tid, meta.getBucketPage(bucket), Permissions.READ_WRITE);
+        while (page.getNumEmptySlots() == 0) {
+            if (page.getNextPage() == 0) {
+                HashBucketPage overflow = getOverflowPage(tid, meta, dirtypages);
+                page.setNextPage(overflow.getId().getPageNumber());
+                dirtypages.put(page.getId(), page);
+                page = overflow;
+                break;
+            }
+            page = getBucketPage(tid, page.getNextPage(), Permissions.READ_WRITE);
+        }
+        page.insertTuple(t);
+        dirtypages.put(page.getId(), page);
+    }
+
+    /**
+     * Returns an empty overflow page: the first page of the free list of the
+     * meta page, or a new page at the end of the file.
+     */
+    private HashBucketPage getOverflowPage(TransactionId tid, HashMetaPage meta, Map<PageId, Page> dirtypages)
+            throws DbException, TransactionAbortedException {
+        HashBucketPage page;
+        if (meta.getFreeList() != 0) {
+            page = getBucketPage(tid, meta.getFreeList(), Permissions.READ_WRITE);
+            meta.setFreeList(page.getNextPage());
+            page.setNextPage(0);
+        } else {
+            page = getBucketPage(tid, meta.addPage(), Permissions.READ_WRITE);
+        }
+        dirtypages.put(page.getId(), page);
+        return page;
+    }
+
+    /**
+     * Splits the bucket at the split pointer: adds the next bucket with
+     * {@link HashMetaPage#addBucket()}, and moves the tuples of the split
+     * bucket whose hash now selects the new bucket there. The tuples that
+     * stay are packed onto as few pages as they need, and the overflow pages
+     * freed are added to the free list for reuse.
+     *
+     * @param tid        the transaction id
+     * @param meta       the meta page, locked with READ_WRITE permission
+     * @param dirtypages the list of dirty pages which should be updated with
+     *                   all new dirty pages
+     */
+    private void split(TransactionId tid, HashMetaPage meta, Map<PageId, Page> dirtypages)
+            throws DbException, TransactionAbortedException {
+        int bucket = meta.getSplitPointer();
+        ArrayList<Tuple> moved = new ArrayList<>();
+        HashBucketPage page = getBucketPage(tid, meta.getBucketPage(bucket), Permissions.READ_WRITE);
+        dirtypages.put(page.getId(), page);
+        int overflow = page.getNextPage();
+        page.setNextPage(0);
+        while (true) {
+            for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+                Tuple t = it.next();
+                page.deleteTuple(t);
+                moved.add(t);
+            }
+            if (overflow == 0)
+                break;
+            page = getBucketPage(tid, overflow, Permissions.READ_WRITE);
+            dirtypages.put(page.getId(), page);
+            overflow = page.getNextPage();
+            page.setNextPage(meta.getFreeList());
+            meta.setFreeList(page.getId().getPageNumber());
+        }
+
+        meta.addBucket();
+        for (Tuple t : moved)
+            insertIntoBucket(tid, meta, meta.getBucket(hash(t.getField(keyField))), t, dirtypages);
+    }
+
+    /**
+     * Deletes a tuple from the page its RecordId points to. Buckets are never
+     * merged, and emptied overflow pages stay in their bucket.
+     *
+     * @param tid - the transaction id
+     * @param t   - the tuple to delete
+     * @return a list of all pages that were dirtied by this operation
+     * @throws DbException if the tuple cannot be deleted or is not a member of the file
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != tableid
+                || rid.getPageId().getPageNumber() == HashPageId.META)
+            throw new DbException("tuple cannot be deleted or is not a member of the file");
+        // the meta lock keeps a split from moving the tuple meanwhile
+        getMetaPage(tid, Permissions.READ_ONLY);
+        HashBucketPage page = getBucketPage(tid, rid.getPageId().getPageNumber(), Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        return new ArrayList<>(Collections.singletonList(page));
+    }
+
+    /**
+     * Returns an iterator over all the tuples in this file, bucket by bucket.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashFileIterator(this, tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key equals the field of ipred,
+     * which reads only the pages of the key's bucket.
+     *
+     * @param tid   - the transaction id
+     * @param ipred - the predicate to match, whose op must be EQUALS
+     * @throws IllegalArgumentException if the op of ipred is not EQUALS
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        if (ipred.getOp() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("a hash file can only look up keys by equality");
+        return new HashFileIterator(this, tid, ipred.getField());
+    }
+
+}
+
+/**
+ * Helper class that implements the Java Iterator for tuples on a HashFile:
+ * over the pages of every bucket, or over those of the bucket of one key,
+ * returning only the tuples with that key.
+ */
+class HashFileIterator extends AbstractDbFileIterator {
+
+    private final HashFile f;
+    private final TransactionId tid;
+    private final Field key;
+    private HashMetaPage meta;
+    private int bucket;
+    private int lastBucket;
+    private int nextPage;
+    private Iterator<Tuple> it;
+
+    /**
+     * Constructor for this iterator
+     *
+     * @param f   - the HashFile containing the tuples
+     * @param tid - the transaction id
+     * @param key - the key to look up, or null to return every tuple
+     */
+    public HashFileIterator(HashFile f, TransactionId tid, Field key) {
+        this.f = f;
+        this.tid = tid;
+        this.key = key;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        meta = f.getMetaPage(tid, Permissions.READ_ONLY);
+        if (key == null) {
+            bucket = 0;
+            lastBucket = meta.getNumBuckets() - 1;
+        } else {
+            bucket = meta.getBucket(HashFile.hash(key));
+            lastBucket = bucket;
+        }
+        nextPage = meta.getBucketPage(bucket);
+        it = null;
+    }
+
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        if (meta == null)
+            return null;
+        while (true) {
+            if (it != null) {
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    if (key == null || t.getField(f.keyField()).equals(key))
+                        return t;
+                }
+            }
+            if (nextPage == 0) {
+                if (bucket == lastBucket)
+                    return null;
+                nextPage = meta.getBucketPage(++bucket);
+            }
+            HashBucketPage page = (HashBucketPage) Database.getBufferPool().getPage(tid,
+                    new HashPageId(f.getId(), nextPage), Permissions.READ_ONLY);
+            it = page.iterator();
+            nextPage = page.getNextPage();
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        super.close();
+        meta = null;
+        it = null;
+    }
+}
@@ -0,0 +1,236 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * HashMetaPage is the first page of a {@link HashFile}. It holds the state of
+ * the linear hashing scheme: the level and split pointer that determine the
+ * number of buckets and how keys map to them, where the pages of the buckets
+ * are, and the list of free overflow pages.
+ * <p>
+ * With level L and split pointer n there are 2^L + n buckets. Buckets
+ * 2^L to 2^(L+1)-1 are created one by one as buckets 0 to 2^L-1 are split,
+ * but their pages are reserved all at once, as one contiguous range of the
+ * file, when bucket 2^L is created. The first page of each such range, one
+ * per level, is all it takes to find the page of any bucket.
+ *
+ * @see HashFile
+ * @see BufferPool
+ */
+public class HashMetaPage implements Page {
+
+    /**
+     * The highest level a file can reach
+     */
+    public final static int MAX_LEVEL = 31;
+
+    private volatile boolean dirty = false;
+    private volatile TransactionId dirtier = null;
+
+    private final HashPageId pid;
+
+    private int level;
+    private int next;
+    private int numPages;
+    private int freeList;
+    // rangeStart[s] is the page of bucket 0 for s = 0, and of bucket 2^(s-1) for s > 0
+    private final int[] rangeStart = new int[MAX_LEVEL + 1];
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a HashMetaPage from a set of bytes of data read from disk.
+     * The format of a HashMetaPage is the level, the split pointer, the number
+     * of pages in the file, the first free overflow page (or 0), and the first
+     * page of the range of bucket pages of each level, all integers. A page of
+     * zeroes, as read from an empty file, is the meta page of a file with one
+     * empty bucket on page 1.
+     *
+     * @param id   the id of this page
+     * @param data the raw data of this page
+     */
+    public HashMetaPage(HashPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        level = dis.readInt();
+        next = dis.readInt();
+        numPages = dis.readInt();
+        freeList = dis.readInt();
+        for (int i = 0; i < rangeStart.length; i++)
+            rangeStart[i] = dis.readInt();
+        dis.close();
+        if (numPages == 0) {
+            numPages = 2;
+            rangeStart[0] = 1;
+        }
+        setBeforeImage();
+    }
+
+    /**
+     * Returns the number of bytes a HashMetaPage uses.
+     */
+    public static int getSize() {
+        return (4 + MAX_LEVEL + 1) * Type.INT_TYPE.getLen();
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Returns the level of the hashing scheme.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Returns the split pointer: the next bucket to split.
+     */
+    public int getSplitPointer() {
+        return next;
+    }
+
+    /**
+     * Returns the number of buckets, 2^level + the split pointer.
+     */
+    public int getNumBuckets() {
+        return (1 << level) + next;
+    }
+
+    /**
+     * Returns the number of pages in the file, including the bucket pages
+     * reserved for buckets that do not exist yet.
+     */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * Returns the bucket a key with the given hash value belongs to.
+     *
+     * @param hash a non-negative hash value
+     */
+    public int getBucket(int hash) {
+        int bucket = hash & ((1 << level) - 1);
+        if (bucket < next)
+            bucket = hash & ((2 << level) - 1);
+        return bucket;
+    }
+
+    /**
+     * Returns the page number of the primary page of a bucket.
+     */
+    public int getBucketPage(int bucket) {
+        if (bucket == 0)
+            return rangeStart[0];
+        int range = 32 - Integer.numberOfLeadingZeros(bucket);
+        return rangeStart[range] + bucket - (1 << (range - 1));
+    }
+
+    /**
+     * Creates the next bucket, whose keys are those of the bucket at the
+     * split pointer that now hash to it, and advances the split pointer.
+     * The caller moves the keys.
+     *
+     * @return the new bucket
+     * @throws DbException if the file is at its maximum level
+     */
+    public int addBucket() throws DbException {
+        if (next == 0) {
+            if (level == MAX_LEVEL)
+                throw new DbException("hash file cannot grow past level " + MAX_LEVEL);
+            rangeStart[level + 1] = numPages;
+            numPages += 1 << level;
+        }
+        int bucket = next + (1 << level);
+        if (++next == 1 << level) {
+            level++;
+            next = 0;
+        }
+        return bucket;
+    }
+
+    /**
+     * Returns the first free overflow page, or 0 if there is none.
+     */
+    public int getFreeList() {
+        return freeList;
+    }
+
+    /**
+     * Sets the first free overflow page, or 0 if there is none.
+     */
+    public void setFreeList(int pgNo) {
+        freeList = pgNo;
+    }
+
+    /**
+     * Adds a page at the end of the file, and returns its page number.
+     */
+    public int addPage() {
+        return numPages++;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     *
+     * @return A byte array corresponding to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(level);
+            dos.writeInt(next);
+            dos.writeInt(numPages);
+            dos.writeInt(freeList);
+            for (int start : rangeStart)
+                dos.writeInt(start);
+            dos.write(new byte[BufferPool.getPageSize() - getSize()]);
+            dos.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public HashMetaPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new HashMetaPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty) this.dirtier = tid;
+    }
+
+    public TransactionId isDirty() {
+        if (this.dirty)
+            return this.dirtier;
+        else
+            return null;
+    }
+}
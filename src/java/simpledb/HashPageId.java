@@ -0,0 +1,79 @@
+package simpledb;
+
+/**
+ * Unique identifier for the pages of a {@link HashFile}. Page 0 is the
+ * {@link HashMetaPage}; every other page is a {@link HashBucketPage}.
+ */
+public class HashPageId implements PageId {
+
+    /**
+     * The page number of the meta page of every HashFile
+     */
+    public final static int META = 0;
+
+    private final int tableId;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo    The page number in that table.
+     */
+    public HashPageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+    }
+
+    /**
+     * @return the table associated with this PageId
+     */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the table getTableId() associated with
+     * this PageId
+     */
+    public int getPageNumber() {
+        return pgNo;
+    }
+
+    /**
+     * @return a hash code for this page, represented by the concatenation of
+     * the table number and the page number
+     */
+    public int hashCode() {
+        return 31 * tableId + pgNo;
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., page numbers and table
+     * ids are the same)
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof HashPageId))
+            return false;
+        HashPageId p = (HashPageId) o;
+        return tableId == p.tableId && pgNo == p.pgNo;
+    }
+
+    /**
+     * Return a representation of this object as an array of
+     * integers, for writing to disk.  Size of returned array must contain
+     * number of integers that corresponds to number of args to one of the
+     * constructors.
+     */
+    public int[] serialize() {
+        return new int[]{tableId, pgNo};
+    }
+
+    public String toString() {
+        return "HashPageId(" + tableId + ", " + pgNo + ")";
+    }
+}
@@ -0,0 +1,130 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HashScan is an operator which reads the tuples of a {@link HashFile} with
+ * a given key, by looking the key up in the file's buckets. Only equality
+ * predicates can be answered this way.
+ *
+ * @see HashFile#indexIterator(TransactionId, IndexPredicate)
+ */
+public class HashScan implements IndexOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private boolean isOpen = false;
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tablename;
+    private final String alias;
+    private final TupleDesc myTd;
+    private IndexPredicate ipred;
+    private transient DbFileIterator it;
+
+    /**
+     * Creates a lookup of the specified HashFile table as a part of the
+     * specified transaction.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the HashFile table to read.
+     * @param tableAlias the alias of this table; the returned tupleDesc has
+     *                   fields with name tableAlias.fieldName, as in {@link SeqScan}.
+     * @param ipred      The predicate on the key to match, whose op must be
+     *                   EQUALS. If null, the scan returns all tuples.
+     * @throws IllegalArgumentException if the op of ipred is not EQUALS
+     */
+    public HashScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate ipred) {
+        this.tid = tid;
+        this.tableid = tableid;
+        this.alias = tableAlias;
+        this.tablename = Database.getCatalog().getTableName(tableid);
+        this.ipred = ipred;
+        this.it = lookup(ipred);
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        String[] newNames = new String[td.numFields()];
+        Type[] newTypes = new Type[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            newNames[i] = tableAlias + "." + td.getFieldName(i);
+            newTypes[i] = td.getFieldType(i);
+        }
+        myTd = new TupleDesc(newTypes, newNames);
+    }
+
+    private DbFileIterator lookup(IndexPredicate ipred) {
+        HashFile file = (HashFile) Database.getCatalog().getDatabaseFile(tableid);
+        return ipred == null ? file.iterator(tid) : file.indexIterator(tid, ipred);
+    }
+
+    /**
+     * @return the predicate on the key, or null if the scan returns all tuples
+     */
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    /**
+     * @return the name of the table in the catalog
+     */
+    public String getTableName() {
+        return tablename;
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (isOpen)
+            throw new DbException("double open on one OpIterator.");
+
+        it.open();
+        isOpen = true;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return myTd;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return it.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+
+        return it.next();
+    }
+
+    public void close() {
+        it.close();
+        isOpen = false;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void open(IndexPredicate ipred)
+            throws NoSuchElementException, DbException, TransactionAbortedException {
+        if (isOpen)
+            throw new DbException("double open on one OpIterator.");
+
+        this.ipred = ipred;
+        it = lookup(ipred);
+        open();
+    }
+
+    public void rewind(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+        close();
+        open(ipred);
+    }
+}
@@ -2,6 +2,7 @@ package simpledb;
 
 import javax.xml.crypto.Data;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -16,8 +17,18 @@ import java.util.*;
  */
 public class HeapFile implements DbFile {
 
+    /**
+     * Number of pages covered by one memory-mapped segment of the file.
+     */
+    public static final int MAP_SEGMENT_PAGES = 16384;
+
     private final File f;
     private final TupleDesc td;
+    private final DbFileChannel channel;
+    private final boolean memoryMapped;
+    private final FreeSpaceMap freeSpaceMap;
+    private final ExtentAllocator extents;
+    private final CompressedPageStore compressed;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -26,9 +37,64 @@ public class HeapFile implements DbFile {
      *          file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally reading
+     * its pages through a memory mapping of the file instead of copying them
+     * with explicit reads. Writes always go through the file channel.
+     *
+     * @param f            the file that stores the on-disk backing store for this heap
+     *                     file.
+     * @param memoryMapped whether pages should be read from a memory mapping of f
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
+        this(f, td, memoryMapped, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally storing
+     * its pages compressed. The BufferPool always holds uncompressed pages.
+     *
+     * @param f            the file that stores the on-disk backing store for this heap
+     *                     file.
+     * @param memoryMapped whether pages should be read from a memory mapping of f
+     * @param compressed   whether pages are stored compressed, see {@link PageCompression}
+     * @throws IllegalArgumentException if both memoryMapped and compressed are set
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped, boolean compressed) {
         // some code goes here
+        if (memoryMapped && compressed)
+            throw new IllegalArgumentException("compressed heap files cannot be memory-mapped");
         this.f = f;
         this.td = td;
+        this.channel = new DbFileChannel(f);
+        this.memoryMapped = memoryMapped;
+        this.freeSpaceMap = new FreeSpaceMap(f);
+        this.extents = new ExtentAllocator(f, channel, 0, 0);
+        this.compressed = compressed ? new CompressedPageStore(f, channel) : null;
+    }
+
+    /**
+     * Returns true if the pages of this HeapFile are stored compressed.
+     */
+    public boolean isCompressed() {
+        return compressed != null;
+    }
+
+    /**
+     * Returns the ratio of the uncompressed size of this HeapFile's pages to
+     * the length of the file, which also counts the slack and free blocks of
+     * a compressed file; 1 for an uncompressed file.
+     */
+    public double getCompressionRatio() {
+        if (compressed == null)
+            return 1.0;
+        long stored = compressed.fileBytes();
+        if (stored == 0)
+            return 1.0;
+        return (double) numPages() * BufferPool.getPageSize() / stored;
     }
 
     /**
@@ -41,6 +107,38 @@ public class HeapFile implements DbFile {
         return f;
     }
 
+    /**
+     * Returns the allocator that grows this HeapFile, e.g. to configure its
+     * extent size.
+     */
+    public ExtentAllocator getExtentAllocator() {
+        return extents;
+    }
+
+    /**
+     * Returns the per-page value ranges of the INT_TYPE columns of this
+     * HeapFile, which it shares with every HeapFile on the same file.
+     *
+     * @see Catalog#getZoneMap(File, TupleDesc)
+     */
+    public ZoneMap getZoneMap() {
+        return Database.getCatalog().getZoneMap(f, td);
+    }
+
+    /**
+     * Returns the map of pages in this HeapFile that have empty slots.
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        return freeSpaceMap;
+    }
+
+    /**
+     * Returns true if pages of this HeapFile are read from a memory mapping.
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableid somewhere to ensure that each
@@ -66,21 +164,43 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    // see DbFile.java for javadocs
+    @Override
+    public void close() {
+        channel.close();
+        freeSpaceMap.close();
+        getZoneMap().close();
+        extents.close();
+        if (compressed != null)
+            compressed.close();
+    }
+
     // see DbFile.java for javadocs
     @Override
     public Page readPage(PageId pid) {
         // some code goes here
         int pageSize = BufferPool.getPageSize();
         HeapPageId id = (HeapPageId) pid;
-        byte[] pageData = new byte[pageSize];
-        try (RandomAccessFile file = new RandomAccessFile(f, "r")) {
-
-            try {
-                file.seek(pageSize * id.getPageNumber());
-            } catch (IOException e1) {
-                throw new IllegalArgumentException("Unable to seek to correct place in HeapFile");
+        long offset = (long) pageSize * id.getPageNumber();
+        try {
+            if (compressed != null) {
+                byte[] block = compressed.read(id.getPageNumber());
+                if (block == null)
+                    block = HeapPage.createEmptyPageData();
+                else if (block.length != pageSize)
+                    block = PageCompression.decompress(block, td);
+                return reconcile(new HeapPage(id, block));
+            }
+            if (memoryMapped) {
+                ByteBuffer mapped = channel.map(offset, pageSize, (long) MAP_SEGMENT_PAGES * pageSize);
+                if (mapped == null) {
+                    throw new IllegalArgumentException("Read past end of table");
+                }
+                return reconcile(new HeapPage(id, mapped));
             }
-            int byteRead = file.read(pageData);
+
+            byte[] pageData = new byte[pageSize];
+            int byteRead = channel.read(pageData, offset);
             if (byteRead == -1) {
                 throw new IllegalArgumentException("Read past end of table");
             }
@@ -89,7 +209,7 @@ public class HeapFile implements DbFile {
                         + BufferPool.getPageSize() + " bytes from HeapFile");
             }
 
-            return new HeapPage(id, pageData);
+            return reconcile(new HeapPage(id, pageData));
 
         } catch (IOException e) {
             e.printStackTrace();
@@ -97,30 +217,131 @@ public class HeapFile implements DbFile {
         return null;
     }
 
+    /**
+     * Read the specified pages from disk, merging runs of adjacent pages into
+     * a single read. A memory-mapped HeapFile reads the pages one at a time,
+     * since the mapping already avoids a system call per page, and so does a
+     * compressed HeapFile, whose blocks vary in size. Otherwise the pages do
+     * not go through {@link #readPage}, so a subclass that instruments page
+     * reads must override both methods.
+     *
+     * @see DbFile#readPages(List)
+     */
+    @Override
+    public List<Page> readPages(List<PageId> ids) {
+        if (memoryMapped || compressed != null)
+            return DbFile.super.readPages(ids);
+
+        int pageSize = BufferPool.getPageSize();
+        long[] offsets = new long[ids.size()];
+        for (int i = 0; i < offsets.length; ++i)
+            offsets[i] = (long) pageSize * ids.get(i).getPageNumber();
+        try {
+            byte[][] data = channel.readBlocks(offsets, pageSize);
+            List<Page> pages = new ArrayList<>(ids.size());
+            for (int i = 0; i < data.length; ++i) {
+                if (data[i] == null) {
+                    throw new IllegalArgumentException("Read past end of table");
+                }
+                pages.add(reconcile(new HeapPage((HeapPageId) ids.get(i), data[i])));
+            }
+            return pages;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     // see DbFile.java for javadocs
     @Override
-    public synchronized void writePage(Page page) throws IOException {
+    public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
         int pageSize = BufferPool.getPageSize();
         HeapPageId id = (HeapPageId) page.getId();
-        byte[] pageData = page.getPageData();
-        try (RandomAccessFile file = new RandomAccessFile(f, "rw")) {
-            try {
-                file.seek(pageSize * id.getPageNumber());
-            } catch (IOException e1) {
-                throw new IllegalArgumentException("Unable to seek to correct place in HeapFile");
-            }
-            file.write(pageData);
+        // the page's value ranges and bitmap bits must reach the disk first
+        getZoneMap().persist((HeapPage) page);
+        persistBitmaps((HeapPage) page);
+        if (compressed != null) {
+            compressed.write(id.getPageNumber(), PageCompression.compress(page.getPageData(), td));
+        } else {
+            channel.write(page.getPageData(), (long) pageSize * id.getPageNumber());
+            extents.written(id.getPageNumber());
         }
+        reconcileFreeSpace((HeapPage) page);
+    }
+
+    /**
+     * Write a run of adjacent pages with a single write, e.g. new pages built
+     * by HeapFileLoader outside the BufferPool. A compressed HeapFile writes
+     * the pages one at a time.
+     *
+     * @param pages pages with consecutive page numbers, in ascending order
+     */
+    void writePages(List<HeapPage> pages) throws IOException {
+        if (pages.isEmpty())
+            return;
+        if (compressed != null) {
+            for (HeapPage page : pages)
+                writePage(page);
+            return;
+        }
+        int pageSize = BufferPool.getPageSize();
+        byte[] run = new byte[pages.size() * pageSize];
+        for (int i = 0; i < pages.size(); ++i) {
+            getZoneMap().persist(pages.get(i));
+            persistBitmaps(pages.get(i));
+            System.arraycopy(pages.get(i).getPageData(), 0, run, i * pageSize, pageSize);
+        }
+        int first = pages.get(0).getId().getPageNumber();
+        channel.write(run, (long) pageSize * first);
+        extents.written(first + pages.size() - 1);
+        for (HeapPage page : pages)
+            reconcileFreeSpace(page);
+    }
+
+    /**
+     * Bring the bitmap indexes of this HeapFile in line with a page that is
+     * about to be written to disk.
+     *
+     * @see BitmapIndex#persist(HeapPage)
+     */
+    private void persistBitmaps(HeapPage page) throws IOException {
+        for (BitmapIndex index : Database.getCatalog().getBitmapIndexes(getId()))
+            index.persist(page);
+    }
+
+    /**
+     * Bring the free space map and the zone map in line with a page read from disk.
+     */
+    private HeapPage reconcile(HeapPage page) {
+        getZoneMap().reconcile(page);
+        return reconcileFreeSpace(page);
+    }
+
+    /**
+     * Bring the free space map in line with a page as it is on disk.
+     */
+    private HeapPage reconcileFreeSpace(HeapPage page) {
+        freeSpaceMap.setFree(page.getId().getPageNumber(), page.getNumEmptySlots() > 0);
+        return page;
     }
 
     /**
-     * Returns the number of pages in this HeapFile.
+     * Returns the channel used for all page I/O on this HeapFile.
+     */
+    DbFileChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Returns the number of pages in this HeapFile, not counting preallocated
+     * pages that are not in use yet.
      */
     public int numPages() {
         // some code goes here
-        return (int) (f.length() / BufferPool.getPageSize());
+        if (compressed != null)
+            return compressed.numPages();
+        return extents.numPages();
     }
 
     // see DbFile.java for javadocs
@@ -133,26 +354,34 @@ public class HeapFile implements DbFile {
         boolean done = false;
         HeapPage heapPage = null;
         ArrayList<Page> pages = new ArrayList<>();
-        for (int i = 0; i < numPages; ++i) {
+        /* only visit pages the free space map says have room */
+        for (int i = freeSpaceMap.nextFreePage(0, numPages); i != -1;
+             i = freeSpaceMap.nextFreePage(i + 1, numPages)) {
             heapPage = (HeapPage) Database.getBufferPool().getPage(tid,
                     new HeapPageId(getId(), i), Permissions.READ_ONLY);
             if (heapPage.getNumEmptySlots() > 0) {
                 done = true;
                 break;
             }
+            /* the map was stale, correct it */
+            freeSpaceMap.setFree(i, false);
             /* early release lock */
             Database.getBufferPool().releasePage(tid, new HeapPageId(getId(), i));
         }
         if (!done) {
-            heapPage = new HeapPage(new HeapPageId(getId(), numPages), HeapPage.createEmptyPageData());
+            heapPage = new HeapPage(new HeapPageId(getId(),
+                    compressed != null ? numPages : extents.allocate()), HeapPage.createEmptyPageData());
         } else {
             heapPage = (HeapPage) Database.getBufferPool().getPage(tid,
                     heapPage.getId(), Permissions.READ_WRITE);
             pages.add(heapPage);
         }
         heapPage.insertTuple(t);
+        getZoneMap().include(heapPage.getId().getPageNumber(), t);
         if (!done)
             writePage(heapPage);
+        else if (heapPage.getNumEmptySlots() == 0)
+            freeSpaceMap.setFree(heapPage.getId().getPageNumber(), false);
         return pages;
     }
 
@@ -166,36 +395,119 @@ public class HeapFile implements DbFile {
             TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId())
+            return deleteTupleByScan(tid, t);
+
+        /* go straight to the page the tuple lives on */
+        ArrayList<Page> pages = new ArrayList<>();
+        HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid,
+                rid.getPageId(), Permissions.READ_WRITE);
+        heapPage.deleteTuple(t);
+        freeSpaceMap.setFree(heapPage.getId().getPageNumber(), true);
+        pages.add(heapPage);
+        return pages;
+    }
+
+    /**
+     * Removes the specified tuples from the file on behalf of the specified
+     * transaction. Tuples are grouped by the page their RecordId points to, so
+     * each affected page is locked and fetched once no matter how many of its
+     * tuples are deleted.
+     *
+     * @param tid    The transaction performing the update
+     * @param tuples The tuples to delete
+     * @return An ArrayList containing each modified page once
+     * @throws DbException if one of the tuples cannot be deleted or is not a
+     *                     member of the file
+     * @see #deleteTuple(TransactionId, Tuple)
+     */
+    @Override
+    public ArrayList<Page> deleteTuples(TransactionId tid, List<Tuple> tuples) throws DbException,
+            TransactionAbortedException {
+        LinkedHashMap<PageId, List<Tuple>> byPage = new LinkedHashMap<>();
+        LinkedHashMap<PageId, Page> pages = new LinkedHashMap<>();
+        for (Tuple t : tuples) {
+            RecordId rid = t.getRecordId();
+            if (rid == null || rid.getPageId().getTableId() != getId()) {
+                for (Page p : deleteTupleByScan(tid, t))
+                    pages.put(p.getId(), p);
+            } else {
+                byPage.computeIfAbsent(rid.getPageId(), k -> new ArrayList<>()).add(t);
+            }
+        }
+
+        /* fetch all affected pages with one batched read */
+        List<Page> fetched = Database.getBufferPool().getPages(tid,
+                new ArrayList<>(byPage.keySet()), Permissions.READ_WRITE);
+        for (Page p : fetched) {
+            HeapPage heapPage = (HeapPage) p;
+            for (Tuple t : byPage.get(heapPage.getId()))
+                heapPage.deleteTuple(t);
+            freeSpaceMap.setFree(heapPage.getId().getPageNumber(), true);
+            pages.put(heapPage.getId(), heapPage);
+        }
+        return new ArrayList<>(pages.values());
+    }
+
+    /**
+     * Delete a tuple that has no usable RecordId by looking for a tuple with
+     * the same field values on every page. t is given the RecordId of the
+     * tuple deleted.
+     */
+    private ArrayList<Page> deleteTupleByScan(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
         int numPages = numPages();
-        boolean done = false;
-        HeapPage heapPage;
         ArrayList<Page> pages = new ArrayList<>();
         for (int i = 0; i < numPages; ++i) {
-            heapPage = (HeapPage) Database.getBufferPool().getPage(tid,
-                    new HeapPageId(getId(), i), Permissions.READ_WRITE);
-            try {
-                heapPage.deleteTuple(t);
-                done = true;
-                pages.add(heapPage);
-                break;
-            } catch (DbException e) {
-                /* release unused page */
-                Database.getBufferPool().releasePage(tid, new HeapPageId(getId(), i));
+            HeapPageId pid = new HeapPageId(getId(), i);
+            HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid,
+                    pid, Permissions.READ_WRITE);
+            Iterator<Tuple> it = heapPage.iterator();
+            while (it.hasNext()) {
+                Tuple candidate = it.next();
+                if (sameFields(candidate, t)) {
+                    t.setRecordId(candidate.getRecordId());
+                    heapPage.deleteTuple(candidate);
+                    freeSpaceMap.setFree(i, true);
+                    pages.add(heapPage);
+                    return pages;
+                }
             }
+            /* release unused page */
+            Database.getBufferPool().releasePage(tid, pid);
         }
+        throw new DbException("tuple cannot be deleted or is not a member of the file");
+    }
 
-        if (done)
-            return pages;
-        else
-            throw new DbException("tuple cannot be deleted or is not a member of the file");
-
+    private static boolean sameFields(Tuple a, Tuple b) {
+        if (a.getTupleDesc().numFields() != b.getTupleDesc().numFields())
+            return false;
+        for (int i = 0; i < a.getTupleDesc().numFields(); ++i) {
+            if (!a.getField(i).equals(b.getField(i)))
+                return false;
+        }
+        return true;
     }
 
     // see DbFile.java for javadocs
     @Override
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new HeapFileIterator(tid, this);
+        return new HeapFileIterator(tid, this, Collections.<Predicate>emptyList());
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that skips the pages
+     * whose zone map shows they cannot satisfy all of the given predicates.
+     * The iterator may still return tuples that do not satisfy them.
+     *
+     * @param tid        the transaction the scan runs as a part of
+     * @param predicates predicates over the fields of this file
+     * @see ZoneMap
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates) {
+        return new HeapFileIterator(tid, this, predicates);
     }
 
 }
@@ -204,45 +516,61 @@ class HeapFileIterator extends AbstractDbFileIterator {
 
     private final HeapFile f;
     private final TransactionId tid;
+    private final List<Predicate> predicates;
     private Iterator<Tuple> it;
     private int currentPage;
+    private final ReadAhead.SequentialCursor readAhead = new ReadAhead.SequentialCursor();
 
-    public HeapFileIterator(TransactionId tid, HeapFile f) {
+    public HeapFileIterator(TransactionId tid, HeapFile f, List<Predicate> predicates) {
         this.tid = tid;
         this.f = f;
+        this.predicates = predicates;
+        if (!predicates.isEmpty())
+            readAhead.setPageFilter(i -> f.getZoneMap().mayMatch(i, predicates));
     }
 
-    @Override
-    public void open() throws DbException, TransactionAbortedException {
+    /**
+     * Move to the next page that may hold a matching tuple.
+     *
+     * @return false if there is no such page
+     */
+    private boolean nextPage() throws DbException, TransactionAbortedException {
+        int numPages = f.numPages();
+        int next = currentPage + 1;
+        while (next < numPages && !f.getZoneMap().mayMatch(next, predicates))
+            next++;
+        if (next >= numPages)
+            return false;
+        currentPage = next;
+        readAhead.advance(f.getId(), currentPage, numPages);
         HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid,
-                new HeapPageId(f.getId(), 0), Permissions.READ_ONLY);
+                new HeapPageId(f.getId(), currentPage), Permissions.READ_ONLY);
         it = heapPage.iterator();
-        currentPage = 0;
+        return true;
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        currentPage = -1;
+        it = null;
+        readAhead.reset();
+        nextPage();
     }
 
     @Override
     protected Tuple readNext() throws DbException, TransactionAbortedException {
-        if (it != null) {
-            if (it.hasNext()) {
+        while (it != null) {
+            if (it.hasNext())
                 return it.next();
-            } else {
-                if (currentPage < f.numPages() - 1) {
-                    HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid,
-                            new HeapPageId(f.getId(), ++currentPage), Permissions.READ_ONLY);
-                    it = heapPage.iterator();
-                    return readNext();
-                }
-            }
+            if (!nextPage())
+                return null;
         }
         return null;
     }
 
     @Override
     public void rewind() throws DbException, TransactionAbortedException {
-        HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid,
-                new HeapPageId(f.getId(), 0), Permissions.READ_ONLY);
-        it = heapPage.iterator();
-        currentPage = 0;
+        open();
     }
 
     @Override
@@ -251,4 +579,4 @@ class HeapFileIterator extends AbstractDbFileIterator {
         it = null;
         currentPage = -1;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,500 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * HeapFileLoader bulk loads a delimited text file into heap pages, either
+ * into a new data file or appended to a HeapFile in the Catalog.
+ * <p>
+ * The input is split into ranges of {@link #DEFAULT_RANGE_BYTES} bytes, and
+ * a line belongs to the range it starts in. Ranges are parsed on several
+ * threads straight into the on-disk record format; the records are then
+ * packed into full pages in input order and written {@link #WRITE_PAGES}
+ * pages at a time. Only a few more ranges than threads are in flight at
+ * once, so memory use does not grow with the size of the input.
+ * <p>
+ * Blank lines are skipped and fields are trimmed. Strings longer than
+ * Type.STRING_LEN are truncated. A line with an integer that does not parse
+ * is skipped; the skipped lines are counted and reported once the input is
+ * loaded. A line with the wrong number of fields is an error.
+ *
+ * @see HeapFileEncoder
+ * @see HeapPage
+ */
+public class HeapFileLoader {
+
+    /**
+     * Default number of input bytes parsed by one task.
+     */
+    public static final int DEFAULT_RANGE_BYTES = 1 << 20;
+
+    /**
+     * Number of pages written with a single write.
+     */
+    public static final int WRITE_PAGES = 64;
+
+    private final char fieldSeparator;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int rangeBytes = DEFAULT_RANGE_BYTES;
+    private long skippedLines;
+
+    /**
+     * Creates a loader for input whose fields are separated by the given
+     * character and whose lines end with '\n' (an '\r' before it is ignored).
+     *
+     * @param fieldSeparator the character between two fields of a line
+     */
+    public HeapFileLoader(char fieldSeparator) {
+        this.fieldSeparator = fieldSeparator;
+    }
+
+    /**
+     * Sets the number of threads that parse the input; 1 parses it on the
+     * calling thread.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("need at least one thread");
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the number of input bytes parsed by one task.
+     */
+    public void setRangeBytes(int rangeBytes) {
+        if (rangeBytes < 1)
+            throw new IllegalArgumentException("range must be at least one byte");
+        this.rangeBytes = rangeBytes;
+    }
+
+    /**
+     * Returns the number of lines the last load or append skipped because an
+     * integer field did not parse.
+     */
+    public long getSkippedLines() {
+        return skippedLines;
+    }
+
+    /**
+     * Writes the tuples of a text file as a new heap file, replacing its
+     * previous contents. Every page but the last is full, and an empty
+     * input produces a single empty page.
+     *
+     * @param inFile   the text file to load
+     * @param outFile  the data file to write
+     * @param types    the types of the fields of each line
+     * @param pageSize the number of bytes per page in outFile
+     * @return the number of tuples loaded
+     * @throws IOException if a file can't be read or written, or a line is malformed
+     */
+    public long load(File inFile, File outFile, Type[] types, int pageSize) throws IOException {
+        // nothing known about the old contents applies to the new ones
+        ZoneMap.discard(outFile);
+        for (String suffix : new String[]{".fsm", ".ext", ".pdir"})
+            new File(outFile.getPath() + suffix).delete();
+
+        try (FileOutputStream os = new FileOutputStream(outFile)) {
+            PageBuilder pages = new PageBuilder(types, pageSize) {
+                @Override
+                void write(byte[] run, int numPages) throws IOException {
+                    os.write(run, 0, numPages * pageSize);
+                }
+            };
+            long count = parse(inFile, types, pages);
+            if (pages.pagesWritten == 0)
+                os.write(new byte[pageSize]);
+            return count;
+        }
+    }
+
+    /**
+     * Appends the tuples of a text file to a table in the Catalog, on new
+     * pages after its last page. The pages are written directly to the
+     * table's HeapFile, not through BufferPool.insertTuple, so they are not
+     * part of any transaction and are not logged. Inserts into the table wait
+     * until the load is done.
+     * <p>
+     * Entries for the new tuples are added to the table's secondary indexes
+     * through the BufferPool as each page is written, a page at a time in a
+     * transaction of its own; bitmap indexes pick the tuples up when their
+     * pages are written.
+     *
+     * @param inFile  the text file to load
+     * @param tableId the id of a table backed by a HeapFile
+     * @return the number of tuples loaded
+     * @throws DbException if the table is not a HeapFile
+     * @throws IOException if a file can't be read or written, or a line is malformed
+     */
+    public long append(File inFile, int tableId) throws DbException, IOException {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(file instanceof HeapFile))
+            throw new DbException("only tables backed by a HeapFile can be bulk loaded");
+        HeapFile hf = (HeapFile) file;
+        TupleDesc td = hf.getTupleDesc();
+        Type[] types = new Type[td.numFields()];
+        for (int i = 0; i < types.length; ++i)
+            types[i] = td.getFieldType(i);
+        int pageSize = BufferPool.getPageSize();
+        List<SecondaryIndex> indexes = Database.getCatalog().getIndexes(tableId);
+
+        synchronized (hf) {
+            int firstPageNo = hf.numPages();
+            PageBuilder pages = new PageBuilder(types, pageSize) {
+                @Override
+                void write(byte[] run, int numPages) throws IOException {
+                    List<HeapPage> written = new ArrayList<>(numPages);
+                    for (int i = 0; i < numPages; ++i) {
+                        HeapPageId pid = new HeapPageId(tableId, firstPageNo + pagesWritten + i);
+                        written.add(new HeapPage(pid, Arrays.copyOfRange(run, i * pageSize, (i + 1) * pageSize)));
+                    }
+                    hf.writePages(written);
+                    for (HeapPage page : written)
+                        index(page, indexes);
+                }
+            };
+            return parse(inFile, types, pages);
+        }
+    }
+
+    /**
+     * Add the entries of the tuples of an appended page to the secondary
+     * indexes of its table. Each page gets a transaction of its own, so the
+     * index pages it dirties fit in the BufferPool.
+     */
+    private static void index(HeapPage page, List<SecondaryIndex> indexes) throws IOException {
+        if (indexes.isEmpty())
+            return;
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        boolean commit = false;
+        try {
+            Iterator<Tuple> tuples = page.iterator();
+            while (tuples.hasNext()) {
+                Tuple t = tuples.next();
+                for (SecondaryIndex index : indexes)
+                    bp.cacheDirtyPages(tid, index.insertTuple(tid, t));
+            }
+            commit = true;
+        } catch (DbException | TransactionAbortedException e) {
+            throw new IOException("could not index the tuples of " + page.getId(), e);
+        } finally {
+            bp.transactionComplete(tid, commit);
+        }
+    }
+
+    /**
+     * Parse the ranges of the input in parallel and hand their records to
+     * pages in input order.
+     */
+    private long parse(File inFile, Type[] types, PageBuilder pages) throws IOException {
+        DbFileChannel in = new DbFileChannel(inFile);
+        ExecutorService pool = null;
+        try {
+            long size = in.size();
+            long numRanges = Math.max(1, (size + rangeBytes - 1) / rangeBytes);
+            int numThreads = (int) Math.min(threads, numRanges);
+            if (numThreads > 1)
+                pool = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+                    private int count = 0;
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "simpledb-loader-" + count++);
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+
+            ArrayDeque<FutureTask<Records>> inFlight = new ArrayDeque<>();
+            long next = 0;
+            long count = 0;
+            long skipped = 0;
+            long firstSkipped = -1;
+            while (next < numRanges || !inFlight.isEmpty()) {
+                while (next < numRanges && inFlight.size() <= numThreads) {
+                    long start = next++ * rangeBytes;
+                    long end = Math.min(size, start + rangeBytes);
+                    FutureTask<Records> task = new FutureTask<>(() -> parseRange(in, size, start, end, types));
+                    if (pool == null)
+                        task.run();
+                    else
+                        pool.execute(task);
+                    inFlight.add(task);
+                }
+                Records records = await(inFlight.poll());
+                pages.add(records);
+                count += records.count;
+                if (skipped == 0)
+                    firstSkipped = records.firstSkipped;
+                skipped += records.skipped;
+            }
+            pages.finish();
+            skippedLines = skipped;
+            if (skipped > 0)
+                System.out.println("Skipped " + skipped + " lines of " + inFile + " with an integer that does not parse,"
+                        + " the first at byte " + firstSkipped);
+            return count;
+        } finally {
+            if (pool != null)
+                pool.shutdownNow();
+            in.close();
+        }
+    }
+
+    private static Records await(FutureTask<Records> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while loading");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Parse the lines that start in [start, end) into records.
+     */
+    private Records parseRange(DbFileChannel in, long size, long start, long end, Type[] types)
+            throws IOException {
+        // read from the byte before the range, to see whether a line starts
+        // at start, through the end of the line that crosses end
+        long from = Math.max(0, start - 1);
+        byte[] buf = new byte[(int) (end - from)];
+        in.read(buf, from);
+        int len = buf.length;
+        while (from + len < size && (len == 0 || buf[len - 1] != '\n')) {
+            int more = (int) Math.min(4096, size - from - len);
+            buf = Arrays.copyOf(buf, len + more);
+            in.read(ByteBuffer.wrap(buf, len, more), from + len);
+            int eol = indexOf(buf, (byte) '\n', len, len + more);
+            len = eol < 0 ? len + more : eol + 1;
+        }
+
+        int pos = 0;
+        if (start > 0) {
+            int eol = indexOf(buf, (byte) '\n', 0, len);
+            pos = eol < 0 ? len : eol + 1;
+        }
+        Records records = new Records(types);
+        int rangeEnd = (int) (end - from);
+        while (pos < rangeEnd && pos < len) {
+            int eol = indexOf(buf, (byte) '\n', pos, len);
+            if (eol < 0)
+                eol = len;
+            parseLine(buf, pos, eol, types, records, from + pos);
+            pos = eol + 1;
+        }
+        return records;
+    }
+
+    private static int indexOf(byte[] buf, byte b, int from, int to) {
+        for (int i = from; i < to; ++i)
+            if (buf[i] == b)
+                return i;
+        return -1;
+    }
+
+    private static boolean isSpace(byte b) {
+        return (b & 0xff) <= ' ';
+    }
+
+    private void parseLine(byte[] buf, int from, int to, Type[] types, Records records, long offset)
+            throws IOException {
+        int nonBlank = from;
+        while (nonBlank < to && isSpace(buf[nonBlank]))
+            nonBlank++;
+        if (nonBlank == to)
+            return;
+
+        ByteBuffer out = records.next();
+        boolean malformed = false;
+        int field = 0;
+        int fieldStart = from;
+        for (int i = from; i <= to; ++i) {
+            if (i < to && buf[i] != fieldSeparator)
+                continue;
+            if (field == types.length)
+                throw new IOException("Line at byte " + offset + " has more than " + types.length + " fields");
+            int a = fieldStart;
+            int b = i;
+            while (a < b && isSpace(buf[a]))
+                a++;
+            while (b > a && isSpace(buf[b - 1]))
+                b--;
+            if (types[field] == Type.INT_TYPE) {
+                try {
+                    out.putInt(parseInt(buf, a, b));
+                } catch (NumberFormatException e) {
+                    malformed = true;
+                    out.position(out.position() + Type.INT_TYPE.getLen());
+                }
+            } else
+                putString(out, buf, a, b);
+            field++;
+            fieldStart = i + 1;
+        }
+        if (field < types.length)
+            throw new IOException("Line at byte " + offset + " has " + field + " fields, expected " + types.length);
+        if (malformed)
+            records.skip(offset);
+    }
+
+    private static int parseInt(byte[] buf, int from, int to) {
+        int i = from;
+        boolean negative = i < to && buf[i] == '-';
+        if (negative || i < to && buf[i] == '+')
+            i++;
+        if (i < to && to - i <= 10) {
+            long v = 0;
+            for (; i < to && buf[i] >= '0' && buf[i] <= '9'; ++i)
+                v = v * 10 + (buf[i] - '0');
+            v = negative ? -v : v;
+            if (i == to && v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE)
+                return (int) v;
+        }
+        return Integer.parseInt(new String(buf, from, to - from));
+    }
+
+    private static void putString(ByteBuffer out, byte[] buf, int from, int to) {
+        boolean ascii = true;
+        for (int i = from; i < to && ascii; ++i)
+            ascii = buf[i] >= 0;
+        int start = out.position();
+        if (ascii) {
+            int len = Math.min(to - from, Type.STRING_LEN);
+            out.putInt(len);
+            out.put(buf, from, len);
+        } else {
+            String s = new String(buf, from, to - from).trim();
+            if (s.length() > Type.STRING_LEN)
+                s = s.substring(0, Type.STRING_LEN);
+            out.putInt(s.length());
+            // like DataOutputStream.writeBytes, keep the low byte of each char
+            for (int i = 0; i < s.length(); ++i)
+                out.put((byte) s.charAt(i));
+        }
+        out.position(start + Type.STRING_TYPE.getLen());
+    }
+
+    /**
+     * The records parsed from one range, back to back in the on-disk format.
+     */
+    private static class Records {
+        final int recordSize;
+        byte[] data;
+        int count;
+        /* lines skipped because an integer did not parse, and the offset of the first */
+        int skipped;
+        long firstSkipped = -1;
+
+        Records(Type[] types) {
+            int size = 0;
+            for (Type t : types)
+                size += t.getLen();
+            this.recordSize = size;
+            this.data = new byte[recordSize * 64];
+        }
+
+        /**
+         * Returns a buffer positioned at a new, zero-filled record.
+         */
+        ByteBuffer next() {
+            if ((count + 1) * recordSize > data.length)
+                data = Arrays.copyOf(data, data.length * 2);
+            return ByteBuffer.wrap(data, count++ * recordSize, recordSize);
+        }
+
+        /**
+         * Drops the last record, of the line at the given input offset.
+         */
+        void skip(long offset) {
+            count--;
+            Arrays.fill(data, count * recordSize, (count + 1) * recordSize, (byte) 0);
+            if (skipped++ == 0)
+                firstSkipped = offset;
+        }
+    }
+
+    /**
+     * Packs records into full heap pages, with the slot header described in
+     * HeapPage, and passes them on in runs of up to WRITE_PAGES pages.
+     */
+    private abstract static class PageBuilder {
+        final int pageSize;
+        final int recordSize;
+        final int slotsPerPage;
+        final int headerSize;
+        final byte[] run;
+        int pagesInRun;
+        int slot;
+        int pagesWritten;
+
+        PageBuilder(Type[] types, int pageSize) {
+            int size = 0;
+            for (Type t : types)
+                size += t.getLen();
+            this.pageSize = pageSize;
+            this.recordSize = size;
+            this.slotsPerPage = pageSize * 8 / (recordSize * 8 + 1);
+            this.headerSize = (slotsPerPage + 7) / 8;
+            this.run = new byte[WRITE_PAGES * pageSize];
+        }
+
+        /**
+         * Write the first numPages pages of run, which follow the pages
+         * written so far.
+         */
+        abstract void write(byte[] run, int numPages) throws IOException;
+
+        void add(Records records) throws IOException {
+            for (int k = 0; k < records.count; ++k) {
+                int page = pagesInRun * pageSize;
+                run[page + slot / 8] |= 1 << (slot % 8);
+                System.arraycopy(records.data, k * recordSize, run,
+                        page + headerSize + slot * recordSize, recordSize);
+                if (++slot == slotsPerPage) {
+                    slot = 0;
+                    if (++pagesInRun == WRITE_PAGES)
+                        flush();
+                }
+            }
+        }
+
+        void finish() throws IOException {
+            if (slot > 0) {
+                slot = 0;
+                pagesInRun++;
+            }
+            flush();
+        }
+
+        private void flush() throws IOException {
+            if (pagesInRun == 0)
+                return;
+            write(run, pagesInRun);
+            pagesWritten += pagesInRun;
+            Arrays.fill(run, 0, pagesInRun * pageSize, (byte) 0);
+            pagesInRun = 0;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
@@ -17,9 +18,14 @@ public class HeapPage implements Page {
     final byte header[];
     final Tuple tuples[];
     final int numSlots;
+    final int tupleSize;
 
-    byte[] oldData;
-    private final Byte oldDataLock = new Byte((byte) 0);
+    /* raw page bytes; borrowed from the caller until the first modification */
+    private ByteBuffer data;
+    private boolean ownsData = false;
+
+    ByteBuffer oldData;
+    private final Object oldDataLock = new Object();
     private TransactionId dirtyId;
     private boolean isDirty = false;
 
@@ -41,28 +47,42 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the page, e.g. a view of a
+     * memory-mapped HeapFile.
+     * <p>
+     * Only the header is read here. The page keeps a reference to the raw
+     * bytes and decodes a tuple when it is first requested; slot i starts at
+     * offset header size + i * {@link TupleDesc#getSize()}. The bytes are
+     * copied only when the page is first modified, so the caller must not
+     * change them afterwards; until then they also serve as the before-image.
+     * A direct buffer, such as a view of a file mapping, changes when the file
+     * is written, so the before-image gets its own copy of it when the page is
+     * first modified.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.tupleSize = td.getSize();
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.data = data;
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
         for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
+            header[i] = data.get(i);
 
+        // tuples are decoded lazily
         tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++) {
-                tuples[i] = readNextTuple(dis, i);
-            }
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
-        }
-        dis.close();
 
-        setBeforeImage();
+        synchronized (oldDataLock) {
+            oldData = data;
+        }
     }
 
     /**
@@ -72,7 +92,7 @@ public class HeapPage implements Page {
      */
     private int getNumTuples() {
         // some code goes here
-        return BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+        return BufferPool.getPageSize() * 8 / (tupleSize * 8 + 1);
     }
 
     /**
@@ -92,7 +112,7 @@ public class HeapPage implements Page {
      */
     public HeapPage getBeforeImage() {
         try {
-            byte[] oldDataRef = null;
+            ByteBuffer oldDataRef = null;
             synchronized (oldDataLock) {
                 oldDataRef = oldData;
             }
@@ -107,7 +127,7 @@ public class HeapPage implements Page {
 
     public void setBeforeImage() {
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            oldData = ByteBuffer.wrap(getPageData());
         }
     }
 
@@ -120,39 +140,61 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the offset of the given slot within the page.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    private int slotOffset(int slotId) {
+        return header.length + slotId * tupleSize;
+    }
+
+    /**
+     * Returns the tuple stored in the given slot, decoding it from the raw
+     * page bytes the first time it is requested.
+     */
+    private Tuple getTuple(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = readTuple(slotId);
+            tuples[slotId] = t;
         }
+        return t;
+    }
 
-        // read fields in the tuple
+    /**
+     * Decode the tuple stored in the given used slot.
+     */
+    private Tuple readTuple(int slotId) {
         Tuple t = new Tuple(td);
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
-        try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+        int offset = slotOffset(slotId);
+        for (int j = 0; j < td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            t.setField(j, type.parse(data, offset));
+            offset += type.getLen();
         }
 
         return t;
     }
 
+    /**
+     * Make sure the raw page bytes are a private copy that may be modified.
+     */
+    private void ensureOwnData() {
+        if (!ownsData) {
+            byte[] copy = new byte[BufferPool.getPageSize()];
+            ByteBuffer src = data.duplicate();
+            src.position(0);
+            src.get(copy, 0, Math.min(copy.length, src.remaining()));
+            synchronized (oldDataLock) {
+                // writing the page back would change the before-image too
+                if (oldData == data && data.isDirect())
+                    oldData = ByteBuffer.wrap(copy.clone());
+            }
+            data = ByteBuffer.wrap(copy);
+            ownsData = true;
+        }
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -165,64 +207,15 @@ public class HeapPage implements Page {
      * @see #HeapPage
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i = 0; i < header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+        byte[] pageData = new byte[BufferPool.getPageSize()];
 
-        // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
+        // tuple slots are kept serialized, so only the header needs writing
+        ByteBuffer src = data.duplicate();
+        src.position(0);
+        src.get(pageData, 0, Math.min(pageData.length, src.remaining()));
+        System.arraycopy(header, 0, pageData, 0, header.length);
 
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length);
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return pageData;
     }
 
     /**
@@ -252,7 +245,12 @@ public class HeapPage implements Page {
         // not necessary for lab1
         RecordId rid = t.getRecordId();
         if (rid.getPageId().equals(pid) && rid.getTupleNumber() < numSlots && isSlotUsed(rid.getTupleNumber())) {
-            markSlotUsed(rid.getTupleNumber(), false);
+            int slot = rid.getTupleNumber();
+            markSlotUsed(slot, false);
+            tuples[slot] = null;
+            // empty slots are stored as zeroes
+            ensureOwnData();
+            Arrays.fill(data.array(), slotOffset(slot), slotOffset(slot) + tupleSize, (byte) 0);
         } else
             throw new DbException("tuple is not on the page or tuple slot is already empty");
     }
@@ -271,6 +269,7 @@ public class HeapPage implements Page {
         if (getNumEmptySlots() != 0 && t.getTupleDesc().equals(td)) {
             for (int i = 0; i < tuples.length; ++i)
                 if (!isSlotUsed(i)) {
+                    writeTuple(i, t);
                     markSlotUsed(i, true);
                     tuples[i] = t;
                     // set RecordId
@@ -281,6 +280,25 @@ public class HeapPage implements Page {
             throw new DbException("page is full or tupledesc doesn't match");
     }
 
+    /**
+     * Serialize the fields of t into the given slot of the raw page bytes.
+     */
+    private void writeTuple(int slotId, Tuple t) {
+        ensureOwnData();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(tupleSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                t.getField(j).serialize(dos);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        System.arraycopy(baos.toByteArray(), 0, data.array(), slotOffset(slotId), tupleSize);
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -326,6 +344,18 @@ public class HeapPage implements Page {
         return ((header[headerIdx] >> headerByteIdx) & 1) == 1;
     }
 
+    /**
+     * Returns the tuple in the given slot, or null if the slot is empty. Used
+     * to fetch the tuples a secondary index points at.
+     *
+     * @see SecondaryIndex
+     */
+    public Tuple getTupleAt(int slotId) {
+        if (slotId < 0 || slotId >= numSlots || !isSlotUsed(slotId))
+            return null;
+        return getTuple(slotId);
+    }
+
     /**
      * Abstraction to fill or clear a slot on this page.
      */
@@ -361,8 +391,8 @@ public class HeapPage implements Page {
 
             @Override
             public Tuple next() {
-                if (currentIdx < numSlots)
-                    return tuples[currentIdx++];
+                if (hasNext())
+                    return getTuple(currentIdx++);
                 else
                     throw new NoSuchElementException();
             }
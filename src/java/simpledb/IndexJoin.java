@@ -0,0 +1,167 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The IndexJoin operator implements an index nested loops join: instead of
+ * rescanning the inner relation for each tuple of the outer relation, it
+ * probes an index on the inner join field with the outer tuple's value.
+ * <p>
+ * The inner relation must be an {@link IndexOpIterator} on the inner join
+ * field, such as a {@link BTreeScan} of a BTreeFile keyed on it or an
+ * {@link IndexScan} of a secondary index on it, and the join predicate must
+ * be one the index can answer by range, so not <tt>&lt;&gt;</tt> or LIKE.
+ * A {@link HashScan} of a HashFile hashed on it only answers equi-joins.
+ */
+public class IndexJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate p;
+    private final Predicate.Op probeOp;
+    private OpIterator[] children;
+    private TupleDesc td;
+    private Tuple t1;
+    private boolean innerOpen = false;
+
+    /**
+     * Constructor. Accepts the two children to join and the predicate to join
+     * them on.
+     *
+     * @param p      The predicate to use to join the children
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Index access method for the right(inner) relation, keyed
+     *               on the second field of p
+     */
+    public IndexJoin(JoinPredicate p, OpIterator child1, IndexOpIterator child2) {
+        this.p = p;
+        this.probeOp = getProbeOp(p.getOperator());
+        children = new OpIterator[]{child1, child2};
+    }
+
+    /**
+     * Returns the op with which an index on the inner field is probed for the
+     * inner tuples joining an outer tuple: <tt>outer op inner</tt> holds
+     * exactly when <tt>inner probeOp outer</tt> does.
+     *
+     * @throws IllegalArgumentException if no index can answer the op
+     */
+    static Predicate.Op getProbeOp(Predicate.Op op) {
+        switch (op) {
+            case EQUALS:
+                return Predicate.Op.EQUALS;
+            case LESS_THAN:
+                return Predicate.Op.GREATER_THAN;
+            case LESS_THAN_OR_EQ:
+                return Predicate.Op.GREATER_THAN_OR_EQ;
+            case GREATER_THAN:
+                return Predicate.Op.LESS_THAN;
+            case GREATER_THAN_OR_EQ:
+                return Predicate.Op.LESS_THAN_OR_EQ;
+            default:
+                throw new IllegalArgumentException("cannot probe an index with " + op);
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /**
+     * @return the field name of join field1, quantified by alias or table name.
+     */
+    public String getJoinField1Name() {
+        return children[0].getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return the field name of join field2, quantified by alias or table name.
+     */
+    public String getJoinField2Name() {
+        return children[1].getTupleDesc().getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        if (td == null)
+            td = TupleDesc.merge(children[0].getTupleDesc(), children[1].getTupleDesc());
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        children[0].open();
+    }
+
+    public void close() {
+        super.close();
+        children[0].close();
+        if (innerOpen)
+            children[1].close();
+        innerOpen = false;
+        t1 = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        children[0].rewind();
+        t1 = null;
+    }
+
+    /**
+     * Points the inner index at the tuples joining t1.
+     */
+    private void probe(Tuple t1) throws DbException, TransactionAbortedException {
+        IndexOpIterator inner = (IndexOpIterator) children[1];
+        IndexPredicate ipred = new IndexPredicate(probeOp, t1.getField(p.getField1()));
+        if (innerOpen) {
+            inner.rewind(ipred);
+        } else {
+            inner.open(ipred);
+            innerOpen = true;
+        }
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. As with {@link Join}, the tuples returned are the
+     * concatenation of the joining tuples from the outer and inner relation.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (t1 == null) {
+                if (!children[0].hasNext())
+                    return null;
+                t1 = children[0].next();
+                probe(t1);
+            }
+            while (children[1].hasNext()) {
+                Tuple t2 = children[1].next();
+                if (p.filter(t1, t2)) {
+                    Tuple t = new Tuple(getTupleDesc());
+                    int t1Fields = t1.getTupleDesc().numFields();
+                    int t2Fields = t2.getTupleDesc().numFields();
+                    for (int i = 0; i < t1Fields; ++i)
+                        t.setField(i, t1.getField(i));
+                    for (int i = 0; i < t2Fields; ++i)
+                        t.setField(i + t1Fields, t2.getField(i));
+                    return t;
+                }
+            }
+            t1 = null;
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return children;
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        if (!(children[1] instanceof IndexOpIterator))
+            throw new IllegalArgumentException("the inner child of an IndexJoin must be an IndexOpIterator");
+        this.children = children;
+        td = null;
+        t1 = null;
+    }
+
+}
@@ -0,0 +1,37 @@
+package simpledb;
+
+/**
+ * IndexOnlyScan is an operator which reads the tuples of a table that satisfy
+ * a predicate on an indexed field from the leaves of a covering secondary
+ * index alone, without reading the table. Only the key and the included
+ * fields of the returned tuples are set; the other fields are null, as with
+ * a projected {@link SeqScan}.
+ *
+ * @see SecondaryIndex#covers(int[])
+ * @see SecondaryIndex#lookupEntries(TransactionId, IndexPredicate)
+ */
+public class IndexOnlyScan extends IndexScan {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates an index-only scan through the given index as a part of the
+     * specified transaction.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param index      the index to read the tuples from.
+     * @param tableAlias the alias of the indexed table; the returned tupleDesc
+     *                   has fields with name tableAlias.fieldName, as in
+     *                   {@link SeqScan}.
+     * @param ipred      The predicate on the indexed field to match. If null, the
+     *                   scan returns all tuples in the order of the indexed field.
+     */
+    public IndexOnlyScan(TransactionId tid, SecondaryIndex index, String tableAlias, IndexPredicate ipred) {
+        super(tid, index, tableAlias, ipred);
+    }
+
+    @Override
+    protected DbFileIterator lookup(TransactionId tid, IndexPredicate ipred) {
+        return getIndex().lookupEntries(tid, ipred);
+    }
+}
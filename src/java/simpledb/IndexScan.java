@@ -0,0 +1,139 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an operator which reads the tuples of a table that satisfy a
+ * predicate on an indexed field, through one of the table's secondary indexes.
+ * The tuples are returned in the order of the indexed field.
+ *
+ * @see SecondaryIndex#lookup(TransactionId, IndexPredicate)
+ */
+public class IndexScan implements IndexOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private boolean isOpen = false;
+    private final TransactionId tid;
+    private final SecondaryIndex index;
+    private IndexPredicate ipred;
+    private final TupleDesc myTd;
+    private final String tablename;
+    private final String alias;
+    private transient DbFileIterator it;
+
+    /**
+     * Creates a scan through the given index as a part of the specified
+     * transaction.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param index      the index to read the table through.
+     * @param tableAlias the alias of the indexed table; the returned tupleDesc
+     *                   has fields with name tableAlias.fieldName, as in
+     *                   {@link SeqScan}.
+     * @param ipred      The predicate on the indexed field to match. If null, the
+     *                   scan returns all tuples in the order of the indexed field.
+     */
+    public IndexScan(TransactionId tid, SecondaryIndex index, String tableAlias, IndexPredicate ipred) {
+        this.tid = tid;
+        this.index = index;
+        this.ipred = ipred;
+        this.alias = tableAlias;
+        this.tablename = Database.getCatalog().getTableName(index.getTableId());
+        this.it = lookup(tid, ipred);
+        TupleDesc td = Database.getCatalog().getTupleDesc(index.getTableId());
+        String[] newNames = new String[td.numFields()];
+        Type[] newTypes = new Type[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            newNames[i] = tableAlias + "." + td.getFieldName(i);
+            newTypes[i] = td.getFieldType(i);
+        }
+        myTd = new TupleDesc(newTypes, newNames);
+    }
+
+    /**
+     * Returns the iterator over the tuples matching ipred.
+     */
+    protected DbFileIterator lookup(TransactionId tid, IndexPredicate ipred) {
+        return index.lookup(tid, ipred);
+    }
+
+    /**
+     * @return the index this operator reads the table through
+     */
+    public SecondaryIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the predicate on the indexed field
+     */
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    /**
+     * @return the name of the indexed table in the catalog
+     */
+    public String getTableName() {
+        return tablename;
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (isOpen)
+            throw new DbException("double open on one OpIterator.");
+
+        it.open();
+        isOpen = true;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return myTd;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return it.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+
+        return it.next();
+    }
+
+    public void close() {
+        it.close();
+        isOpen = false;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void open(IndexPredicate ipred)
+            throws NoSuchElementException, DbException, TransactionAbortedException {
+        if (isOpen)
+            throw new DbException("double open on one OpIterator.");
+
+        this.ipred = ipred;
+        it = lookup(tid, ipred);
+        open();
+    }
+
+    public void rewind(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+        close();
+        open(ipred);
+    }
+}
@@ -101,7 +101,7 @@ public class IntHistogram {
             return (partNum + fraction * histBuckets[index]) / numVal;
         }
         else if (op == Predicate.Op.LESS_THAN) {
-            double fraction = (double) (rangeRight - v) / (rangeRight - rangeLeft + 1);
+            double fraction = (double) (v - rangeLeft) / (rangeRight - rangeLeft + 1);
             for (int i = 0; i < index; ++i)
                 partNum += histBuckets[i];
             return (partNum + fraction * histBuckets[index]) / numVal;
@@ -113,7 +113,7 @@ public class IntHistogram {
             return (partNum + fraction * histBuckets[index]) / numVal;
         }
         else {
-            double fraction = (double) (rangeRight - v + 1) / (rangeRight - rangeLeft + 1);
+            double fraction = (double) (v - rangeLeft + 1) / (rangeRight - rangeLeft + 1);
             for (int i = 0; i < index; ++i)
                 partNum += histBuckets[i];
             return (partNum + fraction * histBuckets[index]) / numVal;
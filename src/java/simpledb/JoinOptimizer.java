@@ -32,12 +32,18 @@ public class JoinOptimizer {
      * inner/outer here -- because OpIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p>
+     * If the optimizer chose an index nested loops join for lj, and plan2 is
+     * still a scan of a base table, possibly filtered, this returns an
+     * {@link IndexJoin} probing an index of that table, with the filters
+     * applied to its output instead.
      *
+     * @param tid   The transaction the join will run as a part of
      * @param lj    The join being considered
      * @param plan1 The left join node's child
      * @param plan2 The right join node's child
      */
-    public static OpIterator instantiateJoin(LogicalJoinNode lj, OpIterator plan1,
+    public static OpIterator instantiateJoin(TransactionId tid, LogicalJoinNode lj, OpIterator plan1,
                                              OpIterator plan2) throws ParsingException {
 
         int t1id = 0, t2id = 0;
@@ -63,12 +69,146 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
+        if (lj.indexed) {
+            j = instantiateIndexJoin(tid, p, plan1, plan2);
+            if (j != null)
+                return j;
+        }
+
         j = new Join(p, plan1, plan2);
 
         return j;
 
     }
 
+    /**
+     * Returns an index nested loops join of plan1 with the table scanned by
+     * plan2, or null if plan2 is not a scan of a table with an index on the
+     * join field.
+     */
+    private static OpIterator instantiateIndexJoin(TransactionId tid, JoinPredicate p,
+                                                   OpIterator plan1, OpIterator plan2) {
+        // the filters over the scan, which move above the join
+        ArrayList<Predicate> filters = new ArrayList<Predicate>();
+        OpIterator scan = plan2;
+        while (scan instanceof Filter) {
+            filters.add(((Filter) scan).getPredicate());
+            scan = ((Filter) scan).getChildren()[0];
+        }
+        String tableName, alias;
+        if (scan instanceof SeqScan) {
+            tableName = ((SeqScan) scan).getTableName();
+            alias = ((SeqScan) scan).getAlias();
+        } else if (scan instanceof BTreeScan) {
+            BTreeScan s = (BTreeScan) scan;
+            tableName = s.getTableName();
+            alias = s.getAlias();
+            IndexPredicate ipred = s.getIndexPredicate();
+            if (ipred != null) {
+                int keyField = ((BTreeFile) Database.getCatalog().getDatabaseFile(
+                        Database.getCatalog().getTableId(tableName))).keyField();
+                filters.add(new Predicate(keyField, ipred.getOp(), ipred.getField()));
+            }
+        } else if (scan instanceof HashScan) {
+            HashScan s = (HashScan) scan;
+            tableName = s.getTableName();
+            alias = s.getAlias();
+            IndexPredicate ipred = s.getIndexPredicate();
+            if (ipred != null) {
+                int keyField = ((HashFile) Database.getCatalog().getDatabaseFile(
+                        Database.getCatalog().getTableId(tableName))).keyField();
+                filters.add(new Predicate(keyField, ipred.getOp(), ipred.getField()));
+            }
+        } else if (scan instanceof BitmapScan) {
+            BitmapScan s = (BitmapScan) scan;
+            tableName = s.getTableName();
+            alias = s.getAlias();
+            for (List<Predicate> clause : s.getClauses()) {
+                // a disjunction cannot be applied by a Filter
+                if (clause.size() > 1)
+                    return null;
+                filters.add(clause.get(0));
+            }
+        } else if (scan instanceof IndexScan) {
+            IndexScan s = (IndexScan) scan;
+            tableName = s.getTableName();
+            alias = s.getAlias();
+            IndexPredicate ipred = s.getIndexPredicate();
+            if (ipred != null)
+                filters.add(new Predicate(s.getIndex().getKeyField(), ipred.getOp(), ipred.getField()));
+        } else {
+            return null;
+        }
+
+        int tableid = Database.getCatalog().getTableId(tableName);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        IndexOpIterator inner;
+        if (file instanceof BTreeFile && ((BTreeFile) file).keyField() == p.getField2()) {
+            inner = new BTreeScan(tid, tableid, alias, null);
+        } else if (isHashKey(file, p.getField2(), p.getOperator())) {
+            inner = new HashScan(tid, tableid, alias, null);
+        } else if (scan instanceof IndexOnlyScan
+                && ((IndexOnlyScan) scan).getIndex().getKeyField() == p.getField2()) {
+            // the index covers the query, so the probes need not read the table either
+            inner = new IndexOnlyScan(tid, ((IndexOnlyScan) scan).getIndex(), alias, null);
+        } else {
+            SecondaryIndex index = getIndex(tableid, p.getField2());
+            if (index == null)
+                return null;
+            inner = new IndexScan(tid, index, alias, null);
+        }
+
+        OpIterator j = new IndexJoin(p, plan1, inner);
+        int offset = plan1.getTupleDesc().numFields();
+        for (Predicate f : filters)
+            j = new Filter(new Predicate(f.getField() + offset, f.getOp(), f.getOperand()), j);
+        return j;
+    }
+
+    /**
+     * Returns a secondary index of the table on the given field, or null if
+     * there is none.
+     */
+    private static SecondaryIndex getIndex(int tableid, int field) {
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableid)) {
+            if (index.getKeyField() == field)
+                return index;
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if file is a HashFile hashed on field, and so can be
+     * probed for the tuples joining on field with op.
+     */
+    private static boolean isHashKey(DbFile file, int field, Predicate.Op op) {
+        return file instanceof HashFile && ((HashFile) file).keyField() == field
+                && op == Predicate.Op.EQUALS;
+    }
+
+    /**
+     * Return true if the join can be done by probing an index on t2.f2 for
+     * each tuple of t1: t2 is a BTreeFile keyed on f2 or has a secondary
+     * index on f2, and the join predicate is one an index can answer, or
+     * t2 is a HashFile hashed on f2 and the join is an equi-join.
+     */
+    private boolean canProbe(LogicalJoinNode j) {
+        if (j instanceof LogicalSubplanJoinNode
+                || j.p == Predicate.Op.NOT_EQUALS || j.p == Predicate.Op.LIKE)
+            return false;
+        int tableid = p.getTableId(j.t2Alias);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        int field;
+        try {
+            field = file.getTupleDesc().fieldNameToIndex(j.f2PureName);
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+        return file instanceof BTreeFile && ((BTreeFile) file).keyField() == field
+                || isHashKey(file, field, j.p)
+                || getIndex(tableid, field) != null;
+    }
+
     /**
      * Estimate the cost of a join.
      * <p>
@@ -91,7 +231,34 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
                                    double cost1, double cost2) {
-        if (j instanceof LogicalSubplanJoinNode) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, TableStats.getStatsMap());
+    }
+
+    /**
+     * Estimate the cost of a join, as {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double)}
+     * does, with the given table stats.
+     * <p>
+     * An index nested loops join reads the outer relation once, and then
+     * probes the index on the inner join field once per outer tuple. A probe
+     * costs what {@link TableStats#estimateIndexScanCost} says reading the
+     * average fraction of t2 matching one value of t1.f1 costs, or
+     * {@link TableStats#estimateHashLookupCost} for a HashFile, plus one
+     * predicate application per tuple read.
+     *
+     * @param stats The table stats, referenced by table names, not alias
+     */
+    public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+                                   double cost1, double cost2, Map<String, TableStats> stats) {
+        if (j.indexed) {
+            int tableid = p.getTableId(j.t2Alias);
+            DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+            TableStats s = stats.get(Database.getCatalog().getTableName(tableid));
+            int field = file.getTupleDesc().fieldNameToIndex(j.f2PureName);
+            double sel = s.avgSelectivity(field, IndexJoin.getProbeOp(j.p));
+            double probeCost = isHashKey(file, field, j.p) ? s.estimateHashLookupCost(sel)
+                    : s.estimateIndexScanCost(field, sel, file instanceof BTreeFile);
+            return cost1 + card1 * (probeCost + sel * s.totalTuples());
+        } else if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
@@ -258,6 +425,8 @@ public class JoinOptimizer {
         // some code goes here
         //Replace the following
         int numTable = joins.size();
+        if (numTable == 0)
+            return joins; // a single table, nothing to order
         PlanCache pc = new PlanCache();
         for (int i = 1; i <= numTable; ++i) {
             Set<Set<LogicalJoinNode>> subsets = enumerateSubsets(joins, i);
@@ -333,6 +502,8 @@ public class JoinOptimizer {
         double t1cost, t2cost;
         int t1card, t2card;
         boolean leftPkey, rightPkey;
+        // whether each side is a base relation, which an index join can probe
+        boolean t1Base = true, t2Base = true;
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new Vector<LogicalJoinNode>();
@@ -367,6 +538,7 @@ public class JoinOptimizer {
                 // subtree is
                 t1card = bestCard;
                 leftPkey = hasPkey(prevBest);
+                t1Base = false;
 
                 t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
                         .estimateScanCost();
@@ -381,6 +553,7 @@ public class JoinOptimizer {
                 // subtree is
                 t2card = bestCard;
                 rightPkey = hasPkey(prevBest);
+                t2Base = false;
                 t1cost = stats.get(table1Name).estimateScanCost();
                 t1card = stats.get(table1Name).
                         estimateTableCardinality(filterSelectivities.get(j.t1Alias));
@@ -394,10 +567,26 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost, stats);
+        if (t2Base && canProbe(j)) {
+            LogicalJoinNode ij = j.asIndexJoin();
+            double indexCost = estimateJoinCost(ij, t1card, t2card, t1cost, t2cost, stats);
+            if (indexCost < cost1) {
+                j = ij;
+                cost1 = indexCost;
+            }
+        }
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost, stats);
+        if (t1Base && canProbe(j2)) {
+            LogicalJoinNode ij = j2.asIndexJoin();
+            double indexCost = estimateJoinCost(ij, t2card, t1card, t2cost, t1cost, stats);
+            if (indexCost < cost2) {
+                j2 = ij;
+                cost2 = indexCost;
+            }
+        }
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
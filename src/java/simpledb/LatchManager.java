@@ -0,0 +1,134 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * LatchManager hands out short-term reader/writer latches on pages. Unlike
+ * the locks of {@link LockManager}, a latch protects the physical contents of
+ * a page for the duration of a single access method operation, such as one
+ * descent of a B+ tree, and is never held until a transaction commits.
+ * <p>
+ * Latches are owned by threads, not transactions. Each thread remembers the
+ * latches it holds, so an operation can release all of them at once when it
+ * is done or fails. A thread that waits longer than the timeout for a latch
+ * gives up with a TransactionAbortedException: a latch holder may itself be
+ * waiting for a transactional lock held by the waiting transaction, and the
+ * lock manager cannot see that cycle.
+ *
+ * @see BTreeFile
+ */
+public class LatchManager {
+
+    /**
+     * Default number of milliseconds a thread waits for a latch before its
+     * transaction is aborted.
+     */
+    public static final long DEFAULT_TIMEOUT_MS = 1000;
+
+    private final ConcurrentHashMap<PageId, ReentrantReadWriteLock> latches;
+
+    // the latches held by each thread, mapped to whether they are exclusive
+    private final ThreadLocal<LinkedHashMap<PageId, Boolean>> held;
+
+    private volatile long timeoutMs;
+
+    public LatchManager() {
+        latches = new ConcurrentHashMap<>();
+        held = ThreadLocal.withInitial(LinkedHashMap::new);
+        timeoutMs = DEFAULT_TIMEOUT_MS;
+    }
+
+    /**
+     * Sets the number of milliseconds a thread waits for a latch before its
+     * transaction is aborted.
+     */
+    public void setTimeout(long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Latch a page in shared mode, for reading it. Does nothing if the
+     * calling thread already holds a latch on the page.
+     *
+     * @throws TransactionAbortedException if the latch is not granted in time
+     */
+    public void latchShared(PageId pid) throws TransactionAbortedException {
+        if (held.get().containsKey(pid))
+            return;
+        acquire(latchOf(pid).readLock(), pid, false);
+    }
+
+    /**
+     * Latch a page in exclusive mode, for changing it. Does nothing if the
+     * calling thread already holds an exclusive latch on the page; a shared
+     * latch cannot be upgraded.
+     *
+     * @throws TransactionAbortedException if the latch is not granted in time
+     */
+    public void latchExclusive(PageId pid) throws TransactionAbortedException {
+        Boolean exclusive = held.get().get(pid);
+        if (exclusive != null) {
+            if (!exclusive)
+                throw new IllegalStateException("cannot upgrade a shared latch on " + pid);
+            return;
+        }
+        acquire(latchOf(pid).writeLock(), pid, true);
+    }
+
+    private void acquire(Lock latch, PageId pid, boolean exclusive)
+            throws TransactionAbortedException {
+        try {
+            if (!latch.tryLock(timeoutMs, TimeUnit.MILLISECONDS))
+                throw new TransactionAbortedException();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
+        }
+        held.get().put(pid, exclusive);
+    }
+
+    private ReentrantReadWriteLock latchOf(PageId pid) {
+        return latches.computeIfAbsent(pid, k -> new ReentrantReadWriteLock());
+    }
+
+    /**
+     * Release the calling thread's latch on a page, if it holds one.
+     */
+    public void unlatch(PageId pid) {
+        Boolean exclusive = held.get().remove(pid);
+        if (exclusive == null)
+            return;
+        ReentrantReadWriteLock latch = latches.get(pid);
+        if (exclusive)
+            latch.writeLock().unlock();
+        else
+            latch.readLock().unlock();
+    }
+
+    /**
+     * Release every latch the calling thread holds.
+     */
+    public void unlatchAll() {
+        for (PageId pid : new ArrayList<>(held.get().keySet()))
+            unlatch(pid);
+    }
+
+    /**
+     * Return true if the calling thread holds a latch on the specified page.
+     */
+    public boolean holdsLatch(PageId pid) {
+        return held.get().containsKey(pid);
+    }
+
+    /**
+     * Return true if the calling thread holds any exclusive latch.
+     */
+    public boolean holdsExclusive() {
+        return held.get().containsValue(Boolean.TRUE);
+    }
+}
@@ -190,13 +190,19 @@ public class LockManager {
                         graph.removeVertex(tid);
                         throw new TransactionAbortedException();
                     }
-                    while (lock.holdNum != 0) {
+                    while (lock.holdNum != 0 && lockTotx.get(pid) == txSet) {
                         try {
                             this.wait();
                         } catch (InterruptedException e) {
 
                         }
                     }
+                    if (lockTotx.get(pid) != txSet) {
+                        /* every holder released the lock while we waited, start over */
+                        graph.removeVertex(tid);
+                        grantLock(tid, pid, perm);
+                        return;
+                    }
                 }
                 graph.removeVertex(tid);
                 lock.perm = perm;
@@ -278,7 +284,8 @@ public class LockManager {
                 hasWriter = true;
                 writerPage = pid;
                 /* try to get the write lock */
-                while (!(lock.holdNum == 0 || (lock.holdNum == 1 && holds))) {
+                while (!(lock.holdNum == 0 || (lock.holdNum == 1 && holds))
+                        && lockTotx.get(pid) == txSet) {
                     try {
                         this.wait();
                     } catch (InterruptedException e) {
@@ -287,8 +294,17 @@ public class LockManager {
                 }
                 hasWriter = false;
                 writerPage = null;
+                if (lockTotx.get(pid) != txSet) {
+                    /* every holder released the lock while we waited, start over */
+                    graph.removeVertex(tid);
+                    grantLock(tid, pid, perm);
+                    return;
+                }
                 graph.removeVertex(tid);
-                lock.holdNum++;
+                if (!holds) {
+                    /* an upgrading transaction is already counted */
+                    lock.holdNum++;
+                }
                 lock.perm = Permissions.READ_WRITE;
 
                 /* update map */
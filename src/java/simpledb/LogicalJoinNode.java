@@ -35,6 +35,12 @@ public class LogicalJoinNode {
      */
     public Predicate.Op p;
 
+    /**
+     * Whether the join probes an index on t2.f2 for each tuple of t1 rather
+     * than rescanning t2; chosen by the {@link JoinOptimizer}
+     */
+    public boolean indexed;
+
     public LogicalJoinNode() {
     }
 
@@ -78,6 +84,18 @@ public class LogicalJoinNode {
         return j2;
     }
 
+    /**
+     * Return a new LogicalJoinNode for the same join, done as an index
+     * nested loops join probing an index on t2.f2.
+     *
+     * @see IndexJoin
+     */
+    public LogicalJoinNode asIndexJoin() {
+        LogicalJoinNode j2 = new LogicalJoinNode(t1Alias, t2Alias, f1PureName, f2PureName, p);
+        j2.indexed = true;
+        return j2;
+    }
+
     @Override
     public boolean equals(Object o) {
         LogicalJoinNode j2 = (LogicalJoinNode) o;
@@ -3,9 +3,12 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.NoSuchElementException;
 
 /**
@@ -278,6 +281,45 @@ public class LogicalPlan {
 
     }
 
+    /**
+     * Find the fields of a scan that the query refers to anywhere, so that a
+     * columnar table reads only those columns.
+     *
+     * @param td the TupleDesc of the scan, with fields named tableAlias.fieldName
+     * @return the indices of the referenced fields, or null if the query
+     * selects all of them with *
+     */
+    private int[] referencedFields(TupleDesc td) {
+        HashSet<String> names = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*"))
+                return null;
+            names.add(si.fname);
+        }
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            names.add(lj.f2QuantifiedName);
+        }
+        if (aggField != null)
+            names.add(aggField);
+        if (groupByField != null)
+            names.add(groupByField);
+        if (oByField != null)
+            names.add(oByField);
+
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (names.contains(td.getFieldName(i)))
+                fields.add(i);
+        }
+        int[] result = new int[fields.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = fields.get(i);
+        return result;
+    }
+
     /**
      * Convert the aggregate operator name s into an Aggregator.op operation.
      *
@@ -293,6 +335,165 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    private static Field parseConstant(Type type, String c) {
+        if (type == Type.INT_TYPE)
+            return new IntField(Integer.parseInt(c));
+        else
+            return new StringField(c, Type.STRING_LEN);
+    }
+
+    /**
+     * Chooses how to read a table: with a SeqScan, or through a B+ tree with
+     * one of the filters on the table as an {@link IndexPredicate}. A tree can
+     * serve a filter if it is keyed on the filter's field, which is the case
+     * for a BTreeFile table and its keyField, and for any {@link SecondaryIndex}
+     * of a table on that field, and if the filter's op is a comparison the tree
+     * can answer by range, not <tt>&lt;&gt;</tt> or LIKE. A {@link HashFile}
+     * table is read with a {@link HashScan} for an equality filter on its key.
+     * <p>
+     * A table with {@link BitmapIndex}es may be read with a {@link BitmapScan}
+     * applying all the filters on the indexed fields, whatever their ops,
+     * costed with {@link TableStats#estimateBitmapScanCost} from the product
+     * of their selectivities.
+     * <p>
+     * A secondary index which covers the fields the query reads from the table
+     * is read with an {@link IndexOnlyScan}, which never touches the table; it
+     * is also a candidate without any filter, since its leaves may be fewer
+     * than the table's pages.
+     * <p>
+     * Every candidate is costed with {@link TableStats#estimateIndexScanCost}
+     * or {@link TableStats#estimateIndexOnlyScanCost} from the selectivity of
+     * its filter, and the cheapest is chosen if it is cheaper than
+     * {@link TableStats#estimateScanCost()}. The filters it applies are added
+     * to indexedFilters, so that no Filter is stacked on top for them.
+     *
+     * @param t              the transaction the scan will run as a part of
+     * @param table          the table to read
+     * @param s              the statistics of the table
+     * @param fields         the fields of the table the query reads, or null for all
+     * @param indexedFilters the filters applied by index scans
+     * @param explain        whether to print the choice and its cost
+     * @return the index scan to read the table with, or null if a SeqScan is cheaper
+     */
+    private OpIterator chooseIndexScan(TransactionId t, LogicalScanNode table, TableStats s, int[] fields,
+                                       HashSet<LogicalFilterNode> indexedFilters, boolean explain) {
+        DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+        TupleDesc td = file.getTupleDesc();
+        List<SecondaryIndex> indexes = Database.getCatalog().getIndexes(table.t);
+        double scanCost = s.estimateScanCost();
+        double bestCost = scanCost;
+        OpIterator best = null;
+        List<LogicalFilterNode> bestFilters = new ArrayList<LogicalFilterNode>();
+        String bestPath = "seq scan";
+
+        for (SecondaryIndex index : indexes) {
+            if (fields == null || !index.covers(fields))
+                continue;
+            double cost = s.estimateIndexOnlyScanCost(index, 1.0);
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = new IndexOnlyScan(t, index, table.alias, null);
+                bestFilters = new ArrayList<LogicalFilterNode>();
+                bestPath = "index only scan of " + index.getName();
+            }
+        }
+
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias)
+                    || lf.p == Predicate.Op.NOT_EQUALS || lf.p == Predicate.Op.LIKE)
+                continue;
+            int field;
+            Field constant;
+            try {
+                field = td.fieldNameToIndex(lf.fieldPureName);
+                constant = parseConstant(td.getFieldType(field), lf.c);
+            } catch (RuntimeException e) {
+                continue; // reported when the filter itself is planned
+            }
+            double sel = s.estimateSelectivity(field, lf.p, constant);
+            IndexPredicate ipred = new IndexPredicate(lf.p, constant);
+            String on = " on " + lf.fieldQuantifiedName + " " + lf.p + " " + lf.c;
+            if (file instanceof BTreeFile && ((BTreeFile) file).keyField() == field) {
+                double cost = s.estimateIndexScanCost(field, sel, true);
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    best = new BTreeScan(t, table.t, table.alias, ipred);
+                    bestFilters = Collections.singletonList(lf);
+                    bestPath = "index scan" + on;
+                }
+            }
+            if (file instanceof HashFile && ((HashFile) file).keyField() == field
+                    && lf.p == Predicate.Op.EQUALS) {
+                double cost = s.estimateHashLookupCost(sel);
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    best = new HashScan(t, table.t, table.alias, ipred);
+                    bestFilters = Collections.singletonList(lf);
+                    bestPath = "hash lookup" + on;
+                }
+            }
+            for (SecondaryIndex index : indexes) {
+                if (index.getKeyField() != field)
+                    continue;
+                boolean covering = fields != null && index.covers(fields);
+                double cost = covering ? s.estimateIndexOnlyScanCost(index, sel)
+                        : s.estimateIndexScanCost(field, sel, false);
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    best = covering ? new IndexOnlyScan(t, index, table.alias, ipred)
+                            : new IndexScan(t, index, table.alias, ipred);
+                    bestFilters = Collections.singletonList(lf);
+                    bestPath = (covering ? "index only scan of " : "index scan of ") + index.getName() + on;
+                }
+            }
+        }
+
+        // a bitmap scan applies the filters on every field with a bitmap index at once
+        List<List<Predicate>> clauses = new ArrayList<List<Predicate>>();
+        List<LogicalFilterNode> bitmapFilters = new ArrayList<LogicalFilterNode>();
+        double bitmapSel = 1.0;
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias))
+                continue;
+            int field;
+            Field constant;
+            try {
+                field = td.fieldNameToIndex(lf.fieldPureName);
+                constant = parseConstant(td.getFieldType(field), lf.c);
+            } catch (RuntimeException e) {
+                continue;
+            }
+            if (Database.getCatalog().getBitmapIndex(table.t, field) == null)
+                continue;
+            clauses.add(Collections.singletonList(new Predicate(field, lf.p, constant)));
+            bitmapFilters.add(lf);
+            bitmapSel *= s.estimateSelectivity(field, lf.p, constant);
+        }
+        if (!clauses.isEmpty()) {
+            double cost = s.estimateBitmapScanCost(bitmapSel);
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = new BitmapScan(t, table.t, table.alias, clauses);
+                bestFilters = bitmapFilters;
+                StringBuilder on = new StringBuilder();
+                for (LogicalFilterNode lf : bitmapFilters)
+                    on.append(on.length() == 0 ? " on " : " AND ")
+                            .append(lf.fieldQuantifiedName).append(" ").append(lf.p).append(" ").append(lf.c);
+                bestPath = "bitmap scan" + on;
+            }
+        }
+
+        if (explain) {
+            if (best == null)
+                System.out.printf("Access path for %s: seq scan, cost %.1f%n", table.alias, scanCost);
+            else
+                System.out.printf("Access path for %s: %s, cost %.1f (seq scan %.1f)%n",
+                        table.alias, bestPath, bestCost, scanCost);
+        }
+        indexedFilters.addAll(bestFilters);
+        return best;
+    }
+
     /**
      * Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      * find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
@@ -314,6 +515,8 @@ public class LogicalPlan {
         HashMap<String, String> equivMap = new HashMap<String, String>();
         HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String, TableStats> statsMap = new HashMap<String, TableStats>();
+        HashSet<LogicalFilterNode> indexedFilters = new HashSet<LogicalFilterNode>();
+        HashMap<String, SeqScan> seqScans = new HashMap<String, SeqScan>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -324,11 +527,22 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table " + table.t);
             }
 
+            int[] fields = referencedFields(ss.getTupleDesc());
+            ss.setProjection(fields);
             subplanMap.put(table.alias, ss);
+            seqScans.put(table.alias, ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
 
+            TableStats s = baseTableStats.get(baseTableName);
+            if (s != null) {
+                OpIterator indexScan = chooseIndexScan(t, table, s, fields, indexedFilters, explain);
+                if (indexScan != null) {
+                    subplanMap.put(table.alias, indexScan);
+                    seqScans.remove(table.alias);
+                }
+            }
         }
 
         Iterator<LogicalFilterNode> filterIt = filters.iterator();
@@ -348,10 +562,7 @@ public class LogicalPlan {
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(Integer.parseInt(lf.c));
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            f = parseConstant(ftyp, lf.c);
 
             Predicate p = null;
             try {
@@ -359,7 +570,13 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            // the index scan of the table already applies this filter
+            if (!indexedFilters.contains(lf)) {
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+                // let the scan under the filter skip pages its zone map rules out
+                if (seqScans.containsKey(lf.tableAlias))
+                    seqScans.get(lf.tableAlias).addPredicate(p);
+            }
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
@@ -408,7 +625,7 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
 
             OpIterator j;
-            j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+            j = JoinOptimizer.instantiateJoin(t, lj, plan1, plan2);
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
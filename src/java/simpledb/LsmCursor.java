@@ -0,0 +1,38 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * A position in a sorted source of {@link LsmEntry}s: a memtable, a run, or
+ * a merge of them.
+ */
+abstract class LsmCursor {
+
+    /**
+     * Returns the entry at the position, or null past the last entry.
+     */
+    abstract LsmEntry peek();
+
+    /**
+     * Moves to the next entry.
+     */
+    abstract void advance() throws IOException;
+
+    /**
+     * Returns a cursor over the entries of an iterator.
+     */
+    static LsmCursor of(Iterator<LsmEntry> it) {
+        return new LsmCursor() {
+            private LsmEntry current = it.hasNext() ? it.next() : null;
+
+            LsmEntry peek() {
+                return current;
+            }
+
+            void advance() {
+                current = it.hasNext() ? it.next() : null;
+            }
+        };
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+
+/**
+ * An entry of an {@link LsmFile}: an inserted tuple, or a tombstone that
+ * deletes the tuple with the same sequence number. Entries are ordered by
+ * key, then by sequence number, with a tombstone before the tuple it
+ * deletes.
+ */
+class LsmEntry {
+
+    static final Comparator<LsmEntry> ORDER = (a, b) -> {
+        if (!a.key.equals(b.key))
+            return a.key.compare(Predicate.Op.LESS_THAN, b.key) ? -1 : 1;
+        if (a.seq != b.seq)
+            return Long.compare(a.seq, b.seq);
+        return Boolean.compare(b.tombstone, a.tombstone);
+    };
+
+    final Tuple tuple;
+    final Field key;
+    final long seq;
+    final boolean tombstone;
+
+    /**
+     * @param tuple     the tuple inserted or deleted; only its key is needed
+     *                  for a tombstone or a search key
+     * @param key       the key of the tuple
+     * @param seq       the sequence number of the tuple
+     * @param tombstone whether the entry deletes the tuple
+     */
+    LsmEntry(Tuple tuple, Field key, long seq, boolean tombstone) {
+        this.tuple = tuple;
+        this.key = key;
+        this.seq = seq;
+        this.tombstone = tombstone;
+    }
+
+    /**
+     * Returns the size of a serialized entry of tuples with the given descriptor.
+     */
+    static int getSize(TupleDesc td) {
+        return 1 + 8 + td.getSize();
+    }
+
+    /**
+     * Writes the entry: a tombstone flag, the sequence number and the fields.
+     */
+    void serialize(DataOutputStream dos) throws IOException {
+        dos.writeByte(tombstone ? 1 : 0);
+        dos.writeLong(seq);
+        for (int i = 0; i < tuple.getTupleDesc().numFields(); ++i)
+            tuple.getField(i).serialize(dos);
+    }
+
+    /**
+     * Reads the entry serialized at the given offset of buf. The tuple gets
+     * the RecordId of its sequence number in the given table.
+     */
+    static LsmEntry parse(ByteBuffer buf, int offset, TupleDesc td, int keyField, int tableid) {
+        boolean tombstone = buf.get(offset) != 0;
+        long seq = buf.getLong(offset + 1);
+        Tuple t = new Tuple(td);
+        int pos = offset + 9;
+        for (int i = 0; i < td.numFields(); ++i) {
+            t.setField(i, td.getFieldType(i).parse(buf, pos));
+            pos += td.getFieldType(i).getLen();
+        }
+        t.setRecordId(LsmPageId.recordId(tableid, seq));
+        return new LsmEntry(t, t.getField(keyField), seq, tombstone);
+    }
+}
+
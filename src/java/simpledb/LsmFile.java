@@ -0,0 +1,723 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LsmFile is an implementation of a DbFile as a log-structured merge tree,
+ * for tables that take mostly inserts. Where a {@link BTreeFile} writes each
+ * insert into the leaf page of its key, an LsmFile only ever appends:
+ * <ul>
+ * <li>A committed insert or delete is appended to a write-ahead log and
+ * added to the memtable, a sorted set in memory.</li>
+ * <li>A full memtable is frozen and, in the background, written out in key
+ * order as an immutable sorted {@link LsmRun}, after which its log is
+ * dropped.</li>
+ * <li>Once there are {@link #DEFAULT_MAX_RUNS} runs, they are merged in the
+ * background into a single run.</li>
+ * </ul>
+ * A delete writes a tombstone, an entry with the sequence number of the
+ * deleted tuple that hides it until a compaction drops them both. A scan
+ * merges the memtables and runs in key order, and a point lookup skips the
+ * runs whose {@link BloomFilter} rules its key out.
+ * <p>
+ * The inserts and deletes of a transaction are kept aside, visible only to
+ * the transaction itself, until {@link BufferPool#transactionComplete}
+ * commits them to the memtable or drops them. Writers are isolated from
+ * each other: a delete takes an exclusive lock on the {@link LsmPageId} of
+ * its tuple through the BufferPool, held until the transaction completes,
+ * and aborts the transaction if another one has deleted the tuple since it
+ * was read. Inserts need no lock, as each tuple gets a new sequence number.
+ * Readers, however, take no locks and are not serializable, unlike readers
+ * of the page-based files: a scan sees the tuples committed when it opens,
+ * so rereading a table within a transaction may show tuples that other
+ * transactions inserted or deleted in the meantime.
+ * <p>
+ * The file given to the constructor is the manifest, which lists the live
+ * runs; the runs and logs are stored next to it with ".run&lt;n&gt;" and
+ * ".wal&lt;n&gt;" suffixes.
+ *
+ * @see LsmRun
+ */
+public class LsmFile implements DbFile {
+
+    /**
+     * The default number of entries a memtable holds before it is flushed
+     */
+    public static final int DEFAULT_MEMTABLE_ENTRIES = 10000;
+
+    /**
+     * The default number of runs that triggers a compaction
+     */
+    public static final int DEFAULT_MAX_RUNS = 4;
+
+    /**
+     * Flushes and compacts the runs of every LsmFile in the background
+     */
+    private static final ExecutorService maintenance = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "simpledb-lsm-maintenance");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * A memtable and the log of the entries it holds. The memtable is
+     * numbered like the runs, and flushed into the run of its number.
+     */
+    private static class Memtable {
+        final int number;
+        final File walFile;
+        final DbFileChannel wal;
+        final NavigableSet<LsmEntry> entries = new ConcurrentSkipListSet<>(LsmEntry.ORDER);
+        int size = 0;
+
+        Memtable(int number, File walFile) {
+            this.number = number;
+            this.walFile = walFile;
+            this.wal = new DbFileChannel(walFile);
+        }
+    }
+
+    private final File f;
+    private final TupleDesc td;
+    private final int tableid;
+    private final int keyField;
+    private final int entrySize;
+    private final AtomicLong nextSeq;
+    private final Map<TransactionId, List<LsmEntry>> pending = new ConcurrentHashMap<>();
+    private final Object maintenanceLock = new Object();
+    private volatile int memtableEntries = DEFAULT_MEMTABLE_ENTRIES;
+    private volatile int maxRuns = DEFAULT_MAX_RUNS;
+    /* why the last background flush or compaction failed, until one succeeds */
+    private volatile IOException maintenanceFailure = null;
+
+    // guarded by this
+    private Memtable memtable;
+    private final List<Memtable> frozen = new ArrayList<>();
+    private List<LsmRun> runs = new ArrayList<>();
+    private int nextNumber = 0;
+
+    /**
+     * Opens the LSM tree whose manifest is f, creating it if f is missing or
+     * empty. Tuples committed but not yet flushed when the file was last
+     * used are recovered from the logs and flushed into a new run.
+     *
+     * @param f   the manifest of the tree
+     * @param key the field the tuples are sorted on
+     * @param td  the tuple descriptor of tuples in the file
+     */
+    public LsmFile(File f, int key, TupleDesc td) throws IOException {
+        this.f = f;
+        this.tableid = f.getAbsoluteFile().hashCode();
+        this.keyField = key;
+        this.td = td;
+        this.entrySize = LsmEntry.getSize(td);
+
+        long maxSeq = -1;
+        Set<Integer> live = new HashSet<>();
+        if (f.length() > 0) {
+            try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+                nextNumber = dis.readInt();
+                int numRuns = dis.readInt();
+                for (int i = 0; i < numRuns; ++i) {
+                    int number = dis.readInt();
+                    LsmRun run = new LsmRun(runFile(number), td, keyField, tableid);
+                    runs.add(run);
+                    live.add(number);
+                    maxSeq = Math.max(maxSeq, run.getMaxSeq());
+                }
+            }
+        }
+
+        // replay the logs of the memtables that were not flushed
+        String prefix = f.getName() + ".wal";
+        File[] logs = f.getAbsoluteFile().getParentFile().listFiles(
+                (dir, name) -> name.startsWith(prefix) && name.substring(prefix.length()).matches("\\d+"));
+        NavigableSet<LsmEntry> recovered = null;
+        if (logs != null && logs.length > 0) {
+            Arrays.sort(logs, Comparator.comparingInt(log -> Integer.parseInt(log.getName().substring(prefix.length()))));
+            recovered = new TreeSet<>(LsmEntry.ORDER);
+            for (File log : logs) {
+                int number = Integer.parseInt(log.getName().substring(prefix.length()));
+                nextNumber = Math.max(nextNumber, number + 1);
+                if (!live.contains(number))
+                    maxSeq = Math.max(maxSeq, replay(log, recovered));
+            }
+        }
+        this.nextSeq = new AtomicLong(maxSeq + 1);
+        if (recovered != null) {
+            if (!recovered.isEmpty()) {
+                int number = nextNumber++;
+                runs.add(LsmRun.write(runFile(number), LsmCursor.of(recovered.iterator()),
+                        recovered.size(), -1, td, keyField, tableid));
+            }
+            writeManifest();
+            for (File log : logs)
+                log.delete();
+        }
+        this.memtable = new Memtable(nextNumber, walFile(nextNumber));
+        nextNumber++;
+    }
+
+    /**
+     * Adds the entries of the commit records of a log to a set. A record cut
+     * short by a crash was never committed, and ends the replay.
+     *
+     * @return the largest sequence number in the log, or -1 if there is none
+     */
+    private long replay(File log, NavigableSet<LsmEntry> entries) throws IOException {
+        long maxSeq = -1;
+        byte[] data = Files.readAllBytes(log.toPath());
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int pos = 0;
+        while (pos + 4 <= data.length) {
+            int n = buf.getInt(pos);
+            if (n < 0 || pos + 4 + (long) n * entrySize > data.length)
+                break;
+            pos += 4;
+            for (int i = 0; i < n; ++i, pos += entrySize) {
+                LsmEntry e = LsmEntry.parse(buf, pos, td, keyField, tableid);
+                entries.add(e);
+                maxSeq = Math.max(maxSeq, e.seq);
+            }
+        }
+        return maxSeq;
+    }
+
+    private File runFile(int number) {
+        return new File(f.getPath() + ".run" + number);
+    }
+
+    private File walFile(int number) {
+        return new File(f.getPath() + ".wal" + number);
+    }
+
+    /**
+     * Replaces the manifest with the current list of runs. The new manifest
+     * is written aside and renamed over the old one, so a crash leaves one
+     * or the other.
+     */
+    private synchronized void writeManifest() throws IOException {
+        File tmp = new File(f.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos))) {
+            dos.writeInt(nextNumber);
+            dos.writeInt(runs.size());
+            for (LsmRun run : runs)
+                dos.writeInt(Integer.parseInt(run.getFile().getName().substring(f.getName().length() + ".run".length())));
+            dos.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the manifest of this LsmFile.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this LsmFile: the hash code of the
+     * absolute path of its manifest.
+     *
+     * @return an ID uniquely identifying this LsmFile.
+     */
+    public int getId() {
+        return tableid;
+    }
+
+    /**
+     * Returns the TupleDesc of the table stored in this DbFile.
+     *
+     * @return TupleDesc of this DbFile.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public synchronized void close() {
+        memtable.wal.close();
+        for (Memtable m : frozen)
+            m.wal.close();
+        for (LsmRun run : runs)
+            run.close();
+    }
+
+    /**
+     * Returns the index of the field that this LsmFile is sorted on
+     */
+    public int keyField() {
+        return keyField;
+    }
+
+    /**
+     * Sets the number of entries a memtable holds before it is flushed.
+     */
+    public void setMemtableEntries(int entries) {
+        this.memtableEntries = entries;
+    }
+
+    /**
+     * Sets the number of runs that triggers a compaction.
+     */
+    public void setMaxRuns(int runs) {
+        this.maxRuns = runs;
+    }
+
+    /**
+     * Returns the number of live runs.
+     */
+    public synchronized int numRuns() {
+        return runs.size();
+    }
+
+    /**
+     * Returns the page the BufferPool caches, and transactions lock, for a
+     * range of tuples of this file.
+     *
+     * @throws IllegalArgumentException if pid is not an LsmPageId of this file
+     * @see LsmPage
+     */
+    public Page readPage(PageId pid) {
+        if (!(pid instanceof LsmPageId) || pid.getTableId() != tableid)
+            throw new IllegalArgumentException("not a page of this LsmFile: " + pid);
+        return new LsmPage((LsmPageId) pid);
+    }
+
+    /**
+     * Does nothing: an LsmPage holds no data, and the tuples of this file are
+     * written through its log when their transaction commits.
+     */
+    public void writePage(Page page) throws IOException {
+    }
+
+    /**
+     * Inserts a tuple on behalf of a transaction. The tuple is given the next
+     * sequence number and kept aside until the transaction completes.
+     *
+     * @return an empty list, as no page is modified
+     * @throws DbException if the tuple does not match the file
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("tupledesc doesn't match");
+        long seq = nextSeq.getAndIncrement();
+        Tuple copy = new Tuple(td);
+        for (int i = 0; i < td.numFields(); ++i)
+            copy.setField(i, t.getField(i));
+        copy.setRecordId(LsmPageId.recordId(tableid, seq));
+        t.setRecordId(copy.getRecordId());
+        Database.getBufferPool().addLsmWriter(tid, this);
+        pending.computeIfAbsent(tid, k -> new ArrayList<>()).add(new LsmEntry(copy, copy.getField(keyField), seq, false));
+        return new ArrayList<>();
+    }
+
+    /**
+     * Deletes a tuple on behalf of a transaction by adding a tombstone for
+     * its sequence number; a tuple the transaction inserted itself is simply
+     * forgotten. Deleting a committed tuple locks the LsmPageId of its
+     * RecordId with READ_WRITE permission, and fails if the tuple has been
+     * deleted since the transaction read it.
+     *
+     * @return an empty list, as no page is modified
+     * @throws DbException if the tuple is not a member of the file, or the
+     *                     transaction has already deleted it
+     * @throws TransactionAbortedException if another transaction has deleted
+     *                                     the tuple, or on a deadlock
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof LsmPageId) || rid.getPageId().getTableId() != tableid)
+            throw new DbException("tuple is not a member of the file");
+        long seq = LsmPageId.sequence(rid);
+        Database.getBufferPool().addLsmWriter(tid, this);
+        List<LsmEntry> mine = pending.computeIfAbsent(tid, k -> new ArrayList<>());
+        if (mine.removeIf(e -> !e.tombstone && e.seq == seq))
+            return new ArrayList<>();
+        for (LsmEntry e : mine) {
+            if (e.tombstone && e.seq == seq)
+                throw new DbException("tuple " + rid + " is already deleted");
+        }
+        Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+        // a concurrent delete that committed first wins
+        if (!isCommitted(t.getField(keyField), seq))
+            throw new TransactionAbortedException();
+        mine.add(new LsmEntry(t, t.getField(keyField), seq, true));
+        return new ArrayList<>();
+    }
+
+    /**
+     * Returns whether the tuple with the given key and sequence number is
+     * committed and not deleted by a committed tombstone.
+     */
+    private boolean isCommitted(Field key, long seq) throws IOException {
+        List<LsmRun> acquired = new ArrayList<>();
+        try {
+            LsmMerge merge = new LsmMerge(cursors(null, new IndexPredicate(Predicate.Op.EQUALS, key), acquired));
+            for (LsmEntry e = merge.peek(); e != null && e.key.equals(key); merge.advance(), e = merge.peek()) {
+                if (e.seq == seq)
+                    return true;
+            }
+            return false;
+        } finally {
+            for (LsmRun run : acquired)
+                run.release();
+        }
+    }
+
+    /**
+     * Commits or drops the inserts and deletes of a transaction; the
+     * BufferPool calls it for every LsmFile the transaction wrote to. A commit
+     * appends them to the log of the memtable as one record, forces the log,
+     * and adds them to the memtable; a full memtable is frozen and flushed in
+     * the background. If the last background flush or compaction failed, the
+     * commit schedules it again.
+     *
+     * @param tid    the transaction that completed
+     * @param commit whether it committed
+     */
+    public void transactionComplete(TransactionId tid, boolean commit) throws IOException {
+        List<LsmEntry> entries = pending.remove(tid);
+        if (!commit || entries == null || entries.isEmpty())
+            return;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(4 + entries.size() * entrySize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(entries.size());
+        for (LsmEntry e : entries)
+            e.serialize(dos);
+
+        boolean full;
+        synchronized (this) {
+            memtable.wal.append(baos.toByteArray());
+            memtable.wal.force();
+            for (LsmEntry e : entries) {
+                if (memtable.entries.add(e))
+                    memtable.size++;
+            }
+            full = memtable.size >= memtableEntries;
+            if (full)
+                freeze();
+        }
+        if (full || maintenanceFailure != null)
+            maintenance.execute(this::maintain);
+    }
+
+    /**
+     * Freezes the memtable and starts a new one.
+     */
+    private synchronized void freeze() {
+        frozen.add(memtable);
+        memtable = new Memtable(nextNumber, walFile(nextNumber));
+        nextNumber++;
+    }
+
+    /**
+     * Flushes the frozen memtables and compacts the runs if there are too
+     * many; the background task run after a memtable is frozen. A failure is
+     * recorded, and the work is tried again by the next commit or by
+     * {@link #flush()}; meanwhile the frozen memtables stay readable and
+     * their logs are kept.
+     */
+    private void maintain() {
+        try {
+            synchronized (maintenanceLock) {
+                flushFrozen();
+                if (numRuns() >= maxRuns)
+                    compact();
+                maintenanceFailure = null;
+            }
+        } catch (IOException e) {
+            maintenanceFailure = e;
+        }
+    }
+
+    /**
+     * Returns why the last background flush or compaction failed, or null if
+     * none has failed since one last succeeded.
+     */
+    public IOException getMaintenanceFailure() {
+        return maintenanceFailure;
+    }
+
+    /**
+     * Freezes the memtable, if it holds anything, and flushes every frozen
+     * memtable into a run; if a background compaction failed, it is done
+     * again too.
+     *
+     * @throws IOException if the flush, or the compaction, fails again
+     */
+    public void flush() throws IOException {
+        synchronized (maintenanceLock) {
+            synchronized (this) {
+                if (memtable.size > 0)
+                    freeze();
+            }
+            flushFrozen();
+            if (maintenanceFailure != null && numRuns() >= maxRuns)
+                compact();
+            maintenanceFailure = null;
+        }
+    }
+
+    /**
+     * Writes each frozen memtable, oldest first, into the run of its number,
+     * and drops its log once the run is in the manifest.
+     */
+    private void flushFrozen() throws IOException {
+        while (true) {
+            Memtable m;
+            synchronized (this) {
+                if (frozen.isEmpty())
+                    return;
+                m = frozen.get(0);
+            }
+            LsmRun run = LsmRun.write(runFile(m.number), LsmCursor.of(m.entries.iterator()), m.size, -1,
+                    td, keyField, tableid);
+            synchronized (this) {
+                List<LsmRun> newRuns = new ArrayList<>(runs);
+                newRuns.add(run);
+                runs = newRuns;
+                frozen.remove(0);
+                writeManifest();
+            }
+            m.wal.close();
+            m.walFile.delete();
+        }
+    }
+
+    /**
+     * Merges every run into a single run. The merge drops the tombstones and
+     * the tuples they delete: a tombstone is committed after the tuple it
+     * deletes, so that tuple is in the same run or an older one.
+     */
+    public void compact() throws IOException {
+        synchronized (maintenanceLock) {
+            List<LsmRun> inputs;
+            int number;
+            synchronized (this) {
+                inputs = runs;
+                if (inputs.size() < 2)
+                    return;
+                number = nextNumber++;
+            }
+            List<LsmCursor> cursors = new ArrayList<>();
+            long total = 0;
+            long maxSeq = -1;
+            for (LsmRun run : inputs) {
+                cursors.add(run.cursor(0));
+                total += run.numEntries();
+                maxSeq = Math.max(maxSeq, run.getMaxSeq());
+            }
+            LsmRun merged = LsmRun.write(runFile(number), new LsmMerge(cursors), total, maxSeq,
+                    td, keyField, tableid);
+            synchronized (this) {
+                runs = new ArrayList<>(Collections.singletonList(merged));
+                writeManifest();
+            }
+            for (LsmRun run : inputs)
+                run.release();
+        }
+    }
+
+    /**
+     * Returns cursors over the entries a transaction can see with a key that
+     * may satisfy ipred: those of the memtables, of its own uncommitted writes
+     * and of the runs, each positioned at the first key the predicate allows.
+     * A null tid sees only committed entries. The runs read are acquired and
+     * added to acquired.
+     */
+    synchronized List<LsmCursor> cursors(TransactionId tid, IndexPredicate ipred, List<LsmRun> acquired)
+            throws IOException {
+        Field from = null;
+        boolean inclusive = true;
+        if (ipred != null) {
+            switch (ipred.getOp()) {
+                case EQUALS:
+                case GREATER_THAN_OR_EQ:
+                    from = ipred.getField();
+                    break;
+                case GREATER_THAN:
+                    from = ipred.getField();
+                    inclusive = false;
+                    break;
+                default:
+                    break;
+            }
+        }
+        // a search key before every entry with the key, or after all of them
+        LsmEntry start = from == null ? null : new LsmEntry(null, from, inclusive ? Long.MIN_VALUE : Long.MAX_VALUE, false);
+
+        List<LsmCursor> cursors = new ArrayList<>();
+        List<NavigableSet<LsmEntry>> sets = new ArrayList<>();
+        sets.add(memtable.entries);
+        for (Memtable m : frozen)
+            sets.add(m.entries);
+        List<LsmEntry> mine = tid == null ? null : pending.get(tid);
+        if (mine != null && !mine.isEmpty()) {
+            NavigableSet<LsmEntry> own = new TreeSet<>(LsmEntry.ORDER);
+            own.addAll(mine);
+            sets.add(own);
+        }
+        for (NavigableSet<LsmEntry> set : sets)
+            cursors.add(LsmCursor.of((start == null ? set : set.tailSet(start, true)).iterator()));
+
+        for (LsmRun run : runs) {
+            if (ipred != null && ipred.getOp() == Predicate.Op.EQUALS && !run.mightContain(ipred.getField()))
+                continue;
+            run.acquire();
+            acquired.add(run);
+            cursors.add(run.cursor(run.lowerBound(from, inclusive)));
+        }
+        return cursors;
+    }
+
+    /**
+     * Returns an iterator over all the tuples in this file, in key order.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new LsmFileIterator(this, tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key satisfies ipred, in key
+     * order. Range predicates start reading each run at the first key they
+     * allow, and an equality lookup reads only the runs whose Bloom filter
+     * may hold the key.
+     *
+     * @param tid   - the transaction id
+     * @param ipred - the predicate on the key to match
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        return new LsmFileIterator(this, tid, ipred);
+    }
+
+}
+
+/**
+ * A cursor over the merge of several cursors that returns only the live
+ * tuples: of the entries with the same sequence number, which are adjacent
+ * and come from different sources, only the first is considered, and a
+ * tombstone hides the tuple it deletes.
+ */
+class LsmMerge extends LsmCursor {
+
+    private final PriorityQueue<LsmCursor> queue;
+    private LsmEntry current;
+    private LsmEntry last;
+
+    LsmMerge(List<LsmCursor> cursors) throws IOException {
+        queue = new PriorityQueue<>(Math.max(1, cursors.size()), (a, b) -> LsmEntry.ORDER.compare(a.peek(), b.peek()));
+        for (LsmCursor c : cursors) {
+            if (c.peek() != null)
+                queue.add(c);
+        }
+        advance();
+    }
+
+    LsmEntry peek() {
+        return current;
+    }
+
+    void advance() throws IOException {
+        current = null;
+        while (!queue.isEmpty()) {
+            LsmCursor c = queue.poll();
+            LsmEntry e = c.peek();
+            c.advance();
+            if (c.peek() != null)
+                queue.add(c);
+            if (last != null && last.seq == e.seq)
+                continue;
+            last = e;
+            if (!e.tombstone) {
+                current = e;
+                return;
+            }
+        }
+    }
+}
+
+/**
+ * Helper class that implements the Java Iterator for tuples on an LsmFile:
+ * a merge of its memtables and runs, optionally restricted to the keys that
+ * satisfy a predicate.
+ */
+class LsmFileIterator extends AbstractDbFileIterator {
+
+    private final LsmFile f;
+    private final TransactionId tid;
+    private final IndexPredicate ipred;
+    private final List<LsmRun> acquired = new ArrayList<>();
+    private LsmMerge merge;
+
+    /**
+     * Constructor for this iterator
+     *
+     * @param f     - the LsmFile containing the tuples
+     * @param tid   - the transaction id
+     * @param ipred - the predicate on the key to match, or null to return every tuple
+     */
+    public LsmFileIterator(LsmFile f, TransactionId tid, IndexPredicate ipred) {
+        this.f = f;
+        this.tid = tid;
+        this.ipred = ipred;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        try {
+            merge = new LsmMerge(f.cursors(tid, ipred, acquired));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        if (merge == null)
+            return null;
+        try {
+            for (LsmEntry e = merge.peek(); e != null; e = merge.peek()) {
+                merge.advance();
+                if (ipred == null || e.key.compare(ipred.getOp(), ipred.getField()))
+                    return e.tuple;
+                switch (ipred.getOp()) {
+                    case EQUALS:
+                    case LESS_THAN:
+                    case LESS_THAN_OR_EQ:
+                        // the keys only grow from here
+                        return null;
+                    default:
+                        break;
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        super.close();
+        merge = null;
+        for (LsmRun run : acquired)
+            run.release();
+        acquired.clear();
+    }
+}
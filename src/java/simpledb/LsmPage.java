@@ -0,0 +1,59 @@
+package simpledb;
+
+/**
+ * LsmPage is the page the BufferPool caches for an {@link LsmPageId}. An
+ * LsmFile keeps its tuples in memtables and sorted runs rather than in
+ * pages, so an LsmPage holds no data: it stands for the range of tuples
+ * whose RecordIds name its id, so that transactions lock them through the
+ * BufferPool like the tuples of any other file.
+ *
+ * @see LsmFile#deleteTuple(TransactionId, Tuple)
+ */
+public class LsmPage implements Page {
+
+    private volatile boolean dirty = false;
+    private volatile TransactionId dirtier = null;
+
+    private final LsmPageId pid;
+
+    /**
+     * Create the page with the given id.
+     *
+     * @param id the id of this page
+     */
+    public LsmPage(LsmPageId id) {
+        this.pid = id;
+    }
+
+    public LsmPageId getId() {
+        return pid;
+    }
+
+    /**
+     * An LsmPage has no data.
+     *
+     * @return an empty array
+     */
+    public byte[] getPageData() {
+        return new byte[0];
+    }
+
+    public LsmPage getBeforeImage() {
+        return new LsmPage(pid);
+    }
+
+    public void setBeforeImage() {
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty) this.dirtier = tid;
+    }
+
+    public TransactionId isDirty() {
+        if (this.dirty)
+            return this.dirtier;
+        else
+            return null;
+    }
+}
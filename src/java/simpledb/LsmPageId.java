@@ -0,0 +1,100 @@
+package simpledb;
+
+/**
+ * Page id that appears in the RecordIds of the tuples of an {@link LsmFile}.
+ * An LsmFile has no pages: its tuples move between the memtable and sorted
+ * runs, and are identified instead by the sequence number they were given
+ * when inserted. The tuples with sequence numbers p * TUPLES_PER_PAGE to
+ * (p + 1) * TUPLES_PER_PAGE - 1 share page number p, and the RecordId of a
+ * tuple holds the rest of its sequence number as the tuple number. A
+ * transaction locks the page of a tuple to delete it.
+ *
+ * @see LsmPage
+ */
+public class LsmPageId implements PageId {
+
+    /**
+     * The number of sequence numbers that share a page number
+     */
+    public static final int TUPLES_PER_PAGE = 1024;
+
+    private final int tableId;
+    private final int pgNo;
+
+    /**
+     * Constructor.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo    The page number of a range of sequence numbers
+     */
+    public LsmPageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+    }
+
+    /**
+     * Returns the RecordId of the tuple with the given sequence number in
+     * the given table.
+     */
+    public static RecordId recordId(int tableId, long seq) {
+        return new RecordId(new LsmPageId(tableId, (int) (seq / TUPLES_PER_PAGE)), (int) (seq % TUPLES_PER_PAGE));
+    }
+
+    /**
+     * Returns the sequence number of the tuple with the given RecordId.
+     */
+    public static long sequence(RecordId rid) {
+        return (long) rid.getPageId().getPageNumber() * TUPLES_PER_PAGE + rid.getTupleNumber();
+    }
+
+    /**
+     * @return the table associated with this PageId
+     */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number of the range of sequence numbers of the
+     * tuples with this PageId
+     */
+    public int getPageNumber() {
+        return pgNo;
+    }
+
+    /**
+     * @return a hash code for this page, represented by the concatenation of
+     * the table number and the page number
+     */
+    public int hashCode() {
+        return 31 * tableId + pgNo;
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., page numbers and table
+     * ids are the same)
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof LsmPageId))
+            return false;
+        LsmPageId p = (LsmPageId) o;
+        return tableId == p.tableId && pgNo == p.pgNo;
+    }
+
+    /**
+     * Return a representation of this object as an array of
+     * integers, for writing to disk.  Size of returned array must contain
+     * number of integers that corresponds to number of args to one of the
+     * constructors.
+     */
+    public int[] serialize() {
+        return new int[]{tableId, pgNo};
+    }
+
+    public String toString() {
+        return "LsmPageId(" + tableId + ", " + pgNo + ")";
+    }
+}
@@ -0,0 +1,222 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * LsmRun is an immutable sorted run of an {@link LsmFile}: a file of entries
+ * sorted by key and sequence number, written once, sequentially, when a
+ * memtable is flushed or runs are compacted, and deleted when it is
+ * compacted away.
+ * <p>
+ * Entries have a fixed size, so a key is found by binary search over the
+ * entry number. They are followed by a {@link BloomFilter} of the keys of
+ * the run, which lets a point lookup skip the runs that do not hold its key,
+ * and a trailer of the number of entries, the largest sequence number and
+ * the size of the filter.
+ * <p>
+ * A run is reference counted: the LsmFile holds a reference while the run
+ * is live and every open scan holds one while it reads the run, and the file
+ * is deleted when the last reference is released.
+ */
+public class LsmRun {
+
+    private static final int TRAILER_BYTES = 20;
+    private static final int BLOCK_BYTES = 1 << 16;
+
+    private final File f;
+    private final DbFileChannel channel;
+    private final TupleDesc td;
+    private final int keyField;
+    private final int tableid;
+    private final int entrySize;
+    private final long count;
+    private final long maxSeq;
+    private final BloomFilter bloom;
+    private int refs = 1;
+
+    /**
+     * Opens the run stored in f.
+     *
+     * @param f        the file of the run
+     * @param td       the tuple descriptor of the tuples in the run
+     * @param keyField the field the run is sorted on
+     * @param tableid  the id of the LsmFile the run belongs to
+     * @throws IOException if the file is not a complete run
+     */
+    public LsmRun(File f, TupleDesc td, int keyField, int tableid) throws IOException {
+        this.f = f;
+        this.channel = new DbFileChannel(f);
+        this.td = td;
+        this.keyField = keyField;
+        this.tableid = tableid;
+        this.entrySize = LsmEntry.getSize(td);
+        long size = channel.size();
+        if (size < TRAILER_BYTES)
+            throw new IOException("incomplete run " + f);
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+        channel.read(trailer, size - TRAILER_BYTES);
+        this.count = trailer.getLong(0);
+        this.maxSeq = trailer.getLong(8);
+        byte[] filter = new byte[trailer.getInt(16)];
+        channel.read(filter, size - TRAILER_BYTES - filter.length);
+        this.bloom = BloomFilter.deserialize(new DataInputStream(new ByteArrayInputStream(filter)));
+    }
+
+    /**
+     * Writes the entries of a cursor, which must come in {@link LsmEntry#ORDER},
+     * to a new run in f, and opens it.
+     *
+     * @param maxEntries an upper bound on the number of entries, which sizes the filter
+     * @param maxSeq     a lower bound on the largest sequence number recorded in
+     *                   the trailer, so that sequence numbers of entries dropped
+     *                   by a compaction are not given out again
+     */
+    static LsmRun write(File f, LsmCursor entries, long maxEntries, long maxSeq,
+                        TupleDesc td, int keyField, int tableid) throws IOException {
+        BloomFilter bloom = BloomFilter.forMembers(maxEntries);
+        long count = 0;
+        try (FileOutputStream fos = new FileOutputStream(f);
+             DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos, BLOCK_BYTES))) {
+            for (LsmEntry e = entries.peek(); e != null; entries.advance(), e = entries.peek()) {
+                e.serialize(dos);
+                bloom.add(e.key);
+                maxSeq = Math.max(maxSeq, e.seq);
+                count++;
+            }
+            bloom.serialize(dos);
+            dos.writeLong(count);
+            dos.writeLong(maxSeq);
+            dos.writeInt(bloom.getSerializedSize());
+            dos.flush();
+            fos.getFD().sync();
+        }
+        return new LsmRun(f, td, keyField, tableid);
+    }
+
+    /**
+     * Returns the file of this run.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns the number of entries in this run, tombstones included.
+     */
+    public long numEntries() {
+        return count;
+    }
+
+    /**
+     * Returns the largest sequence number of an entry of this run, or of an
+     * entry compacted into it, or -1 if there is none.
+     */
+    public long getMaxSeq() {
+        return maxSeq;
+    }
+
+    /**
+     * Returns false if no entry of this run has the given key.
+     */
+    public boolean mightContain(Field key) {
+        return bloom.mightContain(key);
+    }
+
+    /**
+     * Reads the i-th entry of this run.
+     */
+    LsmEntry getEntry(long i) throws IOException {
+        byte[] data = new byte[entrySize];
+        channel.read(data, i * entrySize);
+        return LsmEntry.parse(ByteBuffer.wrap(data), 0, td, keyField, tableid);
+    }
+
+    /**
+     * Returns the number of the first entry whose key is greater than or
+     * equal to key (or greater than key, if not inclusive), or the number of
+     * entries if there is none; 0 if key is null.
+     */
+    long lowerBound(Field key, boolean inclusive) throws IOException {
+        if (key == null)
+            return 0;
+        Predicate.Op before = inclusive ? Predicate.Op.LESS_THAN : Predicate.Op.LESS_THAN_OR_EQ;
+        long lo = 0, hi = count;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (getEntry(mid).key.compare(before, key))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Returns a cursor over the entries of this run from the given entry
+     * number on, which reads the run in blocks of many entries.
+     */
+    LsmCursor cursor(long from) throws IOException {
+        return new LsmCursor() {
+            private final int perBlock = Math.max(1, BLOCK_BYTES / entrySize);
+            private final ByteBuffer block = ByteBuffer.allocate(perBlock * entrySize);
+            private long blockStart = from;
+            private int inBlock = 0;
+            private int blockEntries = 0;
+            private LsmEntry current;
+
+            {
+                advance();
+            }
+
+            LsmEntry peek() {
+                return current;
+            }
+
+            void advance() throws IOException {
+                if (inBlock == blockEntries) {
+                    blockStart += blockEntries;
+                    inBlock = 0;
+                    blockEntries = (int) Math.min(perBlock, count - blockStart);
+                    if (blockEntries <= 0) {
+                        current = null;
+                        return;
+                    }
+                    block.clear();
+                    block.limit(blockEntries * entrySize);
+                    channel.read(block, blockStart * entrySize);
+                }
+                current = LsmEntry.parse(block, inBlock++ * entrySize, td, keyField, tableid);
+            }
+        };
+    }
+
+    /**
+     * Adds a reference to this run.
+     */
+    synchronized void acquire() {
+        refs++;
+    }
+
+    /**
+     * Closes the file of this run. A later read reopens it.
+     */
+    void close() {
+        channel.close();
+    }
+
+    /**
+     * Releases a reference to this run, deleting its file if it was the last.
+     */
+    synchronized void release() {
+        if (--refs == 0) {
+            channel.close();
+            f.delete();
+        }
+    }
+
+    public String toString() {
+        return "LsmRun(" + f.getName() + ", " + count + " entries)";
+    }
+}
+
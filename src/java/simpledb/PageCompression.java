@@ -0,0 +1,230 @@
+package simpledb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * PageCompression converts the image of a HeapPage to and from the compact
+ * form in which a compressed HeapFile stores it on disk.
+ * <p>
+ * A compressed page starts with a mode byte. In {@link #MODE_ENCODED} pages,
+ * the slot header is kept as is and the used slots are stored column by
+ * column:
+ * <ul>
+ * <li>INT_TYPE columns are frame-of-reference encoded: the smallest value,
+ * then each value's offset from it packed in just enough bits for the
+ * largest offset.</li>
+ * <li>STRING_TYPE columns are dictionary encoded: the distinct strings of the
+ * page, then each value's index in that list, bit-packed.</li>
+ * </ul>
+ * A page whose encoding would not be smaller is stored in
+ * {@link #MODE_RAW}, i.e. its image follows the mode byte unchanged.
+ *
+ * @see CompressedPageStore
+ */
+public class PageCompression {
+
+    public static final byte MODE_RAW = 0;
+    public static final byte MODE_ENCODED = 1;
+
+    /**
+     * Compresses the image of a HeapPage with the given TupleDesc.
+     *
+     * @param pageData the page as returned by {@link HeapPage#getPageData()}
+     * @param td       the TupleDesc of the tuples on the page
+     * @return the compressed page; it is never pageData.length bytes long,
+     * and at most one byte longer
+     */
+    public static byte[] compress(byte[] pageData, TupleDesc td) {
+        try {
+            byte[] encoded = encode(pageData, td);
+            if (encoded.length < pageData.length)
+                return encoded;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        byte[] raw = new byte[pageData.length + 1];
+        raw[0] = MODE_RAW;
+        System.arraycopy(pageData, 0, raw, 1, pageData.length);
+        return raw;
+    }
+
+    /**
+     * Restores the image of a HeapPage from its compressed form.
+     *
+     * @param block the compressed page, as returned by {@link #compress}
+     * @param td    the TupleDesc of the tuples on the page
+     * @return the page image, BufferPool.getPageSize() bytes long
+     */
+    public static byte[] decompress(byte[] block, TupleDesc td) {
+        int pageSize = BufferPool.getPageSize();
+        if (block[0] == MODE_RAW)
+            return Arrays.copyOfRange(block, 1, 1 + pageSize);
+        try {
+            return decode(block, td);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static int numSlots(TupleDesc td) {
+        // same as HeapPage
+        return BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+    }
+
+    private static int headerSize(int numSlots) {
+        return (numSlots + 7) / 8;
+    }
+
+    private static boolean isSlotUsed(byte[] header, int i) {
+        return ((header[i / 8] >> (i % 8)) & 1) == 1;
+    }
+
+    private static byte[] encode(byte[] pageData, TupleDesc td) throws IOException {
+        int numSlots = numSlots(td);
+        int headerSize = headerSize(numSlots);
+        int tupleSize = td.getSize();
+        ArrayList<Integer> used = new ArrayList<>();
+        for (int i = 0; i < numSlots; ++i)
+            if (isSlotUsed(pageData, i))
+                used.add(headerSize + i * tupleSize);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(pageData.length / 4);
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeByte(MODE_ENCODED);
+        dos.write(pageData, 0, headerSize);
+
+        ByteBuffer page = ByteBuffer.wrap(pageData);
+        int fieldOffset = 0;
+        for (int c = 0; c < td.numFields(); ++c) {
+            Type type = td.getFieldType(c);
+            long[] codes = new long[used.size()];
+            if (type == Type.INT_TYPE) {
+                int min = Integer.MAX_VALUE;
+                for (int k = 0; k < codes.length; ++k)
+                    min = Math.min(min, page.getInt(used.get(k) + fieldOffset));
+                for (int k = 0; k < codes.length; ++k)
+                    codes[k] = (long) page.getInt(used.get(k) + fieldOffset) - min;
+                dos.writeInt(min);
+            } else {
+                HashMap<String, Integer> index = new HashMap<>();
+                ArrayList<String> dict = new ArrayList<>();
+                for (int k = 0; k < codes.length; ++k) {
+                    int off = used.get(k) + fieldOffset;
+                    int len = Math.max(0, Math.min(page.getInt(off), Type.STRING_LEN));
+                    String s = new String(pageData, off + 4, len, "ISO-8859-1");
+                    Integer code = index.get(s);
+                    if (code == null) {
+                        code = dict.size();
+                        index.put(s, code);
+                        dict.add(s);
+                    }
+                    codes[k] = code;
+                }
+                dos.writeShort(dict.size());
+                for (String s : dict) {
+                    dos.writeByte(s.length());
+                    dos.writeBytes(s);
+                }
+            }
+            writePacked(dos, codes);
+            fieldOffset += type.getLen();
+        }
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    private static byte[] decode(byte[] block, TupleDesc td) throws IOException {
+        int numSlots = numSlots(td);
+        int headerSize = headerSize(numSlots);
+        int tupleSize = td.getSize();
+        byte[] pageData = new byte[BufferPool.getPageSize()];
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(block));
+        dis.readByte();
+        dis.readFully(pageData, 0, headerSize);
+        ArrayList<Integer> used = new ArrayList<>();
+        for (int i = 0; i < numSlots; ++i)
+            if (isSlotUsed(pageData, i))
+                used.add(headerSize + i * tupleSize);
+
+        ByteBuffer page = ByteBuffer.wrap(pageData);
+        int fieldOffset = 0;
+        for (int c = 0; c < td.numFields(); ++c) {
+            Type type = td.getFieldType(c);
+            if (type == Type.INT_TYPE) {
+                int min = dis.readInt();
+                long[] codes = readPacked(dis, used.size());
+                for (int k = 0; k < codes.length; ++k)
+                    page.putInt(used.get(k) + fieldOffset, (int) (min + codes[k]));
+            } else {
+                int n = dis.readUnsignedShort();
+                byte[][] dict = new byte[n][];
+                for (int i = 0; i < n; ++i) {
+                    dict[i] = new byte[dis.readUnsignedByte()];
+                    dis.readFully(dict[i]);
+                }
+                long[] codes = readPacked(dis, used.size());
+                for (int k = 0; k < codes.length; ++k) {
+                    int off = used.get(k) + fieldOffset;
+                    byte[] s = dict[(int) codes[k]];
+                    page.putInt(off, s.length);
+                    System.arraycopy(s, 0, pageData, off + 4, s.length);
+                }
+            }
+            fieldOffset += type.getLen();
+        }
+        return pageData;
+    }
+
+    /**
+     * Write non-negative values packed in the fewest bits that hold the
+     * largest of them, preceded by that bit width.
+     */
+    private static void writePacked(DataOutputStream dos, long[] values) throws IOException {
+        long max = 0;
+        for (long v : values)
+            max = Math.max(max, v);
+        int bits = 64 - Long.numberOfLeadingZeros(max);
+        dos.writeByte(bits);
+        long buf = 0;
+        int n = 0;
+        for (long v : values) {
+            for (int b = bits - 1; b >= 0; --b) {
+                buf = (buf << 1) | ((v >>> b) & 1);
+                if (++n == 8) {
+                    dos.writeByte((int) buf);
+                    buf = 0;
+                    n = 0;
+                }
+            }
+        }
+        if (n > 0)
+            dos.writeByte((int) (buf << (8 - n)));
+    }
+
+    private static long[] readPacked(DataInputStream dis, int count) throws IOException {
+        int bits = dis.readUnsignedByte();
+        long[] values = new long[count];
+        int cur = 0;
+        int left = 0;
+        for (int k = 0; k < count; ++k) {
+            long v = 0;
+            for (int b = 0; b < bits; ++b) {
+                if (left == 0) {
+                    cur = dis.readUnsignedByte();
+                    left = 8;
+                }
+                v = (v << 1) | ((cur >> --left) & 1);
+            }
+            values[k] = v;
+        }
+        return values;
+    }
+}
@@ -3,6 +3,7 @@ package simpledb;
 import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 
 import simpledb.TupleDesc.TDItem;
 
@@ -10,10 +11,14 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String INDEX_JOIN = "⨝(index)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
+    static final String INDEX_SCAN = "index scan";
+    static final String INDEX_ONLY_SCAN = "index only scan";
+    static final String BITMAP_SCAN = "bitmap scan";
     static final String ORDERBY = "o";
     static final String GROUPBY = "g";
     static final String SPACE = "  ";
@@ -27,7 +32,7 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         OpIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (o instanceof Join || o instanceof HashEquiJoin || o instanceof IndexJoin) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
@@ -64,17 +69,83 @@ public class QueryPlanVisualizer {
         int adjustDepth = currentDepth == 0 ? -1 : 0;
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null, null);
 
-        if (queryPlan instanceof SeqScan) {
-            SeqScan s = (SeqScan) queryPlan;
-            String tableName = s.getTableName();
-            String alias = s.getAlias();
+        if (queryPlan instanceof SeqScan || queryPlan instanceof BTreeScan
+                || queryPlan instanceof HashScan || queryPlan instanceof IndexScan
+                || queryPlan instanceof BitmapScan) {
+            String tableName;
+            String alias;
+            String index = "";
+            String scan = INDEX_SCAN;
+            IndexPredicate ipred = null;
+            String clauses = null;
+            if (queryPlan instanceof SeqScan) {
+                SeqScan s = (SeqScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+            } else if (queryPlan instanceof BTreeScan) {
+                BTreeScan s = (BTreeScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                ipred = s.getIndexPredicate();
+                if (ipred != null) {
+                    int keyField = ((BTreeFile) Database.getCatalog().getDatabaseFile(
+                            Database.getCatalog().getTableId(tableName))).keyField();
+                    index = s.getTupleDesc().getFieldName(keyField);
+                }
+            } else if (queryPlan instanceof BitmapScan) {
+                BitmapScan s = (BitmapScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                StringBuilder sb = new StringBuilder();
+                for (List<Predicate> clause : s.getClauses()) {
+                    if (sb.length() > 0)
+                        sb.append(" AND ");
+                    StringBuilder any = new StringBuilder();
+                    for (Predicate p : clause) {
+                        if (any.length() > 0)
+                            any.append(" OR ");
+                        any.append(s.getTupleDesc().getFieldName(p.getField())).append(" ")
+                                .append(p.getOp()).append(" ").append(p.getOperand());
+                    }
+                    sb.append(clause.size() > 1 ? "(" + any + ")" : any);
+                }
+                clauses = sb.toString();
+            } else if (queryPlan instanceof HashScan) {
+                HashScan s = (HashScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                ipred = s.getIndexPredicate();
+                if (ipred != null) {
+                    int keyField = ((HashFile) Database.getCatalog().getDatabaseFile(
+                            Database.getCatalog().getTableId(tableName))).keyField();
+                    index = s.getTupleDesc().getFieldName(keyField);
+                }
+            } else {
+                IndexScan s = (IndexScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                ipred = s.getIndexPredicate();
+                index = s.getIndex().getName() + " "
+                        + s.getTupleDesc().getFieldName(s.getIndex().getKeyField());
+                if (s instanceof IndexOnlyScan)
+                    scan = INDEX_ONLY_SCAN;
+            }
 //            TupleDesc td = s.getTupleDesc();
             if (!tableName.equals(alias))
                 alias = " " + alias;
             else
                 alias = "";
-            thisNode.text = String
-                    .format("%1$s(%2$s)", SCAN, tableName + alias);
+            if (clauses != null)
+                thisNode.text = String.format("%1$s(%2$s, %3$s)", BITMAP_SCAN, tableName + alias, clauses);
+            else if (queryPlan instanceof IndexOnlyScan && ipred == null)
+                thisNode.text = String.format("%1$s(%2$s, %3$s)", INDEX_ONLY_SCAN,
+                        tableName + alias, ((IndexScan) queryPlan).getIndex().getName());
+            else if (ipred == null)
+                thisNode.text = String
+                        .format("%1$s(%2$s)", SCAN, tableName + alias);
+            else
+                thisNode.text = String.format("%1$s(%2$s, %3$s %4$s %5$s)", scan,
+                        tableName + alias, index, ipred.getOp(), ipred.getField());
             if (SCAN.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
@@ -135,18 +206,25 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = left;
                 thisNode.rightChild = right;
                 thisNode.height = currentDepth;
-            } else if (plan instanceof HashEquiJoin) {
-                HashEquiJoin j = (HashEquiJoin) plan;
-                JoinPredicate jp = j.getJoinPredicate();
-                TupleDesc td = j.getTupleDesc();
+            } else if (plan instanceof HashEquiJoin || plan instanceof IndexJoin) {
+                JoinPredicate jp;
+                String joinText;
+                if (plan instanceof HashEquiJoin) {
+                    jp = ((HashEquiJoin) plan).getJoinPredicate();
+                    joinText = HASH_JOIN;
+                } else {
+                    jp = ((IndexJoin) plan).getJoinPredicate();
+                    joinText = INDEX_JOIN;
+                }
+                TupleDesc td = plan.getTupleDesc();
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
-                        + jp.getOperator() + field2, j.getEstimatedCardinality());
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", joinText, field1
+                        + jp.getOperator() + field2, plan.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
-                if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = HASH_JOIN.length() / 2;
+                if (joinText.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = joinText.length() / 2;
                 SubTreeDescriptor left = this.buildTree(queryPlanDepth,
                         currentDepth + 3 + adjustDepth, children[0],
                         currentStartPosition, upBarShift);
@@ -155,7 +233,7 @@ public class QueryPlanVisualizer {
                         currentStartPosition + left.width + SPACE.length(), 0);
                 thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - HASH_JOIN.length() / 2;
+                        - joinText.length() / 2;
                 thisNode.width = Math.max(
                         left.width + right.width + SPACE.length(),
                         thisNode.textStartPosition + thisNode.text.length()
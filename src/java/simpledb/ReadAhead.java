@@ -0,0 +1,212 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+
+/**
+ * ReadAhead loads pages into the BufferPool in the background ahead of a
+ * sequential scan, so the scan does not wait on disk each time it moves to
+ * the next page.
+ * <p>
+ * A scan owns one cursor and reports every page it moves to. A sequential
+ * cursor notices ascending page numbers and keeps up to
+ * {@link BufferPool#getReadAheadPages()} pages requested ahead of the scan,
+ * which are fetched in batches with DbFile#readPages.
+ * A leaf cursor follows the right-sibling pointers of BTreeLeafPages. Pages
+ * are loaded through the BufferPool without taking locks, and only the
+ * pool's normal eviction policy is used to make room.
+ *
+ * @see HeapFileIterator
+ * @see BTreeFileIterator
+ */
+public class ReadAhead {
+
+    private static final int THREADS = 2;
+
+    private static ExecutorService executor;
+
+    /**
+     * Returns the shared pool of daemon threads that perform read-ahead I/O.
+     */
+    static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+                private int count = 0;
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-readahead-" + count++);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Tracks one scan over a chain of pages read in ascending page order, such
+     * as the pages of a HeapFile or one column of a ColumnarFile.
+     */
+    public static class SequentialCursor {
+        private int lastPage = -1;
+        private int requestedTo = -1;
+        private IntPredicate wanted;
+
+        /**
+         * Restrict read-ahead to the pages the scan will visit, for a scan
+         * that skips pages. Any forward move then counts as sequential.
+         *
+         * @param wanted tells whether the scan will read a page number
+         */
+        public void setPageFilter(IntPredicate wanted) {
+            this.wanted = wanted;
+        }
+
+        /**
+         * Record that the scan moved to the given page of a HeapFile and, if
+         * the access is sequential, request the following pages.
+         *
+         * @param tableId  the id of the HeapFile being scanned
+         * @param pageNo   the page the scan moved to
+         * @param numPages the number of pages in the file
+         */
+        public void advance(int tableId, int pageNo, int numPages) {
+            advance(i -> new HeapPageId(tableId, i), pageNo, numPages);
+        }
+
+        /**
+         * Record that the scan moved to the given page and, if the access is
+         * sequential, request the following pages.
+         *
+         * @param pageIds  maps a page number of the chain to its PageId
+         * @param pageNo   the page the scan moved to
+         * @param numPages the number of pages in the chain
+         */
+        public void advance(IntFunction<PageId> pageIds, int pageNo, int numPages) {
+            boolean sequential = lastPage >= 0
+                    && (pageNo == lastPage + 1 || (wanted != null && pageNo > lastPage));
+            lastPage = pageNo;
+            if (!sequential) {
+                requestedTo = pageNo;
+                return;
+            }
+
+            BufferPool pool = Database.getBufferPool();
+            int window = pool.getReadAheadPages();
+            // top up once half of the window has been consumed
+            if (window <= 0 || requestedTo - pageNo > window / 2)
+                return;
+            int last = Math.min(pageNo + window, numPages - 1);
+            List<PageId> pids = new ArrayList<>();
+            for (int i = Math.max(requestedTo + 1, pageNo + 1); i <= last; ++i) {
+                if (wanted == null || wanted.test(i))
+                    pids.add(pageIds.apply(i));
+            }
+            if (!pids.isEmpty())
+                pool.prefetchPages(pids);
+            requestedTo = Math.max(requestedTo, last);
+        }
+
+        /**
+         * Forget the scan position, e.g. when the scan is rewound.
+         */
+        public void reset() {
+            lastPage = -1;
+            requestedTo = -1;
+        }
+    }
+
+    /**
+     * Tracks one scan that follows the right-sibling pointers of B+ tree leaf
+     * pages. A scan with an upper bound on the key (a LESS_THAN,
+     * LESS_THAN_OR_EQ or EQUALS predicate) does not read ahead past the first
+     * leaf holding a key beyond the bound, since the scan stops there.
+     */
+    public static class LeafCursor {
+        private final int keyField;
+        private final Predicate.Op boundOp;
+        private final Field bound;
+        private int movesLeft = 0;
+
+        /**
+         * Creates a cursor for a scan of all leaves.
+         */
+        public LeafCursor() {
+            this(0, null);
+        }
+
+        /**
+         * Creates a cursor for a scan filtered by the given predicate.
+         *
+         * @param keyField the index of the key field of the tuples
+         * @param ipred    the predicate of the scan, or null for a full scan
+         */
+        public LeafCursor(int keyField, IndexPredicate ipred) {
+            this.keyField = keyField;
+            if (ipred != null && (ipred.getOp() == Predicate.Op.LESS_THAN
+                    || ipred.getOp() == Predicate.Op.LESS_THAN_OR_EQ
+                    || ipred.getOp() == Predicate.Op.EQUALS)) {
+                this.boundOp = ipred.getOp() == Predicate.Op.LESS_THAN
+                        ? Predicate.Op.LESS_THAN : Predicate.Op.LESS_THAN_OR_EQ;
+                this.bound = ipred.getField();
+            } else {
+                this.boundOp = null;
+                this.bound = null;
+            }
+        }
+
+        /**
+         * Returns whether a scan that reads the given leaf goes on to read its right sibling.
+         */
+        private boolean continuesPast(BTreeLeafPage leaf) {
+            if (bound == null)
+                return true;
+            Iterator<Tuple> it = leaf.reverseIterator();
+            return !it.hasNext() || it.next().getField(keyField).compare(boundOp, bound);
+        }
+
+        /**
+         * Record that the scan moved to the given leaf by following a sibling
+         * pointer, and read the next leaves in the background once the
+         * previous batch has been consumed.
+         *
+         * @param leaf the leaf page the scan moved to
+         */
+        public void advance(BTreeLeafPage leaf) {
+            if (movesLeft > 0) {
+                movesLeft--;
+                return;
+            }
+            BufferPool pool = Database.getBufferPool();
+            int window = pool.getReadAheadPages();
+            BTreePageId first = leaf.getRightSiblingId();
+            if (window <= 0 || first == null || !continuesPast(leaf))
+                return;
+            movesLeft = window;
+            getExecutor().execute(() -> {
+                BTreePageId pid = first;
+                for (int i = 0; i < window && pid != null; ++i) {
+                    Page p = pool.readAheadNow(pid);
+                    // stop where another read is already under way
+                    if (!(p instanceof BTreeLeafPage) || !continuesPast((BTreeLeafPage) p))
+                        return;
+                    pid = ((BTreeLeafPage) p).getRightSiblingId();
+                }
+            });
+        }
+
+        /**
+         * Forget the scan position, e.g. when the scan is rewound.
+         */
+        public void reset() {
+            movesLeft = 0;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * SecondaryIndex is a B+ tree on one field of a HeapFile that maps each key
+ * to the RecordId of the tuple holding it. A table may have any number of
+ * secondary indexes, on the same or on different fields.
+ * <p>
+ * The tree is an ordinary BTreeFile whose tuples are index entries of three
+ * fields: the key, and the page number and slot of the tuple in the table.
+ * The tree is keyed on all three, so equal keys are ordered by the RecordId
+ * of their tuples and the entry of a given tuple is found with a single
+ * descent of the tree, however many tuples share its key.
+ * <p>
+ * An index may also include copies of other fields of the table, which follow
+ * the slot in its entries. A query that only uses the key and the included
+ * fields can then be answered from the leaves of the tree alone, without
+ * reading the table; the index is said to cover the query.
+ * <p>
+ * Indexes are registered in the Catalog, which also adds the tree as a table
+ * of its own, and the BufferPool keeps them up to date as tuples are inserted
+ * into and deleted from the table.
+ *
+ * @Threadsafe
+ * @see Catalog#addIndex(SecondaryIndex)
+ * @see BufferPool#insertTuple(TransactionId, int, Tuple)
+ */
+public class SecondaryIndex {
+
+    /**
+     * The number of fields the tree is keyed on: the key, the page number and the slot.
+     */
+    private static final int ENTRY_KEY_LENGTH = 3;
+
+    private final String name;
+    private final int tableid;
+    private final int keyField;
+    private final int[] includedFields;
+    private volatile BTreeFile tree;
+
+    /**
+     * Opens the secondary index stored in the given file. The file is created
+     * empty if it does not exist; use {@link #build()} to fill it from the table.
+     *
+     * @param name     the name of the index
+     * @param f        the file backing the index
+     * @param tableid  the id of the indexed table, which must be a HeapFile in the Catalog
+     * @param keyField the index of the indexed field in the table
+     * @throws IllegalArgumentException if the table is not a HeapFile
+     */
+    public SecondaryIndex(String name, File f, int tableid, int keyField) {
+        this(name, f, tableid, keyField, new int[0]);
+    }
+
+    /**
+     * Opens the secondary index stored in the given file, which includes the
+     * given fields of the table in its entries. The file is created empty if
+     * it does not exist; use {@link #build()} to fill it from the table.
+     *
+     * @param name           the name of the index
+     * @param f              the file backing the index
+     * @param tableid        the id of the indexed table, which must be a HeapFile in the Catalog
+     * @param keyField       the index of the indexed field in the table
+     * @param includedFields the indices of the fields of the table to include
+     * @throws IllegalArgumentException if the table is not a HeapFile
+     */
+    public SecondaryIndex(String name, File f, int tableid, int keyField, int[] includedFields) {
+        DbFile table = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(table instanceof HeapFile))
+            throw new IllegalArgumentException("secondary indexes are only supported on heap files");
+        this.name = name;
+        this.tableid = tableid;
+        this.keyField = keyField;
+        this.includedFields = includedFields.clone();
+        this.tree = new BTreeFile(f, 0, ENTRY_KEY_LENGTH, getEntryDesc(table.getTupleDesc(), keyField, includedFields));
+    }
+
+    /**
+     * Returns the schema of the entries of an index on the given field: the key,
+     * then the page number and slot of the indexed tuple.
+     */
+    public static TupleDesc getEntryDesc(TupleDesc td, int keyField) {
+        return getEntryDesc(td, keyField, new int[0]);
+    }
+
+    /**
+     * Returns the schema of the entries of an index on the given field which
+     * includes the given fields: the key, the page number and slot of the
+     * indexed tuple, then the included fields.
+     */
+    public static TupleDesc getEntryDesc(TupleDesc td, int keyField, int[] includedFields) {
+        Type[] types = new Type[3 + includedFields.length];
+        String[] names = new String[types.length];
+        types[0] = td.getFieldType(keyField);
+        names[0] = td.getFieldName(keyField);
+        types[1] = types[2] = Type.INT_TYPE;
+        names[1] = "page";
+        names[2] = "slot";
+        for (int i = 0; i < includedFields.length; i++) {
+            types[3 + i] = td.getFieldType(includedFields[i]);
+            names[3 + i] = td.getFieldName(includedFields[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    /**
+     * Returns the name of this index.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the id of the indexed table.
+     */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /**
+     * Returns the index of the indexed field in the table.
+     */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /**
+     * Returns the indices of the fields of the table included in the entries.
+     */
+    public int[] getIncludedFields() {
+        return includedFields.clone();
+    }
+
+    /**
+     * Returns whether the key and the included fields hold all the given
+     * fields of the table, so that a query reading only those fields can be
+     * answered from the index alone.
+     *
+     * @param fields the indices of fields of the table
+     */
+    public boolean covers(int[] fields) {
+        for (int f : fields) {
+            if (f == keyField)
+                continue;
+            boolean included = false;
+            for (int i : includedFields)
+                included |= i == f;
+            if (!included)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the B+ tree holding the entries of this index.
+     */
+    public BTreeFile getTree() {
+        return tree;
+    }
+
+    /**
+     * Returns the index entry for the given tuple, which must have a RecordId.
+     */
+    private Tuple toEntry(Tuple t) {
+        RecordId rid = t.getRecordId();
+        Tuple entry = new Tuple(tree.getTupleDesc());
+        entry.setField(0, t.getField(keyField));
+        entry.setField(1, new IntField(rid.getPageId().getPageNumber()));
+        entry.setField(2, new IntField(rid.getTupleNumber()));
+        for (int i = 0; i < includedFields.length; i++)
+            entry.setField(3 + i, t.getField(includedFields[i]));
+        return entry;
+    }
+
+    /**
+     * Returns the part of a tuple of the table an index entry holds: a tuple
+     * of the table's schema with the key and the included fields set, the
+     * other fields null, and the RecordId of the tuple.
+     */
+    private Tuple toPartialTuple(Tuple entry, TupleDesc td) {
+        Tuple t = new Tuple(td);
+        t.setField(keyField, entry.getField(0));
+        for (int i = 0; i < includedFields.length; i++)
+            t.setField(includedFields[i], entry.getField(3 + i));
+        t.setRecordId(toRecordId(entry));
+        return t;
+    }
+
+    /**
+     * Returns the RecordId an index entry points at.
+     */
+    private RecordId toRecordId(Tuple entry) {
+        return new RecordId(new HeapPageId(tableid, ((IntField) entry.getField(1)).getValue()),
+                ((IntField) entry.getField(2)).getValue());
+    }
+
+    /**
+     * Fills the index with an entry for every tuple of the table, replacing its
+     * previous contents. Like any bulk load, this bypasses the BufferPool and
+     * replaces the tree, so it is meant for an index which is not in use yet:
+     * build an index before adding it to the Catalog.
+     */
+    public void build() throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        TransactionId tid = new TransactionId();
+        DbFileIterator tuples = table.iterator(tid);
+        DbFileIterator entries = new AbstractDbFileIterator() {
+            public void open() throws DbException, TransactionAbortedException {
+                tuples.open();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                tuples.rewind();
+            }
+
+            public void close() {
+                super.close();
+                tuples.close();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                return tuples.hasNext() ? toEntry(tuples.next()) : null;
+            }
+        };
+        try {
+            tree = new BTreeBulkLoader(0, ENTRY_KEY_LENGTH).build(entries, tree.getTupleDesc(), tree.getFile());
+        } finally {
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /**
+     * Adds the entry of a tuple that was just inserted into the table.
+     *
+     * @param tid the transaction inserting the tuple
+     * @param t   the tuple, with the RecordId it was given by the table
+     * @return the pages of the index that were modified
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return tree.insertTuple(tid, toEntry(t));
+    }
+
+    /**
+     * Removes the entry of a tuple that is deleted from the table.
+     *
+     * @param tid the transaction deleting the tuple
+     * @param t   the tuple, with its RecordId in the table
+     * @return the pages of the index that were modified
+     * @throws DbException if the index has no entry for the tuple
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Tuple found = tree.findTuple(tid, tree.keyOf(toEntry(t)));
+        if (found == null)
+            throw new DbException("index " + name + " has no entry for tuple " + t.getRecordId());
+        return tree.deleteTuple(tid, found);
+    }
+
+    /**
+     * Returns an iterator over the tuples of the table whose indexed field
+     * satisfies the given predicate, in the order of the indexed field.
+     * The tuples are fetched from the table's pages through the BufferPool.
+     *
+     * @param tid   the transaction reading the tuples
+     * @param ipred the predicate on the indexed field, or null for all the tuples
+     */
+    public DbFileIterator lookup(TransactionId tid, IndexPredicate ipred) {
+        DbFileIterator entries = ipred == null ? tree.iterator(tid) : tree.indexIterator(tid, ipred);
+        return new AbstractDbFileIterator() {
+            public void open() throws DbException, TransactionAbortedException {
+                entries.open();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                close();
+                open();
+            }
+
+            public void close() {
+                super.close();
+                entries.close();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                if (!entries.hasNext())
+                    return null;
+                RecordId rid = toRecordId(entries.next());
+                HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(),
+                        Permissions.READ_ONLY);
+                Tuple t = page.getTupleAt(rid.getTupleNumber());
+                if (t == null)
+                    throw new DbException("index " + name + " points at empty slot " + rid);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over the tuples of the table whose indexed field
+     * satisfies the given predicate, in the order of the indexed field, read
+     * from the entries of the index alone. Only the key and the included
+     * fields of the returned tuples are set; the others are null.
+     *
+     * @param tid   the transaction reading the tuples
+     * @param ipred the predicate on the indexed field, or null for all the tuples
+     * @see #covers(int[])
+     */
+    public DbFileIterator lookupEntries(TransactionId tid, IndexPredicate ipred) {
+        DbFileIterator entries = ipred == null ? tree.iterator(tid) : tree.indexIterator(tid, ipred);
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        return new AbstractDbFileIterator() {
+            public void open() throws DbException, TransactionAbortedException {
+                entries.open();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                close();
+                open();
+            }
+
+            public void close() {
+                super.close();
+                entries.close();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                return entries.hasNext() ? toPartialTuple(entries.next(), td) : null;
+            }
+        };
+    }
+}
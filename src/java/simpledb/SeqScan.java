@@ -17,6 +17,8 @@ public class SeqScan implements OpIterator {
     private TupleDesc tdWithPrefix = null;
     private boolean isOpen = false;
     private transient DbFileIterator it = null;
+    private int[] projection = null;
+    private final List<Predicate> predicates = new ArrayList<>();
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -73,6 +75,31 @@ public class SeqScan implements OpIterator {
         tdWithPrefix = null;
         it = null;
         isOpen = false;
+        predicates.clear();
+    }
+
+    /**
+     * Tells the scan which fields of the table its consumers use. On a
+     * {@link ColumnarFile} only the pages of those columns are read, and the
+     * other fields of the returned tuples are null; other files ignore it.
+     *
+     * @param fields the indices of the fields to read, or null for all of them
+     */
+    public void setProjection(int[] fields) {
+        this.projection = fields;
+    }
+
+    /**
+     * Tells the scan that its consumer only wants tuples satisfying p. A
+     * {@link HeapFile} uses it to skip pages whose zone map rules them out;
+     * the scan may still return tuples that do not satisfy p.
+     *
+     * @param p a predicate over the fields of the table
+     * @see Filter
+     */
+    public void addPredicate(Predicate p) {
+        if (!predicates.contains(p))
+            predicates.add(p);
     }
 
     public SeqScan(TransactionId tid, int tableId) {
@@ -81,7 +108,13 @@ public class SeqScan implements OpIterator {
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (projection != null && f instanceof ColumnarFile)
+            it = ((ColumnarFile) f).iterator(tid, projection);
+        else if (!predicates.isEmpty() && f instanceof HeapFile)
+            it = ((HeapFile) f).iterator(tid, new ArrayList<>(predicates));
+        else
+            it = f.iterator(tid);
         it.open();
         isOpen = true;
     }
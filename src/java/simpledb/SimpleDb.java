@@ -49,6 +49,17 @@ public class SimpleDb {
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
+        } else if (args[0].equals("append")) {
+            // append a text file to a table of a catalog
+            if (args.length < 4 || args.length > 5) {
+                System.err.println("Usage: append <catalog> <table> <file> [separator]");
+                return;
+            }
+            Database.getCatalog().loadSchema(args[1]);
+            int tableId = Database.getCatalog().getTableId(args[2]);
+            char fieldSeparator = args.length == 5 ? args[4].charAt(0) : ',';
+            long count = new HeapFileLoader(fieldSeparator).append(new File(args[3]), tableId);
+            System.out.println("Appended " + count + " tuples to " + args[2]);
         } else if (args[0].equals("print")) {
             File tableFile = new File(args[1]);
             int columns = Integer.parseInt(args[2]);
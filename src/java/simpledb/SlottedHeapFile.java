@@ -0,0 +1,301 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * SlottedHeapFile is a DbFile that, like HeapFile, stores a collection of
+ * tuples in no particular order, but on SlottedHeapPages, which store each
+ * tuple in its actual length instead of a fixed-size slot. Tables with short
+ * strings fit several times as many tuples on a page, so scans read
+ * correspondingly fewer pages.
+ * <p>
+ * Pages are located the same way as in a HeapFile, with a HeapPageId, and a
+ * FreeSpaceMap tracks the pages that have room for a tuple of the largest
+ * possible size.
+ *
+ * @see SlottedHeapPage
+ * @see HeapFile
+ */
+public class SlottedHeapFile implements DbFile {
+
+    private final File f;
+    private final TupleDesc td;
+    private final DbFileChannel channel;
+    private final FreeSpaceMap freeSpaceMap;
+    private final int maxTupleSize;
+    private final ExtentAllocator extents;
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file.
+     */
+    public SlottedHeapFile(File f, TupleDesc td) {
+        this.f = f;
+        this.td = td;
+        this.channel = new DbFileChannel(f);
+        this.freeSpaceMap = new FreeSpaceMap(f);
+        this.maxTupleSize = SlottedHeapPage.getMaxTupleSize(td);
+        this.extents = new ExtentAllocator(f, channel, 0, 0);
+    }
+
+    /**
+     * Returns the File backing this SlottedHeapFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns the map of pages in this file that have room for any tuple.
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        return freeSpaceMap;
+    }
+
+    /**
+     * Returns the allocator that grows this SlottedHeapFile.
+     *
+     * @see HeapFile#getExtentAllocator()
+     */
+    public ExtentAllocator getExtentAllocator() {
+        return extents;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this SlottedHeapFile.
+     *
+     * @see HeapFile#getId()
+     */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public void close() {
+        channel.close();
+        freeSpaceMap.close();
+        extents.close();
+    }
+
+    /**
+     * Returns the number of pages in this SlottedHeapFile, not counting
+     * preallocated pages that are not in use yet.
+     */
+    public int numPages() {
+        return extents.numPages();
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public Page readPage(PageId pid) {
+        int pageSize = BufferPool.getPageSize();
+        HeapPageId id = (HeapPageId) pid;
+        try {
+            byte[] pageData = new byte[pageSize];
+            int byteRead = channel.read(pageData, (long) pageSize * id.getPageNumber());
+            if (byteRead == -1) {
+                throw new IllegalArgumentException("Read past end of table");
+            }
+            if (byteRead < pageSize) {
+                throw new IllegalArgumentException("Unable to read "
+                        + pageSize + " bytes from SlottedHeapFile");
+            }
+            return reconcileFreeSpace(new SlottedHeapPage(id, pageData));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public List<Page> readPages(List<PageId> ids) {
+        int pageSize = BufferPool.getPageSize();
+        long[] offsets = new long[ids.size()];
+        for (int i = 0; i < offsets.length; ++i)
+            offsets[i] = (long) pageSize * ids.get(i).getPageNumber();
+        try {
+            byte[][] data = channel.readBlocks(offsets, pageSize);
+            List<Page> pages = new ArrayList<>(ids.size());
+            for (int i = 0; i < data.length; ++i) {
+                if (data[i] == null) {
+                    throw new IllegalArgumentException("Read past end of table");
+                }
+                pages.add(reconcileFreeSpace(new SlottedHeapPage((HeapPageId) ids.get(i), data[i])));
+            }
+            return pages;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public void writePage(Page page) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        channel.write(page.getPageData(), (long) pageSize * page.getId().getPageNumber());
+        extents.written(page.getId().getPageNumber());
+        reconcileFreeSpace((SlottedHeapPage) page);
+    }
+
+    /**
+     * Bring the free space map in line with a page as it is on disk.
+     */
+    private SlottedHeapPage reconcileFreeSpace(SlottedHeapPage page) {
+        freeSpaceMap.setFree(page.getId().getPageNumber(), page.hasRoomFor(maxTupleSize));
+        return page;
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public synchronized ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        int numPages = numPages();
+        SlottedHeapPage page = null;
+        ArrayList<Page> pages = new ArrayList<>();
+        /* only visit pages the free space map says have room */
+        for (int i = freeSpaceMap.nextFreePage(0, numPages); i != -1;
+             i = freeSpaceMap.nextFreePage(i + 1, numPages)) {
+            HeapPageId pid = new HeapPageId(getId(), i);
+            SlottedHeapPage candidate = (SlottedHeapPage) Database.getBufferPool().getPage(tid,
+                    pid, Permissions.READ_ONLY);
+            if (candidate.hasRoomFor(t)) {
+                page = (SlottedHeapPage) Database.getBufferPool().getPage(tid,
+                        pid, Permissions.READ_WRITE);
+                break;
+            }
+            /* the map was stale, correct it */
+            if (!candidate.hasRoomFor(maxTupleSize))
+                freeSpaceMap.setFree(i, false);
+            /* early release lock */
+            Database.getBufferPool().releasePage(tid, pid);
+        }
+
+        if (page == null) {
+            page = new SlottedHeapPage(new HeapPageId(getId(), extents.allocate()),
+                    SlottedHeapPage.createEmptyPageData());
+            page.insertTuple(t);
+            writePage(page);
+        } else {
+            page.insertTuple(t);
+            if (!page.hasRoomFor(maxTupleSize))
+                freeSpaceMap.setFree(page.getId().getPageNumber(), false);
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId())
+            throw new DbException("tuple is not a member of the file");
+
+        ArrayList<Page> pages = new ArrayList<>();
+        SlottedHeapPage page = (SlottedHeapPage) Database.getBufferPool().getPage(tid,
+                rid.getPageId(), Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        freeSpaceMap.setFree(page.getId().getPageNumber(), true);
+        pages.add(page);
+        return pages;
+    }
+
+    /**
+     * Removes the specified tuples from the file, fetching all affected pages
+     * with one batched read and deleting from each page once.
+     *
+     * @see HeapFile#deleteTuples(TransactionId, List)
+     */
+    @Override
+    public ArrayList<Page> deleteTuples(TransactionId tid, List<Tuple> tuples) throws DbException,
+            TransactionAbortedException {
+        LinkedHashMap<PageId, List<Tuple>> byPage = new LinkedHashMap<>();
+        for (Tuple t : tuples) {
+            RecordId rid = t.getRecordId();
+            if (rid == null || rid.getPageId().getTableId() != getId())
+                throw new DbException("tuple is not a member of the file");
+            byPage.computeIfAbsent(rid.getPageId(), k -> new ArrayList<>()).add(t);
+        }
+
+        ArrayList<Page> pages = new ArrayList<>();
+        List<Page> fetched = Database.getBufferPool().getPages(tid,
+                new ArrayList<>(byPage.keySet()), Permissions.READ_WRITE);
+        for (Page p : fetched) {
+            for (Tuple t : byPage.get(p.getId()))
+                ((SlottedHeapPage) p).deleteTuple(t);
+            freeSpaceMap.setFree(p.getId().getPageNumber(), true);
+            pages.add(p);
+        }
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public DbFileIterator iterator(TransactionId tid) {
+        return new SlottedHeapFileIterator(tid, this);
+    }
+
+}
+
+class SlottedHeapFileIterator extends AbstractDbFileIterator {
+
+    private final SlottedHeapFile f;
+    private final TransactionId tid;
+    private Iterator<Tuple> it;
+    private int currentPage = -2;
+    private final ReadAhead.SequentialCursor readAhead = new ReadAhead.SequentialCursor();
+
+    public SlottedHeapFileIterator(TransactionId tid, SlottedHeapFile f) {
+        this.tid = tid;
+        this.f = f;
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        currentPage = -1;
+        it = null;
+        readAhead.reset();
+    }
+
+    @Override
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        while (currentPage >= -1) {
+            if (it != null && it.hasNext())
+                return it.next();
+            int numPages = f.numPages();
+            if (currentPage >= numPages - 1)
+                return null;
+            readAhead.advance(f.getId(), ++currentPage, numPages);
+            SlottedHeapPage page = (SlottedHeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(f.getId(), currentPage), Permissions.READ_ONLY);
+            it = page.iterator();
+        }
+        return null;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        open();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        it = null;
+        currentPage = -2;
+    }
+}
@@ -0,0 +1,433 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Each instance of SlottedHeapPage stores data for one page of a
+ * SlottedHeapFile. Unlike HeapPage, tuples are stored in their actual
+ * length: strings take one length byte plus their characters instead of
+ * {@link Type#STRING_LEN} + 4 bytes.
+ * <p>
+ * The page starts with a 4-byte header holding the number of slots and the
+ * offset where tuple data begins (0 for the end of an empty page), followed by
+ * the slot directory. Each slot holds the offset and length of a tuple; a
+ * length of 0 marks an empty slot. Tuple data grows from the end of the page
+ * towards the slot directory. All values are unsigned 16-bit integers, so the
+ * page size must not exceed 65535 bytes.
+ * <p>
+ * Deleting a tuple only clears its slot, so RecordIds of the other tuples on
+ * the page remain valid. The space is reclaimed by compacting the tuple data
+ * when an insert does not fit in the gap between the slot directory and the
+ * data.
+ *
+ * @see SlottedHeapFile
+ * @see HeapPage
+ */
+public class SlottedHeapPage implements Page {
+
+    /**
+     * Size of the page header: number of slots and start of the tuple data.
+     */
+    public static final int HEADER_SIZE = 4;
+
+    /**
+     * Size of one slot directory entry: tuple offset and length.
+     */
+    public static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final Tuple tuples[];
+    private final int pageSize;
+
+    /* serialized page; shared with oldData until the first modification */
+    private byte[] data;
+    private int numSlots;
+    private int dataStart;
+    private int usedBytes;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+    private TransactionId dirtyId;
+    private boolean isDirty = false;
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk.
+     * The page keeps a reference to data and decodes a tuple when it is first
+     * requested, so the caller must not change data afterwards.
+     *
+     * @see SlottedHeapPage
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = BufferPool.getPageSize();
+        this.data = data;
+        this.numSlots = readShort(0);
+        this.dataStart = readShort(2) == 0 ? pageSize : readShort(2);
+        if (HEADER_SIZE + numSlots * SLOT_SIZE > dataStart)
+            throw new IOException("corrupt slot directory on page " + id.getPageNumber());
+        this.tuples = new Tuple[(pageSize - HEADER_SIZE) / SLOT_SIZE];
+        for (int i = 0; i < numSlots; ++i)
+            usedBytes += slotLength(i);
+
+        synchronized (oldDataLock) {
+            oldData = data;
+        }
+    }
+
+    /**
+     * Returns the largest number of bytes a tuple with the given TupleDesc
+     * takes on a SlottedHeapPage.
+     */
+    public static int getMaxTupleSize(TupleDesc td) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); ++i)
+            size += td.getFieldType(i) == Type.STRING_TYPE ? 1 + Type.STRING_LEN : td.getFieldType(i).getLen();
+        return size;
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public SlottedHeapPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new SlottedHeapPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    private int readShort(int offset) {
+        return ((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff);
+    }
+
+    private void writeShort(int offset, int value) {
+        data[offset] = (byte) (value >> 8);
+        data[offset + 1] = (byte) value;
+    }
+
+    private int slotOffset(int slotId) {
+        return readShort(HEADER_SIZE + slotId * SLOT_SIZE);
+    }
+
+    private int slotLength(int slotId) {
+        return readShort(HEADER_SIZE + slotId * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int slotId, int offset, int length) {
+        writeShort(HEADER_SIZE + slotId * SLOT_SIZE, offset);
+        writeShort(HEADER_SIZE + slotId * SLOT_SIZE + 2, length);
+    }
+
+    private void setNumSlots(int numSlots) {
+        this.numSlots = numSlots;
+        writeShort(0, numSlots);
+    }
+
+    private void setDataStart(int dataStart) {
+        this.dataStart = dataStart;
+        writeShort(2, dataStart == pageSize ? 0 : dataStart);
+    }
+
+    /**
+     * Make sure data is not shared with the before-image, so it may be modified.
+     */
+    private void ensureOwnData() {
+        synchronized (oldDataLock) {
+            if (data == oldData)
+                data = data.clone();
+        }
+    }
+
+    /**
+     * Returns the tuple stored in the given slot, decoding it from the raw
+     * page bytes the first time it is requested.
+     */
+    private Tuple getTuple(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = readTuple(slotId);
+            tuples[slotId] = t;
+        }
+        return t;
+    }
+
+    /**
+     * Decode the tuple stored in the given used slot.
+     */
+    private Tuple readTuple(int slotId) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        int offset = slotOffset(slotId);
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                int v = (readShort(offset) << 16) | readShort(offset + 2);
+                t.setField(j, new IntField(v));
+                offset += 4;
+            } else {
+                int len = data[offset] & 0xff;
+                t.setField(j, new StringField(new String(data, offset + 1, len), Type.STRING_LEN));
+                offset += 1 + len;
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Encode the fields of t in their actual length.
+     */
+    private byte[] encodeTuple(Tuple t) {
+        byte[] buf = new byte[getMaxTupleSize(td)];
+        int offset = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            Field f = t.getField(j);
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                int v = ((IntField) f).getValue();
+                buf[offset++] = (byte) (v >> 24);
+                buf[offset++] = (byte) (v >> 16);
+                buf[offset++] = (byte) (v >> 8);
+                buf[offset++] = (byte) v;
+            } else {
+                // same truncation and character encoding as StringField.serialize
+                String s = ((StringField) f).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                buf[offset++] = (byte) len;
+                for (int i = 0; i < len; i++)
+                    buf[offset++] = (byte) s.charAt(i);
+            }
+        }
+        return Arrays.copyOf(buf, offset);
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     * <p>
+     * The invariant here is that it should be possible to pass the byte
+     * array generated by getPageData to the SlottedHeapPage constructor and
+     * have it produce an identical SlottedHeapPage object.
+     *
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedHeapPage.
+     *
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()]; //all 0
+    }
+
+    /**
+     * Returns the number of bytes still available for tuples and their slots,
+     * counting the space freed by deleted tuples.
+     */
+    public int getFreeSpace() {
+        return pageSize - HEADER_SIZE - numSlots * SLOT_SIZE - usedBytes;
+    }
+
+    /**
+     * Returns true if a tuple encoded in len bytes fits on this page.
+     */
+    public boolean hasRoomFor(int len) {
+        return getFreeSpace() >= len + (findEmptySlot() < numSlots ? 0 : SLOT_SIZE);
+    }
+
+    /**
+     * Returns true if the specified tuple fits on this page.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return hasRoomFor(encodeTuple(t).length);
+    }
+
+    private int findEmptySlot() {
+        int i = 0;
+        while (i < numSlots && slotLength(i) != 0)
+            ++i;
+        return i;
+    }
+
+    /**
+     * Move all tuples to the end of the page, so the free space is one gap
+     * between the slot directory and the tuple data. Slot numbers do not change.
+     */
+    private void compact() {
+        Integer[] live = new Integer[numSlots];
+        int n = 0;
+        for (int i = 0; i < numSlots; ++i)
+            if (slotLength(i) != 0)
+                live[n++] = i;
+        // moving the highest tuple first never overwrites one not yet moved
+        Arrays.sort(live, 0, n, (a, b) -> Integer.compare(slotOffset(b), slotOffset(a)));
+        int pos = pageSize;
+        for (int k = 0; k < n; ++k) {
+            int len = slotLength(live[k]);
+            pos -= len;
+            System.arraycopy(data, slotOffset(live[k]), data, pos, len);
+            setSlot(live[k], pos, len);
+        }
+        Arrays.fill(data, HEADER_SIZE + numSlots * SLOT_SIZE, pos, (byte) 0);
+        setDataStart(pos);
+    }
+
+    /**
+     * Delete the specified tuple from the page; its slot is cleared and may be
+     * reused by a later insert.
+     *
+     * @param t The tuple to delete
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *                     already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !rid.getPageId().equals(pid) || !isSlotUsed(rid.getTupleNumber()))
+            throw new DbException("tuple is not on the page or tuple slot is already empty");
+
+        int slot = rid.getTupleNumber();
+        ensureOwnData();
+        Arrays.fill(data, slotOffset(slot), slotOffset(slot) + slotLength(slot), (byte) 0);
+        usedBytes -= slotLength(slot);
+        setSlot(slot, 0, 0);
+        tuples[slot] = null;
+        // trailing empty slots are dropped from the directory
+        int n = numSlots;
+        while (n > 0 && slotLength(n - 1) == 0)
+            --n;
+        setNumSlots(n);
+        if (n == 0)
+            setDataStart(pageSize);
+    }
+
+    /**
+     * Adds the specified tuple to the page;  the tuple should be updated to reflect
+     * that it is now stored on this page.
+     *
+     * @param t The tuple to add.
+     * @throws DbException if the tuple does not fit on the page or tupledesc
+     *                     is mismatch.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("tupledesc doesn't match");
+        byte[] bytes = encodeTuple(t);
+        if (!hasRoomFor(bytes.length))
+            throw new DbException("page is full");
+
+        ensureOwnData();
+        int slot = findEmptySlot();
+        int dirEnd = HEADER_SIZE + Math.max(numSlots, slot + 1) * SLOT_SIZE;
+        if (dataStart - dirEnd < bytes.length)
+            compact();
+        if (slot == numSlots)
+            setNumSlots(numSlots + 1);
+        int offset = dataStart - bytes.length;
+        System.arraycopy(bytes, 0, data, offset, bytes.length);
+        setDataStart(offset);
+        setSlot(slot, offset, bytes.length);
+        usedBytes += bytes.length;
+
+        tuples[slot] = t;
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        isDirty = dirty;
+        dirtyId = (dirty) ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        if (isDirty)
+            return dirtyId;
+        else
+            return null;
+    }
+
+    /**
+     * Returns the number of tuples stored on this page.
+     */
+    public int getNumTuples() {
+        int counter = 0;
+        for (int i = 0; i < numSlots; ++i)
+            if (slotLength(i) != 0)
+                ++counter;
+        return counter;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < numSlots && slotLength(i) != 0;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            int currentIdx = 0;
+
+            @Override
+            public boolean hasNext() {
+                while (currentIdx < numSlots)
+                    if (isSlotUsed(currentIdx))
+                        return true;
+                    else
+                        ++currentIdx;
+
+                return false;
+            }
+
+            @Override
+            public Tuple next() {
+                if (hasNext())
+                    return getTuple(currentIdx++);
+                else
+                    throw new NoSuchElementException();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+}
@@ -71,6 +71,10 @@ public class TableStats {
             int tableid = tableIt.next();
             TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
             setTableStats(Database.getCatalog().getTableName(tableid), s);
+            DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+            if (f instanceof HeapFile && ((HeapFile) f).isCompressed())
+                System.out.printf("Table %s: compression ratio %.2f%n",
+                        Database.getCatalog().getTableName(tableid), ((HeapFile) f).getCompressionRatio());
         }
         System.out.println("Done.");
     }
@@ -169,13 +173,112 @@ public class TableStats {
      * if the last page of the table only has one tuple on it, it's just as
      * expensive to read as a full page. (Most real hard drives can't
      * efficiently address regions smaller than a page at a time.)
+     * <p>
+     * Pages of a compressed HeapFile cost less to read in proportion to its
+     * compression ratio.
      *
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
         // some code goes here
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        TupleDesc td = f.getTupleDesc();
+        double cost = (double) td.getSize() * numTups / BufferPool.getPageSize() * ioCostPerPage;
+        if (f instanceof HeapFile)
+            cost /= ((HeapFile) f).getCompressionRatio();
+        return cost;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples that satisfy a predicate of the
+     * given selectivity through a B+ tree keyed on the given field, in the same
+     * units as {@link #estimateScanCost()}.
+     * <p>
+     * Every lookup descends from the root, one page per level, and then reads
+     * the leaves holding the matching keys. If the tree is clustered, that is
+     * the table is itself a BTreeFile, the leaves hold the tuples. Otherwise it
+     * is a {@link SecondaryIndex} whose leaves hold RecordIds, and each matching
+     * tuple costs another page read, as its page is unlikely to be read twice.
+     *
+     * @param field       the field the tree is keyed on
+     * @param selectivity the selectivity of the predicate on that field
+     * @param clustered   whether the tree holds the tuples of the table
+     * @return The estimated cost of the index scan.
+     */
+    public double estimateIndexScanCost(int field, double selectivity, boolean clustered) {
         TupleDesc td = Database.getCatalog().getDatabaseFile(tableId).getTupleDesc();
-        return (double) td.getSize() * numTups / BufferPool.getPageSize() * ioCostPerPage;
+        int keySize = td.getFieldType(field).getLen();
+        int entrySize = clustered ? td.getSize() : keySize + 2 * Type.INT_TYPE.getLen();
+        double pages = estimateLeafRangePages(keySize, entrySize, selectivity);
+        if (!clustered)
+            pages += selectivity * numTups;
+        return pages * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples that satisfy predicates of the
+     * given combined selectivity through the table's bitmap indexes, as a
+     * {@link BitmapScan} does, in the same units as {@link #estimateScanCost()}.
+     * The bitmaps are held in memory, so the cost is that of the pages holding
+     * at least one matching tuple, each read once, plus one predicate
+     * application per matching tuple, as the scan checks each tuple it
+     * fetches. With the matching tuples spread evenly, a page of n tuples
+     * holds none with probability (1 - selectivity)^n.
+     *
+     * @param selectivity the selectivity of the predicates
+     * @return The estimated cost of the bitmap scan.
+     */
+    public double estimateBitmapScanCost(double selectivity) {
+        TupleDesc td = Database.getCatalog().getDatabaseFile(tableId).getTupleDesc();
+        int perPage = BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+        double pages = Math.ceil(numTups / (double) perPage);
+        return pages * (1 - Math.pow(1 - selectivity, perPage)) * ioCostPerPage + selectivity * numTups;
+    }
+
+    /**
+     * Estimates the cost of looking up the tuples with a given key in a
+     * {@link HashFile}, where the given selectivity is the fraction of the
+     * tuples that have the key, in the same units as {@link #estimateScanCost()}.
+     * A lookup reads the meta page and the pages of the key's bucket, which
+     * are as many as the matching tuples fill, and at least one.
+     *
+     * @param selectivity the selectivity of the equality predicate on the key
+     * @return The estimated cost of the lookup.
+     */
+    public double estimateHashLookupCost(double selectivity) {
+        TupleDesc td = Database.getCatalog().getDatabaseFile(tableId).getTupleDesc();
+        double pages = Math.max(1.0, Math.ceil(selectivity * numTups / HashBucketPage.getMaxTuples(td)));
+        return (1 + pages) * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples that satisfy a predicate of the
+     * given selectivity on the key of a covering index from the entries of the
+     * index alone, as an {@link IndexOnlyScan} does. This is the cost of the
+     * descent and of the leaves holding the matching entries, which are
+     * larger than those of a plain index by the included fields.
+     *
+     * @param index       the index to read
+     * @param selectivity the selectivity of the predicate on its key, or 1.0
+     *                    to read every entry
+     * @return The estimated cost of the index-only scan.
+     */
+    public double estimateIndexOnlyScanCost(SecondaryIndex index, double selectivity) {
+        TupleDesc entryDesc = index.getTree().getTupleDesc();
+        return estimateLeafRangePages(entryDesc.getFieldType(0).getLen(), entryDesc.getSize(), selectivity)
+                * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the number of pages read by a descent of a B+ tree over this
+     * table's tuples, followed by a scan of the given fraction of its leaves.
+     */
+    private double estimateLeafRangePages(int keySize, int entrySize, double selectivity) {
+        int pageBits = BufferPool.getPageSize() * 8;
+        double leaves = Math.max(1.0, Math.ceil(numTups / (double) (pageBits / (entrySize * 8 + 1))));
+        double fanout = Math.max(2.0, BufferPool.getPageSize() / (double) (keySize + BTreePage.INDEX_SIZE));
+        double height = Math.ceil(Math.log(leaves) / Math.log(fanout));
+        return height + Math.max(1.0, Math.ceil(selectivity * leaves));
     }
 
     /**
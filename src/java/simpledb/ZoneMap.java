@@ -0,0 +1,309 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * ZoneMap keeps the smallest and largest value of every INT_TYPE column on
+ * each page of a HeapFile, so that a scan with a range predicate can skip
+ * the pages that cannot hold a matching tuple.
+ * <p>
+ * The map is stored next to the data file (with a ".zm" suffix) as one
+ * fixed-size record per page: a flag saying whether the page has been
+ * summarized, then a (min, max) pair for each INT_TYPE column. A page that
+ * has no record yet, e.g. because the map file is missing, is summarized in
+ * memory the next time it is read from disk, so the map rebuilds itself as
+ * the table is scanned; scans never write to the map file, and the record
+ * reaches the disk with the page's next write.
+ * <p>
+ * Ranges only ever grow: inserts widen the range of their page at once,
+ * deletes leave it alone. A range therefore always covers the page, both in
+ * the BufferPool and on disk, because a page's record is written before the
+ * page itself. This relies on every HeapFile on a data file sharing one map,
+ * which the Catalog hands out; see {@link Catalog#getZoneMap(File, TupleDesc)}.
+ * <p>
+ * The map is only used to skip pages. If its file cannot be read or
+ * written, the error is reported once, the file is deleted so that it
+ * cannot go stale, and from then on every page may match.
+ *
+ * @Threadsafe
+ * @see HeapFile#iterator(TransactionId, List)
+ */
+public class ZoneMap {
+
+    private static final String SUFFIX = ".zm";
+
+    private final File f;
+    private final TupleDesc td;
+    private final DbFileChannel channel;
+    /* the INT_TYPE columns of the table, and the position of each column in a record */
+    private final int[] columns;
+    private final int[] slotOf;
+    private final int recordSize;
+
+    /* per page: whether it is summarized, and min/max of each INT_TYPE column */
+    private boolean[] known;
+    private int[][] min;
+    private int[][] max;
+    /* set once the map file failed; the map then rules out nothing */
+    private boolean failed;
+
+    /**
+     * Creates the zone map for the specified heap file. The map file is not
+     * read until the map is first used. HeapFiles get their map from the
+     * Catalog rather than creating their own.
+     *
+     * @param dataFile the file backing the HeapFile
+     * @param td       the tuple descriptor of the HeapFile
+     */
+    public ZoneMap(File dataFile, TupleDesc td) {
+        this.f = new File(dataFile.getPath() + SUFFIX);
+        this.td = td;
+        this.channel = new DbFileChannel(f);
+        int n = 0;
+        this.slotOf = new int[td.numFields()];
+        for (int i = 0; i < td.numFields(); ++i)
+            slotOf[i] = td.getFieldType(i) == Type.INT_TYPE ? n++ : -1;
+        this.columns = new int[n];
+        for (int i = 0; i < td.numFields(); ++i)
+            if (slotOf[i] >= 0)
+                columns[slotOf[i]] = i;
+        this.recordSize = 4 + 8 * n;
+    }
+
+    /**
+     * Deletes the zone map of the given data file, e.g. because the data
+     * file has been rewritten behind the map's back.
+     *
+     * @param dataFile the file backing a HeapFile
+     */
+    public static void discard(File dataFile) {
+        Database.getCatalog().dropZoneMap(dataFile);
+        new File(dataFile.getPath() + SUFFIX).delete();
+    }
+
+    /**
+     * Returns the file the map is stored in.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns the tuple descriptor of the table the map summarizes.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Loads the map if it is not loaded yet, and returns false if the map
+     * file has failed, now or before.
+     */
+    private boolean usable() {
+        if (failed)
+            return false;
+        try {
+            load();
+            return true;
+        } catch (IOException e) {
+            fail(e);
+            return false;
+        }
+    }
+
+    /**
+     * Stops using the map after an I/O error on its file, and deletes the
+     * file, which may no longer cover the pages written from now on.
+     */
+    private void fail(IOException e) {
+        e.printStackTrace();
+        failed = true;
+        channel.close();
+        f.delete();
+    }
+
+    private void load() throws IOException {
+        if (known != null)
+            return;
+        int pages = 0;
+        byte[] bytes = new byte[0];
+        if (columns.length > 0 && f.exists() && f.length() >= recordSize) {
+            pages = (int) (f.length() / recordSize);
+            bytes = new byte[pages * recordSize];
+            channel.read(bytes, 0);
+        }
+        known = new boolean[pages];
+        min = new int[pages][];
+        max = new int[pages][];
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        for (int p = 0; p < pages; ++p) {
+            known[p] = buf.getInt() != 0;
+            min[p] = new int[columns.length];
+            max[p] = new int[columns.length];
+            for (int c = 0; c < columns.length; ++c) {
+                min[p][c] = buf.getInt();
+                max[p][c] = buf.getInt();
+            }
+        }
+    }
+
+    private void ensureCapacity(int pgNo) {
+        if (pgNo < known.length)
+            return;
+        int n = Math.max(pgNo + 1, known.length * 2);
+        int old = known.length;
+        known = Arrays.copyOf(known, n);
+        min = Arrays.copyOf(min, n);
+        max = Arrays.copyOf(max, n);
+        for (int p = old; p < n; ++p) {
+            min[p] = new int[columns.length];
+            max[p] = new int[columns.length];
+        }
+    }
+
+    private void write(int pgNo) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(recordSize);
+        buf.putInt(known[pgNo] ? 1 : 0);
+        for (int c = 0; c < columns.length; ++c) {
+            buf.putInt(min[pgNo][c]);
+            buf.putInt(max[pgNo][c]);
+        }
+        channel.write(buf.array(), (long) pgNo * recordSize);
+    }
+
+    /**
+     * Widens the ranges of a summarized page to cover a tuple inserted into
+     * it. Pages that are not summarized yet are left alone; they are
+     * summarized when they are written.
+     *
+     * @param pgNo the page number
+     * @param t    the inserted tuple
+     */
+    public synchronized void include(int pgNo, Tuple t) {
+        if (columns.length == 0 || !usable())
+            return;
+        if (pgNo >= known.length || !known[pgNo])
+            return;
+        for (int c = 0; c < columns.length; ++c) {
+            int v = ((IntField) t.getField(columns[c])).getValue();
+            min[pgNo][c] = Math.min(min[pgNo][c], v);
+            max[pgNo][c] = Math.max(max[pgNo][c], v);
+        }
+    }
+
+    /**
+     * Widens the ranges of a page that is about to be written to disk to
+     * cover its contents, and writes its record.
+     *
+     * @param page the page being written
+     */
+    public synchronized void persist(HeapPage page) {
+        if (columns.length == 0 || !usable())
+            return;
+        int pgNo = page.getId().getPageNumber();
+        summarize(page, pgNo < known.length && known[pgNo]);
+        try {
+            write(pgNo);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Summarizes a page just read from disk if it has no record yet. The
+     * summary stays in memory until the page is next written.
+     *
+     * @param page the page read from disk
+     */
+    public synchronized void reconcile(HeapPage page) {
+        if (columns.length == 0 || !usable())
+            return;
+        int pgNo = page.getId().getPageNumber();
+        if (pgNo < known.length && known[pgNo])
+            return;
+        summarize(page, false);
+    }
+
+    /**
+     * Set the ranges of a page to those of its tuples, or if widen is set,
+     * to the union of those and its current ranges.
+     */
+    private void summarize(HeapPage page, boolean widen) {
+        int pgNo = page.getId().getPageNumber();
+        ensureCapacity(pgNo);
+        if (!widen) {
+            Arrays.fill(min[pgNo], Integer.MAX_VALUE);
+            Arrays.fill(max[pgNo], Integer.MIN_VALUE);
+        }
+        known[pgNo] = true;
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            for (int c = 0; c < columns.length; ++c) {
+                int v = ((IntField) t.getField(columns[c])).getValue();
+                min[pgNo][c] = Math.min(min[pgNo][c], v);
+                max[pgNo][c] = Math.max(max[pgNo][c], v);
+            }
+        }
+    }
+
+    /**
+     * Returns false if the given page cannot hold a tuple satisfying all of
+     * the predicates. Predicates over non-INT_TYPE columns, and pages that
+     * are not summarized, never rule a page out.
+     *
+     * @param pgNo       the page number
+     * @param predicates predicates over the fields of the table
+     */
+    public synchronized boolean mayMatch(int pgNo, List<Predicate> predicates) {
+        if (columns.length == 0 || predicates.isEmpty() || !usable())
+            return true;
+        if (pgNo >= known.length || !known[pgNo])
+            return true;
+        for (Predicate p : predicates) {
+            int c = p.getField() < slotOf.length ? slotOf[p.getField()] : -1;
+            if (c < 0 || !(p.getOperand() instanceof IntField))
+                continue;
+            if (!overlaps(min[pgNo][c], max[pgNo][c], p.getOp(), ((IntField) p.getOperand()).getValue()))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if some value in [lo, hi] satisfies "value op v".
+     */
+    private static boolean overlaps(int lo, int hi, Predicate.Op op, int v) {
+        if (lo > hi)
+            return false; // empty page
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return lo <= v && v <= hi;
+            case NOT_EQUALS:
+                return lo != v || hi != v;
+            case GREATER_THAN:
+                return hi > v;
+            case GREATER_THAN_OR_EQ:
+                return hi >= v;
+            case LESS_THAN:
+                return lo < v;
+            case LESS_THAN_OR_EQ:
+                return lo <= v;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Closes the file of this map. A later use reopens it.
+     */
+    public void close() {
+        channel.close();
+    }
+}
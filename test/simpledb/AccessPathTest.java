@@ -0,0 +1,171 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class AccessPathTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 20000;
+
+    private TransactionId tid;
+
+    /**
+     * Create a heap table of unique ids and repeating group numbers with an
+     * index on each column, and a B+ tree table keyed on its first column.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < ROWS; ++i) {
+            ArrayList<Integer> t = new ArrayList<>();
+            t.add(i);
+            t.add(i % 10);
+            tuples.add(t);
+        }
+        File f = File.createTempFile("heap", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2, "f"));
+        Database.getCatalog().addTable(hf, "h");
+        for (int field = 0; field < 2; field++) {
+            File idx = File.createTempFile("h_f" + field, ".idx");
+            idx.deleteOnExit();
+            SecondaryIndex index = new SecondaryIndex("h_f" + field, idx, hf.getId(), field);
+            index.build();
+            Database.getCatalog().addIndex(index);
+        }
+
+        BTreeFile random = BTreeUtility.createRandomBTreeFile(2, ROWS, null, null, 0);
+        BTreeFile bf = new BTreeFile(random.getFile(), 0, Utility.getTupleDesc(2, "key"));
+        Database.getCatalog().addTable(bf, "b");
+
+        TableStats.setTableStats("h", new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        TableStats.setTableStats("b", new TableStats(bf.getId(), TableStats.IOCOSTPERPAGE));
+        tid = new TransactionId();
+    }
+
+    private OpIterator plan(String query) throws Exception {
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, query);
+        return lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    }
+
+    /**
+     * Returns the scan at the bottom of a plan over a single table.
+     */
+    private static OpIterator leaf(OpIterator plan) {
+        while (plan instanceof Operator)
+            plan = ((Operator) plan).getChildren()[0];
+        return plan;
+    }
+
+    private static int count(OpIterator plan) throws Exception {
+        int n = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        plan.close();
+        return n;
+    }
+
+    @Test
+    public void secondaryIndexForSelectiveFilter() throws Exception {
+        OpIterator p = plan("SELECT * FROM h WHERE h.f0 = 1234;");
+        assertTrue(leaf(p) instanceof IndexScan);
+        assertEquals(0, ((IndexScan) leaf(p)).getIndex().getKeyField());
+        assertEquals(1, count(p));
+
+        p = plan("SELECT * FROM h WHERE h.f1 = 1 AND h.f0 < 20;");
+        assertTrue(leaf(p) instanceof IndexScan);
+        assertEquals(0, ((IndexScan) leaf(p)).getIndex().getKeyField());
+        assertEquals(2, count(p));
+    }
+
+    @Test
+    public void seqScanForUnselectiveFilter() throws Exception {
+        OpIterator p = plan("SELECT * FROM h WHERE h.f1 = 3;");
+        assertTrue(leaf(p) instanceof SeqScan);
+        assertEquals(ROWS / 10, count(p));
+
+        p = plan("SELECT * FROM h WHERE h.f0 <> 5;");
+        assertTrue(leaf(p) instanceof SeqScan);
+        assertEquals(ROWS - 1, count(p));
+    }
+
+    @Test
+    public void clusteredIndex() throws Exception {
+        OpIterator p = plan("SELECT * FROM b WHERE b.key0 < 0;");
+        assertTrue(leaf(p) instanceof BTreeScan);
+        assertEquals(0, count(p));
+
+        // every tuple matches, so reading the leaves through the tree costs more
+        p = plan("SELECT * FROM b WHERE b.key0 >= 0;");
+        assertTrue(leaf(p) instanceof SeqScan);
+        assertEquals(ROWS, count(p));
+    }
+
+    @Test
+    public void coveringIndex() throws Exception {
+        int tableid = Database.getCatalog().getTableId("h");
+        File f = File.createTempFile("h_f1_f0", ".idx");
+        f.deleteOnExit();
+        SecondaryIndex covering = new SecondaryIndex("h_f1_f0", f, tableid, 1, new int[]{0});
+        covering.build();
+        Database.getCatalog().addIndex(covering);
+
+        OpIterator p = plan("SELECT h.f0 FROM h WHERE h.f1 = 3;");
+        assertTrue(leaf(p) instanceof IndexOnlyScan);
+        assertEquals(covering, ((IndexOnlyScan) leaf(p)).getIndex());
+        p.open();
+        int n = 0;
+        while (p.hasNext()) {
+            assertEquals(3, ((IntField) p.next().getField(0)).getValue() % 10);
+            n++;
+        }
+        p.close();
+        assertEquals(ROWS / 10, n);
+        assertTrue(new QueryPlanVisualizer().getQueryPlanTree(p).contains("index only scan(h, h_f1_f0 h.f1 = 3)"));
+
+        // the index does not hold every field
+        p = plan("SELECT * FROM h WHERE h.f1 = 3;");
+        assertTrue(leaf(p) instanceof SeqScan);
+    }
+
+    @Test
+    public void explain() throws Exception {
+        QueryPlanVisualizer v = new QueryPlanVisualizer();
+        String tree = v.getQueryPlanTree(plan("SELECT * FROM h WHERE h.f0 = 1234;"));
+        assertTrue(tree, tree.contains("index scan(h, h_f0 h.f0 = 1234)"));
+        tree = v.getQueryPlanTree(plan("SELECT * FROM b WHERE b.key0 < 0;"));
+        assertTrue(tree, tree.contains("index scan(b, b.key0 < 0)"));
+        tree = v.getQueryPlanTree(plan("SELECT * FROM h WHERE h.f1 = 3;"));
+        assertTrue(tree, tree.contains("scan(h)"));
+    }
+
+    @Test
+    public void indexScanCost() {
+        TableStats s = TableStats.getTableStats("h");
+        assertTrue(s.estimateIndexScanCost(0, 0.001, false) < s.estimateScanCost());
+        assertTrue(s.estimateIndexScanCost(0, 0.5, false) > s.estimateScanCost());
+        assertTrue(s.estimateIndexScanCost(0, 0.1, true) < s.estimateIndexScanCost(0, 0.1, false));
+        assertTrue(s.estimateIndexScanCost(0, 0.01, false) < s.estimateIndexScanCost(0, 0.1, false));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(AccessPathTest.class);
+    }
+}
@@ -0,0 +1,124 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BTreeBulkLoaderTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 3000;
+
+    private final ArrayList<ArrayList<Integer>> tuples = new ArrayList<>();
+
+    private BTreeFile build(BTreeBulkLoader loader) throws Exception {
+        // few distinct keys, so that duplicates span leaves
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, ROWS, 500, null, tuples);
+        File bFile = File.createTempFile("bulk", ".dat");
+        bFile.deleteOnExit();
+        BTreeFile bf = loader.build(hf, bFile);
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        return bf;
+    }
+
+    private void checkTree(BTreeFile bf) throws Exception {
+        TransactionId tid = new TransactionId();
+        BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+
+        ArrayList<Integer> keys = new ArrayList<>();
+        for (ArrayList<Integer> t : tuples)
+            keys.add(t.get(0));
+        Collections.sort(keys);
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        int i = 0;
+        while (it.hasNext())
+            assertEquals((int) keys.get(i++), ((IntField) it.next().getField(0)).getValue());
+        it.close();
+        assertEquals(ROWS, i);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private int countLeaves(BTreeFile bf) throws Exception {
+        TransactionId tid = new TransactionId();
+        HashSet<PageId> leaves = new HashSet<>();
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            leaves.add(it.next().getRecordId().getPageId());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return leaves.size();
+    }
+
+    /**
+     * Runs much smaller than the table take an extra merge pass, and the
+     * result is a valid tree holding every tuple in key order.
+     */
+    @Test
+    public void externalSort() throws Exception {
+        BTreeBulkLoader loader = new BTreeBulkLoader(0);
+        loader.setRunTuples(ROWS / (BTreeBulkLoader.MERGE_FAN_IN + 10));
+        loader.setThreads(3);
+        BTreeFile bf = build(loader);
+        checkTree(bf);
+
+        // inserts into the loaded tree still keep it valid
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 600; ++i)
+            Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(i % 500, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        BTreeChecker.checkRep(bf, new TransactionId(), new HashMap<PageId, Page>(), true);
+    }
+
+    /**
+     * A lower fill factor leaves room in every page.
+     */
+    @Test
+    public void fillFactor() throws Exception {
+        BTreeBulkLoader full = new BTreeBulkLoader(0);
+        int fullLeaves = countLeaves(build(full));
+
+        tuples.clear();
+        BTreeBulkLoader sparse = new BTreeBulkLoader(0);
+        sparse.setFillFactor(0.7);
+        BTreeFile bf = build(sparse);
+        checkTree(bf);
+        int sparseLeaves = countLeaves(bf);
+        assertTrue(sparseLeaves >= fullLeaves * 10 / 7);
+    }
+
+    /**
+     * Page sizes never leave a page below half full.
+     */
+    @Test
+    public void pageSizes() {
+        assertArrayEquals(new int[]{0}, BTreeBulkLoader.pageSizes(0, 10, 5, 10, false));
+        assertArrayEquals(new int[]{10}, BTreeBulkLoader.pageSizes(10, 10, 5, 10, false));
+        assertArrayEquals(new int[]{10, 10}, BTreeBulkLoader.pageSizes(20, 10, 5, 10, false));
+        // the last two pages share the remainder
+        assertArrayEquals(new int[]{10, 5, 6}, BTreeBulkLoader.pageSizes(21, 10, 5, 10, false));
+        assertArrayEquals(new int[]{10, 6, 5}, BTreeBulkLoader.pageSizes(21, 10, 5, 10, true));
+        // the remainder fits on the page before it
+        assertArrayEquals(new int[]{7, 9}, BTreeBulkLoader.pageSizes(16, 10, 5, 7, false));
+        assertArrayEquals(new int[]{7, 7, 7}, BTreeBulkLoader.pageSizes(21, 10, 5, 7, false));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeBulkLoaderTest.class);
+    }
+}
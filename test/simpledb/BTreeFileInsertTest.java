@@ -124,6 +124,13 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
                     otherPage.reverseIterator().next().getKey()));
         }
 
+        // the left page links to the right one, separated by the pushed up key
+        BTreeInternalPage left = (BTreeInternalPage) dirtypages.get(parentEntry.getLeftChild());
+        BTreeInternalPage right = (BTreeInternalPage) dirtypages.get(parentEntry.getRightChild());
+        assertEquals(right.getId(), left.getRightLinkId());
+        assertEquals(parentEntry.getKey(), left.getHighKey());
+        assertNull(right.getRightLinkId());
+
         int totalEntries = page.getNumEntries() + otherPage.getNumEntries();
         assertEquals(entriesPerPage - 1, totalEntries);
         assertTrue(entriesPerPage / 2 == page.getNumEntries() ||
@@ -132,6 +139,70 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
                 entriesPerPage / 2 - 1 == otherPage.getNumEntries());
     }
 
+    @Test
+    public void testSeparatorKeys() throws Exception {
+        Field left = new StringField("customer-0417", Type.STRING_LEN);
+        Field right = new StringField("customer-0480", Type.STRING_LEN);
+        assertEquals(new StringField("customer-048", Type.STRING_LEN), BTreeFile.separator(left, right));
+        assertEquals(right, BTreeFile.separator(right, right));
+        assertEquals(new IntField(7), BTreeFile.separator(new IntField(3), new IntField(7)));
+
+        // long keys sharing a prefix get short separators, so a single internal
+        // page holds more leaves than it could fit keys of the largest size, and
+        // the leaves store the prefix their keys share only once
+        File f = File.createTempFile("strings", ".dat");
+        f.deleteOnExit();
+        Database.reset();
+        Database.resetBufferPool(500);
+        TupleDesc td = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE});
+        BTreeFile bf = new BTreeFile(f, 0, td);
+        Database.getCatalog().addTable(bf);
+        int n = 5000;
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField(String.format("customer-%06d-%s", (i * 7919) % n,
+                    "with-a-long-padding-suffix-shared-by-every-key"), Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+        }
+        BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+
+        BTreePageId rootId = bf.getRootPtrPage(tid, new HashMap<PageId, Page>()).getRootId();
+        assertEquals(BTreePageId.INTERNAL, rootId.pgcateg());
+        BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(tid, rootId, Permissions.READ_ONLY);
+        assertTrue(root.getNumEntries() > root.getMaxEntries());
+        BTreeLeafPage leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid, root.getChildAt(0), Permissions.READ_ONLY);
+        assertTrue(n / (root.getNumEntries() + 1) > leaf.getMaxTuples());
+        Iterator<BTreeEntry> it = root.iterator();
+        while (it.hasNext()) {
+            BTreeEntry e = it.next();
+            assertEquals(BTreePageId.LEAF, e.getLeftChild().pgcateg());
+            assertTrue(((StringField) e.getKey()).getValue().length() <= "customer-000000".length());
+        }
+
+        // packed leaves steal and merge as the tree shrinks
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        DbFileIterator scan = bf.iterator(tid);
+        scan.open();
+        while (scan.hasNext())
+            tuples.add(scan.next());
+        scan.close();
+        for (int i = 0; i < tuples.size(); i += 3)
+            tuples.set(i, null);
+        for (Tuple t : tuples)
+            if (t != null)
+                Database.getBufferPool().deleteTuple(tid, t);
+        BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+        int count = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        assertEquals((n + 2) / 3, count);
+    }
+
     @Test
     public void testReusePage() throws Exception {
         File emptyFile = File.createTempFile("empty", ".dat");
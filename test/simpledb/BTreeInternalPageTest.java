@@ -15,6 +15,7 @@ import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import junit.framework.JUnit4TestAdapter;
@@ -122,6 +123,43 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for BTreeInternalPage.setRightLink()
+     */
+    @Test
+    public void setRightLink() throws Exception {
+        BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+        assertNull(page.getRightLinkId());
+        assertNull(page.getHighKey());
+
+        // the right link and high key survive serialization
+        BTreePageId id = new BTreePageId(pid.getTableId(), 7, BTreePageId.INTERNAL);
+        page.setRightLink(id, new IntField(70000));
+        page = new BTreeInternalPage(pid, page.getPageData(), 0);
+        assertEquals(id, page.getRightLinkId());
+        assertEquals(new IntField(70000), page.getHighKey());
+        assertEquals(482, page.getNumEmptySlots());
+
+        try {
+            page.setRightLink(new BTreePageId(pid.getTableId(), 7, BTreePageId.LEAF), new IntField(70000));
+            throw new Exception("should not be able to link to a leaf node; expected DbException");
+        } catch (DbException e) {
+            // explicitly ignored
+        }
+
+        try {
+            page.setRightLink(id, null);
+            throw new Exception("should not be able to link without a high key; expected DbException");
+        } catch (DbException e) {
+            // explicitly ignored
+        }
+
+        page.setRightLink(null, null);
+        page = new BTreeInternalPage(pid, page.getPageData(), 0);
+        assertNull(page.getRightLinkId());
+        assertNull(page.getHighKey());
+    }
+
     /**
      * Unit test for BTreeInternalPage.iterator()
      */
@@ -174,13 +212,45 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for BTreeInternalPage.reverseIterator() on a page where
+     * deletions left unused slots between entries
+     */
+    @Test
+    public void reverseIteratorAfterDelete() throws Exception {
+        BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+        ArrayList<BTreeEntry> entries = new ArrayList<BTreeEntry>();
+        Iterator<BTreeEntry> it = page.iterator();
+        while (it.hasNext())
+            entries.add(it.next());
+        page.deleteKeyAndRightChild(entries.remove(entries.size() - 2));
+        page.deleteKeyAndRightChild(entries.remove(3));
+
+        entries.clear();
+        it = page.iterator();
+        while (it.hasNext())
+            entries.add(it.next());
+        Collections.reverse(entries);
+
+        it = page.reverseIterator();
+        int row = 0;
+        while (it.hasNext()) {
+            BTreeEntry e = it.next();
+            assertEquals(entries.get(row).getKey(), e.getKey());
+            assertEquals(entries.get(row).getLeftChild(), e.getLeftChild());
+            assertEquals(entries.get(row).getRightChild(), e.getRightChild());
+            row++;
+        }
+        assertEquals(entries.size(), row);
+    }
+
     /**
      * Unit test for BTreeInternalPage.getNumEmptySlots()
      */
     @Test
     public void getNumEmptySlots() throws Exception {
         BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
-        assertEquals(483, page.getNumEmptySlots());
+        assertEquals(482, page.getNumEmptySlots());
     }
 
     /**
@@ -194,7 +264,7 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
         for (int i = 0; i < 21; ++i)
             assertTrue(page.isSlotUsed(i));
 
-        for (int i = 21; i < 504; ++i)
+        for (int i = 21; i < 503; ++i)
             assertFalse(page.isSlotUsed(i));
     }
 
@@ -250,7 +320,7 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
         int free = page.getNumEmptySlots();
 
         // NOTE(ghuo): this nested loop existence check is slow, but it
-        // shouldn't make a difference for n = 503 slots.
+        // shouldn't make a difference for n = 502 slots.
 
         for (int i = 0; i < free; ++i) {
             BTreeEntry addition = BTreeUtility.getBTreeEntry(i + 21, 70000 + i, pid.getTableId());
@@ -326,6 +396,87 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for BTreeInternalPage.getKeyAt(), getChildAt(), lowerBound()
+     * and upperBound()
+     */
+    @Test
+    public void binarySearch() throws Exception {
+        BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+        ArrayList<BTreeEntry> entries = new ArrayList<BTreeEntry>();
+        Iterator<BTreeEntry> it = page.iterator();
+        while (it.hasNext())
+            entries.add(it.next());
+        page.deleteKeyAndRightChild(entries.remove(5));
+        entries.clear();
+        it = page.iterator();
+        while (it.hasNext())
+            entries.add(it.next());
+        assertEquals(page.getNumEntries(), entries.size());
+        assertEquals(entries.get(0).getLeftChild(), page.getChildAt(0));
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals(entries.get(i).getKey(), page.getKeyAt(i));
+            assertEquals(entries.get(i).getRightChild(), page.getChildAt(i + 1));
+        }
+
+        for (int probe : new int[]{0, 1468, 17876, 17877, 62778, 99999}) {
+            IntField f = new IntField(probe);
+            int less = 0, lessOrEq = 0;
+            for (BTreeEntry e : entries) {
+                if (e.getKey().compare(Predicate.Op.LESS_THAN, f))
+                    less++;
+                if (e.getKey().compare(Predicate.Op.LESS_THAN_OR_EQ, f))
+                    lessOrEq++;
+            }
+            assertEquals(less, page.lowerBound(f));
+            assertEquals(lessOrEq, page.upperBound(f));
+        }
+    }
+
+    /**
+     * Unit test for BTreeInternalPage with packed string keys
+     */
+    @Test
+    public void packedKeys() throws Exception {
+        assertTrue(BTreeInternalPage.hasPackedKeys(Type.STRING_TYPE));
+        assertFalse(BTreeInternalPage.hasPackedKeys(Type.INT_TYPE));
+
+        BTreePageId spid = new BTreePageId(-2, -1, BTreePageId.INTERNAL);
+        TupleDesc td = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE});
+        Database.getCatalog().addTable(new SkeletonFile(-2, td), SystemTestUtil.getUUID());
+        BTreeInternalPage page = new BTreeInternalPage(spid, BTreeInternalPage.createEmptyPageData(), 0);
+
+        // the page fills up by bytes, so short keys fit many times over
+        int n = 0;
+        while (page.getNumEmptySlots() > 0) {
+            BTreePageId leftChild = new BTreePageId(-2, n + 1, BTreePageId.LEAF);
+            BTreePageId rightChild = new BTreePageId(-2, n + 2, BTreePageId.LEAF);
+            page.insertEntry(new BTreeEntry(new StringField(String.format("k%04d", n), Type.STRING_LEN),
+                    leftChild, rightChild));
+            n++;
+        }
+        assertEquals(n, page.getNumEntries());
+        assertTrue(n > 10 * page.getMaxEntries());
+
+        BTreeInternalPage copy = new BTreeInternalPage(spid, page.getPageData(), 0);
+        assertEquals(n, copy.getNumEntries());
+        assertEquals(new BTreePageId(-2, 1, BTreePageId.LEAF), copy.getChildAt(0));
+        for (int i = 0; i < n; i++) {
+            assertEquals(new StringField(String.format("k%04d", i), Type.STRING_LEN), copy.getKeyAt(i));
+            assertEquals(new BTreePageId(-2, i + 2, BTreePageId.LEAF), copy.getChildAt(i + 1));
+        }
+        assertTrue(Arrays.equals(page.getPageData(), copy.getPageData()));
+
+        // the same entries come out of the encoder
+        ArrayList<BTreeEntry> entries = new ArrayList<BTreeEntry>();
+        Iterator<BTreeEntry> it = page.iterator();
+        while (it.hasNext())
+            entries.add(it.next());
+        byte[] data = BTreeFileEncoder.convertToInternalPage(entries, BufferPool.getPageSize(),
+                Type.STRING_TYPE, BTreePageId.LEAF);
+        assertTrue(Arrays.equals(page.getPageData(), data));
+    }
+
     /**
      * JUnit suite target
      */
@@ -352,6 +352,94 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for BTreeLeafPage.getTupleAt(), lowerBound() and upperBound()
+     */
+    @Test
+    public void binarySearch() throws Exception {
+        BTreeLeafPage page = new BTreeLeafPage(pid, EXAMPLE_DATA, 0);
+        page.deleteTuple(page.getTupleAt(2));
+        page.insertTuple(BTreeUtility.getBTreeTuple(new int[]{6350, 1}));
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            tuples.add(it.next());
+        assertEquals(page.getNumTuples(), tuples.size());
+        for (int i = 0; i < tuples.size(); i++)
+            assertEquals(tuples.get(i), page.getTupleAt(i));
+
+        for (int probe : new int[]{0, 1468, 6350, 6351, 31933, 99999}) {
+            IntField f = new IntField(probe);
+            int less = 0, lessOrEq = 0;
+            for (Tuple t : tuples) {
+                if (t.getField(0).compare(Predicate.Op.LESS_THAN, f))
+                    less++;
+                if (t.getField(0).compare(Predicate.Op.LESS_THAN_OR_EQ, f))
+                    lessOrEq++;
+            }
+            assertEquals(less, page.lowerBound(f));
+            assertEquals(lessOrEq, page.upperBound(f));
+
+            // positioned iterators start at the bound
+            it = page.iterator(less);
+            if (less < tuples.size())
+                assertEquals(tuples.get(less), it.next());
+            else
+                assertFalse(it.hasNext());
+            it = page.reverseIterator(lessOrEq - 1);
+            if (lessOrEq > 0)
+                assertEquals(tuples.get(lessOrEq - 1), it.next());
+            else
+                assertFalse(it.hasNext());
+        }
+    }
+
+    /**
+     * Unit test for BTreeLeafPage with packed string keys
+     */
+    @Test
+    public void packedKeys() throws Exception {
+        BTreePageId spid = new BTreePageId(-2, -1, BTreePageId.LEAF);
+        TupleDesc td = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE});
+        Database.getCatalog().addTable(new SkeletonFile(-2, td), SystemTestUtil.getUUID());
+        BTreeLeafPage page = new BTreeLeafPage(spid, BTreeLeafPage.createEmptyPageData(), 0);
+
+        // the page fills up by bytes, and keys sharing a long prefix fit many times over
+        int n = 0;
+        while (true) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField(String.format("order-2026-10-%05d", (n * 7919) % 1000), Type.STRING_LEN));
+            t.setField(1, new IntField(n));
+            if (!page.hasRoomFor(t))
+                break;
+            page.insertTuple(t);
+            n++;
+        }
+        assertEquals(n, page.getNumTuples());
+        assertTrue(n > 10 * page.getMaxTuples());
+
+        // a key sharing no prefix with the others would lengthen all of them
+        Tuple other = new Tuple(td);
+        other.setField(0, new StringField("invoice", Type.STRING_LEN));
+        other.setField(1, new IntField(0));
+        assertFalse(page.hasRoomFor(other));
+
+        BTreeLeafPage copy = new BTreeLeafPage(spid, page.getPageData(), 0);
+        assertEquals(n, copy.getNumTuples());
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < n; i++) {
+            tuples.add(page.getTupleAt(i));
+            assertEquals(page.getTupleAt(i).getField(0), copy.getTupleAt(i).getField(0));
+            assertEquals(page.getTupleAt(i).getField(1), copy.getTupleAt(i).getField(1));
+        }
+        assertTrue(Arrays.equals(page.getPageData(), copy.getPageData()));
+
+        // the same tuples come out of the encoder
+        byte[] data = BTreeFileEncoder.convertToLeafPage(tuples, BufferPool.getPageSize(), 2,
+                new Type[]{Type.STRING_TYPE, Type.INT_TYPE}, 0);
+        assertTrue(Arrays.equals(page.getPageData(), data));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,221 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.Predicate.Op;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BitmapIndexTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 20000;
+
+    private HeapFile hf;
+    private BitmapIndex byStatus;
+    private BitmapIndex byRegion;
+
+    private static File tempFile(String prefix, String suffix) throws Exception {
+        File f = File.createTempFile(prefix, suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Create a table of ids, a status that cycles through 50 values, and a
+     * region that changes every 500 rows, with a bitmap index on the status
+     * and on the region.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < ROWS; ++i)
+            tuples.add(new ArrayList<>(Arrays.asList(i, i % 50, (i / 500) % 4)));
+        File f = tempFile("events", ".dat");
+        new File(f.getPath() + ".zm").deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 3);
+        hf = new HeapFile(f, Utility.getTupleDesc(3, "f"));
+        Database.getCatalog().addTable(hf, "t");
+
+        byStatus = new BitmapIndex("t_status", tempFile("t_status", ".bm"), hf.getId(), 1);
+        byStatus.build();
+        Database.getCatalog().addBitmapIndex(byStatus);
+        byRegion = new BitmapIndex("t_region", tempFile("t_region", ".bm"), hf.getId(), 2);
+        byRegion.build();
+        Database.getCatalog().addBitmapIndex(byRegion);
+    }
+
+    private static Predicate pred(int field, Op op, int value) {
+        return new Predicate(field, op, new IntField(value));
+    }
+
+    private static List<Tuple> drain(OpIterator it) throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        it.open();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+        return tuples;
+    }
+
+    private List<Tuple> scan(TransactionId tid, List<List<Predicate>> clauses) throws Exception {
+        return drain(new BitmapScan(tid, hf.getId(), "t", clauses));
+    }
+
+    @Test
+    public void lookup() {
+        assertEquals(50, byStatus.getNumValues());
+        assertEquals(4, byRegion.getNumValues());
+        assertEquals(ROWS / 50, byStatus.lookup(Op.EQUALS, new IntField(3)).cardinality());
+        assertEquals(3 * ROWS / 50, byStatus.lookup(Op.LESS_THAN, new IntField(3)).cardinality());
+        Bitmap region = byRegion.lookup(Op.EQUALS, new IntField(2));
+        assertEquals(ROWS / 4, region.cardinality());
+        // the region comes in runs of 500 rows, which compress to a run each
+        assertTrue(region.numRuns() <= 2 * ROWS / 2000);
+    }
+
+    @Test
+    public void conjunctionsAndDisjunctions() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<List<Predicate>> clauses = Arrays.asList(
+                Collections.singletonList(pred(1, Op.EQUALS, 7)),
+                Arrays.asList(pred(2, Op.EQUALS, 1), pred(2, Op.EQUALS, 3)));
+        List<Tuple> found = scan(tid, clauses);
+        int expected = 0;
+        for (int i = 0; i < ROWS; i++)
+            if (i % 50 == 7 && (i / 500) % 4 % 2 == 1)
+                expected++;
+        assertEquals(expected, found.size());
+        int last = -1;
+        for (Tuple t : found) {
+            assertEquals(new IntField(7), t.getField(1));
+            int id = ((IntField) t.getField(0)).getValue();
+            assertTrue(id > last);
+            last = id;
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test
+    public void maintainedByBufferPool() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<List<Predicate>> status99 = Collections.singletonList(Collections.singletonList(pred(1, Op.EQUALS, 99)));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{ROWS, 99, 0}));
+        assertEquals(1, scan(tid, status99).size());
+        List<List<Predicate>> victims = Arrays.asList(Collections.singletonList(pred(1, Op.EQUALS, 3)),
+                Collections.singletonList(pred(2, Op.EQUALS, 0)));
+        for (Tuple victim : scan(tid, victims))
+            Database.getBufferPool().deleteTuple(tid, victim);
+        assertTrue(scan(tid, victims).isEmpty());
+        Database.getBufferPool().transactionComplete(tid);
+
+        // writing the pages cleared the bits of the deleted tuples
+        Bitmap status3 = byStatus.lookup(Op.EQUALS, new IntField(3));
+        assertTrue(status3.and(byRegion.lookup(Op.EQUALS, new IntField(0))).isEmpty());
+        assertEquals(ROWS / 50 - ROWS / 200, status3.cardinality());
+        assertEquals(1, byStatus.lookup(Op.EQUALS, new IntField(99)).cardinality());
+
+        // an aborted insert leaves a stray bit, but no tuple
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{ROWS + 1, 98, 0}));
+        Database.getBufferPool().transactionComplete(tid, false);
+        tid = new TransactionId();
+        assertTrue(scan(tid, Collections.singletonList(Collections.singletonList(pred(1, Op.EQUALS, 98)))).isEmpty());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test
+    public void persistent() throws Exception {
+        File f = tempFile("t_status_copy", ".bm");
+        BitmapIndex index = new BitmapIndex("copy", f, hf.getId(), 1);
+        index.build();
+        Database.getCatalog().addBitmapIndex(index);
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{ROWS, 99, 0}));
+        Database.getBufferPool().transactionComplete(tid);
+
+        BitmapIndex reopened = new BitmapIndex("copy", f, hf.getId(), 1);
+        assertEquals(51, reopened.getNumValues());
+        for (int v : new int[]{0, 17, 99})
+            assertEquals(index.lookup(Op.EQUALS, new IntField(v)), reopened.lookup(Op.EQUALS, new IntField(v)));
+    }
+
+    /**
+     * A table replaced under its id, or a cleared catalog, has no bitmap
+     * indexes left.
+     */
+    @Test
+    public void droppedWithTable() throws Exception {
+        assertEquals(2, Database.getCatalog().getBitmapIndexes(hf.getId()).size());
+        Database.getCatalog().addTable(new HeapFile(hf.getFile(), hf.getTupleDesc()), "t2");
+        assertTrue(Database.getCatalog().getBitmapIndexes(hf.getId()).isEmpty());
+
+        Database.getCatalog().addTable(hf, "t");
+        Database.getCatalog().addBitmapIndex(byStatus);
+        Database.getCatalog().clear();
+        assertTrue(Database.getCatalog().getBitmapIndexes(hf.getId()).isEmpty());
+    }
+
+    @Test
+    public void planner() throws Exception {
+        TableStats.setTableStats("t", new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        TransactionId tid = new TransactionId();
+        OpIterator p = new Parser().generateLogicalPlan(tid, "SELECT * FROM t WHERE t.f1 = 7 AND t.f2 = 1;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        String tree = new QueryPlanVisualizer().getQueryPlanTree(p);
+        assertTrue(tree, tree.contains("bitmap scan(t, t.f1 = 7 AND t.f2 = 1)"));
+        assertEquals(ROWS / 200, drain(p).size());
+
+        // almost every page holds a match
+        p = new Parser().generateLogicalPlan(tid, "SELECT * FROM t WHERE t.f1 <> 7;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        tree = new QueryPlanVisualizer().getQueryPlanTree(p);
+        assertFalse(tree, tree.contains(QueryPlanVisualizer.BITMAP_SCAN));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test
+    public void loadSchema() throws Exception {
+        File dir = tempFile("schema", "").getParentFile();
+        String table = "events" + System.nanoTime();
+        File data = new File(dir, table + ".dat");
+        data.createNewFile();
+        data.deleteOnExit();
+        File schema = tempFile("schema", ".txt");
+        try (FileWriter w = new FileWriter(schema)) {
+            w.write(table + " (id int, status int)\n");
+            w.write("bitmap index " + table + "_status on " + table + " (status)\n");
+        }
+        new File(dir, table + "_status.bm").deleteOnExit();
+
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int tableid = Database.getCatalog().getTableId(table);
+        BitmapIndex index = Database.getCatalog().getBitmapIndex(tableid, 1);
+        assertNotNull(index);
+        assertEquals(table + "_status", index.getName());
+
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, tableid, Utility.getHeapTuple(new int[]{1, 5}));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1, index.lookup(Op.EQUALS, new IntField(5)).cardinality());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BitmapIndexTest.class);
+    }
+}
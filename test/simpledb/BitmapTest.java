@@ -0,0 +1,99 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.BitSet;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class BitmapTest {
+
+    private static Bitmap of(int... members) {
+        Bitmap b = new Bitmap();
+        for (int m : members)
+            b.set(m);
+        return b;
+    }
+
+    private static BitSet toBitSet(Bitmap b) {
+        BitSet s = new BitSet();
+        for (int i = b.nextSetBit(0); i >= 0; i = b.nextSetBit(i + 1))
+            s.set(i);
+        return s;
+    }
+
+    @Test
+    public void runs() {
+        Bitmap b = of(1, 2, 3, 7, 5, 6, 10);
+        assertEquals(3, b.numRuns());
+        assertEquals(7, b.cardinality());
+        assertEquals("{[1, 4), [5, 8), [10, 11)}", b.toString());
+        b.set(4);
+        assertEquals("{[1, 8), [10, 11)}", b.toString());
+        assertTrue(b.get(5));
+        assertFalse(b.get(8));
+        assertEquals(10, b.nextSetBit(8));
+        assertEquals(-1, b.nextSetBit(11));
+
+        b.clear(2, 4);
+        assertEquals("{[1, 2), [4, 8), [10, 11)}", b.toString());
+        b.clear(5, 11);
+        assertEquals("{[1, 2), [4, 5)}", b.toString());
+        b.clear(0, 100);
+        assertTrue(b.isEmpty());
+    }
+
+    @Test
+    public void andOr() {
+        Bitmap a = of(1, 2, 3, 4, 10, 11);
+        Bitmap b = of(3, 4, 5, 11, 12);
+        assertEquals(of(3, 4, 11), a.and(b));
+        assertEquals(of(1, 2, 3, 4, 5, 10, 11, 12), a.or(b));
+        assertEquals(1, of(1, 2).or(of(3, 4)).numRuns());
+        assertTrue(a.and(new Bitmap()).isEmpty());
+        assertEquals(a, a.or(new Bitmap()));
+    }
+
+    @Test
+    public void randomAgainstBitSet() throws Exception {
+        Random r = new Random(42);
+        Bitmap a = new Bitmap(), b = new Bitmap();
+        BitSet sa = new BitSet(), sb = new BitSet();
+        for (int i = 0; i < 5000; i++) {
+            int x = r.nextInt(3000), y = r.nextInt(3000);
+            a.set(x);
+            sa.set(x);
+            b.set(y);
+            sb.set(y);
+        }
+        a.clear(1000, 1500);
+        sa.clear(1000, 1500);
+        assertEquals(sa, toBitSet(a));
+        assertEquals(sa.cardinality(), a.cardinality());
+
+        BitSet and = (BitSet) sa.clone();
+        and.and(sb);
+        assertEquals(and, toBitSet(a.and(b)));
+        BitSet or = (BitSet) sa.clone();
+        or.or(sb);
+        assertEquals(or, toBitSet(a.or(b)));
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        a.serialize(new DataOutputStream(baos));
+        assertEquals(a, Bitmap.deserialize(new DataInputStream(new ByteArrayInputStream(baos.toByteArray()))));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BitmapTest.class);
+    }
+}
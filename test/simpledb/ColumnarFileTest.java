@@ -0,0 +1,208 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ColumnarFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 3000;
+
+    private TupleDesc td;
+    private ColumnarFile file;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE});
+        File f = File.createTempFile("columnar", ".dat");
+        f.deleteOnExit();
+        for (int i = 0; i < td.numFields(); ++i)
+            new File(f.getPath() + ".c" + i).deleteOnExit();
+        new File(f.getPath() + ".del").deleteOnExit();
+        file = new ColumnarFile(f, td);
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+
+        // new pages stay in the BufferPool until commit, so commit in batches
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < ROWS; ++i) {
+            insertRow(tid, i);
+            if (i % 100 == 99) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private void insertRow(TransactionId tid, int i) throws Exception {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField("v" + i, Type.STRING_LEN));
+        t.setField(2, new IntField(-i));
+        Database.getBufferPool().insertTuple(tid, file.getId(), t);
+    }
+
+    /**
+     * Scan the table and check that it holds rows 0..n-1 with their fields
+     * in line.
+     */
+    private void checkRows(int n) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(new IntField(count), t.getField(0));
+            assertEquals(new StringField("v" + count, Type.STRING_LEN), t.getField(1));
+            assertEquals(new IntField(-count), t.getField(2));
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(n, count);
+    }
+
+    /**
+     * Each column fills its own chain of pages; packed integers need fewer
+     * pages than the strings.
+     */
+    @Test
+    public void columnPages() {
+        int intPages = (ROWS + ColumnPage.getCapacity(Type.INT_TYPE) - 1) / ColumnPage.getCapacity(Type.INT_TYPE);
+        assertEquals(intPages, file.numPages(0));
+        assertEquals(intPages, file.numPages(2));
+        assertEquals(1, file.numPages(ColumnPageId.DELETED));
+        assertTrue(file.numPages(1) > intPages);
+    }
+
+    /**
+     * A full scan returns every row with all of its fields.
+     */
+    @Test
+    public void scanAll() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(new IntField(count), t.getField(0));
+            assertEquals(new StringField("v" + count, Type.STRING_LEN), t.getField(1));
+            assertEquals(new IntField(-count), t.getField(2));
+            count++;
+        }
+        assertEquals(ROWS, count);
+        it.rewind();
+        assertTrue(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A projected scan only fills in, and only reads, the requested columns.
+     */
+    @Test
+    public void projection() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid, new int[]{2});
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertNull(t.getField(0));
+            assertNull(t.getField(1));
+            assertEquals(new IntField(-count), t.getField(2));
+            count++;
+        }
+        it.close();
+        assertEquals(ROWS, count);
+        for (int i = 0; i < file.numPages(1); ++i)
+            assertFalse(Database.getBufferPool().holdsLock(tid, new ColumnPageId(file.getId(), 1, i)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Deleted rows are skipped by scans and cannot be deleted twice.
+     */
+    @Test
+    public void deleteTuple() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        Tuple first = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, first);
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        it = file.iterator(tid, new int[]{0});
+        it.open();
+        assertEquals(new IntField(1), it.next().getField(0));
+        int count = 1;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(ROWS - 1, count);
+
+        try {
+            file.deleteTuple(tid, first);
+            fail("expected exception");
+        } catch (DbException e) {
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An aborted insert that started a new page of some columns but not of
+     * the others leaves the columns in line.
+     */
+    @Test
+    public void abortAcrossPageBoundary() throws Exception {
+        int row = ROWS;
+        while (true) {
+            int[] before = new int[td.numFields()];
+            for (int c = 0; c < before.length; ++c)
+                before[c] = file.numPages(c);
+            TransactionId tid = new TransactionId();
+            insertRow(tid, row);
+            boolean crossed = false;
+            for (int c = 0; c < before.length; ++c)
+                crossed |= file.numPages(c) != before[c];
+            if (crossed) {
+                Database.getBufferPool().transactionComplete(tid, false);
+                break;
+            }
+            Database.getBufferPool().transactionComplete(tid);
+            row++;
+        }
+        checkRows(row);
+
+        TransactionId tid = new TransactionId();
+        insertRow(tid, row);
+        insertRow(tid, row + 1);
+        Database.getBufferPool().transactionComplete(tid);
+        checkRows(row + 2);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnarFileTest.class);
+    }
+}
@@ -0,0 +1,148 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DbFileChannelTest {
+
+    private File f;
+    private DbFileChannel channel;
+
+    @Before
+    public void setUp() throws Exception {
+        f = File.createTempFile("dbfilechannel", ".dat");
+        f.deleteOnExit();
+        channel = new DbFileChannel(f);
+    }
+
+    @After
+    public void tearDown() {
+        channel.close();
+    }
+
+    private static byte[] filled(int length, int value) {
+        byte[] b = new byte[length];
+        Arrays.fill(b, (byte) value);
+        return b;
+    }
+
+    /**
+     * Blocks written out of order at their offsets read back at the same offsets.
+     */
+    @Test
+    public void positionalReadWrite() throws Exception {
+        channel.write(filled(100, 3), 300);
+        channel.write(filled(100, 1), 100);
+        assertEquals(400, channel.size());
+
+        byte[] b = new byte[100];
+        assertEquals(100, channel.read(b, 100));
+        assertArrayEquals(filled(100, 1), b);
+        assertEquals(100, channel.read(b, 300));
+        assertArrayEquals(filled(100, 3), b);
+        // the gap reads as zeros
+        assertEquals(100, channel.read(b, 200));
+        assertArrayEquals(filled(100, 0), b);
+
+        // a read running past the end returns what there is
+        assertEquals(50, channel.read(b, 350));
+        assertEquals(-1, channel.read(b, 400));
+
+        assertEquals(400, channel.append(filled(10, 4)));
+        assertEquals(410, channel.size());
+    }
+
+    /**
+     * readBlocks returns each block in the order asked for, and null for a
+     * block past the end of the file.
+     */
+    @Test
+    public void readBlocks() throws Exception {
+        for (int i = 0; i < 4; ++i)
+            channel.write(filled(10, i + 1), i * 10);
+        byte[][] blocks = channel.readBlocks(new long[]{30, 0, 10, 40}, 10);
+        assertArrayEquals(filled(10, 4), blocks[0]);
+        assertArrayEquals(filled(10, 1), blocks[1]);
+        assertArrayEquals(filled(10, 2), blocks[2]);
+        assertNull(blocks[3]);
+    }
+
+    /**
+     * Reading a file that does not exist sees an empty file and leaves the
+     * file missing; the first write creates it.
+     */
+    @Test
+    public void readMissingFile() throws Exception {
+        File missing = new File(f.getPath() + ".missing");
+        missing.deleteOnExit();
+        DbFileChannel c = new DbFileChannel(missing);
+        try {
+            assertEquals(0, c.size());
+            assertEquals(-1, c.read(new byte[10], 0));
+            c.force();
+            assertFalse(missing.exists());
+
+            c.write(filled(10, 7), 0);
+            assertTrue(missing.exists());
+            assertEquals(10, c.size());
+        } finally {
+            c.close();
+            missing.delete();
+        }
+    }
+
+    /**
+     * An interrupted reader fails, but the channel keeps working for others.
+     */
+    @Test
+    public void interruptedReader() throws Exception {
+        channel.write(filled(10, 5), 0);
+        Exception[] failure = new Exception[1];
+        Thread t = new Thread(() -> {
+            Thread.currentThread().interrupt();
+            try {
+                channel.read(new byte[10], 0);
+            } catch (Exception e) {
+                failure[0] = e;
+            }
+        });
+        t.start();
+        t.join();
+        assertTrue(failure[0] instanceof ClosedByInterruptException);
+
+        byte[] b = new byte[10];
+        assertEquals(10, channel.read(b, 0));
+        assertArrayEquals(filled(10, 5), b);
+        channel.write(filled(10, 6), 10);
+        assertEquals(20, channel.size());
+    }
+
+    /**
+     * The channel reopens after close.
+     */
+    @Test
+    public void reopen() throws Exception {
+        channel.write(ByteBuffer.wrap(filled(10, 9)), 0);
+        channel.close();
+        byte[] b = new byte[10];
+        assertEquals(10, channel.read(b, 0));
+        assertArrayEquals(filled(10, 9), b);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DbFileChannelTest.class);
+    }
+}
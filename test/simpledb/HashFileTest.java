@@ -0,0 +1,230 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 3000;
+
+    private File f;
+    private HashFile hf;
+
+    /**
+     * Create an empty hash file of two int fields hashed on the first, with
+     * small pages so that the file splits often.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        BufferPool.setPageSize(1024);
+        Database.reset();
+        f = File.createTempFile("hash", ".dat");
+        f.deleteOnExit();
+        hf = new HashFile(f, 0, Utility.getTupleDesc(2, "f"));
+        Database.getCatalog().addTable(hf, "hashed");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        BufferPool.resetPageSize();
+        Database.reset();
+    }
+
+    /**
+     * Insert the tuples {key, value} for key in [0, n), committing every 100.
+     */
+    private void insert(int n, int value) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < n; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{i, value}));
+            if (i % 100 == 99) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static List<Tuple> drain(DbFileIterator it) throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        it.open();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+        return tuples;
+    }
+
+    private static OpIterator leaf(OpIterator plan) {
+        while (plan instanceof Operator)
+            plan = ((Operator) plan).getChildren()[0];
+        return plan;
+    }
+
+    private static int count(OpIterator plan) throws Exception {
+        int n = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        plan.close();
+        return n;
+    }
+
+    private List<Tuple> lookup(TransactionId tid, int key) throws Exception {
+        return drain(hf.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, new IntField(key))));
+    }
+
+    @Test
+    public void growsOneBucketAtATime() throws Exception {
+        TransactionId tid = new TransactionId();
+        assertEquals(1, hf.numBuckets(tid));
+        Database.getBufferPool().transactionComplete(tid);
+
+        insert(ROWS, 1);
+        tid = new TransactionId();
+        int perPage = HashBucketPage.getMaxTuples(hf.getTupleDesc());
+        int buckets = hf.numBuckets(tid);
+        assertTrue(buckets >= ROWS / perPage);
+        assertTrue(buckets < 4 * ROWS / perPage);
+        assertEquals(ROWS, drain(hf.iterator(tid)).size());
+        for (int i = 0; i < ROWS; i++) {
+            List<Tuple> found = lookup(tid, i);
+            assertEquals(1, found.size());
+            assertEquals(new IntField(i), found.get(0).getField(0));
+        }
+        assertTrue(lookup(tid, ROWS).isEmpty());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test
+    public void lookupReadsOneBucket() throws Exception {
+        insert(ROWS, 1);
+        TransactionId tid = new TransactionId();
+        lookup(tid, 1234);
+        int locked = 0;
+        for (int i = 0; i < hf.numPages(tid); i++) {
+            if (Database.getBufferPool().holdsLock(tid, new HashPageId(hf.getId(), i)))
+                locked++;
+        }
+        // the meta page and a bucket of one or two pages
+        assertTrue(locked <= 3);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test
+    public void duplicateKeysOverflow() throws Exception {
+        int perPage = HashBucketPage.getMaxTuples(hf.getTupleDesc());
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3 * perPage; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{7, i}));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(3 * perPage, lookup(tid, 7).size());
+        assertEquals(3 * perPage, drain(hf.iterator(tid)).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test
+    public void deleteTuples() throws Exception {
+        insert(ROWS, 1);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < ROWS; i += 2)
+            Database.getBufferPool().deleteTuple(tid, lookup(tid, i).get(0));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        for (int i = 0; i < ROWS; i++)
+            assertEquals(i % 2, lookup(tid, i).size());
+        assertEquals(ROWS / 2, drain(hf.iterator(tid)).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test
+    public void abortedSplitIsUndone() throws Exception {
+        insert(ROWS, 1);
+        TransactionId tid = new TransactionId();
+        int buckets = hf.numBuckets(tid);
+        // enough tuples with one key to fill its bucket
+        for (int i = 0; i < HashBucketPage.getMaxTuples(hf.getTupleDesc()); i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{17, 2}));
+        assertTrue(hf.numBuckets(tid) > buckets);
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(buckets, hf.numBuckets(tid));
+        assertEquals(ROWS, drain(hf.iterator(tid)).size());
+        assertEquals(1, lookup(tid, 17).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test
+    public void persistent() throws Exception {
+        insert(ROWS, 1);
+        Database.reset();
+        hf = new HashFile(f, 0, Utility.getTupleDesc(2, "f"));
+        Database.getCatalog().addTable(hf, "hashed");
+        TransactionId tid = new TransactionId();
+        assertEquals(ROWS, drain(hf.iterator(tid)).size());
+        assertEquals(1, lookup(tid, ROWS - 1).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test
+    public void plannedForEqualityFilters() throws Exception {
+        insert(ROWS, 1);
+        TableStats.setTableStats("hashed", new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        TransactionId tid = new TransactionId();
+        OpIterator plan = new Parser().generateLogicalPlan(tid, "SELECT * FROM hashed h WHERE h.f0 = 42;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(leaf(plan) instanceof HashScan);
+        String tree = new QueryPlanVisualizer().getQueryPlanTree(plan);
+        assertTrue(tree, tree.contains("index scan(hashed h, h.f0 = 42)"));
+        assertEquals(1, count(plan));
+
+        // a hash file cannot answer ranges
+        plan = new Parser().generateLogicalPlan(tid, "SELECT * FROM hashed h WHERE h.f0 < 42;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertFalse(leaf(plan) instanceof HashScan);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test
+    public void indexJoin() throws Exception {
+        insert(ROWS, 1);
+        TransactionId tid = new TransactionId();
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        OpIterator outer = TestUtil.createTupleList(2, new int[]{1, 2, 5, 6, ROWS + 1, 0});
+        IndexJoin j = new IndexJoin(pred, outer, new HashScan(tid, hf.getId(), "h", null));
+        j.open();
+        int n = 0;
+        while (j.hasNext()) {
+            Tuple t = j.next();
+            assertEquals(t.getField(0), t.getField(2));
+            n++;
+        }
+        j.close();
+        assertEquals(2, n);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashFileTest.class);
+    }
+}
@@ -0,0 +1,245 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HeapFileLoaderTest extends SimpleDbTestBase {
+
+    private static final String[] NAMES = {"alice", "bob", "a name longer than the string field of a tuple"};
+
+    private TupleDesc td;
+
+    @Before
+    public void setUp() {
+        td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE});
+    }
+
+    /**
+     * Write rows first..first+n-1 as text, with Windows line endings, blank
+     * lines and padded fields mixed in.
+     */
+    private File writeInput(int first, int n) throws IOException {
+        File in = File.createTempFile("loader", ".txt");
+        in.deleteOnExit();
+        try (BufferedWriter w = new BufferedWriter(new FileWriter(in))) {
+            for (int i = first; i < first + n; ++i) {
+                w.write(i + ", " + NAMES[i % NAMES.length] + " ," + (-i));
+                w.write(i % 5 == 0 ? "\r\n" : "\n");
+                if (i % 11 == 0)
+                    w.write("\n");
+            }
+        }
+        return in;
+    }
+
+    private File tempData() throws IOException {
+        File f = File.createTempFile("loader", ".dat");
+        f.deleteOnExit();
+        for (String suffix : new String[]{".zm", ".fsm", ".ext"})
+            new File(f.getPath() + suffix).deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Scan the table and check that it holds exactly rows 0..n-1.
+     */
+    private void checkRows(HeapFile hf, int n) throws Exception {
+        boolean[] seen = new boolean[n];
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            assertFalse(seen[i]);
+            seen[i] = true;
+            String name = NAMES[i % NAMES.length];
+            assertEquals(name.substring(0, Math.min(name.length(), Type.STRING_LEN)),
+                    ((StringField) t.getField(1)).getValue());
+            assertEquals(-i, ((IntField) t.getField(2)).getValue());
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(n, count);
+    }
+
+    /**
+     * Ranges much smaller than a line are parsed in parallel into full pages
+     * in input order.
+     */
+    @Test
+    public void load() throws Exception {
+        int n = 500;
+        File in = writeInput(0, n);
+        File f = tempData();
+        HeapFileLoader loader = new HeapFileLoader(',');
+        loader.setThreads(4);
+        loader.setRangeBytes(100);
+        assertEquals(n, loader.load(in, f, new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE},
+                BufferPool.getPageSize()));
+
+        HeapFile hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        int slots = BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+        assertEquals((n + slots - 1) / slots, hf.numPages());
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < hf.numPages() - 1; ++i) {
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            assertEquals(0, page.getNumEmptySlots());
+            // tuples are stored in input order
+            assertEquals(new IntField(i * slots), page.iterator().next().getField(0));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        checkRows(hf, n);
+    }
+
+    /**
+     * A line with a missing field is rejected, and an empty input is a table
+     * with a single empty page.
+     */
+    @Test
+    public void malformedAndEmpty() throws Exception {
+        File in = File.createTempFile("loader", ".txt");
+        in.deleteOnExit();
+        try (BufferedWriter w = new BufferedWriter(new FileWriter(in))) {
+            w.write("1,a,2\n3,b\n");
+        }
+        File f = tempData();
+        Type[] types = new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE};
+        try {
+            new HeapFileLoader(',').load(in, f, types, BufferPool.getPageSize());
+            fail("expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+
+        File empty = File.createTempFile("loader", ".txt");
+        empty.deleteOnExit();
+        assertEquals(0, new HeapFileLoader(',').load(empty, f, types, BufferPool.getPageSize()));
+        assertEquals(BufferPool.getPageSize(), f.length());
+    }
+
+    /**
+     * Lines with an integer that does not parse are skipped and counted;
+     * the lines around them load as usual.
+     */
+    @Test
+    public void badIntegersSkipped() throws Exception {
+        File in = File.createTempFile("loader", ".txt");
+        in.deleteOnExit();
+        try (BufferedWriter w = new BufferedWriter(new FileWriter(in))) {
+            w.write("0,alice,0\n");
+            w.write("x,alice,5\n");
+            w.write("1,bob,-1\n");
+            w.write("7,bob,99999999999\n");
+            w.write("2,a name longer than the string field of a tuple,-2\n");
+        }
+        File f = tempData();
+        HeapFileLoader loader = new HeapFileLoader(',');
+        loader.setRangeBytes(10);
+        assertEquals(3, loader.load(in, f, new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE},
+                BufferPool.getPageSize()));
+        assertEquals(2, loader.getSkippedLines());
+
+        HeapFile hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        checkRows(hf, 3);
+    }
+
+    /**
+     * Appended rows land on new pages after the last page of a table in the
+     * Catalog, and the table's maps cover them.
+     */
+    @Test
+    public void append() throws Exception {
+        File f = tempData();
+        new HeapFileLoader(',').load(writeInput(0, 100), f, new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE},
+                BufferPool.getPageSize());
+        HeapFile hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        int before = hf.numPages();
+
+        HeapFileLoader loader = new HeapFileLoader(',');
+        loader.setRangeBytes(1000);
+        assertEquals(400, loader.append(writeInput(100, 400), hf.getId()));
+        assertTrue(hf.numPages() > before);
+        checkRows(hf, 500);
+
+        // the zone map knows the range of the new pages
+        List<Predicate> preds = Collections.singletonList(
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100)));
+        assertFalse(hf.getZoneMap().mayMatch(hf.numPages() - 1, preds));
+
+        // inserts still work and find room on the last page
+        TransactionId tid = new TransactionId();
+        int pages = hf.numPages();
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(500));
+        t.setField(1, new StringField(NAMES[500 % NAMES.length], Type.STRING_LEN));
+        t.setField(2, new IntField(-500));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(pages, hf.numPages());
+        checkRows(hf, 501);
+    }
+
+    /**
+     * Appended rows get entries in the secondary indexes of the table, so
+     * index scans find them.
+     */
+    @Test
+    public void appendToIndexedTable() throws Exception {
+        File f = tempData();
+        new HeapFileLoader(',').load(writeInput(0, 100), f, new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE},
+                BufferPool.getPageSize());
+        HeapFile hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        File idx = File.createTempFile("loader", ".idx");
+        idx.deleteOnExit();
+        SecondaryIndex index = new SecondaryIndex("loader_id", idx, hf.getId(), 0);
+        index.build();
+        Database.getCatalog().addIndex(index);
+
+        HeapFileLoader loader = new HeapFileLoader(',');
+        loader.setRangeBytes(1000);
+        assertEquals(1900, loader.append(writeInput(100, 1900), hf.getId()));
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = index.lookup(tid, new IndexPredicate(Predicate.Op.GREATER_THAN_OR_EQ, new IntField(50)));
+        it.open();
+        int expected = 50;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(expected, ((IntField) t.getField(0)).getValue());
+            assertEquals(-expected, ((IntField) t.getField(2)).getValue());
+            expected++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(2000, expected);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileLoaderTest.class);
+    }
+}
@@ -80,6 +80,58 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() on a memory-mapped HeapFile, including
+     * reading a page appended after the file was first mapped.
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        Database.getCatalog().addTable(mapped, SystemTestUtil.getUUID());
+        assertTrue(mapped.isMemoryMapped());
+
+        HeapPageId pid = new HeapPageId(mapped.getId(), 0);
+        HeapPage page = (HeapPage) mapped.readPage(pid);
+        assertArrayEquals(hf.readPage(pid).getPageData(), page.getPageData());
+        assertEquals(484, page.getNumEmptySlots());
+
+        // grow the file; the new page must be visible through the mapping
+        HeapPageId next = new HeapPageId(mapped.getId(), 1);
+        HeapPage empty = new HeapPage(next, HeapPage.createEmptyPageData());
+        empty.insertTuple(Utility.getHeapTuple(7, 2));
+        mapped.writePage(empty);
+        HeapPage grown = (HeapPage) mapped.readPage(next);
+        assertEquals(503, grown.getNumEmptySlots());
+        assertEquals(new IntField(7), grown.iterator().next().getField(0));
+    }
+
+    /**
+     * Unit test for HeapFile.readPages(): pages come back in request order and
+     * match pages read one at a time.
+     */
+    @Test
+    public void readPages() throws Exception {
+        HeapFile bigFile = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        assertEquals(3, bigFile.numPages());
+        List<PageId> ids = new ArrayList<>();
+        for (int pgNo : new int[]{2, 0, 1, 0})
+            ids.add(new HeapPageId(bigFile.getId(), pgNo));
+
+        List<Page> pages = bigFile.readPages(ids);
+        assertEquals(ids.size(), pages.size());
+        for (int i = 0; i < ids.size(); ++i) {
+            assertEquals(ids.get(i), pages.get(i).getId());
+            assertArrayEquals(bigFile.readPage(ids.get(i)).getPageData(), pages.get(i).getPageData());
+        }
+
+        try {
+            bigFile.readPages(Arrays.asList(new HeapPageId(bigFile.getId(), 1),
+                    new HeapPageId(bigFile.getId(), 3)));
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -124,6 +176,34 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for scanning a multi-page HeapFile with read-ahead enabled:
+     * prefetched pages must be returned in order, exactly once.
+     */
+    @Test
+    public void testIteratorReadAhead() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<>();
+        HeapFile bigFile = SystemTestUtil.createRandomHeapFile(2, 504 * 5 + 10,
+                null, tuples);
+        assertEquals(6, bigFile.numPages());
+        Database.getBufferPool().setReadAheadPages(4);
+
+        DbFileIterator it = bigFile.iterator(tid);
+        it.open();
+        for (int pass = 0; pass < 2; ++pass) {
+            int count = 0;
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                ArrayList<Integer> expected = tuples.get(count++);
+                assertEquals(new IntField(expected.get(0)), t.getField(0));
+                assertEquals(new IntField(expected.get(1)), t.getField(1));
+            }
+            assertEquals(tuples.size(), count);
+            it.rewind();
+        }
+        it.close();
+    }
+
     /**
      * JUnit suite target
      */
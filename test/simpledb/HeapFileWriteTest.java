@@ -47,6 +47,159 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for the free space map maintained by HeapFile and HeapPage
+     */
+    @Test
+    public void freeSpaceMap() throws Exception {
+        FreeSpaceMap fsm = empty.getFreeSpaceMap();
+        assertEquals(0, fsm.nextFreePage(0, empty.numPages()));
+
+        // fill the first page and spill onto a second one
+        Tuple first = Utility.getHeapTuple(0, 2);
+        empty.insertTuple(tid, first);
+        for (int i = 1; i < 505; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(2, empty.numPages());
+        assertEquals(1, fsm.nextFreePage(0, empty.numPages()));
+
+        // deleting from the full page makes it a candidate again
+        empty.deleteTuple(tid, first);
+        assertEquals(0, fsm.nextFreePage(0, empty.numPages()));
+        Tuple t = Utility.getHeapTuple(7, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(0, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(1, fsm.nextFreePage(0, empty.numPages()));
+    }
+
+    /**
+     * An aborted insert that filled a page must not leave it marked full
+     */
+    @Test
+    public void freeSpaceMapAbort() throws Exception {
+        FreeSpaceMap fsm = empty.getFreeSpaceMap();
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1, empty.numPages());
+
+        // fill the page, then roll the inserts back
+        TransactionId filler = new TransactionId();
+        for (int i = 1; i < 504; ++i) {
+            empty.insertTuple(filler, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(-1, fsm.nextFreePage(0, empty.numPages()));
+        Database.getBufferPool().transactionComplete(filler, false);
+        assertEquals(0, fsm.nextFreePage(0, empty.numPages()));
+
+        // the next insert reuses the page instead of growing the file
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(7, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(0, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(1, empty.numPages());
+    }
+
+    /**
+     * Unit test for HeapFile.deleteTuples() and deleting a tuple without a RecordId
+     */
+    @Test
+    public void deleteTuples() throws Exception {
+        java.util.ArrayList<Tuple> tuples = new java.util.ArrayList<>();
+        for (int i = 0; i < 600; ++i) {
+            Tuple t = Utility.getHeapTuple(i, 2);
+            empty.insertTuple(tid, t);
+            tuples.add(t);
+        }
+        assertEquals(2, empty.numPages());
+
+        // each page is returned once, however many of its tuples go
+        java.util.ArrayList<Page> pages = empty.deleteTuples(tid, tuples.subList(1, 600));
+        assertEquals(2, pages.size());
+
+        // the remaining tuple is found by value when it has no RecordId
+        Tuple copy = Utility.getHeapTuple(0, 2);
+        copy.setRecordId(null);
+        pages = empty.deleteTuple(tid, copy);
+        assertEquals(1, pages.size());
+        assertEquals(504, ((HeapPage) pages.get(0)).getNumEmptySlots());
+    }
+
+    /**
+     * A tuple without a RecordId is deleted through the BufferPool by naming
+     * its table, and its index entries go with it.
+     */
+    @Test
+    public void deleteWithoutRecordIdThroughBufferPool() throws Exception {
+        java.io.File idx = java.io.File.createTempFile("empty_f0", ".idx");
+        idx.deleteOnExit();
+        SecondaryIndex index = new SecondaryIndex("empty_f0", idx, empty.getId(), 0);
+        index.build();
+        Database.getCatalog().addIndex(index);
+        for (int i = 0; i < 10; ++i)
+            Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+
+        Tuple copy = Utility.getHeapTuple(3, 2);
+        copy.setRecordId(null);
+        try {
+            Database.getBufferPool().deleteTuple(tid, copy);
+            fail("a tuple without a RecordId names no table");
+        } catch (DbException expected) {
+        }
+        Database.getBufferPool().deleteTuple(tid, empty.getId(), copy);
+        assertNotNull(copy.getRecordId());
+
+        DbFileIterator it = empty.iterator(tid);
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            assertTrue(((IntField) it.next().getField(0)).getValue() != 3);
+            n++;
+        }
+        it.close();
+        assertEquals(9, n);
+        it = index.lookup(tid, new IndexPredicate(Predicate.Op.EQUALS, new IntField(3)));
+        it.open();
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    /**
+     * Unit test for growing a HeapFile by extents: the file grows several
+     * pages at a time, but only pages in use are counted and scanned, also
+     * after the file is reopened.
+     */
+    @Test
+    public void extents() throws Exception {
+        empty.getExtentAllocator().setExtentPages(4);
+        int pageSize = BufferPool.getPageSize();
+        for (int i = 0; i < 504 * 2; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(2, empty.numPages());
+        assertEquals(5L * pageSize, empty.getFile().length());
+
+        // the rest of the extent is used before the file grows again
+        for (int i = 0; i < 504 * 3; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(5, empty.numPages());
+        assertEquals(5L * pageSize, empty.getFile().length());
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        assertEquals(6, empty.numPages());
+        assertEquals(9L * pageSize, empty.getFile().length());
+
+        HeapFile reopened = Utility.openHeapFile(2, empty.getFile());
+        assertEquals(6, reopened.numPages());
+        DbFileIterator it = reopened.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(504 * 5 + 1, count);
+    }
+
     /**
      * JUnit suite target
      */
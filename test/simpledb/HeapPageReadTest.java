@@ -4,8 +4,11 @@ import simpledb.TestUtil.SkeletonFile;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import org.junit.Before;
@@ -128,6 +131,45 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Tuples decoded lazily, in any order or from a direct buffer such as a
+     * file mapping, match the tuples decoded eagerly from the page bytes.
+     */
+    @Test
+    public void lazyMatchesEager() throws Exception {
+        // decode every slot up front
+        TupleDesc td = Utility.getTupleDesc(2);
+        int numSlots = BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(EXAMPLE_DATA));
+        dis.skipBytes((numSlots + 7) / 8);
+        List<List<Field>> eager = new ArrayList<List<Field>>();
+        for (int i = 0; i < EXAMPLE_VALUES.length; ++i) {
+            List<Field> fields = new ArrayList<Field>();
+            for (int j = 0; j < td.numFields(); ++j)
+                fields.add(td.getFieldType(j).parse(dis));
+            eager.add(fields);
+        }
+
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        for (int i = EXAMPLE_VALUES.length - 1; i >= 0; --i) {
+            Tuple t = page.getTupleAt(i);
+            assertEquals(i, t.getRecordId().getTupleNumber());
+            for (int j = 0; j < td.numFields(); ++j)
+                assertEquals(eager.get(i).get(j), t.getField(j));
+        }
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(EXAMPLE_DATA.length);
+        direct.put(EXAMPLE_DATA);
+        direct.flip();
+        Iterator<Tuple> it = new HeapPage(pid, direct).iterator();
+        for (List<Field> fields : eager) {
+            Tuple t = it.next();
+            for (int j = 0; j < td.numFields(); ++j)
+                assertEquals(fields.get(j), t.getField(j));
+        }
+        assertFalse(it.hasNext());
+    }
+
     /**
      * JUnit suite target
      */
@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -46,6 +47,27 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         assertEquals(false, dirtier != null);
     }
 
+    /**
+     * The before-image of a page read from a direct buffer, such as a file
+     * mapping, keeps the original bytes after the buffer is overwritten.
+     */
+    @Test
+    public void beforeImageOfDirectBuffer() throws Exception {
+        ByteBuffer direct = ByteBuffer.allocateDirect(HeapPageReadTest.EXAMPLE_DATA.length);
+        direct.put(HeapPageReadTest.EXAMPLE_DATA);
+        direct.flip();
+        HeapPage page = new HeapPage(pid, direct);
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+
+        // as when the modified page is written back to the mapped file
+        ByteBuffer file = direct.duplicate();
+        file.clear();
+        file.put(page.getPageData());
+        HeapPage before = page.getBeforeImage();
+        assertEquals(484, before.getNumEmptySlots());
+        assertEquals(483, page.getNumEmptySlots());
+    }
+
     /**
      * Unit test for HeapPage.addTuple()
      */
@@ -0,0 +1,133 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IndexJoinTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = {Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+            Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ};
+
+    private TransactionId tid;
+    private BTreeFile bf;
+    private HeapFile hf;
+    private SecondaryIndex index;
+
+    /**
+     * Create the same rows, {i, 2i, 3i} for i in 1..5, in a B+ tree keyed on
+     * the first field and in a heap file with an index on the first field.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<>();
+        bf = BTreeUtility.createBTreeFile(3, 5, null, tuples, 0);
+
+        File f = File.createTempFile("inner", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 3);
+        hf = Utility.openHeapFile(3, "field", f);
+        File idx = File.createTempFile("inner", ".idx");
+        idx.deleteOnExit();
+        index = new SecondaryIndex("inner_f0", idx, hf.getId(), 0);
+        index.build();
+        Database.getCatalog().addIndex(index);
+        tid = new TransactionId();
+    }
+
+    private static OpIterator outer() {
+        return TestUtil.createTupleList(2, new int[]{1, 2, 3, 4, 5, 6, 7, 8});
+    }
+
+    private static int count(OpIterator it) throws Exception {
+        int n = 0;
+        it.rewind();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Check that an index join with the given inner index returns the tuples
+     * a nested loops join with a scan of the inner table does, for every op.
+     */
+    private void checkJoins(DbFile inner, IndexOpIterator index) throws Exception {
+        for (Predicate.Op op : OPS) {
+            JoinPredicate pred = new JoinPredicate(0, op, 0);
+            Join expected = new Join(pred, outer(), new SeqScan(tid, inner.getId(), "t"));
+            IndexJoin actual = new IndexJoin(pred, outer(), index);
+            expected.open();
+            actual.open();
+            assertEquals(op.toString(), count(expected), count(actual));
+            TestUtil.matchAllTuples(expected, actual);
+            expected.close();
+            actual.close();
+        }
+    }
+
+    @Test
+    public void clusteredIndex() throws Exception {
+        checkJoins(bf, new BTreeScan(tid, bf.getId(), "t", null));
+    }
+
+    @Test
+    public void secondaryIndex() throws Exception {
+        checkJoins(hf, new IndexScan(tid, index, "t", null));
+    }
+
+    @Test
+    public void getTupleDesc() {
+        IndexJoin op = new IndexJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), outer(),
+                new IndexScan(tid, index, "t", null));
+        assertEquals(5, op.getTupleDesc().numFields());
+        assertEquals("t.field0", op.getJoinField2Name());
+    }
+
+    @Test
+    public void plannedForSelectiveLookups() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<>();
+        BTreeFile big = BTreeUtility.createBTreeFile(2, 20000, null, tuples, 0);
+        big = new BTreeFile(big.getFile(), 0, Utility.getTupleDesc(2, "key"));
+        Database.getCatalog().addTable(big, "big");
+        Database.getCatalog().addTable(hf, "small");
+        TableStats.setTableStats("big", new TableStats(big.getId(), TableStats.IOCOSTPERPAGE));
+        TableStats.setTableStats("small", new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT * FROM small s, big b WHERE s.field1 = b.key0 AND s.field0 < 4;");
+        OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        String tree = new QueryPlanVisualizer().getQueryPlanTree(plan);
+        assertTrue(tree, tree.contains(QueryPlanVisualizer.INDEX_JOIN + "(s.field1=b.key0)"));
+        plan.open();
+        assertEquals(3, count(plan));
+        plan.close();
+
+        // filters on the probed table are applied to the join's output
+        lp = new Parser().generateLogicalPlan(tid,
+                "SELECT * FROM small s, big b WHERE s.field1 = b.key0 AND s.field0 < 4 AND b.key1 > 4;");
+        plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        tree = new QueryPlanVisualizer().getQueryPlanTree(plan);
+        assertTrue(tree, tree.contains(QueryPlanVisualizer.INDEX_JOIN));
+        plan.open();
+        assertEquals(2, count(plan));
+        plan.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexJoinTest.class);
+    }
+}
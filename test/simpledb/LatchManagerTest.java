@@ -0,0 +1,104 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LatchManagerTest extends SimpleDbTestBase {
+
+    private LatchManager latches;
+    private PageId p0;
+    private PageId p1;
+
+    @Before
+    public void setUp() {
+        latches = new LatchManager();
+        latches.setTimeout(100);
+        p0 = new BTreePageId(-1, 0, BTreePageId.INTERNAL);
+        p1 = new BTreePageId(-1, 1, BTreePageId.INTERNAL);
+    }
+
+    /**
+     * Runs the given action in another thread and returns what it threw, if anything.
+     */
+    private Throwable inOtherThread(ThrowingRunnable action) throws InterruptedException {
+        AtomicReference<Throwable> thrown = new AtomicReference<>();
+        Thread t = new Thread(() -> {
+            try {
+                action.run();
+            } catch (Throwable e) {
+                thrown.set(e);
+            } finally {
+                latches.unlatchAll();
+            }
+        });
+        t.start();
+        t.join();
+        return thrown.get();
+    }
+
+    private interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+
+    /**
+     * Shared latches are compatible with each other, an exclusive latch with
+     * nothing; a thread that waits too long is aborted.
+     */
+    @Test
+    public void sharedAndExclusive() throws Exception {
+        latches.latchShared(p0);
+        assertNull(inOtherThread(() -> latches.latchShared(p0)));
+        assertTrue(inOtherThread(() -> latches.latchExclusive(p0)) instanceof TransactionAbortedException);
+
+        latches.unlatch(p0);
+        assertFalse(latches.holdsLatch(p0));
+        assertNull(inOtherThread(() -> latches.latchExclusive(p0)));
+
+        latches.latchExclusive(p1);
+        assertTrue(latches.holdsExclusive());
+        assertTrue(inOtherThread(() -> latches.latchShared(p1)) instanceof TransactionAbortedException);
+        assertNull(inOtherThread(() -> latches.latchShared(p0)));
+    }
+
+    /**
+     * Latching a page twice is a no-op, a shared latch cannot be upgraded, and
+     * unlatchAll releases everything the thread holds.
+     */
+    @Test
+    public void reentryAndRelease() throws Exception {
+        latches.latchExclusive(p0);
+        latches.latchExclusive(p0);
+        latches.latchShared(p0);
+        latches.latchShared(p1);
+        try {
+            latches.latchExclusive(p1);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // explicitly ignored
+        }
+
+        latches.unlatchAll();
+        assertFalse(latches.holdsLatch(p0));
+        assertFalse(latches.holdsLatch(p1));
+        assertFalse(latches.holdsExclusive());
+        assertNull(inOtherThread(() -> {
+            latches.latchExclusive(p0);
+            latches.latchExclusive(p1);
+        }));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LatchManagerTest.class);
+    }
+}
@@ -0,0 +1,312 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.Predicate.Op;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LsmFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 2000;
+
+    private File dir;
+    private File f;
+    private LsmFile lsm;
+
+    /**
+     * Create an empty LSM file of two int fields sorted on the first, with
+     * small memtables so that inserts are flushed into several runs.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        dir = Files.createTempDirectory("lsm").toFile();
+        f = new File(dir, "events.dat");
+        lsm = open();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        // wait for the background flushes before removing the files
+        lsm.flush();
+        Database.reset();
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+    }
+
+    private LsmFile open() throws Exception {
+        LsmFile file = new LsmFile(f, 0, Utility.getTupleDesc(2, "f"));
+        file.setMemtableEntries(300);
+        file.setMaxRuns(100);
+        Database.getCatalog().addTable(file, "events");
+        return file;
+    }
+
+    /**
+     * Insert the tuples {key, value} for the keys i * 7919 % ROWS, i in
+     * [0, ROWS), committing every 100.
+     */
+    private void insert(int value) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < ROWS; i++) {
+            Database.getBufferPool().insertTuple(tid, lsm.getId(),
+                    Utility.getHeapTuple(new int[]{i * 7919 % ROWS, value}));
+            if (i % 100 == 99) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static List<Tuple> drain(DbFileIterator it) throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        it.open();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+        return tuples;
+    }
+
+    private static int key(Tuple t) {
+        return ((IntField) t.getField(0)).getValue();
+    }
+
+    @Test
+    public void scanInKeyOrder() throws Exception {
+        insert(1);
+        insert(2);
+        lsm.flush();
+        assertTrue(lsm.numRuns() > 2);
+
+        List<Tuple> tuples = drain(lsm.iterator(new TransactionId()));
+        assertEquals(2 * ROWS, tuples.size());
+        for (int i = 0; i < tuples.size(); i++)
+            assertEquals(i / 2, key(tuples.get(i)));
+
+        lsm.compact();
+        assertEquals(1, lsm.numRuns());
+        assertEquals(2 * ROWS, drain(lsm.iterator(new TransactionId())).size());
+    }
+
+    @Test
+    public void lookups() throws Exception {
+        insert(1);
+        insert(2);
+        TransactionId tid = new TransactionId();
+        List<Tuple> found = drain(lsm.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(1234))));
+        assertEquals(2, found.size());
+        for (Tuple t : found)
+            assertEquals(1234, key(t));
+        assertTrue(drain(lsm.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(ROWS)))).isEmpty());
+
+        List<Tuple> range = drain(lsm.indexIterator(tid, new IndexPredicate(Op.GREATER_THAN, new IntField(ROWS - 10))));
+        assertEquals(18, range.size());
+        assertEquals(ROWS - 9, key(range.get(0)));
+        assertEquals(20, drain(lsm.indexIterator(tid, new IndexPredicate(Op.LESS_THAN_OR_EQ, new IntField(9)))).size());
+        assertEquals(2 * ROWS - 2, drain(lsm.indexIterator(tid, new IndexPredicate(Op.NOT_EQUALS, new IntField(9)))).size());
+    }
+
+    @Test
+    public void uncommittedWrites() throws Exception {
+        TransactionId writer = new TransactionId();
+        Database.getBufferPool().insertTuple(writer, lsm.getId(), Utility.getHeapTuple(new int[]{5, 1}));
+        assertEquals(1, drain(lsm.iterator(writer)).size());
+        assertTrue(drain(lsm.iterator(new TransactionId())).isEmpty());
+        Database.getBufferPool().transactionComplete(writer, false);
+        assertTrue(drain(lsm.iterator(new TransactionId())).isEmpty());
+
+        writer = new TransactionId();
+        Database.getBufferPool().insertTuple(writer, lsm.getId(), Utility.getHeapTuple(new int[]{5, 2}));
+        Database.getBufferPool().transactionComplete(writer);
+        List<Tuple> tuples = drain(lsm.iterator(new TransactionId()));
+        assertEquals(1, tuples.size());
+        assertEquals(new IntField(2), tuples.get(0).getField(1));
+    }
+
+    @Test
+    public void deletes() throws Exception {
+        insert(1);
+        TransactionId tid = new TransactionId();
+        for (Tuple t : drain(lsm.indexIterator(tid, new IndexPredicate(Op.LESS_THAN, new IntField(ROWS / 2)))))
+            Database.getBufferPool().deleteTuple(tid, t);
+        // a transaction's own insert is forgotten when it deletes it
+        Tuple mine = Utility.getHeapTuple(new int[]{ROWS + 1, 1});
+        Database.getBufferPool().insertTuple(tid, lsm.getId(), mine);
+        Database.getBufferPool().deleteTuple(tid, mine);
+        assertEquals(ROWS / 2, drain(lsm.iterator(tid)).size());
+        assertEquals(ROWS, drain(lsm.iterator(new TransactionId())).size());
+        Database.getBufferPool().transactionComplete(tid);
+
+        List<Tuple> tuples = drain(lsm.iterator(new TransactionId()));
+        assertEquals(ROWS / 2, tuples.size());
+        assertEquals(ROWS / 2, key(tuples.get(0)));
+
+        lsm.flush();
+        lsm.compact();
+        tuples = drain(lsm.iterator(new TransactionId()));
+        assertEquals(ROWS / 2, tuples.size());
+        assertEquals(ROWS / 2, key(tuples.get(0)));
+    }
+
+    /**
+     * A delete locks the page of its tuple, and a transaction that deletes a
+     * tuple another one deleted first is aborted.
+     */
+    @Test
+    public void conflictingDeletes() throws Exception {
+        insert(1);
+        TransactionId first = new TransactionId();
+        TransactionId second = new TransactionId();
+        IndexPredicate key = new IndexPredicate(Op.EQUALS, new IntField(42));
+        Tuple t = drain(lsm.indexIterator(first, key)).get(0);
+        Tuple same = drain(lsm.indexIterator(second, key)).get(0);
+
+        Database.getBufferPool().deleteTuple(first, t);
+        assertTrue(Database.getBufferPool().holdsLock(first, t.getRecordId().getPageId()));
+        try {
+            Database.getBufferPool().deleteTuple(first, t);
+            fail("deleted a tuple twice");
+        } catch (DbException expected) {
+        }
+        Database.getBufferPool().transactionComplete(first);
+
+        try {
+            Database.getBufferPool().deleteTuple(second, same);
+            fail("deleted a tuple another transaction deleted");
+        } catch (TransactionAbortedException expected) {
+        }
+        Database.getBufferPool().transactionComplete(second, false);
+        assertTrue(drain(lsm.indexIterator(new TransactionId(), key)).isEmpty());
+    }
+
+    /**
+     * The pages of an LsmFile can be read and locked through the BufferPool.
+     */
+    @Test
+    public void pages() throws Exception {
+        TransactionId tid = new TransactionId();
+        LsmPageId pid = new LsmPageId(lsm.getId(), 0);
+        Page p = Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        assertEquals(pid, p.getId());
+        assertTrue(Database.getBufferPool().holdsLock(tid, pid));
+        Database.getBufferPool().transactionComplete(tid);
+        assertFalse(Database.getBufferPool().holdsLock(tid, pid));
+    }
+
+    /**
+     * A background flush that fails is recorded, keeps the tuples readable,
+     * and is done again by flush().
+     */
+    @Test
+    public void failedFlush() throws Exception {
+        // the first run cannot be written where a directory is in the way
+        File blocker = new File(f.getPath() + ".run0");
+        assertTrue(blocker.mkdir());
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 300; i++)
+            Database.getBufferPool().insertTuple(tid, lsm.getId(), Utility.getHeapTuple(new int[]{i, 1}));
+        Database.getBufferPool().transactionComplete(tid);
+        for (int i = 0; i < 100 && lsm.getMaintenanceFailure() == null; i++)
+            Thread.sleep(50);
+        assertNotNull(lsm.getMaintenanceFailure());
+        assertEquals(300, drain(lsm.iterator(new TransactionId())).size());
+        try {
+            lsm.flush();
+            fail("flushed into a directory");
+        } catch (IOException expected) {
+        }
+
+        assertTrue(blocker.delete());
+        lsm.flush();
+        assertNull(lsm.getMaintenanceFailure());
+        assertEquals(1, lsm.numRuns());
+        assertEquals(300, drain(lsm.iterator(new TransactionId())).size());
+    }
+
+    /**
+     * The BufferPool completes the transactions that wrote to an LsmFile,
+     * whether or not the file is in the Catalog.
+     */
+    @Test
+    public void outsideCatalog() throws Exception {
+        LsmFile other = new LsmFile(new File(dir, "other.dat"), 0, Utility.getTupleDesc(2, "f"));
+        TransactionId tid = new TransactionId();
+        other.insertTuple(tid, Utility.getHeapTuple(new int[]{1, 1}));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1, drain(other.iterator(new TransactionId())).size());
+        other.flush();
+    }
+
+    @Test
+    public void recovery() throws Exception {
+        insert(1);
+        lsm.flush();
+        int runs = lsm.numRuns();
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, lsm.getId(), Utility.getHeapTuple(new int[]{ROWS, 1}));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // reopen without flushing: the committed tuples in the memtable are in its log
+        Database.reset();
+        lsm = open();
+        assertEquals(runs + 1, lsm.numRuns());
+        List<Tuple> tuples = drain(lsm.iterator(new TransactionId()));
+        assertEquals(ROWS + 1, tuples.size());
+
+        // sequence numbers are not given out again
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[]{ROWS, 2});
+        Database.getBufferPool().insertTuple(tid, lsm.getId(), t);
+        for (Tuple old : tuples)
+            assertFalse(old.getRecordId().equals(t.getRecordId()));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test
+    public void bloomFilter() {
+        BloomFilter bloom = BloomFilter.forMembers(1000);
+        for (int i = 0; i < 1000; i++)
+            bloom.add(new IntField(i));
+        int falsePositives = 0;
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(bloom.mightContain(new IntField(i)));
+            if (bloom.mightContain(new IntField(1000 + i)))
+                falsePositives++;
+        }
+        assertTrue(falsePositives < 50);
+    }
+
+    @Test
+    public void loadSchema() throws Exception {
+        File schema = new File(dir, "schema.txt");
+        try (FileWriter w = new FileWriter(schema)) {
+            w.write("log (ts int, id int pk) lsm\n");
+        }
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        DbFile file = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("log"));
+        assertTrue(file instanceof LsmFile);
+        assertEquals(1, ((LsmFile) file).keyField());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LsmFileTest.class);
+    }
+}
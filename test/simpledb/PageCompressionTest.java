@@ -0,0 +1,172 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageCompressionTest extends SimpleDbTestBase {
+
+    private static final String[] CITIES = {"boston", "cambridge", "somerville"};
+
+    private TupleDesc td;
+
+    @Before
+    public void setUp() {
+        td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE});
+    }
+
+    private Tuple tuple(int i) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(1000000 + i));
+        t.setField(1, new StringField(CITIES[i % CITIES.length], Type.STRING_LEN));
+        t.setField(2, new IntField(-i % 5));
+        return t;
+    }
+
+    /**
+     * A page with repeated strings and narrow integer ranges shrinks a lot,
+     * and decompresses to exactly the same image, deleted slots included.
+     */
+    @Test
+    public void roundTrip() throws Exception {
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+        HeapPageId pid = new HeapPageId(-1, 0);
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.getNumEmptySlots() > 0)
+            page.insertTuple(tuple(n++));
+        Tuple victim = page.iterator().next();
+        page.deleteTuple(victim);
+
+        byte[] image = page.getPageData();
+        byte[] block = PageCompression.compress(image, td);
+        assertEquals(PageCompression.MODE_ENCODED, block[0]);
+        assertTrue(block.length * 10 < image.length);
+        assertArrayEquals(image, PageCompression.decompress(block, td));
+
+        // an empty page round-trips too
+        byte[] empty = HeapPage.createEmptyPageData();
+        assertArrayEquals(empty, PageCompression.decompress(PageCompression.compress(empty, td), td));
+    }
+
+    /**
+     * A compressed HeapFile stores fewer bytes, serves uncompressed pages and
+     * reports its compression ratio.
+     */
+    @Test
+    public void compressedHeapFile() throws Exception {
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".pdir").deleteOnExit();
+        HeapFile hf = new HeapFile(f, td, false, true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; ++i)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(i));
+        Database.getBufferPool().transactionComplete(tid);
+
+        int numPages = hf.numPages();
+        assertTrue(numPages > 1);
+        assertTrue(f.length() * 4 < (long) numPages * BufferPool.getPageSize());
+        assertTrue(hf.getCompressionRatio() > 4);
+
+        // read back through a fresh BufferPool and a reopened file
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf = new HeapFile(f, td, false, true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertEquals(numPages, hf.numPages());
+        tid = new TransactionId();
+        boolean[] seen = new boolean[1000];
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int i = ((IntField) t.getField(0)).getValue() - 1000000;
+            assertEquals(tuple(i).getField(1), t.getField(1));
+            assertEquals(tuple(i).getField(2), t.getField(2));
+            seen[i] = true;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        boolean[] all = new boolean[1000];
+        Arrays.fill(all, true);
+        assertTrue(Arrays.equals(all, seen));
+    }
+
+    private static byte[] block(int length, int value) {
+        byte[] b = new byte[length];
+        Arrays.fill(b, (byte) value);
+        return b;
+    }
+
+    /**
+     * A page that outgrows its block moves to the smallest free block it fits
+     * in, its old block is freed, and a free block at the end of the file is
+     * truncated away. Reopening the store finds the same pages.
+     */
+    @Test
+    public void freedBlocksAreReused() throws Exception {
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        File dir = new File(f.getPath() + ".pdir");
+        dir.deleteOnExit();
+        DbFileChannel channel = new DbFileChannel(f);
+        CompressedPageStore store = new CompressedPageStore(f, channel);
+
+        // blocks of 64, 64, 64 and 128 bytes
+        store.write(0, block(10, 0));
+        store.write(1, block(10, 1));
+        store.write(2, block(10, 2));
+        store.write(3, block(100, 3));
+        assertEquals(192 + 100, f.length());
+
+        store.write(1, block(100, 1)); // moves to the end
+        store.write(0, block(100, 0)); // moves to the end, freeing 128 bytes at 0
+        assertEquals(448 + 100, f.length());
+        store.write(2, block(100, 2)); // moves into the free block at 0
+        assertEquals(448 + 100, f.length());
+
+        store.write(1, block(150, 1));
+        store.write(0, block(150, 0));
+        assertEquals(768 + 150, f.length());
+        // page 0 moves off the end of the file into the free blocks of pages 1 and 0
+        store.write(0, block(200, 0));
+        assertEquals(768, f.length());
+        assertEquals(768, store.fileBytes());
+        assertEquals(200 + 150 + 100 + 100, store.storedBytes());
+
+        store.close();
+        channel.close();
+        channel = new DbFileChannel(f);
+        store = new CompressedPageStore(f, channel);
+        assertEquals(4, store.numPages());
+        assertArrayEquals(block(200, 0), store.read(0));
+        assertArrayEquals(block(150, 1), store.read(1));
+        assertArrayEquals(block(100, 2), store.read(2));
+        assertArrayEquals(block(100, 3), store.read(3));
+        // the free block left at 128 is found again and reused
+        store.write(4, block(40, 4));
+        assertEquals(768, f.length());
+        assertArrayEquals(block(40, 4), store.read(4));
+        store.close();
+        channel.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCompressionTest.class);
+    }
+}
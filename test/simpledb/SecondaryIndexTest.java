@@ -0,0 +1,263 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.Predicate.Op;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SecondaryIndexTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 3000;
+
+    private HeapFile hf;
+    private SecondaryIndex byId;
+    private SecondaryIndex byGroup;
+
+    private static File tempFile(String prefix, String suffix) throws Exception {
+        File f = File.createTempFile(prefix, suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Create a two-column table of unique ids and repeating group numbers,
+     * with an index on each column.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < ROWS; ++i) {
+            ArrayList<Integer> t = new ArrayList<>();
+            t.add((i * 7919) % ROWS);
+            t.add(i % 10);
+            tuples.add(t);
+        }
+        File f = tempFile("indexed", ".dat");
+        new File(f.getPath() + ".zm").deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        hf = Utility.openHeapFile(2, f);
+
+        byId = new SecondaryIndex("by_id", tempFile("by_id", ".idx"), hf.getId(), 0);
+        byId.build();
+        Database.getCatalog().addIndex(byId);
+        byGroup = new SecondaryIndex("by_group", tempFile("by_group", ".idx"), hf.getId(), 1);
+        byGroup.build();
+        Database.getCatalog().addIndex(byGroup);
+    }
+
+    private static List<Tuple> lookup(TransactionId tid, SecondaryIndex index, Op op, int value)
+            throws Exception {
+        List<Tuple> result = new ArrayList<>();
+        DbFileIterator it = index.lookup(tid, new IndexPredicate(op, new IntField(value)));
+        it.open();
+        while (it.hasNext())
+            result.add(it.next());
+        it.close();
+        return result;
+    }
+
+    @Test
+    public void catalog() {
+        List<SecondaryIndex> indexes = Database.getCatalog().getIndexes(hf.getId());
+        assertEquals(2, indexes.size());
+        assertTrue(indexes.contains(byId));
+        assertTrue(indexes.contains(byGroup));
+        assertEquals(byId.getTree(), Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("by_id")));
+        assertTrue(Database.getCatalog().getIndexes(byId.getTree().getId()).isEmpty());
+    }
+
+    @Test
+    public void lookup() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Tuple> ids = lookup(tid, byId, Op.EQUALS, 1234);
+        assertEquals(1, ids.size());
+        assertEquals(new IntField(1234), ids.get(0).getField(0));
+
+        List<Tuple> group = lookup(tid, byGroup, Op.EQUALS, 3);
+        assertEquals(ROWS / 10, group.size());
+        for (Tuple t : group)
+            assertEquals(new IntField(3), t.getField(1));
+
+        List<Tuple> range = lookup(tid, byId, Op.LESS_THAN, 100);
+        assertEquals(100, range.size());
+        for (int i = 0; i < range.size(); i++)
+            assertEquals(new IntField(i), range.get(i).getField(0));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test
+    public void maintainedByBufferPool() throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(hf.getTupleDesc());
+        t.setField(0, new IntField(ROWS + 5));
+        t.setField(1, new IntField(42));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(1, lookup(tid, byId, Op.EQUALS, ROWS + 5).size());
+        assertEquals(1, lookup(tid, byGroup, Op.EQUALS, 42).size());
+
+        for (Tuple victim : lookup(tid, byGroup, Op.EQUALS, 3))
+            Database.getBufferPool().deleteTuple(tid, victim);
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertTrue(lookup(tid, byGroup, Op.EQUALS, 3).isEmpty());
+        assertEquals(ROWS - ROWS / 10 + 1, lookup(tid, byId, Op.GREATER_THAN_OR_EQ, 0).size());
+        List<Tuple> added = lookup(tid, byGroup, Op.EQUALS, 42);
+        assertEquals(1, added.size());
+        assertEquals(new IntField(ROWS + 5), added.get(0).getField(0));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test
+    public void coveringIndex() throws Exception {
+        SecondaryIndex covering = new SecondaryIndex("by_id_with_group", tempFile("by_id_with_group", ".idx"),
+                hf.getId(), 0, new int[]{1});
+        covering.build();
+        Database.getCatalog().addIndex(covering);
+        assertTrue(covering.covers(new int[]{0, 1}));
+        assertTrue(covering.covers(new int[]{1}));
+        assertFalse(byId.covers(new int[]{0, 1}));
+        assertTrue(byId.covers(new int[]{0}));
+
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(hf.getTupleDesc());
+        t.setField(0, new IntField(ROWS + 5));
+        t.setField(1, new IntField(42));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+
+        IndexPredicate ipred = new IndexPredicate(Op.GREATER_THAN, new IntField(ROWS - 10));
+        DbFileIterator tuples = covering.lookup(tid, ipred);
+        DbFileIterator entries = covering.lookupEntries(tid, ipred);
+        tuples.open();
+        entries.open();
+        int n = 0;
+        while (tuples.hasNext()) {
+            Tuple expected = tuples.next();
+            Tuple actual = entries.next();
+            assertEquals(expected.getField(0), actual.getField(0));
+            assertEquals(expected.getField(1), actual.getField(1));
+            assertEquals(expected.getRecordId(), actual.getRecordId());
+            n++;
+        }
+        assertFalse(entries.hasNext());
+        assertEquals(10, n);
+        tuples.close();
+        entries.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static int compare(RecordId a, RecordId b) {
+        int cmp = Integer.compare(a.getPageId().getPageNumber(), b.getPageId().getPageNumber());
+        return cmp != 0 ? cmp : Integer.compare(a.getTupleNumber(), b.getTupleNumber());
+    }
+
+    /**
+     * Entries with equal keys are kept in RecordId order, through bulk loads
+     * and inserts alike, and a delete removes exactly the entry of its tuple.
+     */
+    @Test
+    public void duplicateKeys() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; ++i) {
+            Tuple t = new Tuple(hf.getTupleDesc());
+            t.setField(0, new IntField(ROWS + i));
+            t.setField(1, new IntField(i % 2 == 0 ? 3 : 42));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        }
+        List<Tuple> group = lookup(tid, byGroup, Op.EQUALS, 3);
+        assertEquals(ROWS / 10 + 500, group.size());
+        for (int i = 1; i < group.size(); i++)
+            assertTrue(compare(group.get(i - 1).getRecordId(), group.get(i).getRecordId()) < 0);
+
+        List<RecordId> kept = new ArrayList<>();
+        for (int i = 0; i < group.size(); i++) {
+            if (i % 3 == 1)
+                Database.getBufferPool().deleteTuple(tid, group.get(i));
+            else
+                kept.add(group.get(i).getRecordId());
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        List<RecordId> left = new ArrayList<>();
+        for (Tuple t : lookup(tid, byGroup, Op.EQUALS, 3))
+            left.add(t.getRecordId());
+        assertEquals(kept, left);
+        assertEquals(500, lookup(tid, byGroup, Op.EQUALS, 42).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test
+    public void abortedInsertLeavesIndexAlone() throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(hf.getTupleDesc());
+        t.setField(0, new IntField(ROWS + 5));
+        t.setField(1, new IntField(42));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertTrue(lookup(tid, byId, Op.EQUALS, ROWS + 5).isEmpty());
+        assertTrue(lookup(tid, byGroup, Op.EQUALS, 42).isEmpty());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test
+    public void loadSchema() throws Exception {
+        File dir = tempFile("schema", "").getParentFile();
+        String table = "indexed" + System.nanoTime();
+        File data = new File(dir, table + ".dat");
+        data.createNewFile();
+        data.deleteOnExit();
+        File schema = tempFile("schema", ".txt");
+        try (FileWriter w = new FileWriter(schema)) {
+            w.write(table + " (id int, name string)\n");
+            w.write("index " + table + "_name on " + table + " (name)\n");
+            w.write("index " + table + "_id on " + table + " (id) include (name)\n");
+        }
+        new File(dir, table + "_name.idx").deleteOnExit();
+        new File(dir, table + "_id.idx").deleteOnExit();
+
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int tableid = Database.getCatalog().getTableId(table);
+        List<SecondaryIndex> indexes = Database.getCatalog().getIndexes(tableid);
+        assertEquals(2, indexes.size());
+        assertEquals(1, indexes.get(0).getKeyField());
+        assertEquals(0, indexes.get(0).getIncludedFields().length);
+        assertEquals(0, indexes.get(1).getKeyField());
+        assertArrayEquals(new int[]{1}, indexes.get(1).getIncludedFields());
+
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(Database.getCatalog().getTupleDesc(tableid));
+        t.setField(0, new IntField(1));
+        t.setField(1, new StringField("ada", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, tableid, t);
+        DbFileIterator it = indexes.get(0).lookup(tid,
+                new IndexPredicate(Op.EQUALS, new StringField("ada", Type.STRING_LEN)));
+        it.open();
+        assertTrue(it.hasNext());
+        assertEquals(new IntField(1), it.next().getField(0));
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SecondaryIndexTest.class);
+    }
+}
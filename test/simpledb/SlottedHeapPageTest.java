@@ -0,0 +1,156 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        this.td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    private ArrayList<Tuple> contents(SlottedHeapPage page) {
+        ArrayList<Tuple> tuples = new ArrayList<>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            tuples.add(it.next());
+        return tuples;
+    }
+
+    /**
+     * Short strings take their actual length, so many more tuples fit on a
+     * page than on a HeapPage with the same TupleDesc.
+     */
+    @Test
+    public void insertUntilFull() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, "s" + n)))
+            page.insertTuple(tuple(n, "s" + n++));
+        assertEquals(n, page.getNumTuples());
+        int fixedSlots = BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+        assertTrue(n > 5 * fixedSlots);
+
+        try {
+            page.insertTuple(tuple(n, "s" + n));
+            fail("expected exception");
+        } catch (DbException e) {
+        }
+
+        // round-trip through the on-disk format
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        ArrayList<Tuple> tuples = contents(copy);
+        assertEquals(n, tuples.size());
+        for (int i = 0; i < n; ++i) {
+            assertEquals(new IntField(i), tuples.get(i).getField(0));
+            assertEquals(new StringField("s" + i, Type.STRING_LEN), tuples.get(i).getField(1));
+            assertEquals(new RecordId(pid, i), tuples.get(i).getRecordId());
+        }
+    }
+
+    /**
+     * Deleting tuples keeps the slots of the others, and a larger tuple can
+     * use the space of several deleted ones after compaction.
+     */
+    @Test
+    public void deleteAndCompact() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, "abcdefgh")))
+            page.insertTuple(tuple(n++, "abcdefgh"));
+
+        ArrayList<Tuple> tuples = contents(page);
+        for (int i = 0; i < 12; i += 2)
+            page.deleteTuple(tuples.get(i));
+        assertFalse(page.isSlotUsed(0));
+        assertTrue(page.isSlotUsed(1));
+        assertEquals(n - 6, page.getNumTuples());
+
+        // no single gap is large enough, but the freed space is
+        String big = "0123456789012345678901234567890123456789";
+        assertTrue(page.hasRoomFor(tuple(-1, big)));
+        Tuple t = tuple(-1, big);
+        page.insertTuple(t);
+        assertEquals(0, t.getRecordId().getTupleNumber());
+
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        ArrayList<Tuple> after = contents(copy);
+        assertEquals(n - 5, after.size());
+        assertEquals(new StringField(big, Type.STRING_LEN), after.get(0).getField(1));
+        assertEquals(tuples.get(1).getField(0), after.get(1).getField(0));
+        assertEquals(new RecordId(pid, 1), after.get(1).getRecordId());
+
+        try {
+            page.deleteTuple(tuples.get(2));
+            fail("expected exception");
+        } catch (DbException e) {
+        }
+    }
+
+    /**
+     * Inserting into and scanning a SlottedHeapFile through the BufferPool.
+     */
+    @Test
+    public void slottedHeapFile() throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        SlottedHeapFile file = new SlottedHeapFile(f, td);
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; ++i)
+            Database.getBufferPool().insertTuple(tid, file.getId(), tuple(i, "v" + i));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(4, file.numPages());
+
+        tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int v = ((IntField) t.getField(0)).getValue();
+            assertEquals(new StringField("v" + v, Type.STRING_LEN), t.getField(1));
+            count++;
+        }
+        it.close();
+        assertEquals(1000, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
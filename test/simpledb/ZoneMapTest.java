@@ -0,0 +1,151 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    private File f;
+    private HeapFile hf;
+
+    /**
+     * Create a two-column table whose first column ascends, as in a table
+     * that is appended to in time order.
+     */
+    @Before
+    public void setUp() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < ROWS; ++i) {
+            ArrayList<Integer> t = new ArrayList<>();
+            t.add(i);
+            t.add(i % 7);
+            tuples.add(t);
+        }
+        f = File.createTempFile("zonemap", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".zm").deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        hf = Utility.openHeapFile(2, f);
+    }
+
+    private int countMatches(TransactionId tid, Predicate p) throws Exception {
+        SeqScan scan = new SeqScan(tid, hf.getId(), "");
+        scan.addPredicate(p);
+        Filter filter = new Filter(p, scan);
+        filter.open();
+        int count = 0;
+        while (filter.hasNext()) {
+            filter.next();
+            count++;
+        }
+        filter.close();
+        return count;
+    }
+
+    private int lockedPages(TransactionId tid) {
+        int n = 0;
+        for (int i = 0; i < hf.numPages(); ++i)
+            if (Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), i)))
+                n++;
+        return n;
+    }
+
+    /**
+     * The first scan builds the map as it reads pages, without writing it;
+     * later range scans read only the pages whose range overlaps the
+     * predicate.
+     */
+    @Test
+    public void skipPages() throws Exception {
+        assertTrue(hf.numPages() > 5);
+        Predicate tail = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(ROWS - 10));
+
+        TransactionId tid = new TransactionId();
+        assertEquals(10, countMatches(tid, tail));
+        assertFalse(hf.getZoneMap().getFile().exists());
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(10, countMatches(tid, tail));
+        assertEquals(1, lockedPages(tid));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // a predicate on a column with the same range on every page skips nothing
+        tid = new TransactionId();
+        assertEquals((ROWS + 6) / 7, countMatches(tid, new Predicate(1, Predicate.Op.EQUALS, new IntField(0))));
+        assertEquals(hf.numPages(), lockedPages(tid));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Inserted tuples widen the range of their page, so they are not skipped.
+     */
+    @Test
+    public void insertWidensRange() throws Exception {
+        TransactionId tid = new TransactionId();
+        assertEquals(0, countMatches(tid, new Predicate(0, Predicate.Op.LESS_THAN, new IntField(-100))));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        Tuple inserted = Utility.getHeapTuple(new int[]{-1000, 1});
+        Database.getBufferPool().insertTuple(tid, hf.getId(), inserted);
+        int pgNo = inserted.getRecordId().getPageId().getPageNumber();
+        assertEquals(1, countMatches(tid, new Predicate(0, Predicate.Op.LESS_THAN, new IntField(-100))));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // every HeapFile on the file shares the map
+        assertSame(hf.getZoneMap(), new HeapFile(f, hf.getTupleDesc()).getZoneMap());
+
+        // the widened range was persisted with the page
+        Database.reset();
+        HeapFile reopened = Utility.openHeapFile(2, f);
+        ArrayList<Predicate> preds = new ArrayList<>();
+        preds.add(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(-100)));
+        assertTrue(reopened.getZoneMap().mayMatch(pgNo, preds));
+        preds.set(0, new Predicate(0, Predicate.Op.LESS_THAN, new IntField(-1000)));
+        assertFalse(reopened.getZoneMap().mayMatch(pgNo, preds));
+    }
+
+    /**
+     * A missing map is rebuilt in memory, and scans are correct in the meantime.
+     */
+    @Test
+    public void rebuildMissing() throws Exception {
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100));
+        assertEquals(100, countMatches(tid, p));
+        Database.getBufferPool().transactionComplete(tid);
+
+        ZoneMap.discard(f);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf = Utility.openHeapFile(2, f);
+        tid = new TransactionId();
+        assertEquals(100, countMatches(tid, p));
+        assertFalse(hf.getZoneMap().getFile().exists());
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(100, countMatches(tid, p));
+        assertEquals(1, lockedPages(tid));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
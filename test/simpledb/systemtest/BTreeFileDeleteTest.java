@@ -105,7 +105,7 @@ public class BTreeFileDeleteTest extends SimpleDbTestBase {
                 tid, rootPtrId, Permissions.READ_ONLY);
         BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(
                 tid, rootPtr.getRootId(), Permissions.READ_ONLY);
-        assertEquals(502, root.getNumEmptySlots());
+        assertEquals(501, root.getNumEmptySlots());
         BTreeEntry e = root.iterator().next();
         BTreeLeafPage leftChild = (BTreeLeafPage) Database.getBufferPool().getPage(
                 tid, e.getLeftChild(), Permissions.READ_ONLY);
@@ -196,7 +196,7 @@ public class BTreeFileDeleteTest extends SimpleDbTestBase {
                 tid, BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
         BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(
                 tid, rootPtr.getRootId(), Permissions.READ_ONLY);
-        assertEquals(502, root.getNumEmptySlots());
+        assertEquals(501, root.getNumEmptySlots());
 
         BTreeEntry rootEntry = root.iterator().next();
         BTreeInternalPage leftChild = (BTreeInternalPage) Database.getBufferPool().getPage(
@@ -219,7 +219,7 @@ public class BTreeFileDeleteTest extends SimpleDbTestBase {
 
         // deleting a page of tuples should bring the internal page below minimum
         // occupancy and cause the entries to be redistributed
-        assertEquals(252, rightChild.getNumEmptySlots());
+        assertEquals(251, rightChild.getNumEmptySlots());
         count = 0;
         while (it.hasNext() && count < 502) {
             BTreeLeafPage leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
@@ -251,10 +251,10 @@ public class BTreeFileDeleteTest extends SimpleDbTestBase {
         BufferPool.setPageSize(1024);
 
         // This should create a B+ tree with three nodes in the second tier
-        // and 252 nodes in the third tier
-        // (124 entries per internal/leaf page, 125 children per internal page ->
-        // 251*124 + 1 = 31125)
-        BTreeFile bigFile = BTreeUtility.createRandomBTreeFile(2, 31125,
+        // and 249 nodes in the third tier
+        // (123 entries per internal page, 124 children per internal page,
+        // 124 tuples per leaf page -> 248*124 + 1 = 30753)
+        BTreeFile bigFile = BTreeUtility.createRandomBTreeFile(2, 30753,
                 null, null, 0);
 
         BTreeChecker.checkRep(bigFile, tid, new HashMap<PageId, Page>(), true);
@@ -265,7 +265,7 @@ public class BTreeFileDeleteTest extends SimpleDbTestBase {
                 tid, BTreeRootPtrPage.getId(bigFile.getId()), Permissions.READ_ONLY);
         BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(
                 tid, rootPtr.getRootId(), Permissions.READ_ONLY);
-        assertEquals(122, root.getNumEmptySlots());
+        assertEquals(121, root.getNumEmptySlots());
 
         BTreeEntry e = root.iterator().next();
         BTreeInternalPage leftChild = (BTreeInternalPage) Database.getBufferPool().getPage(
@@ -311,19 +311,20 @@ public class BTreeFileDeleteTest extends SimpleDbTestBase {
             it.rewind();
         }
 
-        // confirm that the pages have merged
-        assertEquals(123, root.getNumEmptySlots());
+        // confirm that the pages have merged; an odd number of entries per page
+        // leaves one slot empty
+        assertEquals(122, root.getNumEmptySlots());
         e = root.iterator().next();
         leftChild = (BTreeInternalPage) Database.getBufferPool().getPage(
                 tid, e.getLeftChild(), Permissions.READ_ONLY);
         rightChild = (BTreeInternalPage) Database.getBufferPool().getPage(
                 tid, e.getRightChild(), Permissions.READ_ONLY);
-        assertEquals(0, leftChild.getNumEmptySlots());
+        assertEquals(1, leftChild.getNumEmptySlots());
         assertTrue(e.getKey().compare(Op.LESS_THAN_OR_EQ, rightChild.iterator().next().getKey()));
 
         // Delete tuples causing leaf pages to merge until the first internal page
-        // gets below minimum occupancy and causes the entries to be redistributed
-        count = 0;
+        // gets to minimum occupancy
+        count = 1;
         while (count < 62) {
             assertEquals(count, leftChild.getNumEmptySlots());
             for (int i = 0; i < 124; ++i) {
@@ -348,7 +349,7 @@ public class BTreeFileDeleteTest extends SimpleDbTestBase {
         assertTrue(rootPtr.getRootId().pgcateg() == BTreePageId.INTERNAL);
         root = (BTreeInternalPage) Database.getBufferPool().getPage(
                 tid, rootPtr.getRootId(), Permissions.READ_ONLY);
-        assertEquals(0, root.getNumEmptySlots());
+        assertEquals(1, root.getNumEmptySlots());
         assertTrue(root.getParentId().equals(rootPtrId));
 
         it.close();
@@ -360,4 +361,4 @@ public class BTreeFileDeleteTest extends SimpleDbTestBase {
     public static junit.framework.Test suite() {
         return new JUnit4TestAdapter(BTreeFileDeleteTest.class);
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -153,7 +153,7 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
         BTreePageId rootId = rootPtr.getRootId();
         assertEquals(rootId.pgcateg(), BTreePageId.INTERNAL);
         BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(tid, rootId, Permissions.READ_ONLY);
-        assertEquals(502, root.getNumEmptySlots());
+        assertEquals(501, root.getNumEmptySlots());
 
         // each child should have half of the records
         Iterator<BTreeEntry> it = root.iterator();
@@ -169,22 +169,22 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
     @Test
     public void testSplitRootPage() throws Exception {
         // This should create a packed B+ tree with no empty slots
-        // There are 503 keys per internal page (504 children) and 502 tuples per leaf page
-        // 504 * 502 = 253008
-        BTreeFile bigFile = BTreeUtility.createRandomBTreeFile(2, 253008,
+        // There are 502 keys per internal page (503 children) and 502 tuples per leaf page
+        // 503 * 502 = 252506
+        BTreeFile bigFile = BTreeUtility.createRandomBTreeFile(2, 252506,
                 null, null, 0);
 
         // we will need more room in the buffer pool for this test
         Database.resetBufferPool(500);
 
-        // there should be 504 leaf pages + 1 internal node
-        assertEquals(505, bigFile.numPages());
+        // there should be 503 leaf pages + 1 internal node
+        assertEquals(504, bigFile.numPages());
 
         // now insert a tuple
         Database.getBufferPool().insertTuple(tid, bigFile.getId(), BTreeUtility.getBTreeTuple(10, 2));
 
-        // there should now be 505 leaf pages + 3 internal nodes
-        assertEquals(508, bigFile.numPages());
+        // there should now be 504 leaf pages + 3 internal nodes
+        assertEquals(507, bigFile.numPages());
 
         // the root node should be an internal node and have 2 children (1 entry)
         BTreePageId rootPtrPid = new BTreePageId(bigFile.getId(), 0, BTreePageId.ROOT_PTR);
@@ -192,7 +192,7 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
         BTreePageId rootId = rootPtr.getRootId();
         assertEquals(rootId.pgcateg(), BTreePageId.INTERNAL);
         BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(tid, rootId, Permissions.READ_ONLY);
-        assertEquals(502, root.getNumEmptySlots());
+        assertEquals(501, root.getNumEmptySlots());
 
         // each child should have half of the entries
         Iterator<BTreeEntry> it = root.iterator();
@@ -232,16 +232,16 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 
         // This should create a B+ tree with a packed second tier of internal pages
         // and packed third tier of leaf pages
-        // (124 entries per internal/leaf page, 125 children per internal page ->
-        // 125*2*124 = 31000)
-        BTreeFile bigFile = BTreeUtility.createRandomBTreeFile(2, 31000,
+        // (123 entries per internal page, 124 children per internal page,
+        // 124 tuples per leaf page -> 124*2*124 = 30752)
+        BTreeFile bigFile = BTreeUtility.createRandomBTreeFile(2, 30752,
                 null, null, 0);
 
         // we will need more room in the buffer pool for this test
         Database.resetBufferPool(1000);
 
-        // there should be 250 leaf pages + 3 internal nodes
-        assertEquals(253, bigFile.numPages());
+        // there should be 248 leaf pages + 3 internal nodes
+        assertEquals(251, bigFile.numPages());
 
         // now insert some random tuples and make sure we can find them
         Random rand = new Random();
@@ -264,7 +264,7 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
             assertTrue(found);
         }
 
-        // now make sure we have 31100 records and they are all in sorted order
+        // now make sure we have 30852 records and they are all in sorted order
         DbFileIterator fit = bigFile.iterator(tid);
         int count = 0;
         Tuple prev = null;
@@ -277,7 +277,7 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
             count++;
         }
         fit.close();
-        assertEquals(31100, count);
+        assertEquals(30852, count);
 
     }
 
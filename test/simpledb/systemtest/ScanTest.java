@@ -7,6 +7,7 @@ import static org.junit.Assert.*;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -83,7 +84,7 @@ public class ScanTest extends SimpleDbTestBase {
      */
     @Test
     public void testCache() throws IOException, DbException, TransactionAbortedException {
-        /** Counts the number of readPage operations. */
+        /** Counts the number of pages read by readPage and readPages. */
         class InstrumentedHeapFile extends HeapFile {
             public InstrumentedHeapFile(File f, TupleDesc td) {
                 super(f, td);
@@ -95,6 +96,13 @@ public class ScanTest extends SimpleDbTestBase {
                 return super.readPage(pid);
             }
 
+            @Override
+            public List<Page> readPages(List<PageId> ids) {
+                // a plain HeapFile reads the batch without calling readPage
+                readCount += ids.size();
+                return super.readPages(ids);
+            }
+
             public int readCount = 0;
         }
 